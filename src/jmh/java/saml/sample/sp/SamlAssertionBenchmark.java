@@ -0,0 +1,73 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * assertion attribute mapping, XML 문자열 변환
+ * <ul>
+ *     <li>attributeMapping : 기동 시 compile한 {@link SamlAttributeMapping}</li>
+ *     <li>legacySwitch : 이전 방식(attribute 목록을 합친 뒤 attribute Name switch)</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+public class SamlAssertionBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int attributeCount;
+
+    private List<Assertion> assertions;
+    private SamlAttributeMapping attributeMapping;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        String xml = SamlFixtures.signedResponseXml(SamlFixtures.idpCredential(2048), attributeCount);
+        assertions = SamlBenchmarkSupport.unmarshall(SamlBenchmarkSupport.parserPool(), xml).getAssertions();
+        attributeMapping = SamlAttributeMapping.compile(SamlAttributeMapping.DEFAULT_RULES);
+    }
+
+    @Benchmark
+    public Object attributeMapping() {
+        return attributeMapping.map(assertions);
+    }
+
+    @Benchmark
+    public Object legacySwitch() {
+        List<Attribute> attributes = new ArrayList<>();
+        for (Assertion assertion : assertions) {
+            for (AttributeStatement attributeStatement : assertion.getAttributeStatements()) {
+                attributes.addAll(attributeStatement.getAttributes());
+            }
+        }
+        SamlUserDetails user = new SamlUserDetails();
+        for (Attribute attr : attributes) {
+            switch (attr.getName()) {
+                case "idpuserid":
+                    user.setUsername(SamlAttributeMapping.value(attr.getAttributeValues().get(0)));
+                    break;
+                case "idpuseremail":
+                    user.setEmail(SamlAttributeMapping.value(attr.getAttributeValues().get(0)));
+                    break;
+                case "idpusernm":
+                    user.setPersonname(SamlAttributeMapping.value(attr.getAttributeValues().get(0)));
+                    break;
+            }
+        }
+        return user;
+    }
+
+    @Benchmark
+    public String samlObjectToString() {
+        return SamlUtil.samlObjectToString(assertions.get(0));
+    }
+}
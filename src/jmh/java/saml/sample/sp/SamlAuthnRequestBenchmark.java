@@ -0,0 +1,84 @@
+package saml.sample.sp;
+
+import org.joda.time.DateTime;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+
+/**
+ * AuthnRequest redirect url 생성, OpenSAML object + HTTPRedirectDeflateEncoder 방식과 template 방식 비교.
+ * setup에서 두 방식의 결과가 byte 단위로 같은지 확인하고 다르면 실행하지 않는다.
+ */
+@State(Scope.Thread)
+public class SamlAuthnRequestBenchmark {
+
+    private static final String ACS_URL = "http://localhost:9106/acs";
+
+    @Param({"http://localhost:9107/sso", "https://idp.example.com:8443/sso/saml2?tenant=a&lang=ko"})
+    public String destination;
+
+    private SamlSsoEntryPoint entryPoint;
+    private SamlAuthnRequestTemplate template;
+    private SamlRedirectEncoder redirectEncoder;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        entryPoint = new SamlSsoEntryPoint();
+        ReflectionTestUtils.setField(entryPoint, "entityId", SamlFixtures.SP_ENTITY_ID);
+        ReflectionTestUtils.setField(entryPoint, "ssoSignOnLocation", destination);
+        template = new SamlAuthnRequestTemplate(SamlFixtures.SP_ENTITY_ID, destination, SAMLConstants.SAML2_REDIRECT_BINDING_URI, true);
+        redirectEncoder = new SamlRedirectEncoder();
+
+        for (int i = 0; i < 100; i++) {
+            String id = UUID.randomUUID().toString();
+            DateTime issueInstant = new DateTime();
+            String expected = encoderRedirect(id, issueInstant);
+            String actual = templateRedirect(id, issueInstant);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Template redirect url differs from HTTPRedirectDeflateEncoder\n"
+                        + "expected : " + expected + "\nactual   : " + actual);
+            }
+        }
+    }
+
+    @Benchmark
+    public String encoder() throws Exception {
+        return encoderRedirect(UUID.randomUUID().toString(), new DateTime());
+    }
+
+    @Benchmark
+    public String template() {
+        return templateRedirect(UUID.randomUUID().toString(), new DateTime());
+    }
+
+    private String templateRedirect(String id, DateTime issueInstant) {
+        return redirectEncoder.redirectUrl(template.redirectBaseUrl(), SamlRedirectEncoder.SAML_REQUEST,
+                template.build(ACS_URL, id, issueInstant), null);
+    }
+
+    private String encoderRedirect(String id, DateTime issueInstant) throws MessageEncodingException {
+        AuthnRequest authnRequest = entryPoint.buildAuthnRequest(ACS_URL, SAMLConstants.SAML2_REDIRECT_BINDING_URI,
+                entryPoint.buildIssuer(SamlFixtures.SP_ENTITY_ID), id, issueInstant);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        BasicSAMLMessageContext<SAMLObject, AuthnRequest, SAMLObject> context = new BasicSAMLMessageContext<>();
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, false));
+        context.setPeerEntityEndpoint(entryPoint.getIDPEndpoint());
+        context.setOutboundSAMLMessage(authnRequest);
+        new HTTPRedirectDeflateEncoder().encode(context);
+        return response.getRedirectedUrl();
+    }
+}
@@ -0,0 +1,82 @@
+package saml.sample.sp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 로그인/session 복원 시 권한 목록 생성과 권한 확인, {@link SamlAuthorities} intern 비교
+ * <ul>
+ *     <li>map : {@link SamlAuthorityMapper} group -> role mapping 후 intern(로그인)</li>
+ *     <li>fromInterned / fromList : 복원한 GrantedAuthority 목록을 intern 한 instance로 변환 / 이전 방식(목록 새로 생성)</li>
+ *     <li>containsInterned / containsList : 권한 확인, set 조회 / 목록 순회(마지막 권한)</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+public class SamlAuthorityBenchmark {
+
+    @Param({"3", "30"})
+    public int groupCount;
+
+    private SamlAuthorityMapper mapper;
+    private List<GrantedAuthority> groups;
+    private List<GrantedAuthority> restored;
+    private SamlAuthorities interned;
+    private List<GrantedAuthority> list;
+    private GrantedAuthority last;
+
+    @Setup
+    public void setup() {
+        StringBuilder groupRoles = new StringBuilder();
+        groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groupRoles.append("group").append(i).append("=ROLE_").append(i).append(';');
+            groups.add(new SimpleGrantedAuthority("group" + i));
+        }
+        mapper = SamlAuthorityMapper.compile("ROLE_USER", groupRoles.toString(), "", null, false);
+
+        interned = mapper.map(SamlFixtures.IDP_ENTITY_ID, groups);
+        restored = new ArrayList<>(interned.size());
+        for (GrantedAuthority authority : interned) {
+            restored.add(new SimpleGrantedAuthority(authority.getAuthority()));
+        }
+        list = new ArrayList<>(restored);
+        last = new SimpleGrantedAuthority(restored.get(restored.size() - 1).getAuthority());
+    }
+
+    @Benchmark
+    public Object map() {
+        return mapper.map(SamlFixtures.IDP_ENTITY_ID, groups);
+    }
+
+    @Benchmark
+    public Object fromInterned() {
+        return SamlAuthorities.from(restored);
+    }
+
+    @Benchmark
+    public Object fromList() {
+        List<GrantedAuthority> authorities = new ArrayList<>(restored.size());
+        for (GrantedAuthority authority : restored) {
+            authorities.add(new SimpleGrantedAuthority(authority.getAuthority()));
+        }
+        return authorities;
+    }
+
+    @Benchmark
+    public boolean containsInterned() {
+        return interned.contains(last);
+    }
+
+    @Benchmark
+    public boolean containsList() {
+        return list.contains(last);
+    }
+}
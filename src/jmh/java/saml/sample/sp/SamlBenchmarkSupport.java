@@ -0,0 +1,63 @@
+package saml.sample.sp;
+
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.parse.XMLParserException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark 공통 준비 작업
+ */
+final class SamlBenchmarkSupport {
+
+    private SamlBenchmarkSupport() {
+    }
+
+    static SamlParserPool parserPool() throws XMLParserException {
+        SamlParserPool parserPool = new SamlParserPool().maxPoolSize(8);
+        parserPool.initialize();
+        return parserPool;
+    }
+
+    static Response unmarshall(SamlParserPool parserPool, String xml) throws XMLParserException, UnmarshallingException {
+        Element element = parserPool.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+        return (Response) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+    }
+
+    /**
+     * ACS로 POST된 요청, 현재 thread의 request로 등록
+     */
+    static MockHttpServletRequest acsRequest(String base64Response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/acs");
+        request.setServerPort(9106);
+        request.setParameter("SAMLResponse", base64Response);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        return request;
+    }
+
+    /**
+     * 서명 검증 credential 조회 방식
+     * uncached : 매번 KeyInfo 인증서 parsing(기존 방식), cached : fingerprint cache, pinned : 설정한 IdP 인증서
+     */
+    static SamlSignatureCheck signatureCheck(String credentials, String base64Certificate) throws Exception {
+        switch (credentials) {
+            case "uncached":
+                return new SamlSignatureCheck().credentialCache(new SamlCredentialCache().ttl(0, TimeUnit.MILLISECONDS));
+            case "cached":
+                return new SamlSignatureCheck().credentialCache(new SamlCredentialCache());
+            case "pinned":
+                byte[] der = SamlCredentialCache.decodeCertificate(base64Certificate);
+                return new SamlSignatureCheck().trustStore(new SamlTrustStore().addCertificate(SamlCredentialCache.parseCertificate(der)));
+            default:
+                throw new IllegalArgumentException("Unknown credentials mode : " + credentials);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package saml.sample.sp;
+
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 부하/soak 테스트에서 사용자 한 명(browser), SP cookie를 보관하고 로그인 단계를 하나씩 실행한다.
+ * redirect는 따라가지 않고 단계마다 응답 status를 확인, 기대와 다르면 {@link StepFailure}.
+ * thread-safe 하지 않음, 한 번에 한 thread에서만 사용.
+ */
+final class SamlBrowser {
+
+    private static final Pattern FORM_ACTION = Pattern.compile("<form[^>]*action=\"([^\"]*)\"");
+    private static final Pattern HIDDEN_INPUT = Pattern.compile("<input type=\"hidden\" name=\"([^\"]*)\" value=\"([^\"]*)\"");
+    private static final String LOGGED_IN = "href=\"/logout\"";
+    private static final String MAIN_PATH = "/main";
+    private static final String LOGOUT_PATH = "/logout";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_SP_REDIRECTS = 3;
+
+    private final HttpClient client;
+    private final URI spUrl;
+    private final Map<String, String> cookies = new LinkedHashMap<>();
+
+    SamlBrowser(HttpClient client, URI spUrl) {
+        this.client = client;
+        this.spUrl = spUrl;
+    }
+
+    /**
+     * redirect를 따라가지 않는 client, browser끼리 공유
+     */
+    static HttpClient httpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * 인증이 필요한 url 요청 -> IdP로 redirect, AuthnRequest가 담긴 IdP url 반환
+     */
+    String startLogin(String path) throws IOException, InterruptedException, StepFailure {
+        return redirectLocation(send(HttpRequest.newBuilder(spUrl.resolve(path)).GET(), HttpResponse.BodyHandlers.discarding()));
+    }
+
+    /**
+     * IdP 요청, ACS로 POST 할 form(action, url encoding 된 body) 반환
+     */
+    String[] idpForm(String idpUrl) throws IOException, InterruptedException, StepFailure {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(idpUrl)).timeout(REQUEST_TIMEOUT).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new StepFailure(response.statusCode());
+        }
+        Matcher action = FORM_ACTION.matcher(response.body());
+        if (!action.find()) {
+            throw new StepFailure("no_form");
+        }
+        StringBuilder form = new StringBuilder();
+        Matcher input = HIDDEN_INPUT.matcher(response.body());
+        while (input.find()) {
+            if (form.length() > 0) {
+                form.append('&');
+            }
+            form.append(input.group(1)).append('=')
+                    .append(URLEncoder.encode(HtmlUtils.htmlUnescape(input.group(2)), StandardCharsets.UTF_8));
+        }
+        return new String[]{HtmlUtils.htmlUnescape(action.group(1)), form.toString()};
+    }
+
+    /**
+     * Response POST, 로그인 후 이동할 SP url 반환
+     */
+    String postAcs(String[] form) throws IOException, InterruptedException, StepFailure {
+        return redirectLocation(send(HttpRequest.newBuilder(URI.create(form[0]))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form[1])),
+                HttpResponse.BodyHandlers.discarding()));
+    }
+
+    /**
+     * 로그인 후 url(저장된 요청 -> /main)을 따라가서 로그인 상태인지 확인
+     */
+    void landing(String target) throws IOException, InterruptedException, StepFailure {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(spUrl.resolve(target)).GET(), HttpResponse.BodyHandlers.ofString());
+        for (int i = 0; i < MAX_SP_REDIRECTS && response.statusCode() == 302 && response.headers().firstValue("Location").isPresent(); i++) {
+            response = send(HttpRequest.newBuilder(spUrl.resolve(response.headers().firstValue("Location").get())).GET(),
+                    HttpResponse.BodyHandlers.ofString());
+        }
+        checkLoggedIn(response, true);
+    }
+
+    /**
+     * 로그인한 상태로 /main 조회, session이 만료됐으면 false
+     */
+    boolean view() throws IOException, InterruptedException, StepFailure {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(spUrl.resolve(MAIN_PATH)).GET(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new StepFailure(response.statusCode());
+        }
+        return response.body().contains(LOGGED_IN);
+    }
+
+    /**
+     * /logout -> IdP SLO(LogoutRequest) 요청 후 /main이 로그아웃 상태인지 확인
+     */
+    void logout() throws IOException, InterruptedException, StepFailure {
+        String location = redirectLocation(send(HttpRequest.newBuilder(spUrl.resolve(LOGOUT_PATH)).GET(),
+                HttpResponse.BodyHandlers.discarding()));
+        URI slo = spUrl.resolve(location);
+        if (!slo.getAuthority().equals(spUrl.getAuthority())) {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(slo).timeout(REQUEST_TIMEOUT).GET().build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new StepFailure(response.statusCode());
+            }
+        }
+        checkLoggedIn(send(HttpRequest.newBuilder(spUrl.resolve(MAIN_PATH)).GET(), HttpResponse.BodyHandlers.ofString()), false);
+    }
+
+    private static void checkLoggedIn(HttpResponse<String> response, boolean loggedIn) throws StepFailure {
+        if (response.statusCode() != 200) {
+            throw new StepFailure(response.statusCode());
+        }
+        if (response.body().contains(LOGGED_IN) != loggedIn) {
+            throw new StepFailure(loggedIn ? "not_logged_in" : "still_logged_in");
+        }
+    }
+
+    private static String redirectLocation(HttpResponse<?> response) throws StepFailure {
+        String location = response.headers().firstValue("Location").orElse(null);
+        if (response.statusCode() != 302 || location == null) {
+            throw new StepFailure(response.statusCode());
+        }
+        return location;
+    }
+
+    /**
+     * SP 요청, 응답의 Set-Cookie를 다음 요청에 사용
+     */
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        if (!cookies.isEmpty()) {
+            StringBuilder header = new StringBuilder();
+            for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+                if (header.length() > 0) {
+                    header.append("; ");
+                }
+                header.append(cookie.getKey()).append('=').append(cookie.getValue());
+            }
+            request.header("Cookie", header.toString());
+        }
+        HttpResponse<T> response = client.send(request.timeout(REQUEST_TIMEOUT).build(), bodyHandler);
+        for (String setCookie : response.headers().allValues("Set-Cookie")) {
+            int eq = setCookie.indexOf('=');
+            int semicolon = setCookie.indexOf(';');
+            if (eq > 0) {
+                cookies.put(setCookie.substring(0, eq).trim(), setCookie.substring(eq + 1, semicolon < 0 ? setCookie.length() : semicolon));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * 단계 실패(HTTP status 또는 응답 내용), stack trace 없음
+     */
+    static final class StepFailure extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private StepFailure(int status) {
+            this(String.valueOf(status));
+        }
+
+        private StepFailure(String cause) {
+            super(cause, null, false, false);
+        }
+    }
+}
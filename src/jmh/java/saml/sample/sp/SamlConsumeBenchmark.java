@@ -0,0 +1,72 @@
+package saml.sample.sp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link SimpleSamlAssertionConsumer#consume} 검증(서명 포함) + 사용자 생성.
+ * credentials 값으로 인증서 parsing 방식별 로그인 1회 비용을 비교한다.
+ * metrics off/on으로 단계별 측정({@link SamlMetrics})의 비용을 비교한다.
+ */
+@State(Scope.Thread)
+public class SamlConsumeBenchmark {
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    @Param({"10", "100"})
+    public int attributeCount;
+
+    @Param({"uncached", "cached", "pinned"})
+    public String credentials;
+
+    @Param({"off", "on"})
+    public String metrics;
+
+    private SimpleSamlAssertionConsumer consumer;
+    private SamlParserPool parserPool;
+    private String xml;
+    private Response response;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        BasicX509Credential credential = SamlFixtures.idpCredential(keySize);
+        xml = SamlFixtures.signedResponseXml(credential, attributeCount);
+        parserPool = SamlBenchmarkSupport.parserPool();
+        SamlBenchmarkSupport.acsRequest(SamlFixtures.base64(xml));
+
+        SamlMetrics samlMetrics = "on".equals(metrics) ? new SamlMetrics(new SimpleMeterRegistry(), true) : SamlMetrics.disabled();
+        // replay check는 같은 응답을 반복 검증할 수 없으므로 제외
+        SamlValidationPipeline pipeline = new SamlValidationPipeline()
+                .add(new SamlResponseChecks.StatusCheck())
+                .add(new SamlResponseChecks.IssuerCheck(SamlFixtures.IDP_ENTITY_ID, null))
+                .add(new SamlResponseChecks.DestinationCheck(null, "/acs"))
+                .add(new SamlResponseChecks.AudienceCheck(SamlFixtures.SP_ENTITY_ID))
+                .add(new SamlResponseChecks.ConditionsTimeCheck(60))
+                .add(new SamlResponseChecks.AuthnInstantCheck(30, 60))
+                .add(SamlBenchmarkSupport.signatureCheck(credentials, SamlFixtures.base64Certificate(credential)))
+                .metrics(samlMetrics);
+        consumer = new SimpleSamlAssertionConsumer().validationPipeline(pipeline).metrics(samlMetrics);
+    }
+
+    /**
+     * consume 중 assertion을 문자열로 변환하면서 DOM이 분리되므로 매번 새로 unmarshall(측정 제외)
+     */
+    @Setup(Level.Invocation)
+    public void unmarshall() throws Exception {
+        response = SamlBenchmarkSupport.unmarshall(parserPool, xml);
+    }
+
+    @Benchmark
+    public Object consume() {
+        return consumer.consume(response);
+    }
+}
@@ -0,0 +1,40 @@
+package saml.sample.sp;
+
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ACS HTTP POST decode(base64 decode, DOM parsing, unmarshall)
+ */
+@State(Scope.Thread)
+public class SamlDecodeBenchmark {
+
+    @Param({"10", "100"})
+    public int attributeCount;
+
+    private SamlPostDecoder decoder;
+    private String base64Response;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        BasicX509Credential credential = SamlFixtures.idpCredential(2048);
+        base64Response = SamlFixtures.base64(SamlFixtures.signedResponseXml(credential, attributeCount));
+        decoder = new SamlPostDecoder(SamlBenchmarkSupport.parserPool());
+    }
+
+    @Benchmark
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Object decode() throws Exception {
+        BasicSAMLMessageContext messageContext = new BasicSAMLMessageContext();
+        messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(SamlBenchmarkSupport.acsRequest(base64Response)));
+        decoder.decode(messageContext);
+        return messageContext.getInboundSAMLMessage();
+    }
+}
@@ -0,0 +1,46 @@
+package saml.sample.sp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SamlSsoEntryPoint#commence} AuthnRequest 생성 + HTTP Redirect(deflate) encoding
+ */
+@State(Scope.Thread)
+public class SamlEntryPointBenchmark {
+
+    private SamlSsoEntryPoint entryPoint;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        entryPoint = new SamlSsoEntryPoint()
+                .requestIdStore(new TimeBucketedMessageIdStore("benchmark", 1, TimeUnit.MINUTES, 12, 1_000_000, true));
+        ReflectionTestUtils.setField(entryPoint, "entityId", SamlFixtures.SP_ENTITY_ID);
+        ReflectionTestUtils.setField(entryPoint, "acs", "/acs");
+        ReflectionTestUtils.setField(entryPoint, "ssoSignOnLocation", "http://localhost:9107/sso");
+        ReflectionTestUtils.setField(entryPoint, "loginUrl", "/sso/saml2");
+        entryPoint.afterPropertiesSet();
+
+        request = new MockHttpServletRequest("GET", "/user");
+        request.setServerPort(9106);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @Benchmark
+    public String commence() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        entryPoint.commence(request, response, null);
+        return response.getRedirectedUrl();
+    }
+}
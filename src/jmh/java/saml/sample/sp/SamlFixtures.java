@@ -0,0 +1,324 @@
+package saml.sample.sp;
+
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.opensaml.saml2.core.AttributeValue;
+import org.opensaml.saml2.core.Audience;
+import org.opensaml.saml2.core.AudienceRestriction;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Conditions;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Status;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.saml2.core.Subject;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.xml.ConfigurationException;
+import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.parse.XMLParserException;
+import org.opensaml.xml.schema.XSString;
+import org.opensaml.xml.schema.impl.XSStringBuilder;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.keyinfo.KeyInfoHelper;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureException;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.util.XMLConstants;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+import javax.security.auth.x500.X500Principal;
+import javax.xml.namespace.QName;
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmark용 SAML response 생성기.
+ * 테스트 IdP 키(RSA 2048/4096)로 서명하고 attribute 개수를 조절할 수 있다.
+ */
+final class SamlFixtures {
+
+    static final String IDP_ENTITY_ID = "benchmark-idp";
+    static final String SP_ENTITY_ID = "saml-sample";
+    static final String ACS_URL = "http://localhost:9106/acs";
+
+    private static volatile boolean bootstrapped;
+
+    private SamlFixtures() {
+    }
+
+    static synchronized void bootstrap() {
+        if (bootstrapped) {
+            return;
+        }
+        try {
+            DefaultBootstrap.bootstrap();
+            bootstrapped = true;
+        } catch (ConfigurationException e) {
+            throw new IllegalStateException("Error invoking OpenSAML bootstrap", e);
+        }
+    }
+
+    /**
+     * 테스트 IdP 서명 키, self-signed 인증서 생성
+     */
+    @SuppressWarnings("deprecation")
+    static BasicX509Credential idpCredential(int keySize) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(keySize);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X509V3CertificateGenerator certGenerator = new X509V3CertificateGenerator();
+        X500Principal subject = new X500Principal("CN=" + IDP_ENTITY_ID);
+        certGenerator.setSerialNumber(BigInteger.valueOf(System.nanoTime()));
+        certGenerator.setIssuerDN(subject);
+        certGenerator.setSubjectDN(subject);
+        certGenerator.setNotBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        certGenerator.setNotAfter(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365)));
+        certGenerator.setPublicKey(keyPair.getPublic());
+        certGenerator.setSignatureAlgorithm("SHA256withRSA");
+        // JDK 인증서 객체로 다시 읽음(BouncyCastle provider 미등록 시 public key를 얻지 못함)
+        X509Certificate certificate = SamlCredentialCache.parseCertificate(certGenerator.generate(keyPair.getPrivate()).getEncoded());
+
+        BasicX509Credential credential = new BasicX509Credential();
+        credential.setEntityCertificate(certificate);
+        credential.setPrivateKey(keyPair.getPrivate());
+        credential.setPublicKey(keyPair.getPublic());
+        return credential;
+    }
+
+    static String base64Certificate(BasicX509Credential credential) throws CertificateEncodingException {
+        return Base64.getEncoder().encodeToString(credential.getEntityCertificate().getEncoded());
+    }
+
+    /**
+     * 서명된 Response XML
+     */
+    static String signedResponseXml(BasicX509Credential credential, int attributeCount)
+            throws MarshallingException, SignatureException, SecurityException, CertificateEncodingException {
+        return signedResponseXml(credential, attributeCount, null);
+    }
+
+    static String signedResponseXml(BasicX509Credential credential, int attributeCount, String inResponseTo)
+            throws MarshallingException, SignatureException, SecurityException, CertificateEncodingException {
+        return signedResponseXml(credential, attributeCount, inResponseTo, ACS_URL, SP_ENTITY_ID, "user0");
+    }
+
+    /**
+     * AuthnRequest에 대한 서명된 Response XML, Destination/Audience/사용자(NameID, idpuserid)를 지정
+     */
+    static String signedResponseXml(BasicX509Credential credential, int attributeCount, String inResponseTo,
+                                    String acsUrl, String audienceUri, String userId)
+            throws MarshallingException, SignatureException, SecurityException, CertificateEncodingException {
+        Response response = response(attributeCount, inResponseTo, acsUrl, audienceUri, userId);
+        Signature signature = signature(credential);
+        response.setSignature(signature);
+
+        Element element = Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+        return XMLHelper.nodeToString(element);
+    }
+
+    /**
+     * Response는 서명하지 않고 assertion을 각각 서명한 Response XML.
+     * 첫 번째 assertion은 AuthnStatement와 사용자 attribute, 나머지는 같은 Subject에 attribute만 있는 assertion
+     */
+    static String signedAssertionsResponseXml(BasicX509Credential credential, int assertionCount)
+            throws MarshallingException, SignatureException, SecurityException, CertificateEncodingException {
+        Response response = response(3, null, ACS_URL, SP_ENTITY_ID, "user0");
+        for (int i = 1; i < assertionCount; i++) {
+            Assertion assertion = buildSAMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+            assertion.setID("_" + UUID.randomUUID());
+            assertion.setIssueInstant(response.getIssueInstant());
+            assertion.setIssuer(issuer());
+            Subject subject = buildSAMLObject(Subject.DEFAULT_ELEMENT_NAME);
+            NameID nameID = buildSAMLObject(NameID.DEFAULT_ELEMENT_NAME);
+            nameID.setValue("user0");
+            subject.setNameID(nameID);
+            assertion.setSubject(subject);
+            AttributeStatement attributeStatement = buildSAMLObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
+            attributeStatement.getAttributes().add(attribute("attribute" + i, "value" + i));
+            assertion.getAttributeStatements().add(attributeStatement);
+            response.getAssertions().add(assertion);
+        }
+        for (Assertion assertion : response.getAssertions()) {
+            assertion.setSignature(signature(credential));
+        }
+
+        Element element = Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        for (Assertion assertion : response.getAssertions()) {
+            Signer.signObject(assertion.getSignature());
+        }
+        return XMLHelper.nodeToString(element);
+    }
+
+    /**
+     * 서명된 federation metadata aggregate, IdP entityCount개(https://idp{n}.example.org/idp)와 SP 하나.
+     * 서명은 {@link #signature}와 같은 설정(exclusive c14n, RSA-SHA256)
+     */
+    static String signedAggregateXml(BasicX509Credential credential, int entityCount)
+            throws XMLParserException, UnmarshallingException, MarshallingException, SignatureException, CertificateEncodingException {
+        String certificate = base64Certificate(credential);
+        StringBuilder xml = new StringBuilder(entityCount * 2048)
+                .append("<md:EntitiesDescriptor xmlns:md=\"").append(SAMLConstants.SAML20MD_NS).append("\"")
+                .append(" xmlns:ds=\"").append(XMLConstants.XMLSIG_NS).append("\"")
+                .append(" xmlns:mdui=\"urn:oasis:names:tc:SAML:metadata:ui\" Name=\"benchmark-federation\">\n");
+        for (int i = 0; i < entityCount; i++) {
+            xml.append("  <md:EntityDescriptor entityID=\"").append(aggregateIdpEntityId(i)).append("\">")
+                    .append("<md:IDPSSODescriptor protocolSupportEnumeration=\"").append(SAMLConstants.SAML20P_NS).append("\">")
+                    .append("<md:Extensions><mdui:UIInfo><mdui:DisplayName xml:lang=\"en\">IdP ").append(i)
+                    .append(" &amp; Research &lt;Lab&gt;</mdui:DisplayName></mdui:UIInfo></md:Extensions>")
+                    .append("<md:KeyDescriptor use=\"signing\"><ds:KeyInfo><ds:X509Data><ds:X509Certificate>").append(certificate)
+                    .append("</ds:X509Certificate></ds:X509Data></ds:KeyInfo></md:KeyDescriptor>")
+                    .append("<md:SingleSignOnService Binding=\"").append(SAMLConstants.SAML2_REDIRECT_BINDING_URI)
+                    .append("\" Location=\"https://idp").append(i).append(".example.org/sso?a=1&amp;b=2\"/>")
+                    .append("</md:IDPSSODescriptor></md:EntityDescriptor>\n");
+        }
+        xml.append("  <md:EntityDescriptor entityID=\"").append(SP_ENTITY_ID).append("\">")
+                .append("<md:SPSSODescriptor protocolSupportEnumeration=\"").append(SAMLConstants.SAML20P_NS).append("\">")
+                .append("<md:AssertionConsumerService Binding=\"").append(SAMLConstants.SAML2_POST_BINDING_URI)
+                .append("\" Location=\"").append(ACS_URL).append("\" index=\"0\"/>")
+                .append("</md:SPSSODescriptor></md:EntityDescriptor>\n</md:EntitiesDescriptor>");
+
+        Element element = Configuration.getParserPool()
+                .parse(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+        EntitiesDescriptor aggregate = (EntitiesDescriptor) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+        aggregate.setID("_" + UUID.randomUUID());
+        Signature signature = signature(credential);
+        aggregate.setSignature(signature);
+        Element signed = Configuration.getMarshallerFactory().getMarshaller(aggregate).marshall(aggregate);
+        Signer.signObject(signature);
+        return XMLHelper.nodeToString(signed);
+    }
+
+    static String aggregateIdpEntityId(int index) {
+        return "https://idp" + index + ".example.org/idp";
+    }
+
+    /**
+     * HTTP POST binding의 SAMLResponse 값(base64)
+     */
+    static String base64(String xml) {
+        return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Signature signature(BasicX509Credential credential) throws CertificateEncodingException {
+        Signature signature = buildSAMLObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        KeyInfo keyInfo = buildSAMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+        KeyInfoHelper.addCertificate(keyInfo, credential.getEntityCertificate());
+        signature.setKeyInfo(keyInfo);
+        return signature;
+    }
+
+    private static Response response(int attributeCount, String inResponseTo, String acsUrl, String audienceUri,
+                                     String userId) {
+        DateTime now = new DateTime();
+
+        Response response = buildSAMLObject(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_" + UUID.randomUUID());
+        response.setIssueInstant(now);
+        response.setDestination(acsUrl);
+        response.setInResponseTo(inResponseTo);
+        response.setIssuer(issuer());
+
+        Status status = buildSAMLObject(Status.DEFAULT_ELEMENT_NAME);
+        StatusCode statusCode = buildSAMLObject(StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS_URI);
+        status.setStatusCode(statusCode);
+        response.setStatus(status);
+
+        Assertion assertion = buildSAMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_" + UUID.randomUUID());
+        assertion.setIssueInstant(now);
+        assertion.setIssuer(issuer());
+
+        Subject subject = buildSAMLObject(Subject.DEFAULT_ELEMENT_NAME);
+        NameID nameID = buildSAMLObject(NameID.DEFAULT_ELEMENT_NAME);
+        nameID.setValue(userId);
+        subject.setNameID(nameID);
+        SubjectConfirmation confirmation = buildSAMLObject(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+        confirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+        SubjectConfirmationData confirmationData = buildSAMLObject(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+        confirmationData.setInResponseTo(inResponseTo);
+        confirmationData.setRecipient(acsUrl);
+        confirmationData.setNotOnOrAfter(now.plusMinutes(5));
+        confirmation.setSubjectConfirmationData(confirmationData);
+        subject.getSubjectConfirmations().add(confirmation);
+        assertion.setSubject(subject);
+
+        Conditions conditions = buildSAMLObject(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(now.minusMinutes(1));
+        conditions.setNotOnOrAfter(now.plusMinutes(30));
+        AudienceRestriction audienceRestriction = buildSAMLObject(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+        Audience audience = buildSAMLObject(Audience.DEFAULT_ELEMENT_NAME);
+        audience.setAudienceURI(audienceUri);
+        audienceRestriction.getAudiences().add(audience);
+        conditions.getAudienceRestrictions().add(audienceRestriction);
+        assertion.setConditions(conditions);
+
+        AuthnStatement authnStatement = buildSAMLObject(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setAuthnInstant(now);
+        authnStatement.setSessionIndex("_" + UUID.randomUUID());
+        assertion.getAuthnStatements().add(authnStatement);
+
+        AttributeStatement attributeStatement = buildSAMLObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        attributeStatement.getAttributes().add(attribute("idpuserid", userId));
+        attributeStatement.getAttributes().add(attribute("idpuseremail", userId + "@example.com"));
+        attributeStatement.getAttributes().add(attribute("idpusernm", "User Zero"));
+        for (int i = 3; i < attributeCount; i++) {
+            attributeStatement.getAttributes().add(attribute("attribute" + i, "value" + i));
+        }
+        assertion.getAttributeStatements().add(attributeStatement);
+
+        response.getAssertions().add(assertion);
+        return response;
+    }
+
+    private static Issuer issuer() {
+        Issuer issuer = buildSAMLObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(IDP_ENTITY_ID);
+        return issuer;
+    }
+
+    private static Attribute attribute(String name, String value) {
+        Attribute attribute = buildSAMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        attribute.setName(name);
+        XSString attributeValue = new XSStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        attributeValue.setValue(value);
+        attribute.getAttributeValues().add(attributeValue);
+        return attribute;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T buildSAMLObject(QName qName) {
+        XMLObjectBuilderFactory builderFactory = Configuration.getBuilderFactory();
+        return (T) builderFactory.getBuilder(qName).buildObject(qName);
+    }
+}
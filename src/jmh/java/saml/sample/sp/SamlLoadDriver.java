@@ -0,0 +1,343 @@
+package saml.sample.sp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SP 로그인 전체 흐름 부하 driver, {@link SamlMockIdp}를 IdP로 사용.
+ * 한 번의 로그인 : SP 인증 필요 url(/proxy) -> 302 IdP(AuthnRequest) -> IdP POST form(서명된 Response) -> POST /acs
+ * -> 302 저장된 요청 -> 302 /main
+ * <p>
+ * 목표 rate(초당 로그인 수)로 시작 시각을 정해 두고 worker thread에서 실행, 응답이 늦어도 다음 로그인을 기다리지 않는다(open model).
+ * latency는 정해 둔 시작 시각부터, service_time은 실제 시작부터 측정. warmup 동안의 결과는 제외.
+ * 결과(throughput, p50/p90/p99/p999, 단계별 시간, 오류 수)는 JSON 파일로 저장.
+ * <p>
+ * {@code ./gradlew loadTest -PloadArgs="--rate=100 --duration=60 --key_size=4096"}
+ * <ul>
+ *     <li>rate, duration(초), warmup(초), concurrency(worker thread 수)</li>
+ *     <li>key_size, attributes, idp_latency_ms, users, idp_port : {@link SamlMockIdp} 설정</li>
+ *     <li>sp_url : 이미 실행 중인 SP, 미설정 시 같은 process에서 SP 기동(mock IdP 설정 자동)</li>
+ *     <li>login_path(기본 /proxy, 인증이 필요한 url), report(기본 build/reports/load/result.json)</li>
+ *     <li>그 외 --name=value는 같은 process의 SP 설정으로 전달, ex) --sp.acs_async.enabled=true</li>
+ * </ul>
+ */
+public final class SamlLoadDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlLoadDriver.class);
+
+    private final Map<String, String> options;
+    private final HttpClient client;
+    private final Latencies latency;
+    private final Latencies serviceTime;
+    private final Map<String, Latencies> steps = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong lastCompletion = new AtomicLong();
+    private URI spUrl;
+
+    private SamlLoadDriver(Map<String, String> options) {
+        this.options = options;
+        this.client = SamlBrowser.httpClient();
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(rate() * intOption("duration")) + 1024);
+        latency = new Latencies(capacity);
+        serviceTime = new Latencies(capacity);
+        for (String step : new String[]{"redirect", "idp", "acs", "main"}) {
+            steps.put(step, new Latencies(capacity));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("rate", "50");
+        options.put("duration", "30");
+        options.put("warmup", "10");
+        options.put("concurrency", "64");
+        options.put("key_size", "2048");
+        options.put("attributes", "10");
+        options.put("idp_latency_ms", "0");
+        options.put("users", "1000");
+        options.put("idp_port", "0");
+        options.put("sp_url", "");
+        options.put("login_path", "/proxy");
+        options.put("report", "build/reports/load/result.json");
+        List<String> spArgs = parseOptions(args, options);
+
+        SamlLoadDriver driver = new SamlLoadDriver(options);
+        try (SamlMockIdp idp = new SamlMockIdp()
+                .port(driver.intOption("idp_port"))
+                .keySize(driver.intOption("key_size"))
+                .attributeCount(driver.intOption("attributes"))
+                .latencyMillis(driver.intOption("idp_latency_ms"))
+                .users(driver.intOption("users"))
+                .start()) {
+            ConfigurableApplicationContext sp = null;
+            if (options.get("sp_url").isEmpty()) {
+                sp = startSp(idp, spArgs);
+                driver.spUrl = URI.create("http://localhost:" + ((WebServerApplicationContext) sp).getWebServer().getPort());
+            } else {
+                LOGGER.info("Use SP[{}], configure sp.single_sign_on_service_location={} sp.single_logout_service_location={}"
+                        + " sp.idp_certificates={}", options.get("sp_url"), idp.ssoUrl(), idp.sloUrl(), idp.certificateFile().toUri());
+                driver.spUrl = URI.create(options.get("sp_url"));
+            }
+            try {
+                Map<String, Object> report = driver.run();
+                Path file = Paths.get(options.get("report"));
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+                LOGGER.info("Completed[{}] failed[{}] throughput[{}/s] latency{} report[{}]", report.get("completed"),
+                        report.get("failed"), report.get("throughput_per_second"), report.get("latency_ms"), file.toAbsolutePath());
+            } finally {
+                if (sp != null) {
+                    SpringApplication.exit(sp);
+                }
+            }
+        }
+    }
+
+    /**
+     * --name=value 중 options에 있는 이름은 options 값으로, 나머지는 SP 설정으로 반환
+     */
+    static List<String> parseOptions(String[] args, Map<String, String> options) {
+        List<String> spArgs = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option[" + arg + "], use --name=value");
+            }
+            String name = arg.substring(2, eq);
+            if (options.containsKey(name)) {
+                options.put(name, arg.substring(eq + 1));
+            } else {
+                spArgs.add(arg);
+            }
+        }
+        return spArgs;
+    }
+
+    /**
+     * 같은 process에서 SP 기동, mock IdP를 신뢰하도록 설정. 전달받은 설정이 뒤에 있으므로 우선
+     */
+    static ConfigurableApplicationContext startSp(SamlMockIdp idp, List<String> spArgs) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.main.banner-mode=off",
+                "--sp.single_sign_on_service_location=" + idp.ssoUrl(),
+                "--sp.single_logout_service_location=" + idp.sloUrl(),
+                "--sp.idp_certificates=" + idp.certificateFile().toUri(),
+                "--sp.idp_entity_id=" + SamlFixtures.IDP_ENTITY_ID,
+                "--sp.diagnostics.enabled=false",
+                "--logging.level.saml.sample.sp=warn",
+                "--logging.level.saml.sample.sp.SamlMockIdp=info",
+                "--logging.level.saml.sample.sp.SamlLoadDriver=info",
+                "--logging.level.saml.sample.sp.SamlSoakDriver=info"));
+        args.addAll(spArgs);
+        return new SpringApplication(SamlSpApplication.class).run(args.toArray(new String[0]));
+    }
+
+    private Map<String, Object> run() throws InterruptedException {
+        int concurrency = intOption("concurrency");
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate());
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "load-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOGGER.info("Load SP[{}] rate[{}/s] warmup[{}s] duration[{}s] concurrency[{}]", spUrl, rate(),
+                intOption("warmup"), intOption("duration"), concurrency);
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(intOption("warmup"));
+        long end = measureStart + TimeUnit.SECONDS.toNanos(intOption("duration"));
+        long attempted = 0;
+        for (long i = 0; ; i++) {
+            long intended = start + i * period;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = intended >= measureStart;
+            if (measured) {
+                attempted++;
+            }
+            workers.execute(() -> login(intended, measured));
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(5, TimeUnit.MINUTES)) {
+            LOGGER.warn("Logins not finished in 5 minutes");
+            workers.shutdownNow();
+        }
+
+        long ok = completed.sum();
+        long failed = 0;
+        Map<String, Long> errorCounts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> error : errors.entrySet()) {
+            errorCounts.put(error.getKey(), error.getValue().sum());
+            failed += error.getValue().sum();
+        }
+        double seconds = Math.max(lastCompletion.get() - measureStart, TimeUnit.SECONDS.toNanos(intOption("duration"))) / 1e9;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("sp_url", spUrl.toString());
+        report.put("options", options);
+        report.put("attempted", attempted);
+        report.put("completed", ok);
+        report.put("failed", failed);
+        report.put("elapsed_seconds", round(seconds));
+        report.put("throughput_per_second", round(ok / seconds));
+        report.put("latency_ms", latency.summary());
+        report.put("service_time_ms", serviceTime.summary());
+        Map<String, Object> stepSummary = new LinkedHashMap<>();
+        for (Map.Entry<String, Latencies> step : steps.entrySet()) {
+            stepSummary.put(step.getKey(), step.getValue().summary());
+        }
+        report.put("steps_ms", stepSummary);
+        report.put("errors", errorCounts);
+        return report;
+    }
+
+    /**
+     * 로그인 한번, 실패하면 단계와 원인(HTTP status 또는 예외)별로 집계
+     */
+    private void login(long intended, boolean measured) {
+        String step = "redirect";
+        try {
+            long begin = System.nanoTime();
+            SamlBrowser browser = new SamlBrowser(client, spUrl);
+            String idpUrl = browser.startLogin(options.get("login_path"));
+            long redirected = System.nanoTime();
+
+            step = "idp";
+            String[] form = browser.idpForm(idpUrl);
+            long issued = System.nanoTime();
+
+            step = "acs";
+            String target = browser.postAcs(form);
+            long consumed = System.nanoTime();
+
+            step = "main";
+            browser.landing(target);
+            long done = System.nanoTime();
+
+            if (measured) {
+                latency.record(done - intended);
+                serviceTime.record(done - begin);
+                steps.get("redirect").record(redirected - begin);
+                steps.get("idp").record(issued - redirected);
+                steps.get("acs").record(consumed - issued);
+                steps.get("main").record(done - consumed);
+                completed.increment();
+                lastCompletion.accumulateAndGet(done, Math::max);
+            }
+        } catch (SamlBrowser.StepFailure e) {
+            error(measured, step, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(measured, step, "interrupted");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Login failed at [{}]", step, e);
+            error(measured, step, e.getClass().getSimpleName());
+        }
+    }
+
+    private void error(boolean measured, String step, String cause) {
+        if (measured) {
+            errors.computeIfAbsent(step + ":" + cause, k -> new LongAdder()).increment();
+        }
+    }
+
+    private double rate() {
+        return Double.parseDouble(options.get("rate"));
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    /**
+     * 측정 값(ns) 보관, 끝난 뒤 정렬해서 percentile 계산. 용량을 넘은 값은 개수만 센다
+     */
+    private static final class Latencies {
+        private final long[] values;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Latencies(int capacity) {
+            this.values = new long[capacity];
+        }
+
+        private void record(long nanos) {
+            int index = count.getAndIncrement();
+            if (index < values.length) {
+                values[index] = nanos;
+            }
+        }
+
+        private Map<String, Object> summary() {
+            int n = Math.min(count.get(), values.length);
+            long[] sorted = Arrays.copyOf(values, n);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", count.get());
+            if (n == 0) {
+                return summary;
+            }
+            long sum = 0;
+            for (long value : sorted) {
+                sum += value;
+            }
+            summary.put("mean", millis(sum / n));
+            summary.put("p50", millis(percentile(sorted, 0.5)));
+            summary.put("p90", millis(percentile(sorted, 0.9)));
+            summary.put("p99", millis(percentile(sorted, 0.99)));
+            summary.put("p999", millis(percentile(sorted, 0.999)));
+            summary.put("max", millis(sorted[n - 1]));
+            return summary;
+        }
+
+        private static long percentile(long[] sorted, double quantile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+        }
+
+        private static double millis(long nanos) {
+            return round(nanos / 1e6);
+        }
+    }
+}
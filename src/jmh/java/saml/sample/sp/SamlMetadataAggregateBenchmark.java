@@ -0,0 +1,95 @@
+package saml.sample.sp;
+
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+/**
+ * 서명된 federation metadata aggregate 로딩, IdP 조회.
+ * <ul>
+ *     <li>buildIndex : {@link SamlMetadataAggregate} StAX 한번 읽기 + 서명 확인 + index 파일 생성</li>
+ *     <li>domLoad : 같은 파일을 {@link SamlIdpRegistry}로 OpenSAML DOM unmarshalling(이전 방식, 서명 확인 없음)</li>
+ *     <li>resolveCached / resolveUncached : index 조회, LRU hit와 EntityDescriptor unmarshalling 비교</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+public class SamlMetadataAggregateBenchmark {
+
+    @Param({"1000", "5000"})
+    public int entityCount;
+
+    private Path directory;
+    private Path metadata;
+    private SamlParserPool parserPool;
+    private String certificate;
+    private SamlMetadataAggregate cached;
+    private SamlMetadataAggregate uncached;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        BasicX509Credential credential = SamlFixtures.idpCredential(2048);
+        directory = Files.createTempDirectory("saml-aggregate");
+        metadata = directory.resolve("aggregate.xml");
+        Files.write(metadata, SamlFixtures.signedAggregateXml(credential, entityCount).getBytes(StandardCharsets.UTF_8));
+        Path certificateFile = directory.resolve("federation.crt");
+        Files.write(certificateFile, credential.getEntityCertificate().getEncoded());
+        certificate = certificateFile.toUri().toString();
+        parserPool = SamlBenchmarkSupport.parserPool();
+
+        cached = aggregate(directory.resolve("cached.idx"), 1000).load();
+        uncached = aggregate(directory.resolve("uncached.idx"), 0).load();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cached.close();
+        uncached.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Object buildIndex() throws IOException {
+        Path index = directory.resolve("build.idx");
+        Files.deleteIfExists(index);
+        return aggregate(index, 1000).load();
+    }
+
+    @Benchmark
+    public Object domLoad() throws IOException {
+        return new SamlIdpRegistry(SamlFixtures.SP_ENTITY_ID, parserPool, Collections.singletonList(metadata.toString())).load();
+    }
+
+    @Benchmark
+    public Object resolveCached() {
+        return cached.resolve(SamlFixtures.aggregateIdpEntityId(next++ % 100));
+    }
+
+    @Benchmark
+    public Object resolveUncached() {
+        return uncached.resolve(SamlFixtures.aggregateIdpEntityId(next++ % entityCount));
+    }
+
+    private SamlMetadataAggregate aggregate(Path index, int cacheSize) {
+        return new SamlMetadataAggregate(SamlFixtures.SP_ENTITY_ID, parserPool, metadata, index)
+                .signingCertificates(Collections.singletonList(certificate))
+                .cacheSize(cacheSize);
+    }
+}
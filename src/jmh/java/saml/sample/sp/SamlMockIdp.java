@@ -0,0 +1,219 @@
+package saml.sample.sp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.util.HtmlUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * 부하 테스트용 IdP, localhost에서 HTTP Redirect binding AuthnRequest를 받아 로그인 화면 없이 바로 서명된 Response 발급.
+ * 응답은 실제 IdP와 같이 ACS로 자동 submit 하는 HTTP POST binding form.
+ * <ul>
+ *     <li>keySize : 서명 키(RSA) 크기</li>
+ *     <li>attributeCount : Response attribute 수(idpuserid, idpuseremail, idpusernm 포함)</li>
+ *     <li>latencyMillis : 응답 전 대기 시간(IdP 인증 처리 시간 흉내)</li>
+ *     <li>users : 사용자(user0 ~ user[users-1]) 수, 요청마다 돌아가면서 사용</li>
+ * </ul>
+ * SP는 {@link #ssoUrl()}을 sp.single_sign_on_service_location, {@link #sloUrl()}을 sp.single_logout_service_location,
+ * {@link #certificateFile()}을 sp.idp_certificates로 설정한다.
+ */
+final class SamlMockIdp implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlMockIdp.class);
+
+    static final String SSO_PATH = "/sso";
+    static final String SLO_PATH = "/slo";
+
+    private int port;
+    private int keySize = 2048;
+    private int attributeCount = 10;
+    private long latencyMillis;
+    private int users = 1000;
+
+    private BasicX509Credential credential;
+    private Path certificateFile;
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong issued = new AtomicLong();
+
+    SamlMockIdp start() throws Exception {
+        OpenSamlBootstrap.await();
+        credential = SamlFixtures.idpCredential(keySize);
+        certificateFile = Files.createTempFile("mock-idp", ".crt");
+        Files.write(certificateFile, credential.getEntityCertificate().getEncoded());
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "mock-idp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.createContext(SSO_PATH, this::sso);
+        server.createContext(SLO_PATH, this::slo);
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("Mock IdP[{}] started, key[RSA {}] attributes[{}] latency[{}ms]", ssoUrl(), keySize, attributeCount, latencyMillis);
+        return this;
+    }
+
+    String ssoUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + SSO_PATH;
+    }
+
+    String sloUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + SLO_PATH;
+    }
+
+    Path certificateFile() {
+        return certificateFile;
+    }
+
+    long issued() {
+        return issued.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        if (certificateFile != null) {
+            Files.deleteIfExists(certificateFile);
+        }
+    }
+
+    private void sso(HttpExchange exchange) throws IOException {
+        try {
+            // 값은 url encoding 된 그대로
+            Map<String, String> query = UriComponentsBuilder.fromUri(exchange.getRequestURI()).build().getQueryParams().toSingleValueMap();
+            String samlRequest = query.get(SamlRedirectEncoder.SAML_REQUEST);
+            if (samlRequest == null) {
+                send(exchange, 400, "SAMLRequest is required");
+                return;
+            }
+            AuthnRequest authnRequest = authnRequest(decode(samlRequest));
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            String acsUrl = authnRequest.getAssertionConsumerServiceURL();
+            String userId = "user" + issued.getAndIncrement() % users;
+            String response = SamlFixtures.signedResponseXml(credential, attributeCount, authnRequest.getID(), acsUrl,
+                    authnRequest.getIssuer().getValue(), userId);
+            String relayState = query.get("RelayState") == null
+                    ? null : URLDecoder.decode(query.get("RelayState"), StandardCharsets.UTF_8);
+            send(exchange, 200, "<html><body onload=\"document.forms[0].submit()\">"
+                    + "<form method=\"post\" action=\"" + HtmlUtils.htmlEscape(acsUrl) + "\">"
+                    + "<input type=\"hidden\" name=\"SAMLResponse\" value=\"" + SamlFixtures.base64(response) + "\"/>"
+                    + (relayState == null ? "" : "<input type=\"hidden\" name=\"RelayState\" value=\""
+                    + HtmlUtils.htmlEscape(relayState) + "\"/>")
+                    + "</form></body></html>");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "Interrupted");
+        } catch (Exception e) {
+            LOGGER.warn("Mock IdP failed to answer AuthnRequest", e);
+            send(exchange, 500, e.toString());
+        }
+    }
+
+    /**
+     * SP LogoutRequest, IdP session이 없으므로 LogoutResponse 없이 로그아웃 완료 화면
+     */
+    private void slo(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || !query.contains(SamlRedirectEncoder.SAML_REQUEST + "=")) {
+            send(exchange, 400, "SAMLRequest is required");
+            return;
+        }
+        send(exchange, 200, "<html><body>logged out</body></html>");
+    }
+
+    /**
+     * query의 SAMLRequest(url encoding, base64, deflate) -> XML
+     */
+    private static byte[] decode(String samlRequest) throws Exception {
+        byte[] deflated = Base64.getDecoder().decode(URLDecoder.decode(samlRequest, StandardCharsets.UTF_8));
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream(deflated.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated SAMLRequest");
+                }
+                xml.write(buffer, 0, n);
+            }
+            return xml.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static AuthnRequest authnRequest(byte[] xml) throws Exception {
+        Element element = Configuration.getParserPool().parse(new ByteArrayInputStream(xml)).getDocumentElement();
+        return (AuthnRequest) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    SamlMockIdp port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    SamlMockIdp keySize(int keySize) {
+        this.keySize = keySize;
+        return this;
+    }
+
+    SamlMockIdp attributeCount(int attributeCount) {
+        this.attributeCount = attributeCount;
+        return this;
+    }
+
+    SamlMockIdp latencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    SamlMockIdp users(int users) {
+        this.users = users;
+        return this;
+    }
+}
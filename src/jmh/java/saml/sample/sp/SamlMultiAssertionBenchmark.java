@@ -0,0 +1,62 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * assertion을 각각 서명한 응답의 {@link SamlSignatureCheck} 검증.
+ * parallelism 1은 호출 thread + worker 1개, assertion 수에 따른 병렬 검증 효과를 비교한다.
+ */
+@State(Scope.Thread)
+public class SamlMultiAssertionBenchmark {
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    @Param({"1", "2", "4", "8"})
+    public int assertionCount;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private SamlSignatureCheck signatureCheck;
+    private SamlParserPool parserPool;
+    private String xml;
+    private Response response;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        BasicX509Credential credential = SamlFixtures.idpCredential(keySize);
+        xml = SamlFixtures.signedAssertionsResponseXml(credential, assertionCount);
+        parserPool = SamlBenchmarkSupport.parserPool();
+        signatureCheck = new SamlSignatureCheck()
+                .trustStore(new SamlTrustStore().addCertificate(credential.getEntityCertificate()))
+                .verificationPool(new ForkJoinPool(parallelism));
+    }
+
+    @Setup(Level.Invocation)
+    public void unmarshall() throws Exception {
+        response = SamlBenchmarkSupport.unmarshall(parserPool, xml);
+    }
+
+    @TearDown
+    public void tearDown() {
+        signatureCheck.shutdown();
+    }
+
+    @Benchmark
+    public Response verify() {
+        signatureCheck.check(response);
+        return response;
+    }
+}
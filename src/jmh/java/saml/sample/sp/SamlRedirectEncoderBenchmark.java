@@ -0,0 +1,134 @@
+package saml.sample.sp;
+
+import org.joda.time.DateTime;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.SAMLVersion;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.LogoutRequest;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.NameIDType;
+import org.opensaml.saml2.core.SessionIndex;
+import org.opensaml.saml2.metadata.Endpoint;
+import org.opensaml.saml2.metadata.SingleLogoutService;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.security.BasicSecurityConfiguration;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.UUID;
+
+/**
+ * LogoutRequest HTTP Redirect url 생성, 서명(SigAlg, Signature) 유무와 key 크기별 비교.
+ * <ul>
+ *     <li>openSaml* : 요청마다 HTTPRedirectDeflateEncoder 생성(이전 방식)</li>
+ *     <li>unsigned / signed : {@link SamlRedirectEncoder}, thread별 Deflater/buffer/Signature 재사용</li>
+ * </ul>
+ * setup에서 두 방식의 url이 같은지 확인하고 다르면 실행하지 않는다.
+ */
+@State(Scope.Thread)
+public class SamlRedirectEncoderBenchmark {
+
+    private static final String DESTINATION = "https://idp.example.com/slo?tenant=a";
+    private static final String RELAY_STATE = "relay-state";
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    private BasicX509Credential credential;
+    private SamlRedirectEncoder unsignedEncoder;
+    private SamlRedirectEncoder signedEncoder;
+    private String baseUrl;
+    private LogoutRequest logoutRequest;
+
+    @Setup
+    public void setup() throws Exception {
+        SamlFixtures.bootstrap();
+        credential = SamlFixtures.idpCredential(keySize);
+        // OpenSAML 기본(rsa-sha1) 대신 SamlRedirectEncoder와 같은 알고리즘
+        ((BasicSecurityConfiguration) Configuration.getGlobalSecurityConfiguration())
+                .registerSignatureAlgorithmURI("RSA", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        unsignedEncoder = new SamlRedirectEncoder();
+        signedEncoder = new SamlRedirectEncoder()
+                .signing(credential.getPrivateKey(), SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        baseUrl = SamlRedirectEncoder.redirectBaseUrl(DESTINATION);
+        logoutRequest = logoutRequest();
+
+        check(openSamlRedirect(false), unsigned());
+        check(openSamlRedirect(true), signed());
+    }
+
+    @Benchmark
+    public String openSamlUnsigned() throws MessageEncodingException {
+        return openSamlRedirect(false);
+    }
+
+    @Benchmark
+    public String openSamlSigned() throws MessageEncodingException {
+        return openSamlRedirect(true);
+    }
+
+    @Benchmark
+    public String unsigned() throws MarshallingException {
+        return unsignedEncoder.redirectUrl(baseUrl, SamlRedirectEncoder.SAML_REQUEST,
+                SamlRedirectEncoder.marshall(logoutRequest), RELAY_STATE);
+    }
+
+    @Benchmark
+    public String signed() throws MarshallingException {
+        return signedEncoder.redirectUrl(baseUrl, SamlRedirectEncoder.SAML_REQUEST,
+                SamlRedirectEncoder.marshall(logoutRequest), RELAY_STATE);
+    }
+
+    private String openSamlRedirect(boolean sign) throws MessageEncodingException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        BasicSAMLMessageContext<SAMLObject, LogoutRequest, SAMLObject> context = new BasicSAMLMessageContext<>();
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, false));
+        Endpoint endpoint = SamlFixtures.buildSAMLObject(SingleLogoutService.DEFAULT_ELEMENT_NAME);
+        endpoint.setLocation(DESTINATION);
+        context.setPeerEntityEndpoint(endpoint);
+        context.setOutboundSAMLMessage(logoutRequest);
+        context.setRelayState(RELAY_STATE);
+        if (sign) {
+            context.setOutboundSAMLMessageSigningCredential(credential);
+        }
+        new HTTPRedirectDeflateEncoder().encode(context);
+        return response.getRedirectedUrl();
+    }
+
+    private static void check(String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("SamlRedirectEncoder url differs from HTTPRedirectDeflateEncoder\n"
+                    + "expected : " + expected + "\nactual   : " + actual);
+        }
+    }
+
+    private static LogoutRequest logoutRequest() {
+        LogoutRequest logoutRequest = SamlFixtures.buildSAMLObject(LogoutRequest.DEFAULT_ELEMENT_NAME);
+        logoutRequest.setVersion(SAMLVersion.VERSION_20);
+        logoutRequest.setID("_" + UUID.randomUUID());
+        logoutRequest.setIssueInstant(new DateTime());
+        logoutRequest.setDestination(DESTINATION);
+        Issuer issuer = SamlFixtures.buildSAMLObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(SamlFixtures.SP_ENTITY_ID);
+        issuer.setFormat(NameIDType.ENTITY);
+        logoutRequest.setIssuer(issuer);
+        NameID nameId = SamlFixtures.buildSAMLObject(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setValue("user0");
+        logoutRequest.setNameID(nameId);
+        SessionIndex sessionIndex = SamlFixtures.buildSAMLObject(SessionIndex.DEFAULT_ELEMENT_NAME);
+        sessionIndex.setSessionIndex("_" + UUID.randomUUID());
+        logoutRequest.getSessionIndexes().add(sessionIndex);
+        return logoutRequest;
+    }
+}
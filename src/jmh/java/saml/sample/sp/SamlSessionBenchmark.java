@@ -0,0 +1,109 @@
+package saml.sample.sp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * session 저장/복원(Tomcat session persistence와 같은 Java 직렬화) 비교
+ * legacy : 이전 방식(UserDetails를 details로 가진 token + idpToken session attribute)
+ * compact : SamlPrincipal + SamlSessionCodec
+ * token : sp.session.store=token cookie 발급/확인(AES-GCM, SamlSessionToken), 요청마다 실행되는 확인 비용
+ */
+@State(Scope.Thread)
+public class SamlSessionBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSessionBenchmark.class);
+
+    private SecurityContextImpl legacyContext;
+    private SecurityContextImpl compactContext;
+    private byte[] legacyBytes;
+    private byte[] compactBytes;
+    private SamlPrincipal principal;
+    private SamlSessionToken sessionToken;
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList("ROLE_USER");
+
+        SamlUserDetails userDetails = new SamlUserDetails();
+        userDetails.setUsername("benchmark-user");
+        userDetails.setEmail("benchmark-user@example.com");
+        userDetails.setPersonname("Benchmark User");
+        userDetails.setIdpToken("_" + UUID.randomUUID());
+        userDetails.setSessionIndex("_" + UUID.randomUUID());
+
+        UsernamePasswordAuthenticationToken legacyToken =
+                new UsernamePasswordAuthenticationToken(userDetails.getUsername(), null, authorities);
+        legacyToken.setDetails(userDetails);
+        legacyContext = new SecurityContextImpl(legacyToken);
+        principal = SamlPrincipal.of(userDetails, authorities);
+        compactContext = new SecurityContextImpl(new SamlAuthenticationToken(principal));
+        sessionToken = new SamlSessionToken(List.of());
+        token = sessionToken.issue(principal);
+
+        legacyBytes = save(legacyContext);
+        compactBytes = save(compactContext);
+        LOGGER.info("Session bytes legacy[{}] compact[{}] token[{}]", legacyBytes.length, compactBytes.length, token.length());
+    }
+
+    @Benchmark
+    public byte[] saveLegacy() throws IOException {
+        return save(legacyContext);
+    }
+
+    @Benchmark
+    public byte[] saveCompact() throws IOException {
+        return save(compactContext);
+    }
+
+    @Benchmark
+    public Object restoreLegacy() throws Exception {
+        return restore(legacyBytes);
+    }
+
+    @Benchmark
+    public Object restoreCompact() throws Exception {
+        return restore(compactBytes);
+    }
+
+    @Benchmark
+    public String issueToken() {
+        return sessionToken.issue(principal);
+    }
+
+    @Benchmark
+    public SamlPrincipal verifyToken() {
+        return sessionToken.verify(token);
+    }
+
+    private static byte[] save(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object restore(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
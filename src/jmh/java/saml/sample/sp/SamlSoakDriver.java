@@ -0,0 +1,450 @@
+package saml.sample.sp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.catalina.Context;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 장시간 soak 테스트, SP와 {@link SamlMockIdp}를 같은 process에서 기동하고 여러 종류의 요청을 섞어서 보낸다.
+ * <ul>
+ *     <li>login : 로그인 후 사용자 pool에 보관(최대 users명, 넘치면 가장 오래된 사용자는 그대로 떠남)</li>
+ *     <li>abandon : 로그인 시작(IdP 화면)까지만 하고 중단, AuthnRequest ID만 남음(session은 만들지 않음)</li>
+ *     <li>logout : pool의 사용자 로그아웃(IdP SLO 포함)</li>
+ *     <li>view : pool의 사용자 /main 조회, session이 만료됐으면 pool에서 제거</li>
+ * </ul>
+ * sample_interval마다 heap 사용량(GC 후), Tomcat session 수, session 평균 크기(attribute 직렬화 크기), SamlSessionRegistry 크기를 기록.
+ * warmup 이후 sample의 기울기(선형 회귀)를 평균 대비 시간당 증가율(%)로 계산해 기준을 넘으면 실패(exit code 1, build 실패).
+ * warmup이 끝날 때와 실패 시 heap class histogram을 report_dir에 저장.
+ * <p>
+ * {@code ./gradlew soakTest -PsoakArgs="--duration=14400 --rate=30"}
+ * <ul>
+ *     <li>rate(초당 요청 수), duration/warmup/sample_interval(초), concurrency, login/abandon/logout/view(비율)</li>
+ *     <li>session_timeout_minutes : SP session timeout, 정상 상태가 되도록 warmup보다 짧게</li>
+ *     <li>max_heap_growth, max_sessions_growth, max_session_bytes_growth : 허용 증가율(평균 대비 %/시간)</li>
+ *     <li>그 외 --name=value는 SP 설정으로 전달, ex) --sp.session.store=mmap</li>
+ * </ul>
+ */
+public final class SamlSoakDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSoakDriver.class);
+
+    private static final String[] OPERATIONS = {"login", "abandon", "logout", "view"};
+    private static final String[] METRICS = {"heap_mb", "sessions", "session_bytes"};
+
+    private final Map<String, String> options;
+    private final ConfigurableApplicationContext sp;
+    private final HttpClient client = SamlBrowser.httpClient();
+    private final URI spUrl;
+    private final Path reportDir;
+
+    private final ConcurrentLinkedDeque<SamlBrowser> users = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger userCount = new AtomicInteger();
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private final List<Map<String, Object>> samples = new ArrayList<>();
+    private final List<String> histograms = new ArrayList<>();
+    private long startNanos;
+
+    private SamlSoakDriver(Map<String, String> options, ConfigurableApplicationContext sp) {
+        this.options = options;
+        this.sp = sp;
+        this.spUrl = URI.create("http://localhost:" + ((WebServerApplicationContext) sp).getWebServer().getPort());
+        this.reportDir = Paths.get(options.get("report_dir"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("rate", "20");
+        options.put("duration", "7200");
+        options.put("warmup", "900");
+        options.put("sample_interval", "30");
+        options.put("concurrency", "16");
+        options.put("login", "40");
+        options.put("abandon", "20");
+        options.put("logout", "15");
+        options.put("view", "25");
+        options.put("users", "1000");
+        options.put("key_size", "2048");
+        options.put("attributes", "10");
+        options.put("session_timeout_minutes", "5");
+        options.put("session_samples", "200");
+        options.put("max_heap_growth", "10");
+        options.put("max_sessions_growth", "10");
+        options.put("max_session_bytes_growth", "10");
+        options.put("report_dir", "build/reports/soak");
+        List<String> forwarded = SamlLoadDriver.parseOptions(args, options);
+        List<String> spArgs = new ArrayList<>();
+        spArgs.add("--server.servlet.session.timeout=" + options.get("session_timeout_minutes") + "m");
+        spArgs.addAll(forwarded);
+
+        boolean result;
+        try (SamlMockIdp idp = new SamlMockIdp()
+                .keySize(Integer.parseInt(options.get("key_size")))
+                .attributeCount(Integer.parseInt(options.get("attributes")))
+                .users(Integer.parseInt(options.get("users")))
+                .start()) {
+            ConfigurableApplicationContext sp = SamlLoadDriver.startSp(idp, spArgs);
+            try {
+                result = new SamlSoakDriver(options, sp).run();
+            } finally {
+                SpringApplication.exit(sp);
+            }
+        }
+        System.exit(result ? 0 : 1);
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        Files.createDirectories(reportDir);
+        int concurrency = intOption("concurrency");
+        AtomicInteger threads = new AtomicInteger();
+        // 밀린 요청은 버림(driver 자체의 queue가 heap을 늘리지 않도록)
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(concurrency * 4), r -> {
+            Thread thread = new Thread(r, "soak-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (r, executor) -> dropped.increment());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "soak-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int[] weights = new int[OPERATIONS.length];
+        int totalWeight = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            weights[i] = intOption(OPERATIONS[i]);
+            totalWeight += weights[i];
+        }
+        LOGGER.info("Soak SP[{}] rate[{}/s] duration[{}s] warmup[{}s] mix{}", spUrl, options.get("rate"),
+                intOption("duration"), intOption("warmup"), Arrays.toString(weights));
+
+        startNanos = System.nanoTime();
+        long warmupEnd = startNanos + TimeUnit.SECONDS.toNanos(intOption("warmup"));
+        long end = startNanos + TimeUnit.SECONDS.toNanos(intOption("duration"));
+        AtomicInteger histogramTaken = new AtomicInteger();
+        sampler.scheduleAtFixedRate(() -> {
+            sample();
+            if (System.nanoTime() >= warmupEnd && histogramTaken.compareAndSet(0, 1)) {
+                histogram("warmup");
+            }
+        }, 0, intOption("sample_interval"), TimeUnit.SECONDS);
+
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / Double.parseDouble(options.get("rate")));
+        for (long i = 0; ; i++) {
+            long intended = startNanos + i * period;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            int operation = 0;
+            while (pick >= weights[operation]) {
+                pick -= weights[operation++];
+            }
+            String name = OPERATIONS[operation];
+            workers.execute(() -> operation(name));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        sampler.shutdown();
+        sampler.awaitTermination(1, TimeUnit.MINUTES);
+        sample();
+
+        Map<String, Object> analysis = analyze(warmupEnd);
+        boolean passed = (Boolean) analysis.get("passed");
+        if (!passed) {
+            histogram("failed");
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("sp_url", spUrl.toString());
+        report.put("options", options);
+        Map<String, Long> countSummary = new TreeMap<>();
+        counts.forEach((k, v) -> countSummary.put(k, v.sum()));
+        report.put("operations", countSummary);
+        report.put("dropped", dropped.sum());
+        report.put("analysis", analysis);
+        report.put("histograms", histograms);
+        synchronized (samples) {
+            report.put("samples", samples);
+        }
+        Path file = reportDir.resolve("result.json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+        if (passed) {
+            LOGGER.info("Soak passed {} report[{}]", analysis, file.toAbsolutePath());
+        } else {
+            LOGGER.error("Soak failed, growth over limit {} report[{}] histograms{}", analysis, file.toAbsolutePath(), histograms);
+        }
+        return passed;
+    }
+
+    private void operation(String name) {
+        String outcome;
+        try {
+            switch (name) {
+                case "login":
+                    login();
+                    outcome = "ok";
+                    break;
+                case "abandon":
+                    SamlBrowser browser = new SamlBrowser(client, spUrl);
+                    browser.idpForm(browser.startLogin("/proxy"));
+                    outcome = "ok";
+                    break;
+                case "logout":
+                    SamlBrowser user = users.pollFirst();
+                    if (user == null) {
+                        outcome = "no_user";
+                        break;
+                    }
+                    userCount.decrementAndGet();
+                    user.logout();
+                    outcome = "ok";
+                    break;
+                default:
+                    outcome = view();
+            }
+        } catch (SamlBrowser.StepFailure e) {
+            outcome = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = "interrupted";
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Soak operation[{}] failed", name, e);
+            outcome = e.getClass().getSimpleName();
+        }
+        counts.computeIfAbsent(name + ":" + outcome, k -> new LongAdder()).increment();
+    }
+
+    private void login() throws IOException, InterruptedException, SamlBrowser.StepFailure {
+        SamlBrowser browser = new SamlBrowser(client, spUrl);
+        browser.landing(browser.postAcs(browser.idpForm(browser.startLogin("/proxy"))));
+        users.offerLast(browser);
+        // pool이 넘치면 오래된 사용자는 로그아웃 없이 떠남(SP session은 timeout으로 만료)
+        if (userCount.incrementAndGet() > intOption("users") && users.pollFirst() != null) {
+            userCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * browser는 한 thread에서만 사용하므로 꺼내서 조회 후 다시 넣음
+     */
+    private String view() throws IOException, InterruptedException, SamlBrowser.StepFailure {
+        SamlBrowser user = users.pollFirst();
+        if (user == null) {
+            return "no_user";
+        }
+        userCount.decrementAndGet();
+        if (!user.view()) {
+            return "expired";
+        }
+        users.offerLast(user);
+        userCount.incrementAndGet();
+        return "ok";
+    }
+
+    /**
+     * heap(GC 후), session 수, session 평균 크기
+     */
+    private void sample() {
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        Manager manager = sessionManager();
+        Session[] sessions = manager.findSessions();
+        int limit = Math.min(sessions.length, intOption("session_samples"));
+        long bytes = 0;
+        int measured = 0;
+        int unserializable = 0;
+        // 생성 순서와 무관하게 고르게 선택
+        int step = Math.max(1, sessions.length / Math.max(1, limit));
+        for (int i = 0; i < sessions.length && measured + unserializable < limit; i += step) {
+            try {
+                bytes += serializedSize(sessions[i].getSession());
+                measured++;
+            } catch (NotSerializableException e) {
+                unserializable++;
+            } catch (IOException | IllegalStateException e) {
+                // 조회 중 만료된 session
+            }
+        }
+
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("seconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+        sample.put("heap_mb", Math.round(heap / 1024.0 / 1024.0 * 10) / 10.0);
+        sample.put("sessions", sessions.length);
+        sample.put("session_bytes", measured == 0 ? 0 : bytes / measured);
+        sample.put("unserializable_sessions", unserializable);
+        sample.put("registry_sessions", sp.getBean(SamlSessionRegistry.class).size());
+        sample.put("pooled_users", userCount.get());
+        synchronized (samples) {
+            samples.add(sample);
+        }
+        LOGGER.info("Soak sample {}", sample);
+    }
+
+    private Manager sessionManager() {
+        TomcatWebServer webServer = (TomcatWebServer) ((WebServerApplicationContext) sp).getWebServer();
+        return ((Context) webServer.getTomcat().getHost().findChildren()[0]).getManager();
+    }
+
+    /**
+     * session attribute 전체의 Java 직렬화 크기
+     */
+    private static long serializedSize(HttpSession session) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(counter)) {
+            for (Enumeration<String> names = session.getAttributeNames(); names.hasMoreElements(); ) {
+                String name = names.nextElement();
+                out.writeObject(name);
+                out.writeObject(session.getAttribute(name));
+            }
+        }
+        return counter.count;
+    }
+
+    /**
+     * warmup 이후 sample의 기울기, 평균 대비 시간당 증가율이 기준을 넘으면 실패
+     */
+    private Map<String, Object> analyze(long warmupEnd) {
+        long warmupSeconds = TimeUnit.NANOSECONDS.toSeconds(warmupEnd - startNanos);
+        List<Map<String, Object>> steady = new ArrayList<>();
+        synchronized (samples) {
+            for (Map<String, Object> sample : samples) {
+                if (((Number) sample.get("seconds")).longValue() >= warmupSeconds) {
+                    steady.add(sample);
+                }
+            }
+        }
+        Map<String, Object> analysis = new LinkedHashMap<>();
+        boolean passed = true;
+        if (steady.size() < 3) {
+            analysis.put("error", "Not enough samples after warmup[" + steady.size() + "]");
+            passed = false;
+        } else {
+            for (String metric : METRICS) {
+                double[] x = new double[steady.size()];
+                double[] y = new double[steady.size()];
+                for (int i = 0; i < x.length; i++) {
+                    x[i] = ((Number) steady.get(i).get("seconds")).doubleValue();
+                    y[i] = ((Number) steady.get(i).get(metric)).doubleValue();
+                }
+                double mean = Arrays.stream(y).average().orElse(0);
+                double slopePerHour = slope(x, y) * TimeUnit.HOURS.toSeconds(1);
+                double growth = mean > 0 ? slopePerHour / mean * 100 : 0;
+                double limit = Double.parseDouble(options.get("max_" + (metric.equals("heap_mb") ? "heap" : metric) + "_growth"));
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("mean", round(mean));
+                result.put("slope_per_hour", round(slopePerHour));
+                result.put("growth_percent_per_hour", round(growth));
+                result.put("limit_percent_per_hour", limit);
+                result.put("passed", growth <= limit);
+                analysis.put(metric, result);
+                passed &= growth <= limit;
+            }
+        }
+        analysis.put("passed", passed);
+        return analysis;
+    }
+
+    /**
+     * 최소제곱 기울기
+     */
+    private static double slope(double[] x, double[] y) {
+        double meanX = Arrays.stream(x).average().orElse(0);
+        double meanY = Arrays.stream(y).average().orElse(0);
+        double sxy = 0;
+        double sxx = 0;
+        for (int i = 0; i < x.length; i++) {
+            sxy += (x[i] - meanX) * (y[i] - meanY);
+            sxx += (x[i] - meanX) * (x[i] - meanX);
+        }
+        return sxx == 0 ? 0 : sxy / sxx;
+    }
+
+    /**
+     * jcmd GC.class_histogram과 같은 결과를 파일로 저장
+     */
+    private void histogram(String name) {
+        Path file = reportDir.resolve("heap-histogram-" + name + ".txt");
+        try {
+            String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                    new Object[]{null}, new String[]{String[].class.getName()});
+            Files.write(file, histogram.getBytes(StandardCharsets.UTF_8));
+            synchronized (histograms) {
+                histograms.add(file.toString());
+            }
+            LOGGER.info("Saved heap histogram[{}]", file.toAbsolutePath());
+        } catch (JMException | IOException e) {
+            LOGGER.warn("Failed to capture heap histogram[{}]", name, e);
+        }
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package saml.sample.sp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 같은 process 안에서 동작하는 {@link SamlSessionBackend}.
+ * 별도 network 저장소 없이 {@link RemoteSessionStore}를 사용하거나 확인할 때 사용하고, 호출 횟수를 기록한다.
+ */
+final class InMemorySessionBackend implements SamlSessionBackend {
+
+    private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Members> members = new ConcurrentHashMap<>();
+
+    private final AtomicLong putCalls = new AtomicLong();
+    private final AtomicLong getCalls = new AtomicLong();
+
+    @Override
+    public void putAll(Map<String, byte[]> values, long ttlMillis) {
+        putCalls.incrementAndGet();
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        values.forEach((sessionId, value) -> sessions.put(sessionId, new Entry(value, expiresAt)));
+    }
+
+    @Override
+    public void replaceAll(Map<String, byte[]> values, long ttlMillis) {
+        putCalls.incrementAndGet();
+        long now = System.currentTimeMillis();
+        values.forEach((sessionId, value) -> sessions.computeIfPresent(sessionId,
+                (k, current) -> current.expiresAt <= now ? null : new Entry(value, now + ttlMillis)));
+    }
+
+    @Override
+    public byte[] get(String sessionId) {
+        getCalls.incrementAndGet();
+        Entry entry = sessions.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            sessions.remove(sessionId, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public void removeAll(Collection<String> sessionIds) {
+        sessionIds.forEach(sessions::remove);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, long ttlMillis) {
+        putCalls.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(value, now + ttlMillis);
+        return sessions.compute(key, (k, current) -> current == null || current.expiresAt <= now ? entry : current) == entry;
+    }
+
+    @Override
+    public boolean remove(String key) {
+        Entry entry = sessions.remove(key);
+        return entry != null && entry.expiresAt > System.currentTimeMillis();
+    }
+
+    @Override
+    public void addMember(String key, String member, long ttlMillis) {
+        putCalls.incrementAndGet();
+        long now = System.currentTimeMillis();
+        members.compute(key, (k, current) -> {
+            Members set = current == null || current.expiresAt <= now ? new Members() : current;
+            set.values.add(member);
+            set.expiresAt = now + ttlMillis;
+            return set;
+        });
+    }
+
+    @Override
+    public Set<String> members(String key) {
+        getCalls.incrementAndGet();
+        Members set = members.get(key);
+        if (set == null) {
+            return Set.of();
+        }
+        if (set.expiresAt <= System.currentTimeMillis()) {
+            members.remove(key, set);
+            return Set.of();
+        }
+        return Set.copyOf(set.values);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    long putCalls() {
+        return putCalls.get();
+    }
+
+    long getCalls() {
+        return getCalls.get();
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final long expiresAt;
+
+        private Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Members {
+        private final Set<String> values = ConcurrentHashMap.newKeySet();
+        private volatile long expiresAt;
+    }
+}
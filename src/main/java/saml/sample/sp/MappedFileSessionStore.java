@@ -0,0 +1,249 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * memory mapped file에 저장하는 {@link SamlSessionStore}.
+ * file을 고정 크기 slot으로 나눠서 session 하나를 slot 하나에 기록하고, session id - slot index는 memory에 둔다.
+ * 재기동 시 file을 한번 훑어서 만료되지 않은 session으로 index를 다시 만든다.
+ * ttl은 마지막 사용 기준(idle), 조회한 session의 만료 시각을 ttl/4가 지날 때마다 연장한다.
+ * <pre>
+ * slot : state(1) expiresAt(8) keyLength(2) valueLength(2) key value
+ * </pre>
+ */
+final class MappedFileSessionStore implements SamlSessionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileSessionStore.class);
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final int HEADER_BYTES = 13;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotSize;
+    private final long ttlMillis;
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    MappedFileSessionStore(Path path, int slotCount, int slotSize, long ttl, TimeUnit unit) throws IOException {
+        if (slotSize <= HEADER_BYTES || slotSize > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid slot size : " + slotSize);
+        }
+        if ((long) slotCount * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Session store file exceeds 2GB : " + slotCount + " * " + slotSize);
+        }
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotCount * slotSize);
+        rebuildIndex();
+        LOGGER.info("Opened session store[{}] sessions[{}] slots[{}] slotSize[{}]", path, index.size(), slotCount, slotSize);
+    }
+
+    @Override
+    public void save(String sessionId, SamlPrincipal principal) {
+        byte[] key = sessionId.getBytes(StandardCharsets.UTF_8);
+        byte[] value = SamlSessionCodec.encode(principal);
+        if (HEADER_BYTES + key.length + value.length > slotSize) {
+            throw new IllegalArgumentException("Session[" + sessionId + "] exceeds slot size " + slotSize);
+        }
+        SamlSessionCodec.recordSession(value.length);
+
+        lock.writeLock().lock();
+        try {
+            Integer slot = freeSlots.poll();
+            if (slot == null) {
+                purgeExpired();
+                slot = freeSlots.poll();
+            }
+            if (slot == null) {
+                // 빈 slot이 없으면 같은 session의 slot에 덮어씀
+                slot = index.get(sessionId);
+                if (slot == null) {
+                    throw new IllegalStateException("Session store is full(" + slotCount + ")");
+                }
+                buffer.put(offset(slot), EMPTY);
+            }
+            int offset = offset(slot);
+            ByteBuffer out = buffer.duplicate();
+            out.position(offset + 1);
+            out.putLong(System.currentTimeMillis() + ttlMillis)
+                    .putShort((short) key.length)
+                    .putShort((short) value.length)
+                    .put(key)
+                    .put(value);
+            // 값을 모두 기록한 후 사용 표시
+            buffer.put(offset, USED);
+
+            Integer previous = index.put(sessionId, slot);
+            if (previous != null && previous.intValue() != slot) {
+                release(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SamlPrincipal load(String sessionId) {
+        byte[] value;
+        int slot;
+        long expiresAt;
+        lock.readLock().lock();
+        try {
+            Integer current = index.get(sessionId);
+            if (current == null) {
+                return null;
+            }
+            slot = current;
+            int offset = offset(slot);
+            expiresAt = buffer.getLong(offset + 1);
+            if (expiresAt <= System.currentTimeMillis()) {
+                return null;
+            }
+            value = new byte[buffer.getShort(offset + 11)];
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset + HEADER_BYTES + buffer.getShort(offset + 9));
+            in.get(value);
+        } finally {
+            lock.readLock().unlock();
+        }
+        refreshIfIdle(sessionId, slot, expiresAt);
+
+        try {
+            return SamlSessionCodec.decode(value);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to decode session[{}] : {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = index.remove(sessionId);
+            if (slot != null) {
+                release(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int capacity() {
+        return slotCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 저장(또는 연장)한 지 ttl/4가 지난 session이면 만료 시각 연장, 그 사이에 삭제/교체된 slot은 건드리지 않음
+     */
+    private void refreshIfIdle(String sessionId, int slot, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt - now > ttlMillis - ttlMillis / 4) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer current = index.get(sessionId);
+            int offset = offset(slot);
+            if (current != null && current == slot && buffer.getLong(offset + 1) == expiresAt) {
+                buffer.putLong(offset + 1, now + ttlMillis);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildIndex() throws InvalidObjectException {
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) != USED || buffer.getLong(offset + 1) <= now) {
+                buffer.put(offset, EMPTY);
+                freeSlots.add(slot);
+                continue;
+            }
+            int keyLength = buffer.getShort(offset + 9);
+            if (keyLength <= 0 || HEADER_BYTES + keyLength + buffer.getShort(offset + 11) > slotSize) {
+                throw new InvalidObjectException("Corrupted session slot " + slot);
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset + HEADER_BYTES);
+            in.get(key);
+
+            // 교체 도중 중단된 경우 같은 session이 두 slot에 남을 수 있음, 늦게 만료되는 쪽을 사용
+            Integer previous = index.put(new String(key, StandardCharsets.UTF_8), slot);
+            if (previous != null) {
+                if (buffer.getLong(offset(previous) + 1) > buffer.getLong(offset + 1)) {
+                    index.put(new String(key, StandardCharsets.UTF_8), previous);
+                    release(slot);
+                } else {
+                    release(previous);
+                }
+            }
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Integer> it = index.values().iterator(); it.hasNext(); ) {
+            int slot = it.next();
+            if (buffer.getLong(offset(slot) + 1) <= now) {
+                it.remove();
+                release(slot);
+            }
+        }
+    }
+
+    private void release(int slot) {
+        buffer.put(offset(slot), EMPTY);
+        freeSlots.add(slot);
+    }
+
+    private int offset(int slot) {
+        return slot * slotSize;
+    }
+}
@@ -0,0 +1,176 @@
+package saml.sample.sp;
+
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.xml.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link DefaultBootstrap#bootstrap()}를 단계별로 나눠 별도 thread에서 실행, context 기동과 동시에 진행한다.
+ * <ul>
+ *     <li>xmltooling_* : OpenSAML XML 설정(builder, marshaller, unmarshaller) 로딩, 설정 파일 묶음별로 동시에 실행</li>
+ *     <li>xmlsecurity : XMLSec 초기화 -> 기본 보안 설정 -> artifact builder -> parser pool -> ESAPI -> HttpClient</li>
+ * </ul>
+ * 각 흐름은 서로 의존하지 않고 등록하는 map은 concurrent map, OpenSAML을 사용하는 곳은 {@link #await()}로 완료를 기다린다.
+ * 완료 시 단계별 시간과 기다린 시간을 로그로 남긴다.
+ */
+final class OpenSamlBootstrap extends DefaultBootstrap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenSamlBootstrap.class);
+
+    private static final long AWAIT_TIMEOUT_SECONDS = 60;
+
+    /**
+     * 단계마다 daemon thread 하나
+     */
+    private static final Executor THREAD = r -> {
+        Thread thread = new Thread(r, "saml-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    /**
+     * {@link DefaultBootstrap}의 XMLTooling 설정 파일(OpenSAML 2.6.4)을 묶음별로 나눔, 묶음마다 별도 thread에서 로딩.
+     * 같은 element를 다시 등록하는 파일(wspolicy-config.xml의 AppliesTo)은 앞 파일과 같은 묶음에서 뒤에 둔다.
+     */
+    private static final Map<String, String[]> XMLTOOLING_CONFIGS = new LinkedHashMap<>();
+
+    static {
+        XMLTOOLING_CONFIGS.put("core", new String[]{"/default-config.xml", "/schema-config.xml", "/signature-config.xml",
+                "/signature-validation-config.xml", "/encryption-config.xml", "/encryption-validation-config.xml",
+                "/soap11-config.xml"});
+        XMLTOOLING_CONFIGS.put("saml2", new String[]{"/saml2-assertion-config.xml", "/saml2-protocol-config.xml",
+                "/saml2-core-validation-config.xml", "/saml2-metadata-config.xml", "/saml2-metadata-validation-config.xml",
+                "/saml2-metadata-attr-config.xml", "/saml2-metadata-idp-discovery-config.xml", "/saml2-metadata-ui-config.xml",
+                "/saml2-protocol-aslo-config.xml", "/saml2-protocol-thirdparty-config.xml", "/saml2-metadata-query-config.xml",
+                "/saml2-assertion-delegation-restriction-config.xml", "/saml2-ecp-config.xml",
+                "/saml2-channel-binding-config.xml"});
+        XMLTOOLING_CONFIGS.put("saml1_xacml", new String[]{"/saml1-assertion-config.xml", "/saml1-protocol-config.xml",
+                "/saml1-core-validation-config.xml", "/saml1-metadata-config.xml", "/saml-ec-gss-config.xml",
+                "/xacml10-saml2-profile-config.xml", "/xacml11-saml2-profile-config.xml", "/xacml20-context-config.xml",
+                "/xacml20-policy-config.xml", "/xacml2-saml2-profile-config.xml", "/xacml3-saml2-profile-config.xml"});
+        XMLTOOLING_CONFIGS.put("ws", new String[]{"/wsfed11-protocol-config.xml", "/wsaddressing-config.xml",
+                "/wssecurity-config.xml", "/wstrust-config.xml", "/wspolicy-config.xml"});
+    }
+
+    private static CompletableFuture<Void> bootstrap;
+    private static long startNanos;
+    private static long totalNanos;
+    private static long waitedNanos;
+
+    /**
+     * 단계 이름 -> 시간(ns), 실행 순서
+     */
+    private static final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private OpenSamlBootstrap() {
+    }
+
+    /**
+     * bootstrap 시작, 이미 시작했으면 진행 중인 것을 반환
+     */
+    static synchronized CompletableFuture<Void> start() {
+        if (bootstrap == null) {
+            startNanos = System.nanoTime();
+            List<CompletableFuture<Void>> branches = new ArrayList<>();
+            for (Map.Entry<String, String[]> group : XMLTOOLING_CONFIGS.entrySet()) {
+                branches.add(CompletableFuture.runAsync(() -> phase("xmltooling_" + group.getKey(),
+                        () -> initializeXMLTooling(group.getValue())), THREAD));
+            }
+            branches.add(CompletableFuture.runAsync(() -> {
+                phase("xmlsecurity", DefaultBootstrap::initializeXMLSecurity);
+                phase("security_configuration", DefaultBootstrap::initializeGlobalSecurityConfiguration);
+                phase("artifact_builders", DefaultBootstrap::initializeArtifactBuilderFactories);
+                phase("parser_pool", DefaultBootstrap::initializeParserPool);
+                phase("esapi", DefaultBootstrap::initializeESAPI);
+                phase("http_client", DefaultBootstrap::initializeHttpClient);
+            }, THREAD));
+            bootstrap = CompletableFuture.allOf(branches.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+                synchronized (OpenSamlBootstrap.class) {
+                    totalNanos = System.nanoTime() - startNanos;
+                }
+                if (e != null) {
+                    LOGGER.error("OpenSAML bootstrap failed", e);
+                }
+            });
+            LOGGER.info("Initialize open saml...");
+        }
+        return bootstrap;
+    }
+
+    /**
+     * bootstrap 완료까지 대기, 시작하지 않았으면 시작. 실패하거나 시간이 지나면 예외
+     */
+    static void await() {
+        CompletableFuture<Void> future = start();
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            return;
+        }
+        long waitStart = System.nanoTime();
+        try {
+            future.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting OpenSAML bootstrap", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("OpenSAML bootstrap failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("OpenSAML bootstrap not finished in " + AWAIT_TIMEOUT_SECONDS + "s", e);
+        } finally {
+            synchronized (OpenSamlBootstrap.class) {
+                waitedNanos += System.nanoTime() - waitStart;
+            }
+        }
+    }
+
+    static boolean isReady() {
+        CompletableFuture<Void> future;
+        synchronized (OpenSamlBootstrap.class) {
+            future = bootstrap;
+        }
+        return future != null && future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * 단계별 시간, 전체 시간, 기동 thread가 기다린 시간
+     */
+    static synchronized String report() {
+        StringBuilder report = new StringBuilder("OpenSAML bootstrap total[")
+                .append(TimeUnit.NANOSECONDS.toMillis(totalNanos)).append("ms] waited[")
+                .append(TimeUnit.NANOSECONDS.toMillis(waitedNanos)).append("ms]");
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                report.append(' ').append(phase.getKey()).append('[')
+                        .append(TimeUnit.NANOSECONDS.toMillis(phase.getValue())).append("ms]");
+            }
+        }
+        return report.toString();
+    }
+
+    private static void phase(String name, Phase phase) {
+        long start = System.nanoTime();
+        try {
+            phase.run();
+        } catch (ConfigurationException e) {
+            throw new CompletionException("Failed OpenSAML bootstrap phase[" + name + "]", e);
+        } finally {
+            phases.put(name, System.nanoTime() - start);
+        }
+    }
+
+    private interface Phase {
+        void run() throws ConfigurationException;
+    }
+}
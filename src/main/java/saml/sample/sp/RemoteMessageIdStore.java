@@ -0,0 +1,38 @@
+package saml.sample.sp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 여러 SP node가 공유하는 {@link SamlSessionBackend}에 저장하는 {@link SamlMessageIdStore}.
+ * AuthnRequest를 보낸 node와 응답을 받은 node가 달라도 InResponseTo를 확인하고, 다른 node에서 사용한 Assertion도 replay로 거부한다.
+ * 저장소 하나를 session과 같이 사용하므로 key 앞에 store 이름을 붙인다.
+ */
+final class RemoteMessageIdStore implements SamlMessageIdStore {
+
+    private static final byte[] VALUE = new byte[]{1};
+
+    private final SamlSessionBackend backend;
+    private final String prefix;
+    private final long ttlMillis;
+
+    RemoteMessageIdStore(SamlSessionBackend backend, String name, long ttl, TimeUnit unit) {
+        this.backend = backend;
+        this.prefix = "saml:" + name + ":";
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    @Override
+    public boolean add(String id) {
+        return backend.putIfAbsent(prefix + id, VALUE, ttlMillis);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return backend.get(prefix + id) != null;
+    }
+
+    @Override
+    public boolean remove(String id) {
+        return backend.remove(prefix + id);
+    }
+}
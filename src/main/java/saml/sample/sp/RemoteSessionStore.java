@@ -0,0 +1,394 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 여러 SP node가 공유하는 {@link SamlSessionBackend}를 사용하는 {@link SamlSessionStore}.
+ * <ul>
+ *     <li>로그인 : 다음 요청이 다른 node로 가도 로그인 상태여야 하므로 backend에 바로 저장(실패하면 로그인 실패)</li>
+ *     <li>갱신 : ttl은 마지막 사용 기준(idle). 저장한 지 ttl/4가 지난 session을 사용하면 만료 시각을 늘리는 쓰기를 모아서
+ *     flush 주기 또는 batch 크기마다 한번에 저장(남아 있는 session만, 다른 node에서 삭제한 session은 되살리지 않음). 사용하지 않은 session은 ttl - ttl/4 ~ ttl 후에 만료</li>
+ *     <li>읽기 : 자주 쓰는 session은 near cache(LRU, 짧은 ttl)에서 조회해서 backend 왕복 없이 처리</li>
+ *     <li>삭제 : logout은 다른 node에도 바로 반영되어야 하므로 backend에 즉시 반영</li>
+ * </ul>
+ * backend 값은 저장 시각(8 bytes) + {@link SamlSessionCodec} 형식.
+ * 다른 node에서 logout 한 session은 near cache ttl 동안 이 node에 남아 있을 수 있다.
+ * IdP LogoutRequest는 로그인하지 않은 node로 올 수 있으므로 IdP별 SessionIndex/NameID -> session id 집합을 backend에 같이 저장한다({@link #logout}).
+ */
+final class RemoteSessionStore implements SamlSessionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteSessionStore.class);
+
+    private final SamlSessionBackend backend;
+
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final NearCache nearCache = new NearCache();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /**
+     * flush 중인 session이 삭제 후 다시 저장되지 않도록 flush, 삭제를 순서대로 처리
+     */
+    private final Object flushLock = new Object();
+
+    private final AtomicLong nearCacheHits = new AtomicLong();
+    private final AtomicLong backendReads = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private long ttlMillis = TimeUnit.HOURS.toMillis(1);
+    private int batchSize = 100;
+    private long flushIntervalMillis = 50;
+    private int nearCacheSize = 10_000;
+    private long nearCacheTtlMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private volatile ScheduledExecutorService flusher;
+
+    RemoteSessionStore(SamlSessionBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public void save(String sessionId, SamlPrincipal principal) {
+        long now = System.currentTimeMillis();
+        byte[] value = encode(principal, now);
+        SamlSessionCodec.recordSession(value.length - Long.BYTES);
+        backend.putAll(Collections.singletonMap(sessionId, value), ttlMillis);
+        index(sessionId, principal);
+        nearCache.put(sessionId, principal, now);
+    }
+
+    @Override
+    public SamlPrincipal load(String sessionId) {
+        CachedPrincipal cached = nearCache.get(sessionId);
+        if (cached != null) {
+            if (cached.principal == null) {
+                // 이 node에서 logout 한 session
+                return null;
+            }
+            nearCacheHits.incrementAndGet();
+            refreshIfIdle(sessionId, cached.principal, cached.writtenAt);
+            return cached.principal;
+        }
+
+        // 대기 중인 쓰기는 이미 저장된 session의 갱신뿐이므로 backend 값을 읽음(다른 node의 삭제 반영)
+        backendReads.incrementAndGet();
+        byte[] value = backend.get(sessionId);
+        if (value == null) {
+            return null;
+        }
+        SamlPrincipal principal = decode(sessionId, value);
+        if (principal == null) {
+            return null;
+        }
+        long writtenAt = ByteBuffer.wrap(value).getLong();
+        nearCache.put(sessionId, principal, writtenAt);
+        refreshIfIdle(sessionId, principal, writtenAt);
+        return principal;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        // 처리 중인 다른 요청이 삭제 후에 갱신하지 않도록 삭제 표시를 먼저 남김
+        nearCache.remove(sessionId);
+        synchronized (flushLock) {
+            pendingWrites.remove(sessionId);
+            backend.removeAll(Collections.singleton(sessionId));
+        }
+    }
+
+    /**
+     * IdP LogoutRequest 대상 session 삭제, 다른 node에서 로그인한 session도 backend index로 찾는다.
+     * SessionIndex가 있으면 해당 session 중 NameID가 같은 session만, 없으면 NameID의 모든 session
+     *
+     * @return 삭제한 session 수
+     */
+    int logout(String idpEntityId, String nameId, Collection<String> sessionIndexes) {
+        Set<String> targets = new HashSet<>();
+        if (sessionIndexes.isEmpty()) {
+            if (nameId != null) {
+                targets.addAll(backend.members(indexKey("nid", idpEntityId, nameId)));
+            }
+        } else {
+            for (String sessionIndex : sessionIndexes) {
+                targets.addAll(backend.members(indexKey("sid", idpEntityId, sessionIndex)));
+            }
+        }
+
+        int count = 0;
+        for (String sessionId : targets) {
+            byte[] value = backend.get(sessionId);
+            SamlPrincipal principal = value == null ? null : decode(sessionId, value);
+            if (principal == null || (nameId != null && principal.getNameId() != null && !nameId.equals(principal.getNameId()))) {
+                continue;
+            }
+            remove(sessionId);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 대기 중인 쓰기를 batch 크기 단위로 backend에 저장
+     */
+    void flush() {
+        flushScheduled.set(false);
+        synchronized (flushLock) {
+            Map<String, PendingWrite> batch = new HashMap<>();
+            for (Map.Entry<String, PendingWrite> entry : pendingWrites.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= batchSize) {
+                    write(batch);
+                    batch = new HashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+    }
+
+    long nearCacheHits() {
+        return nearCacheHits.get();
+    }
+
+    long backendReads() {
+        return backendReads.get();
+    }
+
+    long flushCount() {
+        return flushCount.get();
+    }
+
+    long refreshCount() {
+        return refreshCount.get();
+    }
+
+    int pendingWrites() {
+        return pendingWrites.size();
+    }
+
+    RemoteSessionStore ttl(long ttl, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(ttl);
+        return this;
+    }
+
+    RemoteSessionStore batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    RemoteSessionStore flushInterval(long flushInterval, TimeUnit unit) {
+        this.flushIntervalMillis = unit.toMillis(flushInterval);
+        return this;
+    }
+
+    RemoteSessionStore nearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+        return this;
+    }
+
+    RemoteSessionStore nearCacheTtl(long nearCacheTtl, TimeUnit unit) {
+        this.nearCacheTtlMillis = unit.toMillis(nearCacheTtl);
+        return this;
+    }
+
+    /**
+     * 대기 중인 쓰기를 모두 저장한 후 종료
+     */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * 저장한 지 ttl/4가 지난 session이면 backend 만료 시각 갱신(write-behind)
+     */
+    private void refreshIfIdle(String sessionId, SamlPrincipal principal, long writtenAt) {
+        long now = System.currentTimeMillis();
+        if (now - writtenAt < ttlMillis / 4) {
+            return;
+        }
+        if (nearCache.refresh(sessionId, principal, now, encode(principal, now))) {
+            refreshCount.incrementAndGet();
+            scheduleFlush(pendingWrites.size() >= batchSize);
+        }
+    }
+
+    /**
+     * IdP logout index(IdP별 SessionIndex, NameID -> session id) 등록 또는 만료 시각 연장
+     */
+    private void index(String sessionId, SamlPrincipal principal) {
+        if (principal.getSessionIndex() != null) {
+            backend.addMember(indexKey("sid", principal.getIdpEntityId(), principal.getSessionIndex()), sessionId, ttlMillis);
+        }
+        if (principal.getNameId() != null) {
+            backend.addMember(indexKey("nid", principal.getIdpEntityId(), principal.getNameId()), sessionId, ttlMillis);
+        }
+    }
+
+    /**
+     * entity id에 ':'가 있어도 다른 IdP의 key와 겹치지 않도록 길이를 붙임
+     */
+    private static String indexKey(String type, String idpEntityId, String value) {
+        String idp = idpEntityId == null ? "" : idpEntityId;
+        return "saml:slo:" + type + ":" + idp.length() + ":" + idp + ":" + value;
+    }
+
+    /**
+     * @return 형식이 맞지 않으면 null
+     */
+    private static SamlPrincipal decode(String sessionId, byte[] value) {
+        try {
+            if (value.length < Long.BYTES) {
+                throw new IOException("Session value is too short");
+            }
+            return SamlSessionCodec.decode(Arrays.copyOfRange(value, Long.BYTES, value.length));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to decode session[{}] : {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] encode(SamlPrincipal principal, long writtenAt) {
+        byte[] session = SamlSessionCodec.encode(principal);
+        return ByteBuffer.allocate(Long.BYTES + session.length).putLong(writtenAt).put(session).array();
+    }
+
+    private void write(Map<String, PendingWrite> batch) {
+        try {
+            Map<String, byte[]> values = new HashMap<>(batch.size() * 2);
+            batch.forEach((sessionId, write) -> values.put(sessionId, write.value));
+            backend.replaceAll(values, ttlMillis);
+            batch.forEach((sessionId, write) -> index(sessionId, write.principal));
+            flushCount.incrementAndGet();
+            // 저장하는 동안 다시 변경된 session은 다음 flush에서 저장
+            batch.forEach((sessionId, write) -> pendingWrites.remove(sessionId, write));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to write {} sessions, retry on next flush", batch.size(), e);
+        }
+    }
+
+    private void scheduleFlush(boolean immediately) {
+        if (!flushScheduled.compareAndSet(false, true) && !immediately) {
+            return;
+        }
+        ScheduledExecutorService current = flusher;
+        if (current == null) {
+            synchronized (this) {
+                if (flusher == null) {
+                    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "saml-session-flush");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                current = flusher;
+            }
+        }
+        if (!current.isShutdown()) {
+            current.schedule(this::flush, immediately ? 0 : flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * access 순서 LRU, entry 단위 ttl. 삭제한 session은 ttl 동안 principal이 null인 삭제 표시로 남김
+     */
+    private final class NearCache {
+
+        private final LinkedHashMap<String, CachedPrincipal> entries = new LinkedHashMap<String, CachedPrincipal>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPrincipal> eldest) {
+                return size() > nearCacheSize;
+            }
+        };
+
+        private synchronized CachedPrincipal get(String sessionId) {
+            CachedPrincipal cached = entries.get(sessionId);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(sessionId);
+                return null;
+            }
+            return cached;
+        }
+
+        /**
+         * 삭제 표시가 있으면 저장하지 않음(삭제 전에 읽은 값)
+         */
+        private synchronized void put(String sessionId, SamlPrincipal principal, long writtenAt) {
+            if (nearCacheSize > 0 && !isRemoved(sessionId)) {
+                entries.put(sessionId, new CachedPrincipal(principal, writtenAt, System.currentTimeMillis() + nearCacheTtlMillis));
+            }
+        }
+
+        /**
+         * 갱신할 값을 대기 중인 쓰기에 추가, 삭제 표시가 있으면 false
+         */
+        private synchronized boolean refresh(String sessionId, SamlPrincipal principal, long writtenAt, byte[] value) {
+            if (isRemoved(sessionId)) {
+                return false;
+            }
+            pendingWrites.put(sessionId, new PendingWrite(value, principal));
+            put(sessionId, principal, writtenAt);
+            return true;
+        }
+
+        private synchronized void remove(String sessionId) {
+            if (nearCacheSize > 0) {
+                entries.put(sessionId, new CachedPrincipal(null, 0, System.currentTimeMillis() + nearCacheTtlMillis));
+            }
+        }
+
+        private boolean isRemoved(String sessionId) {
+            CachedPrincipal cached = entries.get(sessionId);
+            return cached != null && cached.principal == null && cached.expiresAt > System.currentTimeMillis();
+        }
+    }
+
+    private static final class CachedPrincipal {
+        private final SamlPrincipal principal;
+        /**
+         * backend에 저장한 시각, idle ttl 갱신 판단
+         */
+        private final long writtenAt;
+        private final long expiresAt;
+
+        private CachedPrincipal(SamlPrincipal principal, long writtenAt, long expiresAt) {
+            this.principal = principal;
+            this.writtenAt = writtenAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class PendingWrite {
+        private final byte[] value;
+        private final SamlPrincipal principal;
+
+        private PendingWrite(byte[] value, SamlPrincipal principal) {
+            this.value = value;
+            this.principal = principal;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * ACS 검증(decode, 서명 검증, session 저장) 전용 executor.
+ * 동시 실행 수는 CPU 수, 대기 수는 queueSize로 제한하고 넘치면 바로 거부한다.
+ * Java 21 이상에서 virtualThreads를 켜면 작업마다 virtual thread를 사용하고 동시 실행 수는 semaphore로 제한한다.
+ * 대기/실행 시간과 거부 수는 {@link SamlMetrics}에 기록한다(saml.acs.queue.wait, saml.acs.execution, saml.acs.rejected).
+ */
+final class SamlAcsExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlAcsExecutor.class);
+
+    private final int threads;
+    private final int queueSize;
+    private final ExecutorService executor;
+    /**
+     * virtual thread 사용 시 동시 실행 수 제한, platform thread pool은 pool 크기로 제한하므로 null
+     */
+    private final Semaphore running;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    /**
+     * @param threads 동시 실행 수, 0 이하면 CPU 수
+     */
+    SamlAcsExecutor(int threads, int queueSize, boolean virtualThreads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.queueSize = queueSize;
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.running = new Semaphore(this.threads);
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            // 대기 수는 inFlight로 제한하므로 queue는 제한하지 않음
+            this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "saml-acs-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.running = null;
+        }
+        LOGGER.info("ACS executor threads[{}] queueSize[{}] virtualThreads[{}]", this.threads, queueSize, virtualExecutor != null);
+    }
+
+    /**
+     * 작업 실행 요청
+     *
+     * @param task 대기 시간(nano)을 받아서 실행하는 작업
+     * @return 대기 수를 넘어서 거부한 경우 false
+     */
+    boolean execute(LongConsumer task) {
+        if (inFlight.incrementAndGet() > threads + queueSize) {
+            inFlight.decrementAndGet();
+            metrics.increment("saml.acs.rejected");
+            return false;
+        }
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> run(task, submitted));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            metrics.increment("saml.acs.rejected");
+            return false;
+        }
+    }
+
+    private void run(LongConsumer task, long submitted) {
+        if (running != null) {
+            running.acquireUninterruptibly();
+        }
+        long start = System.nanoTime();
+        long wait = start - submitted;
+        metrics.recordNanos("saml.acs.queue.wait", wait);
+        active.incrementAndGet();
+        try {
+            task.accept(wait);
+        } finally {
+            metrics.recordNanos("saml.acs.execution", System.nanoTime() - start);
+            active.decrementAndGet();
+            inFlight.decrementAndGet();
+            if (running != null) {
+                running.release();
+            }
+        }
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    int queueSize() {
+        return queueSize;
+    }
+
+    int active() {
+        return active.get();
+    }
+
+    /**
+     * 실행을 기다리는 작업 수
+     */
+    int queued() {
+        return Math.max(0, inFlight.get() - active.get());
+    }
+
+    /**
+     * 대기/실행 시간, 거부 수 기록과 active/queued gauge 등록
+     */
+    SamlAcsExecutor metrics(SamlMetrics metrics) {
+        this.metrics = metrics.gauge("saml.acs.active", this, SamlAcsExecutor::active)
+                .gauge("saml.acs.queued", this, SamlAcsExecutor::queued);
+        return this;
+    }
+
+    boolean isVirtualThreads() {
+        return running != null;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Java 21 Executors.newVirtualThreadPerTaskExecutor(), 11 target으로 compile 하므로 reflection으로 호출
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.info("Virtual threads are not available on Java {}, use platform threads", System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
@@ -1,13 +1,38 @@
 package saml.sample.sp;
 
+import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
+import org.springframework.security.web.authentication.session.NullAuthenticatedSessionStrategy;
+import org.springframework.security.web.authentication.session.SessionAuthenticationStrategy;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * SAML assertion consume url filter
@@ -18,15 +43,146 @@ public final class SamlAssertionConsumeFilter extends AbstractAuthenticationProc
 
     private SamlContextProvider samlContextProvider;
 
+    private SamlMessageIngester messageIngester = new SamlMessageIngester();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    /**
+     * null이 아니면 검증을 request thread가 아닌 ACS executor에서 실행(Servlet async)
+     */
+    private SamlAcsExecutor acsExecutor;
+    private long maxQueueWaitNanos = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * 실행 시작 후 응답까지 최대 시간, async 요청 timeout은 maxQueueWait + timeout
+     */
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+    private int retryAfterSeconds = 2;
+
+    /**
+     * 상위 class의 sessionStrategy는 private이라 async 처리용으로 따로 보관
+     */
+    private SessionAuthenticationStrategy sessionStrategy = new NullAuthenticatedSessionStrategy();
+
     protected SamlAssertionConsumeFilter(String defaultFilterProcessesUrl) {
         super(defaultFilterProcessesUrl);
     }
 
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        if (acsExecutor == null || !request.isAsyncSupported() || !requiresAuthentication(request, response)) {
+            super.doFilter(req, res, chain);
+            return;
+        }
+
+        // request thread는 바로 반환하고 executor thread에서 인증 후 응답
+        AsyncResponse asyncResponse = new AsyncResponse(response);
+        AsyncContext asyncContext = request.startAsync(request, asyncResponse);
+        asyncContext.setTimeout(TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos + timeoutNanos));
+        asyncContext.addListener(new TimeoutListener(asyncResponse));
+        if (!acsExecutor.execute(queueWait -> authenticateAsync(asyncContext, request, asyncResponse, chain, queueWait))) {
+            LOGGER.warn("ACS executor is full, rejected login request");
+            if (asyncResponse.finish()) {
+                rejectBusy(response);
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private void authenticateAsync(AsyncContext asyncContext, HttpServletRequest request, AsyncResponse response,
+                                   FilterChain chain, long queueWaitNanos) {
+        if (response.isTimedOut()) {
+            // 대기 중에 timeout 응답을 보냄
+            return;
+        }
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        try {
+            if (queueWaitNanos > maxQueueWaitNanos) {
+                LOGGER.warn("Login request waited {}ms in ACS executor, rejected", TimeUnit.NANOSECONDS.toMillis(queueWaitNanos));
+                rejectBusy(response);
+                return;
+            }
+            Authentication authResult = attemptAuthentication(request, response);
+            if (authResult == null || response.isTimedOut()) {
+                // timeout 후에는 session을 저장하지 않음(cookie는 이 wrapper 아래의 SecurityContextRepository가 씀)
+                return;
+            }
+            sessionStrategy.onAuthentication(authResult, request, response);
+            successfulAuthentication(request, response, chain, authResult);
+        } catch (InternalAuthenticationServiceException e) {
+            LOGGER.error("An internal error occurred while trying to authenticate the user.", e);
+            unsuccessful(request, response, e);
+        } catch (AuthenticationException e) {
+            unsuccessful(request, response, e);
+        } catch (IOException | ServletException | RuntimeException e) {
+            LOGGER.error("Failed to process login request", e);
+            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            // executor thread 재사용
+            SecurityContextHolder.clearContext();
+            RequestContextHolder.resetRequestAttributes();
+            if (response.finish()) {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private void unsuccessful(HttpServletRequest request, HttpServletResponse response, AuthenticationException failed) {
+        try {
+            unsuccessfulAuthentication(request, response, failed);
+        } catch (IOException | ServletException e) {
+            LOGGER.error("Failed to handle authentication failure", e);
+            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 503 + Retry-After
+     */
+    private void rejectBusy(HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    private void sendError(HttpServletResponse response, int status) {
+        if (response.isCommitted()) {
+            return;
+        }
+        try {
+            response.sendError(status);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to send error {}", status, e);
+        }
+    }
+
+    @Override
+    public void setSessionAuthenticationStrategy(SessionAuthenticationStrategy sessionStrategy) {
+        super.setSessionAuthenticationStrategy(sessionStrategy);
+        this.sessionStrategy = sessionStrategy;
+    }
+
     @Override
     public Authentication attemptAuthentication(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException {
         LOGGER.debug("Attempt authentication...");
 
-        SamlContext samlContext = samlContextProvider.getLocalContext(request, response);
+        HttpServletRequest inboundRequest;
+        long start = metrics.start();
+        try {
+            // DOM 생성 전에 크기, 형식 검사
+            inboundRequest = messageIngester.ingest(request);
+        } catch (MessageDecodingException e) {
+            LOGGER.warn("Rejected SAML message : {}", e.getMessage());
+            metrics.failure(SamlMetrics.Stage.INGEST, "malformed");
+            throw new BadCredentialsException("Invalid SAML message", e);
+        } finally {
+            metrics.record(SamlMetrics.Stage.INGEST, start);
+        }
+
+        // body는 ingester가 읽었으므로 success handler가 볼 수 있게 RelayState 전달
+        request.setAttribute(SamlRelayState.ATTRIBUTE, inboundRequest.getParameter(SamlMessageIngester.RELAY_STATE));
+
+        SamlContext samlContext = samlContextProvider.getLocalContext(inboundRequest, response);
         SamlPreAuthenticationToken token = new SamlPreAuthenticationToken(samlContext);
         return getAuthenticationManager().authenticate(token);
     }
@@ -35,4 +191,197 @@ public final class SamlAssertionConsumeFilter extends AbstractAuthenticationProc
         this.samlContextProvider = samlContextProvider;
         return this;
     }
+
+    public SamlAssertionConsumeFilter messageIngester(SamlMessageIngester messageIngester) {
+        this.messageIngester = messageIngester;
+        return this;
+    }
+
+    SamlAssertionConsumeFilter metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    SamlAssertionConsumeFilter acsExecutor(SamlAcsExecutor acsExecutor) {
+        this.acsExecutor = acsExecutor;
+        return this;
+    }
+
+    SamlAssertionConsumeFilter maxQueueWait(long maxQueueWait, TimeUnit unit) {
+        this.maxQueueWaitNanos = unit.toNanos(maxQueueWait);
+        return this;
+    }
+
+    SamlAssertionConsumeFilter timeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    SamlAssertionConsumeFilter retryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * async 요청 timeout 시 503 응답 후 complete, 아직 처리 중인 작업이 이후에 쓰는 응답은 버림
+     */
+    private final class TimeoutListener implements AsyncListener {
+
+        private final AsyncResponse response;
+
+        private TimeoutListener(AsyncResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!response.timeout()) {
+                return;
+            }
+            LOGGER.warn("Login request was not processed in {}ms, rejected",
+                    TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos + timeoutNanos));
+            metrics.failure(SamlMetrics.Stage.LOGIN, "timeout");
+            HttpServletResponse original = (HttpServletResponse) response.getResponse();
+            if (!original.isCommitted()) {
+                // 처리 중인 작업이 추가한 cookie, header 제거
+                original.reset();
+            }
+            rejectBusy(original);
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * 작업과 timeout 중 먼저 끝나는 쪽만 complete 하도록 하고, timeout 이후에는 쓰기를 무시하는 response.
+     * complete 후 container가 재사용하는 response에 늦게 끝난 작업이 쓰지 않도록 한다.
+     */
+    private static final class AsyncResponse extends HttpServletResponseWrapper {
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean timedOut;
+
+        private AsyncResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * @return 처음 호출한 경우 true, 호출한 쪽이 complete
+         */
+        boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        boolean timeout() {
+            if (!finish()) {
+                return false;
+            }
+            timedOut = true;
+            return true;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return timedOut || super.isCommitted();
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            if (!timedOut) {
+                super.addCookie(cookie);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!timedOut) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!timedOut) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            if (!timedOut) {
+                super.setStatus(sc);
+            }
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            if (!timedOut) {
+                super.sendError(sc, msg);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            if (!timedOut) {
+                super.sendError(sc);
+            }
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            if (!timedOut) {
+                super.sendRedirect(location);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (!timedOut) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            return timedOut ? new PrintWriter(Writer.nullWriter()) : super.getWriter();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            return timedOut ? DiscardOutputStream.INSTANCE : super.getOutputStream();
+        }
+    }
+
+    private static final class DiscardOutputStream extends ServletOutputStream {
+
+        private static final DiscardOutputStream INSTANCE = new DiscardOutputStream();
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(int b) {
+        }
+    }
 }
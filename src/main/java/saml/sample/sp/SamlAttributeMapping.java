@@ -0,0 +1,323 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.schema.XSAny;
+import org.opensaml.xml.schema.XSString;
+import org.opensaml.xml.schema.XSURI;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.util.StringUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 설정(sp.attribute_mapping)으로 정의한 attribute -> {@link SamlUserDetails} field mapping.
+ * 기동 시 한번 attribute Name별 rule table로 compile, 응답의 attribute를 한번 순회하면서 table 조회로 값을 넣는다.
+ * <p>
+ * rule은 콤마로 구분, {@code target=name[@nameFormat][;option...]}
+ * <ul>
+ *     <li>target : username, email, federation_identifier, personname, authorities</li>
+ *     <li>nameFormat : attribute NameFormat URI 또는 basic, uri, unspecified. 생략하면 NameFormat 확인 안 함</li>
+ *     <li>값이 여러 개인 경우 : first(기본), last, join(콤마로 연결), all(authorities 전용, 기본)</li>
+ *     <li>변환 : trim, lower, upper</li>
+ * </ul>
+ * ex) {@code username=urn:oid:0.9.2342.19200300.100.1.1@uri;trim, authorities=groups;upper}
+ * <p>
+ * 같은 target에 값이 여러 번 들어오면 뒤의 attribute 값 사용(authorities는 모두 추가).
+ */
+final class SamlAttributeMapping {
+
+    static final String DEFAULT_RULES = "username=idpuserid, email=idpuseremail, personname=idpusernm";
+
+    private final Map<String, Rule> rules;
+    private final int ruleCount;
+
+    private SamlAttributeMapping(Map<String, Rule> rules, int ruleCount) {
+        this.rules = rules;
+        this.ruleCount = ruleCount;
+    }
+
+    static SamlAttributeMapping compile(String definition) {
+        Map<String, Rule> rules = new HashMap<>();
+        int count = 0;
+        for (String token : StringUtils.commaDelimitedListToStringArray(definition)) {
+            String rule = token.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            Rule compiled = parse(rule);
+            // 같은 attribute를 여러 field에 넣는 경우 정의 순서대로 연결
+            Rule previous = rules.get(compiled.name);
+            if (previous == null) {
+                rules.put(compiled.name, compiled);
+            } else {
+                while (previous.next != null) {
+                    previous = previous.next;
+                }
+                previous.next = compiled;
+            }
+            count++;
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Empty attribute mapping[" + definition + "]");
+        }
+        return new SamlAttributeMapping(rules, count);
+    }
+
+    /**
+     * 모든 assertion(ex. authn assertion, attribute assertion)의 attribute로 사용자 생성
+     */
+    SamlUserDetails map(List<Assertion> assertions) {
+        SamlUserDetails user = new SamlUserDetails();
+        for (int i = 0; i < assertions.size(); i++) {
+            List<AttributeStatement> statements = assertions.get(i).getAttributeStatements();
+            for (int j = 0; j < statements.size(); j++) {
+                List<Attribute> attributes = statements.get(j).getAttributes();
+                for (int k = 0; k < attributes.size(); k++) {
+                    Attribute attribute = attributes.get(k);
+                    String name = attribute.getName();
+                    for (Rule rule = name == null ? null : rules.get(name); rule != null; rule = rule.next) {
+                        if (rule.matches(attribute)) {
+                            rule.apply(attribute.getAttributeValues(), user);
+                        }
+                    }
+                }
+            }
+        }
+        return user;
+    }
+
+    int ruleCount() {
+        return ruleCount;
+    }
+
+    private static Rule parse(String rule) {
+        int eq = rule.indexOf('=');
+        if (eq <= 0 || eq == rule.length() - 1) {
+            throw invalid(rule);
+        }
+        Target target = option(Target.class, rule.substring(0, eq).trim());
+        if (target == null) {
+            throw invalid(rule);
+        }
+        String[] parts = rule.substring(eq + 1).split(";");
+        String name = parts[0].trim();
+        String nameFormat = null;
+        int at = name.indexOf('@');
+        if (at >= 0) {
+            nameFormat = nameFormat(name.substring(at + 1).trim());
+            name = name.substring(0, at).trim();
+        }
+        if (name.isEmpty()) {
+            throw invalid(rule);
+        }
+
+        Multi multi = target == Target.AUTHORITIES ? Multi.ALL : Multi.FIRST;
+        Conversion conversion = Conversion.NONE;
+        for (int i = 1; i < parts.length; i++) {
+            String option = parts[i].trim();
+            Multi m = option(Multi.class, option);
+            Conversion c = option(Conversion.class, option);
+            if (m != null) {
+                multi = m;
+            } else if (c != null) {
+                conversion = c;
+            } else {
+                throw invalid(rule);
+            }
+        }
+        if ((multi == Multi.ALL) != (target == Target.AUTHORITIES)) {
+            throw new IllegalArgumentException("Invalid attribute mapping[" + rule + "], authorities use only 'all'");
+        }
+        return new Rule(name, nameFormat, target, multi, conversion);
+    }
+
+    private static <E extends Enum<E>> E option(Class<E> type, String name) {
+        for (E option : type.getEnumConstants()) {
+            if (option.name().equalsIgnoreCase(name)) {
+                return option;
+            }
+        }
+        return null;
+    }
+
+    private static String nameFormat(String nameFormat) {
+        switch (nameFormat) {
+            case "basic":
+                return Attribute.BASIC;
+            case "uri":
+                return Attribute.URI_REFERENCE;
+            case "unspecified":
+                return Attribute.UNSPECIFIED;
+            case "":
+                throw new IllegalArgumentException("Empty attribute NameFormat");
+            default:
+                return nameFormat;
+        }
+    }
+
+    private static IllegalArgumentException invalid(String rule) {
+        return new IllegalArgumentException("Invalid attribute mapping[" + rule + "]");
+    }
+
+    /**
+     * AttributeValue 문자열, xsi:type이 없는 값(XSAny)은 text 또는 NameID. 값이 없으면 null
+     */
+    static String value(XMLObject value) {
+        String text = null;
+        if (value instanceof XSString) {
+            text = ((XSString) value).getValue();
+        } else if (value instanceof XSAny) {
+            XSAny any = (XSAny) value;
+            text = any.getTextContent();
+            if (!StringUtils.hasText(text) && !any.getUnknownXMLObjects().isEmpty()
+                    && any.getUnknownXMLObjects().get(0) instanceof NameID) {
+                text = ((NameID) any.getUnknownXMLObjects().get(0)).getValue();
+            }
+        } else if (value instanceof XSURI) {
+            text = ((XSURI) value).getValue();
+        }
+        return text == null || text.isEmpty() ? null : text;
+    }
+
+    private enum Target {
+        USERNAME, EMAIL, FEDERATION_IDENTIFIER, PERSONNAME, AUTHORITIES
+    }
+
+    private enum Multi {
+        FIRST, LAST, JOIN, ALL
+    }
+
+    private enum Conversion {
+        NONE, TRIM, LOWER, UPPER;
+
+        /**
+         * 바뀌는 문자가 없으면 같은 String 반환(String.trim, toLowerCase, toUpperCase)
+         */
+        private String convert(String value) {
+            switch (this) {
+                case TRIM:
+                    return value.trim();
+                case LOWER:
+                    return value.toLowerCase(Locale.ROOT);
+                case UPPER:
+                    return value.toUpperCase(Locale.ROOT);
+                default:
+                    return value;
+            }
+        }
+    }
+
+    private static final class Rule {
+        private final String name;
+        private final String nameFormat;
+        private final Target target;
+        private final Multi multi;
+        private final Conversion conversion;
+        private Rule next;
+
+        private Rule(String name, String nameFormat, Target target, Multi multi, Conversion conversion) {
+            this.name = name;
+            this.nameFormat = nameFormat;
+            this.target = target;
+            this.multi = multi;
+            this.conversion = conversion;
+        }
+
+        /**
+         * NameFormat이 없는 attribute는 unspecified
+         */
+        private boolean matches(Attribute attribute) {
+            if (nameFormat == null) {
+                return true;
+            }
+            String format = attribute.getNameFormat();
+            return nameFormat.equals(format == null ? Attribute.UNSPECIFIED : format);
+        }
+
+        private void apply(List<XMLObject> values, SamlUserDetails user) {
+            switch (multi) {
+                case FIRST:
+                    for (int i = 0; i < values.size(); i++) {
+                        String value = value(values.get(i));
+                        if (value != null) {
+                            set(user, conversion.convert(value));
+                            return;
+                        }
+                    }
+                    return;
+                case LAST:
+                    for (int i = values.size() - 1; i >= 0; i--) {
+                        String value = value(values.get(i));
+                        if (value != null) {
+                            set(user, conversion.convert(value));
+                            return;
+                        }
+                    }
+                    return;
+                case JOIN:
+                    set(user, join(values));
+                    return;
+                default:
+                    for (int i = 0; i < values.size(); i++) {
+                        String value = value(values.get(i));
+                        if (value != null) {
+                            user.addAuthority(new SimpleGrantedAuthority(conversion.convert(value)));
+                        }
+                    }
+            }
+        }
+
+        /**
+         * 값이 하나면 그대로, 여러 개인 경우에만 StringBuilder 사용
+         */
+        private String join(List<XMLObject> values) {
+            String first = null;
+            StringBuilder joined = null;
+            for (int i = 0; i < values.size(); i++) {
+                String value = value(values.get(i));
+                if (value == null) {
+                    continue;
+                }
+                value = conversion.convert(value);
+                if (first == null) {
+                    first = value;
+                } else {
+                    if (joined == null) {
+                        joined = new StringBuilder(first);
+                    }
+                    joined.append(',').append(value);
+                }
+            }
+            return joined != null ? joined.toString() : first;
+        }
+
+        private void set(SamlUserDetails user, String value) {
+            if (value == null) {
+                return;
+            }
+            switch (target) {
+                case USERNAME:
+                    user.setUsername(value);
+                    break;
+                case EMAIL:
+                    user.setEmail(value);
+                    break;
+                case FEDERATION_IDENTIFIER:
+                    user.setFederationIdentifier(value);
+                    break;
+                case PERSONNAME:
+                    user.setPersonname(value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected target[" + target + "]");
+            }
+        }
+    }
+}
@@ -4,24 +4,20 @@ import org.opensaml.common.binding.BasicSAMLMessageContext;
 import org.opensaml.common.binding.SAMLMessageContext;
 import org.opensaml.saml2.binding.decoding.HTTPPostDecoder;
 import org.opensaml.saml2.core.Response;
-import org.opensaml.saml2.core.StatusCode;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xml.parse.ParserPool;
 import org.opensaml.xml.security.SecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.AuthenticationProvider;
-import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.InternalAuthenticationServiceException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.List;
 
 @Component
 public final class SamlAuthenticationProvider implements AuthenticationProvider {
@@ -30,34 +26,58 @@ public final class SamlAuthenticationProvider implements AuthenticationProvider
 
     private SimpleSamlAssertionConsumer assertionConsumer;
 
+    /**
+     * decoder는 상태가 없으므로 공유 parser pool을 사용하는 하나의 instance를 재사용
+     */
+    private HTTPPostDecoder decoder = new HTTPPostDecoder();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    private SamlAuthorityMapper authorityMapper = SamlAuthorityMapper.compile("ROLE_USER", "", "", null, false);
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
-        SamlPreAuthenticationToken preAuthenticationToken = (SamlPreAuthenticationToken) authentication;
+        long start = metrics.start();
+        try {
+            return authenticate((SamlPreAuthenticationToken) authentication);
+        } finally {
+            metrics.record(SamlMetrics.Stage.LOGIN, start);
+        }
+    }
+
+    private Authentication authenticate(SamlPreAuthenticationToken preAuthenticationToken) throws AuthenticationException {
         SamlContext samlContext = preAuthenticationToken.samlContext();
         @SuppressWarnings("rawtypes") SAMLMessageContext messageContext = null;
+        long start = metrics.start();
         try {
             messageContext = extractSAMLMessageContext(samlContext.request());
         } catch (MessageDecodingException | SecurityException e) {
             LOGGER.error("Failed to decode saml request", e);
+            metrics.failure(SamlMetrics.Stage.DECODE, "decode_error");
             throw new InternalAuthenticationServiceException("Failed to decode saml request", e);
+        } finally {
+            metrics.record(SamlMetrics.Stage.DECODE, start);
         }
 
         Response samlResponse = (Response) messageContext.getInboundSAMLMessage();
-        String statusCode = samlResponse.getStatus().getStatusCode().getValue();
-        if (!StatusCode.SUCCESS_URI.equals(statusCode)) {
-            LOGGER.error("SAML login failed. status code[{}]", statusCode);
-            throw new AuthenticationServiceException("SAML response status fail, code[" + statusCode + "]");
+        start = metrics.start();
+        UserDetails userDetails;
+        try {
+            userDetails = assertionConsumer.consume(samlResponse);
+        } finally {
+            metrics.record(SamlMetrics.Stage.CONSUME, start);
         }
+        LOGGER.info("Login user[{}]", userDetails.getUsername());
+        LOGGER.debug("Login user details[{}]", userDetails);
 
-        UserDetails userDetails = assertionConsumer.consume(samlResponse);
-        LOGGER.info("Login user[{}]", userDetails);
-        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList("ROLE_USER"); // for test!!
+        // session에는 필요한 값만 가진 principal만 보관, 권한은 group -> role mapping(IdP별 허용 role) 후 같은 조합끼리 공유
+        start = metrics.start();
+        SamlUserDetails samlUserDetails = (SamlUserDetails) userDetails;
+        SamlPrincipal principal = SamlPrincipal.of(samlUserDetails,
+                authorityMapper.map(samlUserDetails.getIdpEntityId(), samlUserDetails.getAuthorities()));
+        metrics.record(SamlMetrics.Stage.PRINCIPAL, start);
 
-        SamlAuthenticationToken resultToken = new SamlAuthenticationToken(userDetails.getUsername(), authorities);
-        resultToken.setAuthenticated(true);
-        resultToken.setDetails(userDetails);
-
-        return resultToken;
+        return new SamlAuthenticationToken(principal);
     }
 
     @Override
@@ -70,7 +90,6 @@ public final class SamlAuthenticationProvider implements AuthenticationProvider
         BasicSAMLMessageContext messageContext = new BasicSAMLMessageContext();
         messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(request));
         // http post decoder
-        HTTPPostDecoder decoder = new HTTPPostDecoder();
         decoder.decode(messageContext);
         return messageContext;
     }
@@ -79,4 +98,25 @@ public final class SamlAuthenticationProvider implements AuthenticationProvider
         this.assertionConsumer = assertionConsumer;
         return this;
     }
+
+    /**
+     * Destination은 검증 pipeline의 DestinationCheck가 sp.acs_url 기준으로 확인하므로 decoder의 요청 url 비교(proxy 뒤에서 다름)는 사용하지 않음
+     */
+    public SamlAuthenticationProvider parserPool(ParserPool parserPool) {
+        this.decoder = new SamlPostDecoder(parserPool).checkEndpointUri(false).metrics(metrics);
+        return this;
+    }
+
+    SamlAuthenticationProvider authorityMapper(SamlAuthorityMapper authorityMapper) {
+        this.authorityMapper = authorityMapper;
+        return this;
+    }
+
+    SamlAuthenticationProvider metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        if (decoder instanceof SamlPostDecoder) {
+            ((SamlPostDecoder) decoder).metrics(metrics);
+        }
+        return this;
+    }
 }
\ No newline at end of file
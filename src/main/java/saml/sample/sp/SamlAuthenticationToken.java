@@ -3,15 +3,33 @@ package saml.sample.sp;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
 import java.util.Collection;
 
+/**
+ * 로그인 완료된 SAML 인증 정보.
+ * session 저장(Java 직렬화) 시 {@link SamlSessionCodec}의 binary 형식으로 대체된다.
+ * 권한은 복사하지 않고 principal의 공유 {@link SamlAuthorities}를 그대로 사용한다.
+ */
 public class SamlAuthenticationToken extends AbstractAuthenticationToken {
 
-    private final String principal;
+    private final SamlPrincipal principal;
 
-    public SamlAuthenticationToken(String principal, Collection<? extends GrantedAuthority> authorities) {
-        super(authorities);
+    SamlAuthenticationToken(SamlPrincipal principal) {
+        super(null);
         this.principal = principal;
+        super.setAuthenticated(true);
+        super.setDetails(principal);
+    }
+
+    @Override
+    public Collection<GrantedAuthority> getAuthorities() {
+        return principal.getAuthorities();
     }
 
     @Override
@@ -23,4 +41,49 @@ public class SamlAuthenticationToken extends AbstractAuthenticationToken {
     public Object getPrincipal() {
         return principal;
     }
+
+    SamlPrincipal samlPrincipal() {
+        return principal;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(SamlSessionCodec.encode(principal));
+    }
+
+    /**
+     * session 직렬화 형식, binary 값만 기록
+     */
+    static final class SerializedForm implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private byte[] bytes;
+
+        public SerializedForm() {
+        }
+
+        SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return new SamlAuthenticationToken(SamlSessionCodec.decode(bytes));
+            } catch (IOException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
 }
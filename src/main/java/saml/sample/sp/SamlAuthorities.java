@@ -0,0 +1,152 @@
+package saml.sample.sp;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 변경 불가능한 권한 목록(이름 순, 중복 없음), 같은 권한 조합은 하나의 instance를 공유(intern).
+ * 로그인/session 복원마다 목록을 새로 만들지 않고 session 수천 개가 같은 instance를 가리킨다.
+ * 권한 확인({@link #contains(Object)})은 목록을 순회하지 않고 set 조회.
+ * intern 하는 조합 수는 {@link #MAX_INTERNED}까지, 넘으면 공유하지 않는 instance 생성.
+ */
+final class SamlAuthorities extends AbstractList<GrantedAuthority> implements RandomAccess {
+
+    static final int MAX_INTERNED = 4096;
+
+    static final SamlAuthorities EMPTY = new SamlAuthorities(new String[0]);
+
+    private static final ConcurrentMap<Key, SamlAuthorities> INTERNED = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, GrantedAuthority> AUTHORITIES = new ConcurrentHashMap<>();
+
+    private final GrantedAuthority[] authorities;
+    private final Set<String> names;
+
+    private SamlAuthorities(String[] sortedNames) {
+        this.authorities = new GrantedAuthority[sortedNames.length];
+        for (int i = 0; i < sortedNames.length; i++) {
+            authorities[i] = authority(sortedNames[i]);
+        }
+        this.names = Set.of(sortedNames);
+    }
+
+    /**
+     * 권한 이름 목록의 공유 instance, 순서와 중복은 무시
+     */
+    static SamlAuthorities of(Collection<String> names) {
+        if (names.isEmpty()) {
+            return EMPTY;
+        }
+        return intern(names.toArray(new String[0]));
+    }
+
+    /**
+     * GrantedAuthority 목록의 공유 instance
+     */
+    static SamlAuthorities from(Collection<? extends GrantedAuthority> authorities) {
+        if (authorities instanceof SamlAuthorities) {
+            return (SamlAuthorities) authorities;
+        }
+        if (authorities.isEmpty()) {
+            return EMPTY;
+        }
+        String[] names = new String[authorities.size()];
+        int i = 0;
+        for (GrantedAuthority authority : authorities) {
+            names[i++] = authority.getAuthority();
+        }
+        return intern(names);
+    }
+
+    /**
+     * @param names 정렬, 중복 제거하면서 변경됨
+     */
+    private static SamlAuthorities intern(String[] names) {
+        Arrays.sort(names);
+        int size = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+                throw new IllegalArgumentException("Authority must not be null");
+            }
+            if (size == 0 || !names[i].equals(names[size - 1])) {
+                names[size++] = names[i];
+            }
+        }
+        Key key = new Key(size == names.length ? names : Arrays.copyOf(names, size));
+        SamlAuthorities authorities = INTERNED.get(key);
+        if (authorities != null) {
+            return authorities;
+        }
+        authorities = new SamlAuthorities(key.names);
+        if (INTERNED.size() >= MAX_INTERNED) {
+            return authorities;
+        }
+        SamlAuthorities previous = INTERNED.putIfAbsent(key, authorities);
+        return previous != null ? previous : authorities;
+    }
+
+    /**
+     * 권한 이름별 하나의 GrantedAuthority, 조합이 달라도 같은 이름이면 공유
+     */
+    private static GrantedAuthority authority(String name) {
+        GrantedAuthority authority = AUTHORITIES.get(name);
+        if (authority != null) {
+            return authority;
+        }
+        authority = new SimpleGrantedAuthority(name);
+        if (AUTHORITIES.size() >= MAX_INTERNED) {
+            return authority;
+        }
+        GrantedAuthority previous = AUTHORITIES.putIfAbsent(name, authority);
+        return previous != null ? previous : authority;
+    }
+
+    /**
+     * intern 된 권한 조합 수
+     */
+    static int interned() {
+        return INTERNED.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof GrantedAuthority && names.contains(((GrantedAuthority) o).getAuthority());
+    }
+
+    @Override
+    public GrantedAuthority get(int index) {
+        return authorities[index];
+    }
+
+    @Override
+    public int size() {
+        return authorities.length;
+    }
+
+    private static final class Key {
+        private final String[] names;
+        private final int hash;
+
+        private Key(String[] names) {
+            this.names = names;
+            this.hash = Arrays.hashCode(names);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(names, ((Key) o).names);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
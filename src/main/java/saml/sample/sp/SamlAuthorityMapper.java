@@ -0,0 +1,216 @@
+package saml.sample.sp;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IdP group(attribute mapping의 authorities 값) -> role mapping, role hierarchy 적용 후 {@link SamlAuthorities}로 intern.
+ * 기동 시 group별 role과 hierarchy의 하위 role을 모두 펼친 table을 만들어 로그인마다 group 수만큼 table 조회만 한다.
+ * <ul>
+ *     <li>default_roles : 모든 사용자에게 주는 role, 콤마로 구분</li>
+ *     <li>group_roles : {@code group=ROLE_A|ROLE_B}, 세미콜론으로 구분(group 값에 콤마가 있는 DN 가능, 마지막 = 기준으로 나눔)</li>
+ *     <li>hierarchy : {@code ROLE_ADMIN > ROLE_MANAGER > ROLE_USER}, 세미콜론으로 구분. 상위 role은 하위 role을 모두 포함</li>
+ *     <li>pass_unmapped_groups : mapping이 없는 group 값을 그대로 권한으로 사용할지 여부</li>
+ *     <li>idp_roles : 여러 IdP 사용 시 IdP별로 줄 수 있는 role, {@code entityID=ROLE_A|ROLE_B}, 세미콜론으로 구분.
+ *     hierarchy 하위 role 포함, 목록에 없는 IdP 사용자는 default_roles만 받음(다른 IdP가 관리자 group을 주장하지 못하게)</li>
+ * </ul>
+ */
+final class SamlAuthorityMapper {
+
+    private final String[] defaultRoles;
+    /**
+     * group -> role(hierarchy 하위 role 포함)
+     */
+    private final Map<String, String[]> groupRoles;
+    /**
+     * role -> 자신과 hierarchy 하위 role
+     */
+    private final Map<String, String[]> reachableRoles;
+    private final boolean passUnmappedGroups;
+    /**
+     * IdP entityID -> 줄 수 있는 role(default role 포함), null이면 IdP 구분 없음(단일 IdP)
+     */
+    private final Map<String, Set<String>> idpRoles;
+    /**
+     * idp_roles에 없는 IdP의 허용 role
+     */
+    private final Set<String> defaultRoleSet;
+
+    private SamlAuthorityMapper(String[] defaultRoles, Map<String, String[]> groupRoles, Map<String, String[]> reachableRoles,
+                                boolean passUnmappedGroups, Map<String, Set<String>> idpRoles) {
+        this.defaultRoles = defaultRoles;
+        this.groupRoles = groupRoles;
+        this.reachableRoles = reachableRoles;
+        this.passUnmappedGroups = passUnmappedGroups;
+        this.idpRoles = idpRoles;
+        this.defaultRoleSet = Set.of(defaultRoles);
+    }
+
+    /**
+     * @param idpRoles IdP별 허용 role, null이면 IdP 구분 없이 mapping 결과를 그대로 사용
+     */
+    static SamlAuthorityMapper compile(String defaultRoles, String groupRoles, String hierarchy, String idpRoles,
+                                       boolean passUnmappedGroups) {
+        Map<String, String[]> reachable = reachableRoles(hierarchy);
+
+        Set<String> defaults = new LinkedHashSet<>();
+        for (String role : StringUtils.commaDelimitedListToStringArray(defaultRoles)) {
+            if (StringUtils.hasText(role)) {
+                expand(role.trim(), reachable, defaults);
+            }
+        }
+
+        Map<String, String[]> groups = new HashMap<>();
+        for (String token : StringUtils.delimitedListToStringArray(groupRoles, ";")) {
+            String rule = token.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            int eq = rule.lastIndexOf('=');
+            String group = eq <= 0 ? "" : rule.substring(0, eq).trim();
+            if (group.isEmpty() || eq == rule.length() - 1) {
+                throw new IllegalArgumentException("Invalid group role mapping[" + rule + "]");
+            }
+            Set<String> roles = new LinkedHashSet<>();
+            for (String role : StringUtils.delimitedListToStringArray(rule.substring(eq + 1), "|")) {
+                if (StringUtils.hasText(role)) {
+                    expand(role.trim(), reachable, roles);
+                }
+            }
+            String[] previous = groups.get(group);
+            if (previous != null) {
+                roles.addAll(List.of(previous));
+            }
+            groups.put(group, roles.toArray(new String[0]));
+        }
+        return new SamlAuthorityMapper(defaults.toArray(new String[0]), groups, reachable, passUnmappedGroups,
+                idpRoles == null ? null : idpRoles(idpRoles, reachable, defaults));
+    }
+
+    /**
+     * 로그인 사용자의 권한, 같은 조합이면 같은 instance
+     *
+     * @param idpEntityId 사용자를 인증한 IdP, idp_roles 설정 시 해당 IdP에 허용한 role만 줌
+     * @param groups      attribute mapping으로 받은 group 값
+     */
+    SamlAuthorities map(String idpEntityId, Collection<? extends GrantedAuthority> groups) {
+        if (groups.isEmpty() && groupRoles.isEmpty()) {
+            return SamlAuthorities.of(List.of(defaultRoles));
+        }
+        Set<String> roles = new HashSet<>(defaultRoles.length + groups.size() * 2);
+        roles.addAll(List.of(defaultRoles));
+        for (GrantedAuthority group : groups) {
+            String name = group.getAuthority();
+            String[] mapped = groupRoles.get(name);
+            if (mapped != null) {
+                roles.addAll(List.of(mapped));
+            } else if (passUnmappedGroups) {
+                String[] reachable = reachableRoles.get(name);
+                if (reachable != null) {
+                    roles.addAll(List.of(reachable));
+                } else {
+                    roles.add(name);
+                }
+            }
+        }
+        if (idpRoles != null) {
+            roles.retainAll(idpRoles.getOrDefault(idpEntityId, defaultRoleSet));
+        }
+        return SamlAuthorities.of(roles);
+    }
+
+    int groupCount() {
+        return groupRoles.size();
+    }
+
+    /**
+     * idp_roles를 설정한 IdP 수, IdP 구분이 없으면 -1
+     */
+    int idpCount() {
+        return idpRoles == null ? -1 : idpRoles.size();
+    }
+
+    private static Map<String, Set<String>> idpRoles(String idpRoles, Map<String, String[]> reachable, Set<String> defaults) {
+        Map<String, Set<String>> allowed = new HashMap<>();
+        for (String token : StringUtils.delimitedListToStringArray(idpRoles, ";")) {
+            String rule = token.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            // entityID는 url이므로 마지막 = 기준으로 나눔
+            int eq = rule.lastIndexOf('=');
+            String idp = eq <= 0 ? "" : rule.substring(0, eq).trim();
+            if (idp.isEmpty()) {
+                throw new IllegalArgumentException("Invalid IdP role allow-list[" + rule + "]");
+            }
+            Set<String> roles = allowed.computeIfAbsent(idp, k -> new HashSet<>(defaults));
+            for (String role : StringUtils.delimitedListToStringArray(rule.substring(eq + 1), "|")) {
+                if (StringUtils.hasText(role)) {
+                    expand(role.trim(), reachable, roles);
+                }
+            }
+        }
+        return allowed;
+    }
+
+    private static void expand(String role, Map<String, String[]> reachable, Set<String> roles) {
+        String[] expanded = reachable.get(role);
+        if (expanded == null) {
+            roles.add(role);
+        } else {
+            roles.addAll(List.of(expanded));
+        }
+    }
+
+    /**
+     * hierarchy의 role별 도달 가능한 role(자신 포함), 순환이 있으면 기동 실패
+     */
+    private static Map<String, String[]> reachableRoles(String hierarchy) {
+        Map<String, Set<String>> children = new HashMap<>();
+        for (String token : StringUtils.delimitedListToStringArray(hierarchy, ";")) {
+            String chain = token.trim();
+            if (chain.isEmpty()) {
+                continue;
+            }
+            String[] roles = StringUtils.delimitedListToStringArray(chain, ">");
+            if (roles.length < 2) {
+                throw new IllegalArgumentException("Invalid role hierarchy[" + chain + "]");
+            }
+            for (int i = 0; i < roles.length - 1; i++) {
+                String higher = roles[i].trim();
+                String lower = roles[i + 1].trim();
+                if (higher.isEmpty() || lower.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid role hierarchy[" + chain + "]");
+                }
+                children.computeIfAbsent(higher, k -> new LinkedHashSet<>()).add(lower);
+            }
+        }
+
+        Map<String, String[]> reachable = new HashMap<>();
+        for (String role : children.keySet()) {
+            Set<String> roles = new LinkedHashSet<>();
+            roles.add(role);
+            List<String> pending = new ArrayList<>(children.get(role));
+            while (!pending.isEmpty()) {
+                String lower = pending.remove(pending.size() - 1);
+                if (lower.equals(role)) {
+                    throw new IllegalArgumentException("Cycle in role hierarchy at [" + role + "]");
+                }
+                if (roles.add(lower)) {
+                    pending.addAll(children.getOrDefault(lower, Set.of()));
+                }
+            }
+            reachable.put(role, roles.toArray(new String[0]));
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,137 @@
+package saml.sample.sp;
+
+import org.opensaml.xml.security.credential.BasicCredential;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdP 서명 인증서 credential cache.
+ * IdP는 보통 한두개의 키로 서명하기 때문에 로그인마다 X.509 인증서를 다시 파싱하지 않고,
+ * 인증서 원본 bytes의 SHA-256 fingerprint를 key로 미리 만들어둔 {@link SignatureValidator}를 재사용한다.
+ */
+final class SamlCredentialCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlCredentialCache.class);
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private int maxSize = 16;
+    private long ttlMillis = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * KeyInfo의 base64 인증서 값으로 validator 조회, 없으면 생성 후 cache
+     */
+    SignatureValidator getValidator(String base64Cert) throws CertificateException {
+        byte[] der = decodeCertificate(base64Cert);
+        String fingerprint = fingerprint(der);
+        long now = System.currentTimeMillis();
+
+        Entry entry = entries.get(fingerprint);
+        if (entry != null && entry.expiresAt > now) {
+            hits.incrementAndGet();
+            return entry.validator;
+        }
+
+        misses.incrementAndGet();
+        entry = new Entry(createValidator(parseCertificate(der)), now + ttlMillis);
+        if (entries.size() >= maxSize) {
+            evict(now);
+        }
+        entries.put(fingerprint, entry);
+        LOGGER.debug("Cached IdP credential[{}]", fingerprint);
+        return entry.validator;
+    }
+
+    long hitCount() {
+        return hits.get();
+    }
+
+    long missCount() {
+        return misses.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    SamlCredentialCache maxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    SamlCredentialCache ttl(long ttl, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(ttl);
+        return this;
+    }
+
+    static byte[] decodeCertificate(String base64Cert) throws CertificateException {
+        try {
+            // KeyInfo 안의 인증서는 줄바꿈/공백이 섞여 있을 수 있음
+            return Base64.getMimeDecoder().decode(base64Cert);
+        } catch (IllegalArgumentException e) {
+            throw new CertificateException("Invalid base64 certificate", e);
+        }
+    }
+
+    static X509Certificate parseCertificate(byte[] der) throws CertificateException {
+        CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+        return (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(der));
+    }
+
+    static String fingerprint(byte[] der) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(der);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    static SignatureValidator createValidator(X509Certificate certificate) {
+        BasicCredential credential = new BasicCredential();
+        credential.setPublicKey(certificate.getPublicKey());
+        return new SignatureValidator(credential);
+    }
+
+    /**
+     * 만료된 entry 먼저 제거, 그래도 가득 차 있으면 임의의 entry 하나 제거
+     */
+    private void evict(long now) {
+        entries.values().removeIf(e -> e.expiresAt <= now);
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final SignatureValidator validator;
+        private final long expiresAt;
+
+        private Entry(SignatureValidator validator, long expiresAt) {
+            this.validator = validator;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
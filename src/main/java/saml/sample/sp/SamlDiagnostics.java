@@ -0,0 +1,182 @@
+package saml.sample.sp;
+
+import org.opensaml.common.SAMLObject;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SAML message 진단용 capture.
+ * capture가 켜져 있고 sampling 된 경우만 XML 문자열로 변환한다(기본 꺼짐).
+ * DOM은 thread-safe 하지 않으므로 변환은 message를 처리하는 thread에서 capture 호출 시 바로 한다.
+ * 결과는 session이 아닌 크기 제한(개수, 문자 수)이 있는 ring buffer에 보관한다.
+ */
+final class SamlDiagnostics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlDiagnostics.class);
+
+    /**
+     * SP가 보낸 message(AuthnRequest, LogoutRequest)
+     */
+    static final String SP = "sp";
+    /**
+     * IdP가 보낸 message(Response assertion)
+     */
+    static final String IDP = "idp";
+
+    private final ArrayDeque<Capture> buffer = new ArrayDeque<>();
+    private long bufferedChars;
+
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private boolean enabled;
+    private double sampleRate = 0.01;
+    private int maxEntries = 256;
+    private long maxChars = 4_000_000;
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 이미 문자열인 message capture
+     */
+    void capture(String kind, String correlationId, String principal, String xml) {
+        if (!sampled()) {
+            return;
+        }
+        store(new Capture(kind, correlationId, principal, xml));
+    }
+
+    /**
+     * SAMLObject capture, DOM이 있으면 DOM을 그대로 serialize 하고 없으면 marshalling 한다.
+     * object를 사용하는 thread에서 호출해야 한다(다른 thread와 DOM을 공유하지 않음).
+     */
+    void capture(String kind, String correlationId, String principal, SAMLObject object) {
+        if (!sampled()) {
+            return;
+        }
+        try {
+            String xml = object.getDOM() != null ? XMLHelper.nodeToString(object.getDOM()) : SamlUtil.samlObjectToString(object);
+            LOGGER.debug("Captured {} message[{}]", kind, xml);
+            store(new Capture(kind, correlationId, principal, xml));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to capture SAML message", e);
+        }
+    }
+
+    /**
+     * 사용자의 가장 최근 capture
+     */
+    synchronized Capture latest(String kind, String principal) {
+        for (Iterator<Capture> it = buffer.descendingIterator(); it.hasNext(); ) {
+            Capture capture = it.next();
+            if (capture.kind.equals(kind) && capture.principal != null && capture.principal.equals(principal)) {
+                return capture;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * message id(AuthnRequest ID, InResponseTo)로 capture 조회
+     */
+    synchronized Capture byCorrelationId(String kind, String correlationId) {
+        if (correlationId == null) {
+            return null;
+        }
+        for (Iterator<Capture> it = buffer.descendingIterator(); it.hasNext(); ) {
+            Capture capture = it.next();
+            if (capture.kind.equals(kind) && correlationId.equals(capture.correlationId)) {
+                return capture;
+            }
+        }
+        return null;
+    }
+
+    long capturedCount() {
+        return captured.get();
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    synchronized int size() {
+        return buffer.size();
+    }
+
+    synchronized long bufferedChars() {
+        return bufferedChars;
+    }
+
+    SamlDiagnostics enabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    SamlDiagnostics sampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    SamlDiagnostics maxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    SamlDiagnostics maxChars(long maxChars) {
+        this.maxChars = maxChars;
+        return this;
+    }
+
+    private boolean sampled() {
+        return enabled && (sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    private synchronized void store(Capture capture) {
+        if (capture.xml.length() > maxChars) {
+            dropped.incrementAndGet();
+            return;
+        }
+        buffer.addLast(capture);
+        bufferedChars += capture.xml.length();
+        while (buffer.size() > maxEntries || bufferedChars > maxChars) {
+            bufferedChars -= buffer.removeFirst().xml.length();
+        }
+        captured.incrementAndGet();
+    }
+
+    static final class Capture {
+        private final String kind;
+        private final String correlationId;
+        private final String principal;
+        private final String xml;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Capture(String kind, String correlationId, String principal, String xml) {
+            this.kind = kind;
+            this.correlationId = correlationId;
+            this.principal = principal;
+            this.xml = xml;
+        }
+
+        String correlationId() {
+            return correlationId;
+        }
+
+        String xml() {
+            return xml;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+    }
+}
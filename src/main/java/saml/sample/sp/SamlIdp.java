@@ -0,0 +1,106 @@
+package saml.sample.sp;
+
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.Endpoint;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.KeyDescriptor;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.security.keyinfo.KeyInfoHelper;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * metadata EntityDescriptor 하나로 만든 IdP 설정, 변경하지 않는다.
+ * HTTP-Redirect SSO/SLO endpoint, 서명 인증서 validator, AuthnRequest template을 load 시점에 미리 만들어 두고
+ * 로그인 요청에서는 조회만 한다.
+ */
+final class SamlIdp {
+
+    private final String entityId;
+    private final String ssoLocation;
+    private final String sloLocation;
+    private final SamlTrustStore trustStore;
+    private final SamlAuthnRequestTemplate authnRequestTemplate;
+
+    SamlIdp(String entityId, String ssoLocation, String sloLocation, SamlTrustStore trustStore, String spEntityId) {
+        this.entityId = entityId;
+        this.ssoLocation = ssoLocation;
+        this.sloLocation = sloLocation;
+        this.trustStore = trustStore;
+        this.authnRequestTemplate = ssoLocation == null ? null
+                : new SamlAuthnRequestTemplate(spEntityId, ssoLocation, SAMLConstants.SAML2_REDIRECT_BINDING_URI, true);
+    }
+
+    /**
+     * @return IDPSSODescriptor가 없거나 서명 인증서가 없는 경우 null
+     */
+    static SamlIdp fromMetadata(EntityDescriptor descriptor, String spEntityId) throws CertificateException {
+        IDPSSODescriptor idpDescriptor = descriptor.getIDPSSODescriptor(SAMLConstants.SAML20P_NS);
+        if (idpDescriptor == null) {
+            return null;
+        }
+        SamlTrustStore trustStore = new SamlTrustStore();
+        for (KeyDescriptor key : idpDescriptor.getKeyDescriptors()) {
+            // use 속성이 없거나 signing인 경우만 서명 인증서로 사용
+            if (key.getUse() == UsageType.ENCRYPTION || key.getKeyInfo() == null) {
+                continue;
+            }
+            for (X509Certificate certificate : KeyInfoHelper.getCertificates(key.getKeyInfo())) {
+                trustStore.addCertificate(certificate);
+            }
+        }
+        if (trustStore.isEmpty()) {
+            return null;
+        }
+        return new SamlIdp(descriptor.getEntityID(),
+                redirectLocation(idpDescriptor.getSingleSignOnServices()),
+                redirectLocation(idpDescriptor.getSingleLogoutServices()),
+                trustStore, spEntityId);
+    }
+
+    private static String redirectLocation(List<? extends Endpoint> endpoints) {
+        for (Endpoint endpoint : endpoints) {
+            if (SAMLConstants.SAML2_REDIRECT_BINDING_URI.equals(endpoint.getBinding())) {
+                return endpoint.getLocation();
+            }
+        }
+        return null;
+    }
+
+    String entityId() {
+        return entityId;
+    }
+
+    /**
+     * HTTP-Redirect SingleSignOnService, 없으면 null
+     */
+    String ssoLocation() {
+        return ssoLocation;
+    }
+
+    /**
+     * HTTP-Redirect SingleLogoutService, 없으면 null
+     */
+    String sloLocation() {
+        return sloLocation;
+    }
+
+    SamlTrustStore trustStore() {
+        return trustStore;
+    }
+
+    /**
+     * SSO endpoint가 없으면 null
+     */
+    SamlAuthnRequestTemplate authnRequestTemplate() {
+        return authnRequestTemplate;
+    }
+
+    @Override
+    public String toString() {
+        return "SamlIdp[" + entityId + "]";
+    }
+}
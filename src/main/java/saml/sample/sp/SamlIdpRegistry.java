@@ -0,0 +1,316 @@
+package saml.sample.sp;
+
+import org.opensaml.Configuration;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.ResourceUtils;
+import org.w3c.dom.Element;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdP metadata(sp.idp.metadata) 파일로 만든 entityID별 {@link SamlIdp} registry.
+ * <ul>
+ *     <li>위치는 classpath: 또는 파일(file: 생략 가능), 디렉터리인 경우 안의 *.xml 전체, EntityDescriptor 또는 EntitiesDescriptor</li>
+ *     <li>조회는 volatile map 하나를 읽기만 하므로 lock이 없다</li>
+ *     <li>파일이 바뀌면(수정 시각, 크기) 새 map을 만들어 통째로 교체(copy-on-write), 읽는 중인 요청은 이전 map을 그대로 사용</li>
+ *     <li>reload 중 parsing에 실패한 파일은 이전 IdP 설정을 유지하고 다음 주기에 다시 읽는다</li>
+ *     <li>map에 없는 IdP는 federation metadata aggregate({@link SamlMetadataAggregate})에서 조회, 같은 주기로 변경 확인</li>
+ * </ul>
+ */
+final class SamlIdpRegistry implements SamlIdpResolver, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlIdpRegistry.class);
+
+    private final String spEntityId;
+    private final ParserPool parserPool;
+    private final List<String> locations;
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private volatile Map<String, SamlIdp> idps = Collections.emptyMap();
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    /**
+     * 읽은 metadata 파일별 수정 시각, 크기, entityID, reload(synchronized)에서만 접근
+     */
+    private final Map<String, Source> sources = new HashMap<>();
+
+    private ScheduledExecutorService reloader;
+
+    private SamlMetadataAggregate aggregate;
+
+    SamlIdpRegistry(String spEntityId, ParserPool parserPool, List<String> locations) {
+        this.spEntityId = spEntityId;
+        this.parserPool = parserPool;
+        this.locations = new ArrayList<>(locations);
+    }
+
+    /**
+     * 기동 시 전체 metadata 로딩, 실패하면 예외
+     */
+    SamlIdpRegistry load() throws IOException {
+        reload(true);
+        if (aggregate != null) {
+            aggregate.load();
+        }
+        LOGGER.info("Loaded {} IdPs from {}", idps.size(), locations);
+        return this;
+    }
+
+    /**
+     * intervalSeconds 주기로 파일 변경 확인, 0 이하면 reload 하지 않음
+     */
+    synchronized SamlIdpRegistry reloadInterval(long intervalSeconds) {
+        if (intervalSeconds > 0 && reloader == null) {
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "saml-idp-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloader.scheduleWithFixedDelay(this::reload, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public SamlIdp resolve(String entityId) {
+        if (entityId == null) {
+            return null;
+        }
+        SamlIdp idp = idps.get(entityId);
+        return idp != null || aggregate == null ? idp : aggregate.resolve(entityId);
+    }
+
+    int size() {
+        return idps.size();
+    }
+
+    /**
+     * IdP map을 교체한 횟수(기동 시 로딩 포함)
+     */
+    long reloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * 바뀐 파일만 다시 읽어 map 교체, 실패한 파일은 이전 설정 유지
+     *
+     * @return map을 교체한 경우 true
+     */
+    boolean reload() {
+        try {
+            boolean changed = reload(false);
+            return aggregate != null && aggregate.reload() || changed;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to reload IdP metadata", e);
+            return false;
+        }
+    }
+
+    private synchronized boolean reload(boolean failOnError) throws IOException {
+        Map<String, Stamp> current = scan();
+        Map<String, SamlIdp> next = null;
+
+        for (Iterator<Map.Entry<String, Source>> it = sources.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Source> entry = it.next();
+            if (!current.containsKey(entry.getKey())) {
+                next = next == null ? new HashMap<>(idps) : next;
+                entry.getValue().entityIds.forEach(next::remove);
+                it.remove();
+                LOGGER.info("Removed IdP metadata[{}] {}", entry.getKey(), entry.getValue().entityIds);
+            }
+        }
+
+        for (Map.Entry<String, Stamp> entry : current.entrySet()) {
+            String location = entry.getKey();
+            Source previous = sources.get(location);
+            if (previous != null && previous.stamp.equals(entry.getValue())) {
+                continue;
+            }
+            List<SamlIdp> parsed;
+            try {
+                parsed = parse(location);
+            } catch (IOException e) {
+                if (failOnError) {
+                    throw e;
+                }
+                LOGGER.warn("Failed to load IdP metadata[{}], keep previous", location, e);
+                continue;
+            }
+            next = next == null ? new HashMap<>(idps) : next;
+            if (previous != null) {
+                previous.entityIds.forEach(next::remove);
+            }
+            List<String> entityIds = new ArrayList<>(parsed.size());
+            for (SamlIdp idp : parsed) {
+                if (next.put(idp.entityId(), idp) != null) {
+                    LOGGER.warn("Duplicate IdP entityID[{}] in [{}]", idp.entityId(), location);
+                }
+                entityIds.add(idp.entityId());
+            }
+            sources.put(location, new Source(entry.getValue(), entityIds));
+            LOGGER.info("Loaded IdP metadata[{}] {}", location, entityIds);
+        }
+
+        if (next == null) {
+            return false;
+        }
+        idps = Collections.unmodifiableMap(next);
+        reloadCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 설정 위치를 파일 단위로 펼침, classpath 등 파일이 아닌 resource는 변경을 확인하지 않는다.
+     */
+    private Map<String, Stamp> scan() throws IOException {
+        Map<String, Stamp> current = new LinkedHashMap<>();
+        for (String location : locations) {
+            if (location.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)) {
+                current.put(location, Stamp.UNCHANGED);
+                continue;
+            }
+            Path path = Paths.get(location.startsWith(ResourceUtils.FILE_URL_PREFIX)
+                    ? location.substring(ResourceUtils.FILE_URL_PREFIX.length()) : location);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.xml")) {
+                    List<Path> sorted = new ArrayList<>();
+                    files.forEach(sorted::add);
+                    Collections.sort(sorted);
+                    for (Path file : sorted) {
+                        current.put(file.toString(), Stamp.of(file));
+                    }
+                }
+            } else if (Files.exists(path)) {
+                current.put(path.toString(), Stamp.of(path));
+            } else {
+                LOGGER.warn("IdP metadata[{}] not found", location);
+            }
+        }
+        return current;
+    }
+
+    private List<SamlIdp> parse(String location) throws IOException {
+        try (InputStream in = location.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)
+                ? resourceLoader.getResource(location).getInputStream() : Files.newInputStream(Paths.get(location))) {
+            Element root = parserPool.parse(in).getDocumentElement();
+            Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(root);
+            if (unmarshaller == null) {
+                throw new IOException("Unsupported metadata element[" + root.getLocalName() + "]");
+            }
+            List<SamlIdp> parsed = new ArrayList<>();
+            collect(unmarshaller.unmarshall(root), parsed);
+            return parsed;
+        } catch (XMLParserException | UnmarshallingException | CertificateException e) {
+            throw new IOException("Failed to parse IdP metadata[" + location + "]", e);
+        }
+    }
+
+    private void collect(XMLObject metadata, List<SamlIdp> parsed) throws CertificateException {
+        if (metadata instanceof EntitiesDescriptor) {
+            EntitiesDescriptor entities = (EntitiesDescriptor) metadata;
+            for (EntityDescriptor entity : entities.getEntityDescriptors()) {
+                collect(entity, parsed);
+            }
+            for (EntitiesDescriptor nested : entities.getEntitiesDescriptors()) {
+                collect(nested, parsed);
+            }
+        } else if (metadata instanceof EntityDescriptor) {
+            EntityDescriptor entity = (EntityDescriptor) metadata;
+            SamlIdp idp = SamlIdp.fromMetadata(entity, spEntityId);
+            if (idp != null) {
+                parsed.add(idp);
+            } else {
+                LOGGER.warn("Skip entity[{}], no IDPSSODescriptor or signing certificate", entity.getEntityID());
+            }
+        }
+    }
+
+    /**
+     * 개별 metadata 파일에 없는 IdP를 조회할 aggregate
+     */
+    SamlIdpRegistry aggregate(SamlMetadataAggregate aggregate) {
+        this.aggregate = aggregate;
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+        if (aggregate != null) {
+            aggregate.close();
+        }
+    }
+
+    private static final class Source {
+
+        private final Stamp stamp;
+        private final List<String> entityIds;
+
+        private Source(Stamp stamp, List<String> entityIds) {
+            this.stamp = stamp;
+            this.entityIds = entityIds;
+        }
+    }
+
+    private static final class Stamp {
+
+        private static final Stamp UNCHANGED = new Stamp(0L, 0L);
+
+        private final long lastModified;
+        private final long size;
+
+        private Stamp(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        private static Stamp of(Path file) throws IOException {
+            return new Stamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lastModified, size);
+        }
+    }
+}
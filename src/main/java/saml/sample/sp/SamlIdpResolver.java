@@ -0,0 +1,13 @@
+package saml.sample.sp;
+
+/**
+ * entityID(응답 Issuer, sp.idp.default_entity_id, 로그인 요청의 idp parameter)로 IdP 설정 조회.
+ * 로그인 요청마다 호출되므로 구현은 조회 중 lock이나 I/O 대기가 없어야 한다.
+ */
+interface SamlIdpResolver {
+
+    /**
+     * @return 등록되지 않은 IdP인 경우 null
+     */
+    SamlIdp resolve(String entityId);
+}
@@ -0,0 +1,43 @@
+package saml.sample.sp;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link SamlMessageIngester}가 미리 읽어 둔 SAML message를 가지고 있는 request.
+ * SAMLResponse는 String으로 만들지 않고 decode 된 XML bytes로만 제공한다.
+ */
+final class SamlInboundRequest extends HttpServletRequestWrapper {
+
+    private final byte[] message;
+    private final int length;
+    private final String relayState;
+
+    SamlInboundRequest(HttpServletRequest request, byte[] message, int length, String relayState) {
+        super(request);
+        this.message = message;
+        this.length = length;
+        this.relayState = relayState;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        if (SamlMessageIngester.RELAY_STATE.equals(name)) {
+            return relayState;
+        }
+        return super.getParameter(name);
+    }
+
+    /**
+     * base64 decode 된 SAML message
+     */
+    InputStream messageStream() {
+        return new ByteArrayInputStream(message, 0, length);
+    }
+
+    int messageLength() {
+        return length;
+    }
+}
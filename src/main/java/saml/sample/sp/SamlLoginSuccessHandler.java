@@ -0,0 +1,49 @@
+package saml.sample.sp;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationSuccessHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * 로그인 성공 후 HttpSession을 {@link SamlSessionRegistry}에 등록하고 RelayState의 url(없으면 기본 url)로 redirect.
+ * session store(sp.session.store: mmap, remote)를 사용하는 경우는 {@link SamlSecurityContextRepository}가 등록한다.
+ */
+final class SamlLoginSuccessHandler extends SimpleUrlAuthenticationSuccessHandler {
+
+    private SamlSessionRegistry sessionRegistry;
+
+    private SamlRelayState relayStates;
+
+    @Override
+    public void onAuthenticationSuccess(HttpServletRequest request, HttpServletResponse response,
+                                        Authentication authentication) throws ServletException, IOException {
+        if (sessionRegistry != null && authentication instanceof SamlAuthenticationToken) {
+            HttpSession session = request.getSession();
+            sessionRegistry.register(session.getId(), ((SamlAuthenticationToken) authentication).samlPrincipal(),
+                    Long.MAX_VALUE, session::invalidate);
+        }
+        super.onAuthenticationSuccess(request, response, authentication);
+    }
+
+    @Override
+    protected String determineTargetUrl(HttpServletRequest request, HttpServletResponse response) {
+        Object relayState = request.getAttribute(SamlRelayState.ATTRIBUTE);
+        String target = relayStates == null || relayState == null ? null : relayStates.resolve(relayState.toString());
+        return target == null ? super.determineTargetUrl(request, response) : target;
+    }
+
+    SamlLoginSuccessHandler relayStates(SamlRelayState relayStates) {
+        this.relayStates = relayStates;
+        return this;
+    }
+
+    SamlLoginSuccessHandler sessionRegistry(SamlSessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        return this;
+    }
+}
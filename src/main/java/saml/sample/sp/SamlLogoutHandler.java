@@ -2,21 +2,16 @@ package saml.sample.sp;
 
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
-import org.opensaml.common.SAMLObject;
 import org.opensaml.common.SAMLVersion;
-import org.opensaml.common.binding.BasicSAMLMessageContext;
-import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
 import org.opensaml.saml2.core.*;
-import org.opensaml.saml2.metadata.Endpoint;
-import org.opensaml.saml2.metadata.SingleLogoutService;
-import org.opensaml.ws.message.encoder.MessageEncodingException;
-import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
 import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.io.MarshallingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.web.authentication.logout.SecurityContextLogoutHandler;
+import org.springframework.util.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -26,6 +21,7 @@ import java.util.UUID;
 /**
  * security logout handler의 logout mehtod 활용해서 logout 로직 작성
  * WebSecurityConfigurer에 logoutHandler로 등록
+ * IdP registry를 설정하면 로그인한 IdP의 SLO endpoint로 보내고, 없으면 sp.single_logout_service_location 사용
  */
 public class SamlLogoutHandler extends SecurityContextLogoutHandler {
 
@@ -43,31 +39,38 @@ public class SamlLogoutHandler extends SecurityContextLogoutHandler {
     @Value("${sp.login_url}")
     private String loginUrl;
 
+    private SamlIdpResolver idpResolver;
+
+    private SamlDiagnostics diagnostics = new SamlDiagnostics();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    private SamlRedirectEncoder redirectEncoder = new SamlRedirectEncoder();
+
     @Override
     public void logout(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
-        // saml context 생성
+        long start = metrics.start();
         try {
-            BasicSAMLMessageContext<SAMLObject, LogoutRequest, SAMLObject> context = new BasicSAMLMessageContext<>();
-            HttpServletResponseAdapter transport = new HttpServletResponseAdapter(response, false);
-            context.setOutboundMessageTransport(transport);
-            context.setPeerEntityEndpoint(getIDPEndpoint());
+            String location = logoutLocation(authentication);
+            if (!StringUtils.hasText(location)) {
+                LOGGER.warn("No IdP single logout service location(sp.single_logout_service_location), LogoutRequest is not sent");
+                metrics.failure(SamlMetrics.Stage.LOGOUT, "not_configured");
+                super.logout(request, response, authentication);
+                return;
+            }
 
             Issuer issuer = buildIssuer(entityId);
             // agent base url
             String defaultUrl = request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort();
-            LogoutRequest logoutRequest = buildLogoutRequest(defaultUrl, issuer);
-
-            // sp saml string - logout
-            String samlString = SamlUtil.samlObjectToString(logoutRequest);
-            LOGGER.debug("Created LogoutRequest[{}]", samlString);
-            // store in a session
-            // SamlUtil.setInSession("spSamlString", samlString);
+            LogoutRequest logoutRequest = buildLogoutRequest(defaultUrl, issuer, authentication, location);
 
-            context.setOutboundSAMLMessage(logoutRequest);
+            // redirect, SP 서명 key가 있으면 SigAlg, Signature 추가
+            SamlRedirectEncoder.sendRedirect(response, redirectEncoder.redirectUrl(SamlRedirectEncoder.redirectBaseUrl(location),
+                    SamlRedirectEncoder.SAML_REQUEST, SamlRedirectEncoder.marshall(logoutRequest), null));
 
-            // redirect
-            HTTPRedirectDeflateEncoder encoder = new HTTPRedirectDeflateEncoder();
-            encoder.encode(context);
+            // sp saml string - logout, encoding에서 만든 DOM을 문자열로 변환(capture가 켜져 있을 때만)
+            diagnostics.capture(SamlDiagnostics.SP, logoutRequest.getID(),
+                    authentication == null ? null : authentication.getName(), logoutRequest);
 
             // session, authentication 만료 시킴
             super.logout(request, response, authentication);
@@ -75,10 +78,13 @@ public class SamlLogoutHandler extends SecurityContextLogoutHandler {
             /*Cookie cookie = new Cookie("spLogoutSamlString", samlString);
             cookie.setPath("/");
             response.addCookie(cookie);*/
-        } catch (MessageEncodingException e) {
+        } catch (MarshallingException e) {
             LOGGER.error("Error initializing SAML Request", e);
+            metrics.failure(SamlMetrics.Stage.LOGOUT, "encode_error");
             // 에러처리를 어떻게 해야할까????? SecurityContextLogoutHandler의 logout을 override 하지말기?
             // throw new ServletException(e);
+        } finally {
+            metrics.record(SamlMetrics.Stage.LOGOUT, start);
         }
     }
 
@@ -88,15 +94,18 @@ public class SamlLogoutHandler extends SecurityContextLogoutHandler {
         return (T) builderFactory.getBuilder(qName).buildObject(qName);
     }
 
-    private LogoutRequest buildLogoutRequest(String acsUrl, Issuer issuer) {
+    private LogoutRequest buildLogoutRequest(String acsUrl, Issuer issuer, Authentication authentication, String location) {
         LogoutRequest logoutRequest = buildSAMLObject(LogoutRequest.class, LogoutRequest.DEFAULT_ELEMENT_NAME);
         logoutRequest.setVersion(SAMLVersion.VERSION_20);
         logoutRequest.setIssuer(issuer);
         logoutRequest.setIssueInstant(new DateTime());
         logoutRequest.setID(UUID.randomUUID().toString());
-        logoutRequest.setNameID(getNameID());
-        logoutRequest.setDestination(ssoLogoutLocation);
-        logoutRequest.getSessionIndexes().add(buildSessionIndexByIdpToken());
+        logoutRequest.setNameID(getNameID(authentication));
+        logoutRequest.setDestination(location);
+        SessionIndex sessionIndex = buildSessionIndex(authentication);
+        if (sessionIndex != null) {
+            logoutRequest.getSessionIndexes().add(sessionIndex);
+        }
         return logoutRequest;
     }
 
@@ -107,26 +116,61 @@ public class SamlLogoutHandler extends SecurityContextLogoutHandler {
         return issuer;
     }
 
-    private Endpoint getIDPEndpoint() {
-        Endpoint samlEndpoint = buildSAMLObject(Endpoint.class, SingleLogoutService.DEFAULT_ELEMENT_NAME);
-        samlEndpoint.setLocation(ssoLogoutLocation);
-        return samlEndpoint;
+    /**
+     * 로그인한 IdP의 SLO endpoint, registry에 없거나 SLO endpoint가 없으면 설정 값
+     */
+    private String logoutLocation(Authentication authentication) {
+        if (idpResolver != null && authentication != null && authentication.getPrincipal() instanceof SamlPrincipal) {
+            SamlIdp idp = idpResolver.resolve(((SamlPrincipal) authentication.getPrincipal()).getIdpEntityId());
+            if (idp != null && idp.sloLocation() != null) {
+                return idp.sloLocation();
+            }
+        }
+        return ssoLogoutLocation;
     }
 
-    private NameID getNameID() {
+    private NameID getNameID(Authentication authentication) {
         NameID nameID = buildSAMLObject(NameID.class, NameID.DEFAULT_ELEMENT_NAME);
+        if (authentication != null && authentication.getPrincipal() instanceof SamlPrincipal) {
+            nameID.setValue(((SamlPrincipal) authentication.getPrincipal()).getNameId());
+        }
         return nameID;
     }
 
     /**
      * 제목 : SAML 2.0 LogoutRequest should contain session indexes
-     * sso server에서 사용자 authToken을 idp response의 id로 보내줌.
-     * 그걸 sso server에서 logout 시 sessionIndex에서 꺼내서 확인 후 agt_session을 삭제해서 사용자를 로그아웃 시킴
+     * 로그인 응답 AuthnStatement의 SessionIndex를 보내서 IdP가 해당 session을 찾아 로그아웃 시킴
      * 참고 : https://github.com/spring-projects/spring-security/issues/10613
+     *
+     * @return IdP가 SessionIndex를 주지 않은 로그인이면 null(NameID로만 요청)
      */
-    private SessionIndex buildSessionIndexByIdpToken() {
+    private SessionIndex buildSessionIndex(Authentication authentication) {
+        if (authentication == null || !(authentication.getPrincipal() instanceof SamlPrincipal)
+                || ((SamlPrincipal) authentication.getPrincipal()).getSessionIndex() == null) {
+            return null;
+        }
         SessionIndex sessionIndex = buildSAMLObject(SessionIndex.class, SessionIndex.DEFAULT_ELEMENT_NAME);
-        sessionIndex.setSessionIndex( (String) SamlUtil.getInSession("idpToken") );
+        sessionIndex.setSessionIndex(((SamlPrincipal) authentication.getPrincipal()).getSessionIndex());
         return sessionIndex;
     }
+
+    public SamlLogoutHandler diagnostics(SamlDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    SamlLogoutHandler idpResolver(SamlIdpResolver idpResolver) {
+        this.idpResolver = idpResolver;
+        return this;
+    }
+
+    SamlLogoutHandler redirectEncoder(SamlRedirectEncoder redirectEncoder) {
+        this.redirectEncoder = redirectEncoder;
+        return this;
+    }
+
+    SamlLogoutHandler metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
 }
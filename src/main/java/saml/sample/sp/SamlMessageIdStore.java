@@ -0,0 +1,25 @@
+package saml.sample.sp;
+
+/**
+ * 일정 시간 동안 SAML message id를 기억하는 저장소.
+ * 발급한 AuthnRequest ID(InResponseTo 확인), 사용한 Assertion ID(replay 방지)를 저장한다.
+ * 여러 SP node가 공유하는 저장소가 필요하면 이 interface를 구현한다.
+ */
+interface SamlMessageIdStore {
+
+    /**
+     * id 저장
+     *
+     * @return 새로 저장한 경우 true, 이미 있는 id인 경우 false
+     */
+    boolean add(String id);
+
+    boolean contains(String id);
+
+    /**
+     * id 제거
+     *
+     * @return 제거한 경우 true, 없는 id(만료 포함)인 경우 false
+     */
+    boolean remove(String id);
+}
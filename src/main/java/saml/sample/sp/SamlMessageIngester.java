@@ -0,0 +1,334 @@
+package saml.sample.sp;
+
+import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * ACS로 POST된 SAMLResponse를 DOM 생성 전에 읽어 들이는 단계.
+ * form body를 servlet input stream에서 바로 url decode, base64 decode 하면서 읽고(중간 String 생성 없음),
+ * 크기 제한을 넘으면 바로 중단한다. 읽은 XML은 StAX로 한번 훑어서 형식, element depth를 검사한다.
+ * RelayState 등 나머지 값은 container와 같이 request character encoding(없으면 ISO-8859-1)으로 decode 한다.
+ */
+final class SamlMessageIngester {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlMessageIngester.class);
+
+    static final String SAML_RESPONSE = "SAMLResponse";
+    static final String RELAY_STATE = "RelayState";
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final XMLInputFactory inputFactory;
+
+    private int maxMessageBytes = 512 * 1024;
+    private int maxElementDepth = 50;
+
+    SamlMessageIngester() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    /**
+     * SAMLResponse를 읽어서 검사 후 {@link SamlInboundRequest}로 감싸서 반환.
+     * form body가 아니거나 이미 container가 parameter를 읽은 경우는 원래 request 그대로 반환
+     */
+    HttpServletRequest ingest(HttpServletRequest request) throws MessageDecodingException {
+        if (!"POST".equalsIgnoreCase(request.getMethod()) || !isFormContent(request)) {
+            return request;
+        }
+        if (request.getContentLengthLong() > maxEncodedBytes()) {
+            throw new MessageDecodingException("SAML message too large : " + request.getContentLengthLong() + " bytes");
+        }
+
+        Message message;
+        try {
+            message = readForm(request.getInputStream(), charset(request));
+        } catch (IOException e) {
+            throw new MessageDecodingException("Failed to read SAML message", e);
+        }
+        if (message.response == null) {
+            // parameter가 이미 parsing 되어 body가 비어있는 경우
+            LOGGER.debug("No SAMLResponse in request body, fall back to request parameters");
+            return request;
+        }
+
+        checkStructure(message.response);
+        return new SamlInboundRequest(request, message.response.buffer(), message.response.size(), message.relayState);
+    }
+
+    SamlMessageIngester maxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    SamlMessageIngester maxElementDepth(int maxElementDepth) {
+        this.maxElementDepth = maxElementDepth;
+        return this;
+    }
+
+    private boolean isFormContent(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE);
+    }
+
+    /**
+     * base64(4/3) + url encoding 여유분을 고려한 form body 최대 크기
+     */
+    private long maxEncodedBytes() {
+        return maxMessageBytes * 2L + 4096;
+    }
+
+    /**
+     * form 값의 character encoding, container의 parameter parsing과 같은 기본값
+     */
+    private static Charset charset(HttpServletRequest request) throws MessageDecodingException {
+        String encoding = request.getCharacterEncoding();
+        if (encoding == null) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new MessageDecodingException("Unsupported request character encoding : " + encoding, e);
+        }
+    }
+
+    private Message readForm(InputStream body, Charset charset) throws IOException, MessageDecodingException {
+        Message message = new Message();
+        FormReader form = new FormReader(body, maxEncodedBytes(), charset);
+        String name;
+        while ((name = form.nextName()) != null) {
+            if (SAML_RESPONSE.equals(name)) {
+                message.response = readBase64Value(form);
+            } else if (RELAY_STATE.equals(name)) {
+                ByteArrayOutputStream relayState = new ByteArrayOutputStream();
+                form.valueStream().transferTo(relayState);
+                message.relayState = form.decode(relayState);
+            } else {
+                form.skipValue();
+            }
+        }
+        return message;
+    }
+
+    private MessageBuffer readBase64Value(FormReader form) throws IOException, MessageDecodingException {
+        MessageBuffer buffer = new MessageBuffer();
+        try (InputStream decoded = Base64.getMimeDecoder().wrap(form.valueStream())) {
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = decoded.read(chunk)) != -1) {
+                if (buffer.size() + read > maxMessageBytes) {
+                    throw new MessageDecodingException("SAML message exceeds " + maxMessageBytes + " bytes");
+                }
+                buffer.write(chunk, 0, read);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new MessageDecodingException("SAML message is not valid base64", e);
+        }
+        return buffer;
+    }
+
+    private void checkStructure(MessageBuffer message) throws MessageDecodingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(message.buffer(), 0, message.size()));
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && ++depth > maxElementDepth) {
+                    throw new MessageDecodingException("SAML message exceeds max element depth " + maxElementDepth);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (event == XMLStreamConstants.DTD) {
+                    throw new MessageDecodingException("SAML message must not contain DTD");
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new MessageDecodingException("SAML message is not well-formed XML", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOGGER.debug("Failed to close xml reader", e);
+                }
+            }
+        }
+    }
+
+    private static final class Message {
+        private MessageBuffer response;
+        private String relayState;
+    }
+
+    /**
+     * 내부 buffer를 복사 없이 꺼낼 수 있는 ByteArrayOutputStream
+     */
+    private static final class MessageBuffer extends ByteArrayOutputStream {
+        private MessageBuffer() {
+            super(8192);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * application/x-www-form-urlencoded body를 순서대로 읽는 reader.
+     * 이름은 String으로, 값은 url decode 된 byte stream으로 제공한다.
+     * 구분자는 encoding 되지 않은 '&', '='만 인정하고(%26, %3D는 값의 일부), 잘못된 % escape와 charset에 맞지 않는 byte는 거부한다.
+     */
+    private static final class FormReader {
+
+        /**
+         * 이름 안의 '=', 값 밖의 '&' (decode 된 byte와 구분하기 위해 byte 범위 밖의 값)
+         */
+        private static final int NAME_END = 0x100;
+        private static final int FIELD_END = 0x101;
+
+        private final InputStream in;
+        private final long maxBytes;
+        private final Charset charset;
+        private long readBytes;
+        private boolean valuePending;
+
+        private FormReader(InputStream in, long maxBytes, Charset charset) {
+            this.in = in;
+            this.maxBytes = maxBytes;
+            this.charset = charset;
+        }
+
+        private String nextName() throws IOException, MessageDecodingException {
+            if (valuePending) {
+                skipValue();
+            }
+            ByteArrayOutputStream name = new ByteArrayOutputStream(16);
+            int b;
+            while ((b = readDecoded()) != -1) {
+                if (b == NAME_END) {
+                    valuePending = true;
+                    return decode(name);
+                } else if (b == FIELD_END) {
+                    if (name.size() > 0) {
+                        return decode(name);
+                    }
+                } else {
+                    name.write(b);
+                }
+            }
+            return name.size() > 0 ? decode(name) : null;
+        }
+
+        private String decode(ByteArrayOutputStream value) throws MessageDecodingException {
+            try {
+                return charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(value.toByteArray()))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                throw new MessageDecodingException("Invalid " + charset + " value in SAML form body", e);
+            }
+        }
+
+        private void skipValue() throws IOException, MessageDecodingException {
+            while (valuePending && readDecoded() != -1) {
+                // '&' 또는 EOF까지 버림
+            }
+            valuePending = false;
+        }
+
+        private InputStream valueStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    if (!valuePending) {
+                        return -1;
+                    }
+                    try {
+                        int b = readDecoded();
+                        if (b == -1) {
+                            valuePending = false;
+                        }
+                        return b;
+                    } catch (MessageDecodingException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                /**
+                 * InputStream 기본 구현은 두 번째 byte부터 예외를 무시하고 읽은 데까지 반환하므로 직접 구현
+                 */
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    int count = 0;
+                    int c;
+                    while (count < len && (c = read()) != -1) {
+                        b[off + count++] = (byte) c;
+                    }
+                    return count == 0 ? -1 : count;
+                }
+            };
+        }
+
+        /**
+         * url decode 된 1 byte, 이름을 읽는 중의 구분자는 {@link #NAME_END}, {@link #FIELD_END}, 값 안의 '&'는 값의 끝(-1)
+         */
+        private int readDecoded() throws IOException, MessageDecodingException {
+            int b = readRaw();
+            if (b == '&') {
+                if (!valuePending) {
+                    return FIELD_END;
+                }
+                valuePending = false;
+                return -1;
+            }
+            if (b == '=' && !valuePending) {
+                return NAME_END;
+            }
+            if (b == '+') {
+                return ' ';
+            }
+            if (b == '%') {
+                int hi = Character.digit(readRaw(), 16);
+                int lo = Character.digit(readRaw(), 16);
+                if (hi < 0 || lo < 0) {
+                    throw new MessageDecodingException("Invalid url encoding in SAML form body");
+                }
+                return (hi << 4) | lo;
+            }
+            return b;
+        }
+
+        private int readRaw() throws IOException, MessageDecodingException {
+            int b = in.read();
+            if (b != -1 && ++readBytes > maxBytes) {
+                throw new MessageDecodingException("SAML form body exceeds " + maxBytes + " bytes");
+            }
+            return b;
+        }
+    }
+}
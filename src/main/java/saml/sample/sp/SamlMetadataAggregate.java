@@ -0,0 +1,451 @@
+package saml.sample.sp;
+
+import org.opensaml.Configuration;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.w3c.dom.Element;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * federation metadata aggregate(수천 개 IdP, 수십 MB)용 IdP 조회.
+ * {@link SamlMetadataAggregateParser}로 한번 읽으면서 서명을 확인하고 IdP EntityDescriptor만 entityID 순 index 파일로 저장,
+ * index는 memory map으로 열어서 조회 시 binary search 후 해당 EntityDescriptor만 unmarshalling 한다.
+ * 만든 {@link SamlIdp}는 크기 제한 LRU에 보관한다.
+ * <pre>
+ * header : magic version count flags tableOffset(long) sourceLastModified(long) sourceSize(long) validUntil(long)
+ *          signingKeyFingerprint(SHA-256 32 bytes)
+ * record : keyLength(int) entityID(UTF-8) xmlLength(int) EntityDescriptor XML(UTF-8)
+ * table  : record offset(long) * count, entityID UTF-8 byte 순
+ * </pre>
+ * aggregate 파일의 수정 시각, 크기와 서명 확인 여부, 서명 인증서 key 목록의 fingerprint가 index header와 같고
+ * validUntil이 지나지 않았으면 기동 시 다시 parsing 하지 않는다. 인증서가 바뀌면(key rotation) 새 key로 다시 확인한다.
+ * validUntil이 지난 index는 조회에 사용하지 않는다.
+ */
+final class SamlMetadataAggregate implements SamlIdpResolver, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlMetadataAggregate.class);
+
+    private static final int MAGIC = 0x534D4458;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 80;
+    /**
+     * header flags, 서명 인증서로 aggregate 서명을 확인해서 만든 index
+     */
+    private static final int FLAG_VERIFIED = 1;
+
+    private final String spEntityId;
+    private final ParserPool parserPool;
+    private final Path metadata;
+    private final Path indexFile;
+
+    private List<String> signingCertificates = Collections.emptyList();
+    private int cacheSize = 1000;
+
+    private volatile Index index;
+    private final AtomicLong buildCount = new AtomicLong();
+    private final AtomicLong unmarshallCount = new AtomicLong();
+
+    SamlMetadataAggregate(String spEntityId, ParserPool parserPool, Path metadata, Path indexFile) {
+        this.spEntityId = spEntityId;
+        this.parserPool = parserPool;
+        this.metadata = metadata;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 기존 index가 aggregate와 같으면 그대로 사용, 아니면 새로 생성. 실패하면 예외
+     */
+    synchronized SamlMetadataAggregate load() throws IOException {
+        List<PublicKey> signingKeys = signingKeys();
+        Index current = open();
+        if (current == null || !current.isBuiltFrom(metadata, fingerprint(signingKeys))) {
+            current = build(signingKeys);
+        }
+        index = current;
+        LOGGER.info("Loaded metadata aggregate[{}] {} IdPs, index[{}]", metadata, current.count, indexFile);
+        return this;
+    }
+
+    /**
+     * aggregate 파일이 바뀌었으면 index를 새로 만들어 교체, 실패하면 이전 index 유지
+     *
+     * @return 교체한 경우 true
+     */
+    synchronized boolean reload() {
+        Index current = index;
+        try {
+            List<PublicKey> signingKeys = signingKeys();
+            if (current != null && current.isBuiltFrom(metadata, fingerprint(signingKeys))) {
+                return false;
+            }
+            index = build(signingKeys);
+            LOGGER.info("Reloaded metadata aggregate[{}] {} IdPs", metadata, index.count);
+            return true;
+        } catch (IOException e) {
+            if (current != null && current.isExpired()) {
+                // 만료된 metadata의 IdP는 신뢰하지 않음
+                index = null;
+                LOGGER.error("Failed to reload expired metadata aggregate[{}], aggregate IdPs are disabled", metadata, e);
+                return true;
+            }
+            LOGGER.warn("Failed to reload metadata aggregate[{}], keep previous", metadata, e);
+            return false;
+        }
+    }
+
+    @Override
+    public SamlIdp resolve(String entityId) {
+        Index current = index;
+        return current == null || entityId == null || current.isExpired() ? null : current.resolve(entityId);
+    }
+
+    /**
+     * index의 IdP 수
+     */
+    int size() {
+        Index current = index;
+        return current == null ? 0 : current.count;
+    }
+
+    /**
+     * aggregate를 parsing 해서 index를 만든 횟수
+     */
+    long buildCount() {
+        return buildCount.get();
+    }
+
+    /**
+     * LRU에 없어서 EntityDescriptor를 unmarshalling 한 횟수
+     */
+    long unmarshallCount() {
+        return unmarshallCount.get();
+    }
+
+    /**
+     * aggregate 서명 인증서 위치(PEM/DER), 필수(없으면 load 실패)
+     */
+    SamlMetadataAggregate signingCertificates(List<String> signingCertificates) {
+        this.signingCertificates = new ArrayList<>(signingCertificates);
+        return this;
+    }
+
+    SamlMetadataAggregate cacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        index = null;
+    }
+
+    /**
+     * 임시 파일에 record를 쓰면서 parsing, 서명 확인까지 끝나면 table, header를 쓰고 index 파일과 교체
+     */
+    private Index build(List<PublicKey> signingKeys) throws IOException {
+        long lastModified = Files.getLastModifiedTime(metadata).toMillis();
+        long size = Files.size(metadata);
+        SamlMetadataAggregateParser parser = new SamlMetadataAggregateParser(signingKeys);
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             InputStream in = Files.newInputStream(metadata)) {
+            channel.position(HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            RecordWriter records = new RecordWriter(out);
+            parser.parse(in, records);
+
+            List<Record> sorted = records.sorted();
+            long tableOffset = HEADER_SIZE + out.size();
+            for (Record record : sorted) {
+                out.writeLong(record.offset);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(FLAG_VERIFIED)
+                    .putLong(tableOffset).putLong(lastModified).putLong(size).putLong(parser.validUntil())
+                    .put(fingerprint(signingKeys));
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buildCount.incrementAndGet();
+        Index built = open();
+        LOGGER.info("Built metadata index[{}] {} IdPs in {}ms", indexFile, built.count, (System.nanoTime() - started) / 1_000_000);
+        return built;
+    }
+
+    /**
+     * @return index 파일이 없거나 형식이 다르면 null
+     */
+    private Index open() throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                LOGGER.warn("Invalid metadata index[{}], rebuild", indexFile);
+                return null;
+            }
+            return new Index(buffer);
+        }
+    }
+
+    /**
+     * 서명 인증서 key, 매번 다시 읽어서 인증서 교체를 반영
+     *
+     * @throws IOException 인증서가 없거나 읽지 못한 경우(서명을 확인하지 않은 aggregate는 사용하지 않음)
+     */
+    private List<PublicKey> signingKeys() throws IOException {
+        if (signingCertificates.isEmpty()) {
+            throw new IOException("No metadata aggregate certificate(sp.idp.aggregate.certificates)");
+        }
+        SamlTrustStore trustStore = new SamlTrustStore();
+        ResourceLoader resourceLoader = new DefaultResourceLoader();
+        try {
+            for (String location : signingCertificates) {
+                trustStore.load(resourceLoader.getResource(location));
+            }
+        } catch (CertificateException e) {
+            throw new IOException("Invalid metadata aggregate certificate", e);
+        }
+        if (trustStore.isEmpty()) {
+            throw new IOException("No metadata aggregate certificate in " + signingCertificates);
+        }
+        return trustStore.publicKeys();
+    }
+
+    /**
+     * key 목록의 SHA-256, 순서와 무관하게 같은 key 집합이면 같은 값
+     */
+    private static byte[] fingerprint(List<PublicKey> signingKeys) {
+        List<byte[]> encoded = new ArrayList<>(signingKeys.size());
+        for (PublicKey key : signingKeys) {
+            encoded.add(key.getEncoded());
+        }
+        encoded.sort(SamlMetadataAggregate::compare);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] key : encoded) {
+                digest.update(key);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    private static final class Record {
+        private final byte[] key;
+        private final long offset;
+
+        private Record(byte[] key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+
+    private static final class RecordWriter implements SamlMetadataAggregateParser.EntityHandler {
+
+        private final DataOutputStream out;
+        private final List<Record> records = new ArrayList<>();
+
+        private RecordWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void entity(String entityId, byte[] xml) throws IOException {
+            if (entityId == null || entityId.isEmpty()) {
+                return;
+            }
+            byte[] key = entityId.getBytes(StandardCharsets.UTF_8);
+            records.add(new Record(key, HEADER_SIZE + (long) out.size()));
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(xml.length);
+            out.write(xml);
+        }
+
+        /**
+         * entityID 순, 같은 entityID는 처음 것만 사용
+         */
+        private List<Record> sorted() {
+            records.sort((a, b) -> compare(a.key, b.key));
+            List<Record> sorted = new ArrayList<>(records.size());
+            for (Record record : records) {
+                if (!sorted.isEmpty() && compare(sorted.get(sorted.size() - 1).key, record.key) == 0) {
+                    LOGGER.warn("Duplicate IdP entityID[{}] in metadata aggregate", new String(record.key, StandardCharsets.UTF_8));
+                    continue;
+                }
+                sorted.add(record);
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * memory map 한 index 파일 하나, 교체되면 LRU도 같이 버린다.
+     */
+    private final class Index {
+
+        private final ByteBuffer buffer;
+        private final int count;
+        private final long tableOffset;
+        private final long sourceLastModified;
+        private final long sourceSize;
+        private final boolean verified;
+        private final long validUntil;
+        private final byte[] signingKeyFingerprint = new byte[32];
+
+        private final Map<String, SamlIdp> cache = new LinkedHashMap<String, SamlIdp>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SamlIdp> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        private Index(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.count = buffer.getInt(8);
+            this.tableOffset = buffer.getLong(16);
+            this.sourceLastModified = buffer.getLong(24);
+            this.sourceSize = buffer.getLong(32);
+            this.verified = (buffer.getInt(12) & FLAG_VERIFIED) != 0;
+            this.validUntil = buffer.getLong(40);
+            buffer.duplicate().position(48).get(signingKeyFingerprint);
+        }
+
+        /**
+         * 같은 aggregate 파일을 같은 서명 key 집합으로 확인해서 만들었고 만료되지 않았는지
+         */
+        private boolean isBuiltFrom(Path source, byte[] fingerprint) throws IOException {
+            return verified && !isExpired() && Arrays.equals(signingKeyFingerprint, fingerprint)
+                    && Files.getLastModifiedTime(source).toMillis() == sourceLastModified && Files.size(source) == sourceSize;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= validUntil;
+        }
+
+        private SamlIdp resolve(String entityId) {
+            synchronized (cache) {
+                SamlIdp cached = cache.get(entityId);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            int offset = find(entityId.getBytes(StandardCharsets.UTF_8));
+            if (offset < 0) {
+                return null;
+            }
+            SamlIdp idp = unmarshall(entityId, offset);
+            if (idp != null) {
+                synchronized (cache) {
+                    cache.put(entityId, idp);
+                }
+            }
+            return idp;
+        }
+
+        /**
+         * @return record offset, 없으면 -1
+         */
+        private int find(byte[] key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int offset = (int) buffer.getLong((int) (tableOffset + mid * 8L));
+                int c = compareKey(offset, key);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        private int compareKey(int offset, byte[] key) {
+            int length = buffer.getInt(offset);
+            int start = offset + 4;
+            for (int i = 0; i < Math.min(length, key.length); i++) {
+                int c = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        private SamlIdp unmarshall(String entityId, int offset) {
+            int xmlOffset = offset + 4 + buffer.getInt(offset);
+            byte[] xml = new byte[buffer.getInt(xmlOffset)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(xmlOffset + 4);
+            view.get(xml);
+            unmarshallCount.incrementAndGet();
+            try {
+                Element element = parserPool.parse(new ByteArrayInputStream(xml)).getDocumentElement();
+                Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(element);
+                XMLObject descriptor = unmarshaller.unmarshall(element);
+                SamlIdp idp = descriptor instanceof EntityDescriptor ? SamlIdp.fromMetadata((EntityDescriptor) descriptor, spEntityId) : null;
+                if (idp == null) {
+                    LOGGER.warn("No signing certificate for IdP[{}] in metadata aggregate", entityId);
+                }
+                return idp;
+            } catch (XMLParserException | UnmarshallingException | CertificateException | RuntimeException e) {
+                LOGGER.warn("Failed to unmarshall IdP[{}] from metadata index", entityId, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package saml.sample.sp;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.joda.time.DateTime;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.xml.util.XMLConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * metadata aggregate(EntitiesDescriptor) StAX 한번 읽기.
+ * OpenSAML DOM을 만들지 않고 IDPSSODescriptor가 있는 EntityDescriptor만 각각 독립된 XML로 잘라서 넘기고,
+ * 같은 pass에서 aggregate 서명의 digest를 {@link StreamingExcC14n}으로 계산한다.
+ * <ul>
+ *     <li>서명은 root의 첫 번째 child(metadata schema)여야 하고 Reference는 root 하나(URI "" 또는 #ID)만 허용</li>
+ *     <li>Transform은 enveloped-signature, exclusive c14n만 지원(federation metadata 서명 도구의 기본 설정)</li>
+ *     <li>SignedInfo만 작은 DOM으로 만들어 xmlsec canonicalizer로 서명 확인, RSA 서명만 지원</li>
+ * </ul>
+ * 서명 검증은 문서 끝에서 끝나므로 실패하면 넘긴 entity를 모두 버려야 한다({@link SamlMetadataAggregate}가 임시 파일로 처리).
+ */
+final class SamlMetadataAggregateParser {
+
+    private static final String TRANSFORM_ENVELOPED = "http://www.w3.org/2000/09/xmldsig#enveloped-signature";
+    private static final String EXC_C14N_NS = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+    private static final XMLInputFactory INPUT_FACTORY = inputFactory();
+
+    /**
+     * IDPSSODescriptor가 있는 EntityDescriptor XML(UTF-8, 상위 namespace 선언 포함)
+     */
+    interface EntityHandler {
+        void entity(String entityId, byte[] xml) throws IOException;
+    }
+
+    private final List<PublicKey> signingKeys;
+    /**
+     * root validUntil(epoch millis), 없으면 Long.MAX_VALUE
+     */
+    private long validUntil = Long.MAX_VALUE;
+
+    /**
+     * @param signingKeys aggregate 서명 key, 비어 있으면 서명을 확인하지 않음
+     */
+    SamlMetadataAggregateParser(List<PublicKey> signingKeys) {
+        this.signingKeys = signingKeys;
+    }
+
+    /**
+     * @return 넘긴 IdP entity 수
+     * @throws IOException XML 오류, 만료(validUntil), 서명이 없거나 검증 실패
+     */
+    int parse(InputStream in, EntityHandler handler) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(in);
+            return parse(reader, handler);
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse metadata aggregate", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // 이미 실패한 경우
+                }
+            }
+        }
+    }
+
+    private int parse(XMLStreamReader reader, EntityHandler handler) throws XMLStreamException, IOException {
+        Deque<Map<String, String>> inScope = new ArrayDeque<>();
+        inScope.push(Collections.emptyMap());
+        int depth = 0;
+        int count = 0;
+
+        // 서명(root 첫 번째 child)을 읽기 전까지 root 시작 tag와 text 보관
+        boolean beforeFirstChild = false;
+        StreamingExcC14n.Element root = null;
+        String rootId = null;
+        List<String> leadingText = new ArrayList<>();
+
+        StreamingExcC14n canonicalizer = null;
+        SignedInfo signedInfo = null;
+
+        EntityCopy copy = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.DTD:
+                    throw new IOException("DOCTYPE is not allowed in metadata");
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    inScope.push(namespaces(reader, inScope.peek()));
+                    if (depth == 1) {
+                        root = StreamingExcC14n.element(reader);
+                        rootId = reader.getAttributeValue(null, "ID");
+                        validUntil = checkRoot(reader);
+                        beforeFirstChild = true;
+                    } else if (beforeFirstChild) {
+                        beforeFirstChild = false;
+                        if (XMLConstants.XMLSIG_NS.equals(reader.getNamespaceURI()) && "Signature".equals(reader.getLocalName())) {
+                            Element signature = captureSignature(reader, inScope.peek());
+                            depth--;
+                            inScope.pop();
+                            if (!signingKeys.isEmpty()) {
+                                signedInfo = new SignedInfo(signature, rootId);
+                                canonicalizer = new StreamingExcC14n(signedInfo.digestStream, signedInfo.inclusivePrefixes);
+                                canonicalizer.startElement(root, inScope.peek());
+                                for (String text : leadingText) {
+                                    canonicalizer.text(text);
+                                }
+                            }
+                            continue;
+                        }
+                        if (!signingKeys.isEmpty()) {
+                            throw new IOException("Metadata aggregate is not signed");
+                        }
+                    }
+                    if (canonicalizer != null) {
+                        canonicalizer.startElement(reader, inScope.peek());
+                    }
+                    if (copy != null) {
+                        copy.startElement(reader, depth);
+                    } else if (SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI()) && "EntityDescriptor".equals(reader.getLocalName())) {
+                        copy = new EntityCopy(reader.getAttributeValue(null, "entityID"), depth);
+                        copy.startRoot(reader, inScope.peek());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (canonicalizer != null) {
+                        canonicalizer.endElement();
+                    }
+                    if (copy != null) {
+                        copy.endElement();
+                        if (copy.depth == depth) {
+                            if (copy.idp) {
+                                handler.entity(copy.entityId, copy.toByteArray());
+                                count++;
+                            }
+                            copy = null;
+                        }
+                    }
+                    depth--;
+                    inScope.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth == 0) {
+                        break;
+                    }
+                    if (beforeFirstChild) {
+                        leadingText.add(reader.getText());
+                    } else if (canonicalizer != null) {
+                        canonicalizer.text(reader.getText());
+                    }
+                    if (copy != null) {
+                        copy.text(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (depth > 0 && canonicalizer != null && !beforeFirstChild) {
+                        canonicalizer.processingInstruction(reader.getPITarget(), reader.getPIData());
+                    }
+                    break;
+                default:
+                    // 주석 등은 canonicalization 대상이 아님
+                    break;
+            }
+        }
+
+        if (root == null) {
+            throw new IOException("Empty metadata aggregate");
+        }
+        if (!signingKeys.isEmpty()) {
+            if (signedInfo == null) {
+                throw new IOException("Metadata aggregate is not signed");
+            }
+            canonicalizer.flush();
+            signedInfo.verify(signingKeys);
+        }
+        return count;
+    }
+
+    /**
+     * parse 한 aggregate root의 validUntil(epoch millis), 없으면 Long.MAX_VALUE
+     */
+    long validUntil() {
+        return validUntil;
+    }
+
+    /**
+     * root는 EntitiesDescriptor 또는 EntityDescriptor, validUntil이 지났으면 사용하지 않는다.
+     *
+     * @return validUntil(epoch millis), 없으면 Long.MAX_VALUE
+     */
+    private static long checkRoot(XMLStreamReader reader) throws IOException {
+        if (!SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI())
+                || !("EntitiesDescriptor".equals(reader.getLocalName()) || "EntityDescriptor".equals(reader.getLocalName()))) {
+            throw new IOException("Not a SAML metadata[" + reader.getName() + "]");
+        }
+        String validUntil = reader.getAttributeValue(null, "validUntil");
+        if (validUntil == null) {
+            return Long.MAX_VALUE;
+        }
+        DateTime expires = new DateTime(validUntil.trim());
+        if (expires.isBeforeNow()) {
+            throw new IOException("Metadata aggregate expired at " + validUntil);
+        }
+        return expires.getMillis();
+    }
+
+    private static Map<String, String> namespaces(XMLStreamReader reader, Map<String, String> parent) {
+        int count = reader.getNamespaceCount();
+        if (count == 0) {
+            return parent;
+        }
+        Map<String, String> namespaces = new HashMap<>(parent);
+        for (int i = 0; i < count; i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            namespaces.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+        }
+        return namespaces;
+    }
+
+    /**
+     * 현재 위치의 ds:Signature를 끝까지 읽어 DOM으로 생성, 상위 element에서 선언한 namespace도 복사
+     */
+    private static Element captureSignature(XMLStreamReader reader, Map<String, String> inScope) throws XMLStreamException, IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+        Node parent = document;
+        int depth = 0;
+        int event = XMLStreamConstants.START_ELEMENT;
+        while (true) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Element element = document.createElementNS(reader.getNamespaceURI(), qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    String prefix = reader.getNamespacePrefix(i);
+                    element.setAttributeNS(XMLConstants.XMLNS_NS, prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix,
+                            reader.getNamespaceURI(i));
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String namespace = reader.getAttributeNamespace(i);
+                    element.setAttributeNS(namespace == null || namespace.isEmpty() ? null : namespace,
+                            qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+                }
+                parent.appendChild(element);
+                parent = element;
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (depth == 0) {
+                    break;
+                }
+                parent = parent.getParentNode();
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                parent.appendChild(document.createTextNode(reader.getText()));
+            }
+            event = reader.next();
+        }
+        Element signature = document.getDocumentElement();
+        for (Map.Entry<String, String> namespace : inScope.entrySet()) {
+            String name = namespace.getKey().isEmpty() ? "xmlns" : "xmlns:" + namespace.getKey();
+            if (!signature.hasAttributeNS(XMLConstants.XMLNS_NS, namespace.getKey().isEmpty() ? "xmlns" : namespace.getKey())) {
+                signature.setAttributeNS(XMLConstants.XMLNS_NS, name, namespace.getValue());
+            }
+        }
+        return signature;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    private static Element child(Element parent, String namespace, String localName) throws IOException {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && namespace.equals(node.getNamespaceURI()) && localName.equals(node.getLocalName())) {
+                return (Element) node;
+            }
+        }
+        throw new IOException("No " + localName + " in " + parent.getLocalName());
+    }
+
+    private static List<Element> children(Element parent, String namespace, String localName) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && namespace.equals(node.getNamespaceURI()) && localName.equals(node.getLocalName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * aggregate 서명의 SignedInfo, digest는 문서를 읽으면서 계산
+     */
+    private static final class SignedInfo {
+
+        private final Element signedInfo;
+        private final String canonicalizationMethod;
+        private final String inclusiveNamespaces;
+        private final String signatureMethod;
+        private final byte[] signatureValue;
+        private final byte[] digestValue;
+        private final MessageDigest digest;
+        private final OutputStream digestStream;
+        private final Set<String> inclusivePrefixes = new HashSet<>();
+
+        private SignedInfo(Element signature, String rootId) throws IOException {
+            signedInfo = child(signature, XMLConstants.XMLSIG_NS, "SignedInfo");
+            Element canonicalization = child(signedInfo, XMLConstants.XMLSIG_NS, "CanonicalizationMethod");
+            canonicalizationMethod = canonicalization.getAttribute("Algorithm");
+            List<Element> prefixList = children(canonicalization, EXC_C14N_NS, "InclusiveNamespaces");
+            inclusiveNamespaces = prefixList.isEmpty() ? null : prefixList.get(0).getAttribute("PrefixList");
+            signatureMethod = child(signedInfo, XMLConstants.XMLSIG_NS, "SignatureMethod").getAttribute("Algorithm");
+            signatureValue = base64(child(signature, XMLConstants.XMLSIG_NS, "SignatureValue"));
+
+            List<Element> references = children(signedInfo, XMLConstants.XMLSIG_NS, "Reference");
+            if (references.size() != 1) {
+                throw new IOException("Metadata aggregate signature must have one Reference");
+            }
+            Element reference = references.get(0);
+            String uri = reference.getAttribute("URI");
+            if (!uri.isEmpty() && !uri.equals("#" + rootId)) {
+                throw new IOException("Metadata aggregate signature Reference[" + uri + "] is not the root element");
+            }
+            boolean exclusive = false;
+            for (Element transform : children(child(reference, XMLConstants.XMLSIG_NS, "Transforms"), XMLConstants.XMLSIG_NS, "Transform")) {
+                String algorithm = transform.getAttribute("Algorithm");
+                if (Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS.equals(algorithm) || Canonicalizer.ALGO_ID_C14N_EXCL_WITH_COMMENTS.equals(algorithm)) {
+                    // 같은 문서 Reference(URI "", #ID)는 WithComments여도 주석 제외
+                    exclusive = true;
+                    for (Element prefixes : children(transform, EXC_C14N_NS, "InclusiveNamespaces")) {
+                        inclusivePrefixes.addAll(Arrays.asList(prefixes.getAttribute("PrefixList").trim().split("\\s+")));
+                        inclusivePrefixes.remove("");
+                    }
+                } else if (!TRANSFORM_ENVELOPED.equals(algorithm)) {
+                    throw new IOException("Unsupported metadata aggregate transform[" + algorithm + "]");
+                }
+            }
+            if (!exclusive) {
+                throw new IOException("Metadata aggregate signature must use exclusive canonicalization");
+            }
+            digestValue = base64(child(reference, XMLConstants.XMLSIG_NS, "DigestValue"));
+            String digestMethod = child(reference, XMLConstants.XMLSIG_NS, "DigestMethod").getAttribute("Algorithm");
+            try {
+                digest = MessageDigest.getInstance(jceId(digestMethod));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unsupported digest[" + digestMethod + "]", e);
+            }
+            digestStream = new DigestOutputStream(OutputStream.nullOutputStream(), digest);
+        }
+
+        private void verify(List<PublicKey> keys) throws IOException {
+            if (!MessageDigest.isEqual(digest.digest(), digestValue)) {
+                throw new IOException("Metadata aggregate digest mismatch");
+            }
+            String algorithm = jceId(signatureMethod);
+            if (!algorithm.endsWith("withRSA")) {
+                throw new IOException("Unsupported metadata aggregate signature[" + signatureMethod + "]");
+            }
+            try {
+                byte[] canonical = Canonicalizer.getInstance(canonicalizationMethod).canonicalizeSubtree(signedInfo, inclusiveNamespaces);
+                for (PublicKey key : keys) {
+                    Signature verifier = Signature.getInstance(algorithm);
+                    verifier.initVerify(key);
+                    verifier.update(canonical);
+                    if (verifier.verify(signatureValue)) {
+                        return;
+                    }
+                }
+            } catch (XMLSecurityException | GeneralSecurityException e) {
+                throw new IOException("Metadata aggregate signature validation error", e);
+            }
+            throw new IOException("Metadata aggregate signature validation fail");
+        }
+
+        private static String jceId(String algorithm) throws IOException {
+            String jceId = JCEMapper.translateURItoJCEID(algorithm);
+            if (jceId == null) {
+                throw new IOException("Unsupported algorithm[" + algorithm + "]");
+            }
+            return jceId;
+        }
+
+        private static byte[] base64(Element element) {
+            return Base64.getMimeDecoder().decode(element.getTextContent().trim());
+        }
+    }
+
+    /**
+     * EntityDescriptor 하나를 독립된 XML로 복사, root에 상위 namespace 선언을 모두 추가한다.
+     */
+    private static final class EntityCopy {
+
+        private final String entityId;
+        private final int depth;
+        private final StringBuilder xml = new StringBuilder(4096);
+        private final Deque<String> names = new ArrayDeque<>();
+        private boolean idp;
+
+        private EntityCopy(String entityId, int depth) {
+            this.entityId = entityId;
+            this.depth = depth;
+        }
+
+        private void startRoot(XMLStreamReader reader, Map<String, String> inScope) {
+            startTag(reader);
+            for (Map.Entry<String, String> namespace : inScope.entrySet()) {
+                xml.append(namespace.getKey().isEmpty() ? " xmlns" : " xmlns:" + namespace.getKey()).append("=\"");
+                escape(namespace.getValue(), true);
+                xml.append('"');
+            }
+            attributes(reader);
+        }
+
+        private void startElement(XMLStreamReader reader, int elementDepth) {
+            if (elementDepth == depth + 1 && SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI())
+                    && "IDPSSODescriptor".equals(reader.getLocalName())) {
+                idp = true;
+            }
+            startTag(reader);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                xml.append(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"");
+                escape(reader.getNamespaceURI(i) == null ? "" : reader.getNamespaceURI(i), true);
+                xml.append('"');
+            }
+            attributes(reader);
+        }
+
+        private void startTag(XMLStreamReader reader) {
+            String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+            names.push(name);
+            xml.append('<').append(name);
+        }
+
+        private void attributes(XMLStreamReader reader) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                xml.append(' ').append(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i))).append("=\"");
+                escape(reader.getAttributeValue(i), true);
+                xml.append('"');
+            }
+            xml.append('>');
+        }
+
+        private void endElement() {
+            xml.append("</").append(names.pop()).append('>');
+        }
+
+        private void text(String text) {
+            escape(text, false);
+        }
+
+        private void escape(String value, boolean attribute) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '&') {
+                    xml.append("&amp;");
+                } else if (c == '<') {
+                    xml.append("&lt;");
+                } else if (c == '>') {
+                    xml.append("&gt;");
+                } else if (attribute && c == '"') {
+                    xml.append("&quot;");
+                } else if (c == '\r' || (attribute && (c == '\n' || c == '\t'))) {
+                    xml.append("&#").append((int) c).append(';');
+                } else {
+                    xml.append(c);
+                }
+            }
+        }
+
+        private byte[] toByteArray() {
+            return xml.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
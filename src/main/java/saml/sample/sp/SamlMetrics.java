@@ -0,0 +1,151 @@
+package saml.sample.sp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * SAML 로그인/로그아웃 단계별 시간(histogram timer), 실패 수(counter).
+ * 꺼져 있으면 {@link #start()}가 시계를 읽지 않고 나머지 method도 바로 반환하므로 비용이 거의 없다.
+ * <ul>
+ *     <li>saml.stage{stage} : 단계별 시간</li>
+ *     <li>saml.validation{check} : 검증 항목별 시간</li>
+ *     <li>saml.failures{stage, reason} : 단계별 실패 수, 검증 실패의 reason은 검증 항목 이름(signature, status, conditions 등)</li>
+ *     <li>saml.acs.queue.wait, saml.acs.execution, saml.acs.rejected : async ACS executor 대기/실행 시간, 거부 수</li>
+ * </ul>
+ */
+final class SamlMetrics {
+
+    private static final SamlMetrics DISABLED = new SamlMetrics(null, false);
+
+    /**
+     * 측정 단계, decode는 unmarshall을 포함하고 login은 ingest 이후 전체
+     */
+    enum Stage {
+        LOGIN("login"),
+        INGEST("ingest"),
+        DECODE("decode"),
+        UNMARSHALL("unmarshall"),
+        CONSUME("consume"),
+        VALIDATE("validate"),
+        MAPPING("mapping"),
+        PRINCIPAL("principal"),
+        SESSION_WRITE("session_write"),
+        SESSION_READ("session_read"),
+        COMMENCE("commence"),
+        LOGOUT("logout");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final boolean histogram;
+    private final Timer[] stageTimers;
+    private final Map<String, Timer> checkTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> failureCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    SamlMetrics(MeterRegistry registry, boolean histogram) {
+        this.registry = registry;
+        this.enabled = registry != null;
+        this.histogram = histogram;
+        this.stageTimers = new Timer[Stage.values().length];
+        if (enabled) {
+            for (Stage stage : Stage.values()) {
+                stageTimers[stage.ordinal()] = timer("saml.stage", "stage", stage.tag);
+            }
+        }
+    }
+
+    static SamlMetrics disabled() {
+        return DISABLED;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 측정 시작 시각, 꺼져 있으면 0
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    void record(Stage stage, long start) {
+        if (enabled) {
+            stageTimers[stage.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordCheck(String check, long start) {
+        if (enabled) {
+            checkTimers.computeIfAbsent(check, name -> timer("saml.validation", "check", name))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void failure(Stage stage, String reason) {
+        if (enabled) {
+            failureCounters.computeIfAbsent(stage.tag + ':' + reason, key -> Counter.builder("saml.failures")
+                    .tag("stage", stage.tag)
+                    .tag("reason", reason)
+                    .register(registry))
+                    .increment();
+        }
+    }
+
+    /**
+     * stage 외 이름별 시간(ex. executor 대기/실행 시간), count/mean/max는 timer에서 조회
+     */
+    void recordNanos(String name, long nanos) {
+        if (enabled) {
+            timers.computeIfAbsent(name, key -> timer(Timer.builder(key))).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 이름별 횟수(ex. executor 거부 수)
+     */
+    void increment(String name) {
+        if (enabled) {
+            counters.computeIfAbsent(name, key -> Counter.builder(key).register(registry)).increment();
+        }
+    }
+
+    /**
+     * executor, parser pool 같은 상태 값, 꺼져 있으면 등록하지 않는다.
+     */
+    <T> SamlMetrics gauge(String name, T target, ToDoubleFunction<T> value) {
+        if (enabled) {
+            Gauge.builder(name, target, value).strongReference(true).register(registry);
+        }
+        return this;
+    }
+
+    private Timer timer(String name, String tagKey, String tagValue) {
+        return timer(Timer.builder(name).tag(tagKey, tagValue));
+    }
+
+    private Timer timer(Timer.Builder builder) {
+        if (histogram) {
+            builder.publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10));
+        }
+        return builder.register(registry);
+    }
+}
@@ -0,0 +1,178 @@
+package saml.sample.sp;
+
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.validation.Schema;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ACS decode에서 공유하는 parser pool.
+ * {@link StaticBasicParserPool}을 감싸서 DocumentBuilder 대여 대기시간, 사용중인 parser 수를 기록한다.
+ * 기동 시 pool 크기만큼 DocumentBuilder를 미리 만들어 둔다.
+ */
+final class SamlParserPool implements ParserPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlParserPool.class);
+
+    private final StaticBasicParserPool delegate = new StaticBasicParserPool();
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    private boolean secureProcessing = true;
+    private final Map<String, Boolean> builderFeatures = new LinkedHashMap<>();
+
+    SamlParserPool() {
+        delegate.setNamespaceAware(true);
+        delegate.setIgnoreComments(true);
+        delegate.setExpandEntityReferences(false);
+        builderFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+        builderFeatures.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+        builderFeatures.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+    }
+
+    /**
+     * pool 초기화 및 DocumentBuilder pre-warm
+     */
+    void initialize() throws XMLParserException {
+        Map<String, Boolean> features = new LinkedHashMap<>(builderFeatures);
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, secureProcessing);
+        delegate.setBuilderFeatures(features);
+        delegate.initialize();
+
+        List<DocumentBuilder> builders = new ArrayList<>(delegate.getMaxPoolSize());
+        for (int i = 0; i < delegate.getMaxPoolSize(); i++) {
+            builders.add(delegate.getBuilder());
+        }
+        builders.forEach(delegate::returnBuilder);
+        LOGGER.info("Initialized parser pool. size[{}] features[{}]", builders.size(), features);
+    }
+
+    @Override
+    public DocumentBuilder getBuilder() throws XMLParserException {
+        long start = System.nanoTime();
+        DocumentBuilder builder = delegate.getBuilder();
+        long wait = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(wait);
+        maxBorrowWaitNanos.accumulateAndGet(wait, Math::max);
+        inUse.incrementAndGet();
+        return builder;
+    }
+
+    @Override
+    public void returnBuilder(DocumentBuilder builder) {
+        inUse.decrementAndGet();
+        delegate.returnBuilder(builder);
+    }
+
+    @Override
+    public Document newDocument() throws XMLParserException {
+        DocumentBuilder builder = getBuilder();
+        try {
+            return builder.newDocument();
+        } finally {
+            returnBuilder(builder);
+        }
+    }
+
+    @Override
+    public Document parse(InputStream input) throws XMLParserException {
+        DocumentBuilder builder = getBuilder();
+        try {
+            return builder.parse(input);
+        } catch (SAXException | IOException e) {
+            throw new XMLParserException("Unable to parse inputstream, it contained invalid XML", e);
+        } finally {
+            returnBuilder(builder);
+        }
+    }
+
+    @Override
+    public Document parse(Reader input) throws XMLParserException {
+        DocumentBuilder builder = getBuilder();
+        try {
+            return builder.parse(new InputSource(input));
+        } catch (SAXException | IOException e) {
+            throw new XMLParserException("Unable to parse reader, it contained invalid XML", e);
+        } finally {
+            returnBuilder(builder);
+        }
+    }
+
+    @Override
+    public Schema getSchema() {
+        return delegate.getSchema();
+    }
+
+    @Override
+    public void setSchema(Schema schema) {
+        delegate.setSchema(schema);
+    }
+
+    int inUse() {
+        return inUse.get();
+    }
+
+    long borrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * 평균 대여 대기시간(nano)
+     */
+    long averageBorrowWaitNanos() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : borrowWaitNanos.get() / count;
+    }
+
+    long maxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.get();
+    }
+
+    int maxPoolSize() {
+        return delegate.getMaxPoolSize();
+    }
+
+    SamlParserPool maxPoolSize(int maxPoolSize) {
+        delegate.setMaxPoolSize(maxPoolSize);
+        return this;
+    }
+
+    SamlParserPool secureProcessing(boolean secureProcessing) {
+        this.secureProcessing = secureProcessing;
+        return this;
+    }
+
+    /**
+     * "feature=true,feature=false" 형식의 DocumentBuilder feature 설정 추가
+     */
+    SamlParserPool builderFeatures(String features) {
+        for (String feature : features.split(",")) {
+            int idx = feature.lastIndexOf('=');
+            if (idx > 0) {
+                builderFeatures.put(feature.substring(0, idx).trim(), Boolean.valueOf(feature.substring(idx + 1).trim()));
+            }
+        }
+        return this;
+    }
+}
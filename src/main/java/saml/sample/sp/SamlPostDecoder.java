@@ -0,0 +1,66 @@
+package saml.sample.sp;
+
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.saml2.binding.decoding.HTTPPostDecoder;
+import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.opensaml.ws.transport.http.HTTPInTransport;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.SecurityException;
+
+import java.io.InputStream;
+
+/**
+ * HTTP POST decoder.
+ * {@link SamlMessageIngester}에서 미리 읽은 message가 있으면 form parameter 대신 그 bytes를 사용한다.
+ * Destination을 설정된 SP url로 따로 확인하는 경우 OpenSAML의 요청 url 비교(proxy 뒤에서는 다름)를 끌 수 있다.
+ */
+final class SamlPostDecoder extends HTTPPostDecoder {
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+    private boolean checkEndpointUri = true;
+
+    SamlPostDecoder(ParserPool parserPool) {
+        super(parserPool);
+    }
+
+    @Override
+    protected XMLObject unmarshallMessage(InputStream messageStream) throws MessageDecodingException {
+        long start = metrics.start();
+        try {
+            return super.unmarshallMessage(messageStream);
+        } finally {
+            metrics.record(SamlMetrics.Stage.UNMARSHALL, start);
+        }
+    }
+
+    @Override
+    protected InputStream getBase64DecodedMessage(HTTPInTransport transport) throws MessageDecodingException {
+        if (transport instanceof HttpServletRequestAdapter) {
+            Object request = ((HttpServletRequestAdapter) transport).getWrappedRequest();
+            if (request instanceof SamlInboundRequest) {
+                return ((SamlInboundRequest) request).messageStream();
+            }
+        }
+        return super.getBase64DecodedMessage(transport);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected void checkEndpointURI(SAMLMessageContext messageContext) throws SecurityException, MessageDecodingException {
+        if (checkEndpointUri) {
+            super.checkEndpointURI(messageContext);
+        }
+    }
+
+    SamlPostDecoder checkEndpointUri(boolean checkEndpointUri) {
+        this.checkEndpointUri = checkEndpointUri;
+        return this;
+    }
+
+    SamlPostDecoder metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+}
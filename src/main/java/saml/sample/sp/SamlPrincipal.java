@@ -0,0 +1,69 @@
+package saml.sample.sp;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.List;
+
+/**
+ * 로그인한 SAML 사용자의 session 보관용 principal.
+ * 변경 불가능한 값만 가지고 있고 session 저장 시 {@link SamlSessionCodec}의 binary 형식으로 직렬화된다.
+ * 모든 필드 값으로 비교(session 복원, token 확인으로 만든 instance도 같은 사용자면 equals).
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+final class SamlPrincipal implements AuthenticatedPrincipal {
+
+    private final String username;
+    private final String email;
+    private final String federationIdentifier;
+    private final String personname;
+    /**
+     * IdP response assertion id
+     */
+    private final String idpToken;
+    /**
+     * AuthnStatement SessionIndex, IdP logout 요청의 대상 확인과 SP logout 요청의 SessionIndex로 사용
+     */
+    private final String sessionIndex;
+    /**
+     * assertion Subject NameID, IdP logout 요청의 대상 확인에 사용
+     */
+    private final String nameId;
+    /**
+     * 로그인한 IdP entityID, logout 요청을 보낼 IdP 조회에 사용
+     */
+    private final String idpEntityId;
+    /**
+     * 같은 권한 조합의 사용자끼리 공유하는 {@link SamlAuthorities}
+     */
+    private final List<GrantedAuthority> authorities;
+
+    SamlPrincipal(String username, String email, String federationIdentifier, String personname,
+                  String idpToken, String sessionIndex, String nameId, String idpEntityId, List<GrantedAuthority> authorities) {
+        this.username = username;
+        this.email = email;
+        this.federationIdentifier = federationIdentifier;
+        this.personname = personname;
+        this.idpToken = idpToken;
+        this.sessionIndex = sessionIndex;
+        this.nameId = nameId;
+        this.idpEntityId = idpEntityId;
+        this.authorities = SamlAuthorities.from(authorities);
+    }
+
+    static SamlPrincipal of(SamlUserDetails userDetails, List<GrantedAuthority> authorities) {
+        return new SamlPrincipal(userDetails.getUsername(), userDetails.getEmail(), userDetails.getFederationIdentifier(),
+                userDetails.getPersonname(), userDetails.getIdpToken(), userDetails.getSessionIndex(), userDetails.getNameId(),
+                userDetails.getIdpEntityId(), authorities);
+    }
+
+    @Override
+    public String getName() {
+        return username;
+    }
+}
@@ -0,0 +1,119 @@
+package saml.sample.sp;
+
+import org.opensaml.xml.signature.SignatureConstants;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP Redirect binding query string 서명(SigAlg, Signature).
+ * 서명 대상은 url encoding 된 원래 query 값 그대로 "SAMLRequest(SAMLResponse)=...&RelayState=...&SigAlg=..." 이다.
+ */
+final class SamlRedirectSignature {
+
+    static final String SIG_ALG = "SigAlg";
+    static final String SIGNATURE = "Signature";
+
+    private static final Map<String, String> JCA_ALGORITHMS = new HashMap<>();
+
+    static {
+        JCA_ALGORITHMS.put(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1, "SHA1withRSA");
+        JCA_ALGORITHMS.put(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, "SHA256withRSA");
+        JCA_ALGORITHMS.put(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384, "SHA384withRSA");
+        JCA_ALGORITHMS.put(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512, "SHA512withRSA");
+        JCA_ALGORITHMS.put(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, "SHA256withECDSA");
+    }
+
+    private SamlRedirectSignature() {
+    }
+
+    static boolean isSigned(String queryString) {
+        return queryString != null && rawParameters(queryString).containsKey(SIGNATURE);
+    }
+
+    /**
+     * query string 서명 검증
+     *
+     * @param messageParameter SAMLRequest 또는 SAMLResponse
+     * @throws GeneralSecurityException 서명이 없거나 어느 공개키로도 검증되지 않는 경우
+     */
+    static void verify(String queryString, String messageParameter, Collection<PublicKey> publicKeys) throws GeneralSecurityException {
+        Map<String, String> parameters = rawParameters(queryString);
+        String message = parameters.get(messageParameter);
+        String sigAlg = parameters.get(SIG_ALG);
+        String signature = parameters.get(SIGNATURE);
+        if (message == null || sigAlg == null || signature == null) {
+            throw new GeneralSecurityException("Missing " + messageParameter + ", SigAlg or Signature");
+        }
+        String algorithm = jcaAlgorithm(urlDecode(sigAlg));
+        if (algorithm == null) {
+            throw new GeneralSecurityException("Unsupported SigAlg : " + urlDecode(sigAlg));
+        }
+
+        StringBuilder signedContent = new StringBuilder(messageParameter).append('=').append(message);
+        String relayState = parameters.get(SamlMessageIngester.RELAY_STATE);
+        if (relayState != null) {
+            signedContent.append('&').append(SamlMessageIngester.RELAY_STATE).append('=').append(relayState);
+        }
+        signedContent.append('&').append(SIG_ALG).append('=').append(sigAlg);
+
+        byte[] content = signedContent.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] signatureBytes;
+        try {
+            signatureBytes = Base64.getMimeDecoder().decode(urlDecode(signature));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Signature is not valid base64", e);
+        }
+        for (PublicKey publicKey : publicKeys) {
+            Signature verifier = Signature.getInstance(algorithm);
+            try {
+                verifier.initVerify(publicKey);
+            } catch (GeneralSecurityException e) {
+                // 알고리즘과 맞지 않는 key(RSA, EC)
+                continue;
+            }
+            verifier.update(content);
+            if (verifier.verify(signatureBytes)) {
+                return;
+            }
+        }
+        throw new GeneralSecurityException("Redirect binding signature validation fail");
+    }
+
+    /**
+     * SigAlg URI에 해당하는 JCA 서명 알고리즘, 지원하지 않으면 null
+     */
+    static String jcaAlgorithm(String sigAlg) {
+        return JCA_ALGORITHMS.get(sigAlg);
+    }
+
+    /**
+     * url decode 하지 않은 query parameter
+     */
+    private static Map<String, String> rawParameters(String queryString) {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : queryString.split("&")) {
+            int idx = parameter.indexOf('=');
+            if (idx > 0) {
+                parameters.putIfAbsent(parameter.substring(0, idx), parameter.substring(idx + 1));
+            }
+        }
+        return parameters;
+    }
+
+    private static String urlDecode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+}
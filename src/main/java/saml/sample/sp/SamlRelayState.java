@@ -0,0 +1,196 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 로그인 후 이동할 url을 HttpSession(request cache) 대신 RelayState로 IdP를 거쳐 ACS까지 전달.
+ * <ul>
+ *     <li>s... : HMAC-SHA256(앞 12 bytes) 서명 + 만료 시각 + url, base64url. 서명 key가 같으면 어느 node에서나 확인 가능</li>
+ *     <li>k... : 서명 형식이 RelayState 최대 길이(SAML binding 80 bytes)를 넘는 url은 임의 key로 LRU에 보관, 한번 사용하면 삭제</li>
+ * </ul>
+ * url은 같은 서버의 경로(/로 시작, //로 시작하지 않음)만 허용한다(open redirect 방지).
+ */
+final class SamlRelayState {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlRelayState.class);
+
+    /**
+     * ACS 요청의 RelayState 값, {@link SamlAssertionConsumeFilter}가 request attribute로 넘겨줌
+     */
+    static final String ATTRIBUTE = SamlRelayState.class.getName();
+
+    static final int MAX_LENGTH = 80;
+
+    private static final String HMAC = "HmacSHA256";
+    private static final char SIGNED = 's';
+    private static final char CACHED = 'k';
+    private static final int MAC_BYTES = 12;
+    private static final int KEY_BYTES = 16;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final SecureRandom random = new SecureRandom();
+
+    private long ttlMillis = TimeUnit.MINUTES.toMillis(30);
+    private int cacheSize = 10000;
+
+    private final Map<String, Cached> cache = new LinkedHashMap<String, Cached>(256) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    /**
+     * @param key HMAC key, null이면 임의 생성(node 하나인 경우)
+     */
+    SamlRelayState(byte[] key) {
+        if (key == null) {
+            key = new byte[32];
+            random.nextBytes(key);
+        } else if (key.length < 32) {
+            throw new IllegalArgumentException("RelayState key must be at least 32 bytes");
+        }
+        this.key = new SecretKeySpec(key, HMAC);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        // 잘못된 key는 기동 시 실패
+        macs.get();
+    }
+
+    /**
+     * 로그인 후 이동할 url의 RelayState, url이 없거나 허용하지 않는 url이면 null
+     */
+    String issue(String target) {
+        if (!isLocalPath(target)) {
+            return null;
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        byte[] url = target.getBytes(StandardCharsets.UTF_8);
+        if (1 + (MAC_BYTES + Integer.BYTES + url.length + 2) / 3 * 4 <= MAX_LENGTH) {
+            ByteBuffer token = ByteBuffer.allocate(MAC_BYTES + Integer.BYTES + url.length);
+            token.position(MAC_BYTES);
+            token.putInt((int) TimeUnit.MILLISECONDS.toSeconds(expiresAt)).put(url);
+            Mac mac = macs.get();
+            mac.update(token.array(), MAC_BYTES, token.capacity() - MAC_BYTES);
+            System.arraycopy(mac.doFinal(), 0, token.array(), 0, MAC_BYTES);
+            return SIGNED + ENCODER.encodeToString(token.array());
+        }
+
+        byte[] id = new byte[KEY_BYTES];
+        random.nextBytes(id);
+        String relayState = CACHED + ENCODER.encodeToString(id);
+        synchronized (cache) {
+            cache.put(relayState, new Cached(target, expiresAt));
+        }
+        return relayState;
+    }
+
+    /**
+     * RelayState의 url, 서명이 틀리거나 만료됐거나 알 수 없는 값(ex. IdP-initiated 로그인)이면 null
+     */
+    String resolve(String relayState) {
+        if (relayState == null || relayState.length() < 2 || relayState.length() > MAX_LENGTH) {
+            return null;
+        }
+        String target;
+        if (relayState.charAt(0) == SIGNED) {
+            target = verify(relayState);
+        } else if (relayState.charAt(0) == CACHED) {
+            Cached cached;
+            synchronized (cache) {
+                cached = cache.remove(relayState);
+            }
+            target = cached == null || cached.expiresAt < System.currentTimeMillis() ? null : cached.target;
+        } else {
+            target = null;
+        }
+        if (target == null) {
+            LOGGER.debug("Unknown or expired RelayState[{}]", relayState);
+        }
+        return isLocalPath(target) ? target : null;
+    }
+
+    private String verify(String relayState) {
+        byte[] token;
+        try {
+            token = DECODER.decode(relayState.substring(1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (token.length <= MAC_BYTES + Integer.BYTES) {
+            return null;
+        }
+        Mac mac = macs.get();
+        mac.update(token, MAC_BYTES, token.length - MAC_BYTES);
+        if (!MessageDigest.isEqual(Arrays.copyOf(mac.doFinal(), MAC_BYTES), Arrays.copyOf(token, MAC_BYTES))) {
+            return null;
+        }
+        long expiresAt = TimeUnit.SECONDS.toMillis(ByteBuffer.wrap(token, MAC_BYTES, Integer.BYTES).getInt() & 0xffffffffL);
+        if (expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        int offset = MAC_BYTES + Integer.BYTES;
+        return new String(token, offset, token.length - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 같은 서버의 경로만, scheme/host가 있는 url과 //host 형식은 거부
+     */
+    private static boolean isLocalPath(String target) {
+        return target != null && target.length() > 0 && target.charAt(0) == '/'
+                && !target.startsWith("//") && !target.startsWith("/\\");
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize RelayState " + HMAC, e);
+        }
+    }
+
+    int cached() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    SamlRelayState ttl(long ttl, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(ttl);
+        return this;
+    }
+
+    SamlRelayState cacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    private static final class Cached {
+        private final String target;
+        private final long expiresAt;
+
+        private Cached(String target, long expiresAt) {
+            this.target = target;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
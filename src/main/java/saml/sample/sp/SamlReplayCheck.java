@@ -0,0 +1,92 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Assertion replay, InResponseTo 확인.
+ * bearer SubjectConfirmationData의 InResponseTo도 Response InResponseTo와 같아야 한다(assertion만 서명된 응답에서 Response 값만 바꾸는 것 방지).
+ * 서명 검증 전에는 조회만 하고({@link #lookup}), 서명 검증 후에 저장소를 갱신한다({@link #commit}).
+ * 서명되지 않은 위조 응답으로 id를 미리 소모시키는 것을 막기 위해 두 단계로 나눈다.
+ */
+final class SamlReplayCheck implements SamlResponseCheck {
+
+    private final SamlMessageIdStore requestIdStore;
+    private final SamlMessageIdStore assertionIdStore;
+    private final boolean allowUnsolicited;
+    private final boolean commit;
+
+    private SamlReplayCheck(SamlMessageIdStore requestIdStore, SamlMessageIdStore assertionIdStore,
+                            boolean allowUnsolicited, boolean commit) {
+        this.requestIdStore = requestIdStore;
+        this.assertionIdStore = assertionIdStore;
+        this.allowUnsolicited = allowUnsolicited;
+        this.commit = commit;
+    }
+
+    static SamlReplayCheck lookup(SamlMessageIdStore requestIdStore, SamlMessageIdStore assertionIdStore, boolean allowUnsolicited) {
+        return new SamlReplayCheck(requestIdStore, assertionIdStore, allowUnsolicited, false);
+    }
+
+    static SamlReplayCheck commit(SamlMessageIdStore requestIdStore, SamlMessageIdStore assertionIdStore, boolean allowUnsolicited) {
+        return new SamlReplayCheck(requestIdStore, assertionIdStore, allowUnsolicited, true);
+    }
+
+    @Override
+    public int cost() {
+        return commit ? 2000 : 60;
+    }
+
+    @Override
+    public String name() {
+        return commit ? "replayCommit" : "replay";
+    }
+
+    @Override
+    public void check(Response samlResponse) throws AuthenticationException {
+        checkInResponseTo(samlResponse.getInResponseTo());
+        for (Assertion assertion : samlResponse.getAssertions()) {
+            if (!commit) {
+                checkBearerInResponseTo(assertion, samlResponse.getInResponseTo());
+            }
+            boolean replayed = commit ? !assertionIdStore.add(assertion.getID()) : assertionIdStore.contains(assertion.getID());
+            if (replayed) {
+                throw new BadCredentialsException("Assertion[" + assertion.getID() + "] was already used");
+            }
+        }
+    }
+
+    private static void checkBearerInResponseTo(Assertion assertion, String inResponseTo) {
+        if (assertion.getSubject() == null) {
+            return;
+        }
+        for (SubjectConfirmation confirmation : assertion.getSubject().getSubjectConfirmations()) {
+            SubjectConfirmationData data = confirmation.getSubjectConfirmationData();
+            if (!SubjectConfirmation.METHOD_BEARER.equals(confirmation.getMethod()) || data == null) {
+                continue;
+            }
+            String dataInResponseTo = data.getInResponseTo();
+            if (dataInResponseTo == null ? inResponseTo != null : !dataInResponseTo.equals(inResponseTo)) {
+                throw new BadCredentialsException("SubjectConfirmationData InResponseTo[" + dataInResponseTo
+                        + "] of assertion[" + assertion.getID() + "] does not match response InResponseTo[" + inResponseTo + "]");
+            }
+        }
+    }
+
+    private void checkInResponseTo(String inResponseTo) {
+        if (inResponseTo == null) {
+            if (!allowUnsolicited) {
+                throw new BadCredentialsException("Unsolicited SAML response is not allowed");
+            }
+            return;
+        }
+        boolean issued = commit ? requestIdStore.remove(inResponseTo) : requestIdStore.contains(inResponseTo);
+        if (!issued) {
+            throw new BadCredentialsException("InResponseTo[" + inResponseTo + "] does not match an issued AuthnRequest");
+        }
+    }
+}
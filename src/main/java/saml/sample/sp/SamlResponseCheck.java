@@ -0,0 +1,20 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Response;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * SAML response 검증 항목.
+ * {@link SamlValidationPipeline}에서 cost가 낮은 순서로 실행되고 처음 실패한 항목에서 검증을 중단한다.
+ */
+interface SamlResponseCheck {
+
+    /**
+     * 상대적인 검증 비용, 값이 작을수록 먼저 실행
+     */
+    int cost();
+
+    String name();
+
+    void check(Response samlResponse) throws AuthenticationException;
+}
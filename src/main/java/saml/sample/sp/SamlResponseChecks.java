@@ -0,0 +1,310 @@
+package saml.sample.sp;
+
+import org.joda.time.DateTime;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Audience;
+import org.opensaml.saml2.core.AudienceRestriction;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Conditions;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.CredentialsExpiredException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.util.StringUtils;
+
+/**
+ * 서명 검증 전에 실행하는 SAML response 검증 항목들.
+ * 값이 설정되지 않았거나 응답에 해당 element가 없는 항목은 검사하지 않는다(bearer 필수 항목, AuthnInstant 제외).
+ */
+final class SamlResponseChecks {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlResponseChecks.class);
+
+    private SamlResponseChecks() {
+    }
+
+    /**
+     * StatusCode가 Success이고 assertion이 있는지 확인
+     */
+    static final class StatusCheck implements SamlResponseCheck {
+
+        @Override
+        public int cost() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return "status";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            String statusCode = samlResponse.getStatus() == null || samlResponse.getStatus().getStatusCode() == null
+                    ? null : samlResponse.getStatus().getStatusCode().getValue();
+            if (!StatusCode.SUCCESS_URI.equals(statusCode)) {
+                LOGGER.error("SAML login failed. status code[{}]", statusCode);
+                throw new AuthenticationServiceException("SAML response status fail, code[" + statusCode + "]");
+            }
+            if (samlResponse.getAssertions().isEmpty()) {
+                throw new BadCredentialsException("SAML response has no assertion");
+            }
+        }
+    }
+
+    /**
+     * Response, Assertion의 Issuer가 설정한 IdP entity id인지 확인
+     * 설정하지 않으면(IdP registry 사용) Issuer가 registry에 등록된 IdP이고 Response와 모든 Assertion의 Issuer가 같은지 확인,
+     * 신뢰 여부는 서명 검증에서 Issuer IdP의 인증서로 확인
+     */
+    static final class IssuerCheck implements SamlResponseCheck {
+
+        private final String idpEntityId;
+        private final SamlIdpResolver idpResolver;
+
+        /**
+         * @param idpResolver idpEntityId가 없을 때 Issuer를 조회할 IdP registry, 둘 다 없으면 Issuer가 같은지만 확인
+         */
+        IssuerCheck(String idpEntityId, SamlIdpResolver idpResolver) {
+            this.idpEntityId = idpEntityId;
+            this.idpResolver = StringUtils.hasText(idpEntityId) ? null : idpResolver;
+            if (!StringUtils.hasText(idpEntityId) && idpResolver == null) {
+                LOGGER.warn("No IdP entity id configured(sp.idp_entity_id, sp.idp.metadata), any issuer signed by the trusted certificates is accepted");
+            }
+        }
+
+        @Override
+        public int cost() {
+            return 10;
+        }
+
+        @Override
+        public String name() {
+            return "issuer";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            String expected = StringUtils.hasText(idpEntityId) ? idpEntityId : SamlUtil.issuer(samlResponse);
+            if (idpResolver != null && (expected == null || idpResolver.resolve(expected) == null)) {
+                throw new BadCredentialsException("Unknown IdP[" + expected + "]");
+            }
+            if (expected == null) {
+                return;
+            }
+            checkIssuer(samlResponse.getIssuer(), expected);
+            for (Assertion assertion : samlResponse.getAssertions()) {
+                checkIssuer(assertion.getIssuer(), expected);
+            }
+        }
+
+        private void checkIssuer(Issuer issuer, String expected) {
+            if (issuer != null && !expected.equals(issuer.getValue())) {
+                throw new BadCredentialsException("Unexpected issuer[" + issuer.getValue() + "]");
+            }
+        }
+    }
+
+    /**
+     * Response Destination, SubjectConfirmationData Recipient가 AuthnRequest에 넣은 ACS url인지 확인. bearer는 Recipient 필수.
+     * sp.acs_url이 있으면 그 값, 없으면 {@link SamlSsoEntryPoint}와 같이 요청의 host + sp.acs 기준, 기본 port는 생략하고 비교
+     */
+    static final class DestinationCheck implements SamlResponseCheck {
+
+        private final String acsUrl;
+        private final String acs;
+
+        DestinationCheck(String acsUrl, String acs) {
+            this.acsUrl = acsUrl;
+            this.acs = acs;
+        }
+
+        @Override
+        public int cost() {
+            return 20;
+        }
+
+        @Override
+        public String name() {
+            return "destination";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            String acsUrl = SamlUtil.serviceUrl(this.acsUrl, SamlUtil.currentRequest(), acs);
+            checkUrl("Destination", samlResponse.getDestination(), acsUrl);
+            for (Assertion assertion : samlResponse.getAssertions()) {
+                if (assertion.getSubject() == null) {
+                    continue;
+                }
+                for (SubjectConfirmation confirmation : assertion.getSubject().getSubjectConfirmations()) {
+                    SubjectConfirmationData data = confirmation.getSubjectConfirmationData();
+                    if (data == null) {
+                        continue;
+                    }
+                    if (data.getRecipient() == null && SubjectConfirmation.METHOD_BEARER.equals(confirmation.getMethod())) {
+                        throw new BadCredentialsException("Bearer SubjectConfirmationData of assertion[" + assertion.getID() + "] has no Recipient");
+                    }
+                    checkUrl("Recipient", data.getRecipient(), acsUrl);
+                }
+            }
+        }
+
+        private void checkUrl(String name, String url, String acsUrl) {
+            if (url != null && !SamlUtil.normalizeUrl(url).equals(acsUrl)) {
+                throw new BadCredentialsException(name + "[" + url + "] does not match ACS url[" + acsUrl + "]");
+            }
+        }
+    }
+
+    /**
+     * AudienceRestriction에 SP entity id가 있는지 확인
+     */
+    static final class AudienceCheck implements SamlResponseCheck {
+
+        private final String entityId;
+
+        AudienceCheck(String entityId) {
+            this.entityId = entityId;
+        }
+
+        @Override
+        public int cost() {
+            return 30;
+        }
+
+        @Override
+        public String name() {
+            return "audience";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            for (Assertion assertion : samlResponse.getAssertions()) {
+                Conditions conditions = assertion.getConditions();
+                if (conditions == null) {
+                    continue;
+                }
+                for (AudienceRestriction restriction : conditions.getAudienceRestrictions()) {
+                    if (!containsEntityId(restriction)) {
+                        throw new BadCredentialsException("SP entity id[" + entityId + "] is not in the audience restriction");
+                    }
+                }
+            }
+        }
+
+        private boolean containsEntityId(AudienceRestriction restriction) {
+            for (Audience audience : restriction.getAudiences()) {
+                if (entityId.equals(audience.getAudienceURI())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Conditions, SubjectConfirmationData의 NotBefore, NotOnOrAfter 확인, clock skew 허용.
+     * bearer SubjectConfirmationData는 NotOnOrAfter 필수
+     */
+    static final class ConditionsTimeCheck implements SamlResponseCheck {
+
+        private final int clockSkewSeconds;
+
+        ConditionsTimeCheck(int clockSkewSeconds) {
+            this.clockSkewSeconds = clockSkewSeconds;
+        }
+
+        @Override
+        public int cost() {
+            return 40;
+        }
+
+        @Override
+        public String name() {
+            return "conditions";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            DateTime now = DateTime.now();
+            for (Assertion assertion : samlResponse.getAssertions()) {
+                Conditions conditions = assertion.getConditions();
+                if (conditions != null) {
+                    checkTime("Assertion", conditions.getNotBefore(), conditions.getNotOnOrAfter(), now);
+                }
+                if (assertion.getSubject() == null) {
+                    continue;
+                }
+                for (SubjectConfirmation confirmation : assertion.getSubject().getSubjectConfirmations()) {
+                    SubjectConfirmationData data = confirmation.getSubjectConfirmationData();
+                    boolean bearer = SubjectConfirmation.METHOD_BEARER.equals(confirmation.getMethod());
+                    if (bearer && (data == null || data.getNotOnOrAfter() == null)) {
+                        throw new BadCredentialsException("Bearer SubjectConfirmationData of assertion[" + assertion.getID() + "] has no NotOnOrAfter");
+                    }
+                    if (data != null) {
+                        checkTime("SubjectConfirmationData", data.getNotBefore(), data.getNotOnOrAfter(), now);
+                    }
+                }
+            }
+        }
+
+        private void checkTime(String name, DateTime notBefore, DateTime notOnOrAfter, DateTime now) {
+            if (notBefore != null && now.plusSeconds(clockSkewSeconds).isBefore(notBefore)) {
+                throw new BadCredentialsException(name + " is not yet valid, NotBefore : " + notBefore);
+            }
+            if (notOnOrAfter != null && !now.minusSeconds(clockSkewSeconds).isBefore(notOnOrAfter)) {
+                throw new CredentialsExpiredException(name + " expired, NotOnOrAfter : " + notOnOrAfter);
+            }
+        }
+    }
+
+    /**
+     * AuthnInstant가 유효시간(분) 안인지 확인, AuthnInstant 필수
+     */
+    static final class AuthnInstantCheck implements SamlResponseCheck {
+
+        private final int validMinutes;
+        private final int clockSkewSeconds;
+
+        AuthnInstantCheck(int validMinutes, int clockSkewSeconds) {
+            this.validMinutes = validMinutes;
+            this.clockSkewSeconds = clockSkewSeconds;
+        }
+
+        @Override
+        public int cost() {
+            return 50;
+        }
+
+        @Override
+        public String name() {
+            return "authnInstant";
+        }
+
+        @Override
+        public void check(Response samlResponse) throws AuthenticationException {
+            for (Assertion assertion : samlResponse.getAssertions()) {
+                for (AuthnStatement authnStatement : assertion.getAuthnStatements()) {
+                    DateTime authnInstant = authnStatement.getAuthnInstant();
+                    LOGGER.debug("AuthnInstant[{}]", authnInstant);
+                    if (authnInstant == null) {
+                        throw new BadCredentialsException("AuthnStatement of assertion[" + assertion.getID() + "] has no AuthnInstant");
+                    }
+
+                    DateTime validTime = authnInstant.plusMinutes(validMinutes).plusSeconds(clockSkewSeconds);
+                    if (DateTime.now().compareTo(validTime) > 0) {
+                        throw new CredentialsExpiredException("AuthnInstant time out : " + authnInstant);
+                    }
+                }
+            }
+        }
+    }
+}
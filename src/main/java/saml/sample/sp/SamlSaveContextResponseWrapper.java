@@ -0,0 +1,36 @@
+package saml.sample.sp;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 응답이 commit 되기 전(redirect, sendError, flush 등)에 현재 SecurityContext를 저장하는 response wrapper.
+ * Spring Security 5.7에서 deprecated 된 SaveContextOnUpdateOrErrorResponseWrapper 대신 사용,
+ * session id를 url에 붙이지 않는다(disableUrlRewriting).
+ */
+abstract class SamlSaveContextResponseWrapper extends OnCommittedResponseWrapper {
+
+    SamlSaveContextResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    protected abstract void saveContext(SecurityContext context);
+
+    @Override
+    protected void onResponseCommitted() {
+        saveContext(SecurityContextHolder.getContext());
+    }
+
+    @Override
+    public final String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    @Override
+    public final String encodeURL(String url) {
+        return url;
+    }
+}
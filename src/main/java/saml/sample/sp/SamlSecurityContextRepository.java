@@ -0,0 +1,198 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.util.StringUtils;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpSession 대신 {@link SamlSessionStore}에 로그인 정보를 보관하는 SecurityContextRepository.
+ * session id는 cookie로 주고 받으며, 로그인할 때마다 새 id를 발급한다(session fixation 방지).
+ */
+final class SamlSecurityContextRepository implements SecurityContextRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSecurityContextRepository.class);
+
+    private static final int SESSION_ID_BYTES = 32;
+
+    private final SamlSessionStore sessionStore;
+    private final SecureRandom random = new SecureRandom();
+
+    private String cookieName = "SP.SAML";
+    private SamlSessionRegistry sessionRegistry;
+    private long sessionTtlMillis = TimeUnit.HOURS.toMillis(1);
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    SamlSecurityContextRepository(SamlSessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * SecurityContextPersistenceFilter(WebSecurityConfigurerAdapter)가 호출하는 method, 5.7에서 deprecated
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+        HttpServletRequest request = requestResponseHolder.getRequest();
+        String sessionId = sessionId(request);
+        SamlPrincipal principal = sessionId == null ? null : sessionStore.load(sessionId);
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        if (principal != null) {
+            context.setAuthentication(new SamlAuthenticationToken(principal));
+            if (sessionRegistry != null) {
+                // store ttl은 마지막 사용 기준(idle)이므로 logout index도 같이 연장
+                sessionRegistry.touch(sessionId, System.currentTimeMillis() + sessionTtlMillis);
+            }
+        }
+        // redirect 등으로 응답이 commit 되기 전에 저장
+        requestResponseHolder.setResponse(new SaveToStoreResponseWrapper(requestResponseHolder.getResponse(), request,
+                principal == null ? null : sessionId, principal));
+        return context;
+    }
+
+    @Override
+    public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        SaveToStoreResponseWrapper wrapper = unwrap(response);
+        if (wrapper == null) {
+            throw new IllegalStateException("Cannot save SecurityContext, loadContext was not called for this response");
+        }
+        // async ACS는 request thread가 먼저 저장(변경 없음)한 후 executor thread에서 다시 저장하므로 항상 저장 시도
+        wrapper.saveContext(context);
+    }
+
+    @Override
+    public boolean containsContext(HttpServletRequest request) {
+        String sessionId = sessionId(request);
+        return sessionId != null && sessionStore.load(sessionId) != null;
+    }
+
+    SamlSecurityContextRepository cookieName(String cookieName) {
+        this.cookieName = cookieName;
+        return this;
+    }
+
+    /**
+     * IdP logout 요청 처리를 위해 저장한 session을 등록할 registry, 만료 시각은 session store ttl과 같게 설정
+     */
+    SamlSecurityContextRepository sessionRegistry(SamlSessionRegistry sessionRegistry, long sessionTtl, TimeUnit unit) {
+        this.sessionRegistry = sessionRegistry;
+        this.sessionTtlMillis = unit.toMillis(sessionTtl);
+        return this;
+    }
+
+    SamlSecurityContextRepository metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    private String sessionId(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (cookieName.equals(cookie.getName()) && StringUtils.hasText(cookie.getValue())) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void remove(String sessionId) {
+        sessionStore.remove(sessionId);
+        if (sessionRegistry != null) {
+            sessionRegistry.unregister(sessionId);
+        }
+    }
+
+    private static SaveToStoreResponseWrapper unwrap(ServletResponse response) {
+        while (response instanceof ServletResponseWrapper) {
+            if (response instanceof SaveToStoreResponseWrapper) {
+                return (SaveToStoreResponseWrapper) response;
+            }
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return null;
+    }
+
+    private String newSessionId() {
+        byte[] bytes = new byte[SESSION_ID_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private Cookie cookie(HttpServletRequest request, String value, int maxAge) {
+        Cookie cookie = new Cookie(cookieName, value);
+        cookie.setPath(StringUtils.hasText(request.getContextPath()) ? request.getContextPath() : "/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    private final class SaveToStoreResponseWrapper extends SamlSaveContextResponseWrapper {
+
+        private final HttpServletRequest request;
+        /**
+         * 마지막으로 저장한 session, 같은 인증 정보를 중복 저장하지 않음
+         */
+        private String savedSessionId;
+        private SamlPrincipal savedPrincipal;
+
+        private SaveToStoreResponseWrapper(HttpServletResponse response, HttpServletRequest request,
+                                           String loadedSessionId, SamlPrincipal loadedPrincipal) {
+            super(response);
+            this.request = request;
+            this.savedSessionId = loadedSessionId;
+            this.savedPrincipal = loadedPrincipal;
+        }
+
+        @Override
+        protected synchronized void saveContext(SecurityContext context) {
+            Authentication authentication = context.getAuthentication();
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (authentication instanceof SamlAuthenticationToken) {
+                SamlPrincipal principal = ((SamlAuthenticationToken) authentication).samlPrincipal();
+                if (principal == savedPrincipal) {
+                    return;
+                }
+                String sessionId = newSessionId();
+                long start = metrics.start();
+                sessionStore.save(sessionId, principal);
+                metrics.record(SamlMetrics.Stage.SESSION_WRITE, start);
+                if (savedSessionId != null) {
+                    remove(savedSessionId);
+                }
+                if (sessionRegistry != null) {
+                    sessionRegistry.register(sessionId, principal, System.currentTimeMillis() + sessionTtlMillis,
+                            () -> sessionStore.remove(sessionId));
+                }
+                response.addCookie(cookie(request, sessionId, -1));
+                savedSessionId = sessionId;
+                savedPrincipal = principal;
+                LOGGER.debug("Saved session for user[{}]", principal.getName());
+            } else if (savedSessionId != null) {
+                // logout
+                remove(savedSessionId);
+                response.addCookie(cookie(request, "", 0));
+                LOGGER.debug("Removed session for user[{}]", savedPrincipal.getName());
+                savedSessionId = null;
+                savedPrincipal = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package saml.sample.sp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 여러 SP node가 공유하는 network session 저장소(Redis, Hazelcast 등) SPI.
+ * {@link RemoteSessionStore}가 session 만료 시각 갱신을 모아서 batch({@link #replaceAll})로 호출하므로 구현은 한번의 호출을 한번의 왕복으로 처리하면 된다.
+ * {@link RemoteMessageIdStore}는 같은 저장소에 message id를 저장하므로 {@link #putIfAbsent}, {@link #remove}는 원자적이어야 한다.
+ * IdP logout 대상 session은 다른 node에서 로그인했을 수 있으므로 SessionIndex/NameID별 session id 집합({@link #addMember})도 같은 저장소에 둔다.
+ */
+interface SamlSessionBackend {
+
+    /**
+     * 여러 session을 한번에 저장
+     */
+    void putAll(Map<String, byte[]> sessions, long ttlMillis);
+
+    /**
+     * 이미 있는(만료되지 않은) session만 값과 만료 시각 변경, 다른 node에서 삭제한 session을 되살리지 않음.
+     * ex) Redis pipeline SET key value XX PX ttl
+     */
+    void replaceAll(Map<String, byte[]> sessions, long ttlMillis);
+
+    /**
+     * @return 없거나 만료된 경우 null
+     */
+    byte[] get(String sessionId);
+
+    void removeAll(Collection<String> sessionIds);
+
+    /**
+     * 없는(만료 포함) 경우만 저장, ex) Redis SET key value NX PX ttl
+     *
+     * @return 저장한 경우 true, 이미 있는 경우 false
+     */
+    boolean putIfAbsent(String key, byte[] value, long ttlMillis);
+
+    /**
+     * @return 삭제한 경우 true, 없거나 만료된 경우 false. ex) Redis DEL 결과가 1
+     */
+    boolean remove(String key);
+
+    /**
+     * key의 집합에 member를 추가하고 집합 만료 시각 갱신, ex) Redis SADD + PEXPIRE
+     */
+    void addMember(String key, String member, long ttlMillis);
+
+    /**
+     * @return 없거나 만료된 경우 빈 집합. ex) Redis SMEMBERS
+     */
+    Set<String> members(String key);
+}
@@ -0,0 +1,166 @@
+package saml.sample.sp;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SamlPrincipal} binary 직렬화.
+ * Java 직렬화(class 정보, field 이름)를 쓰지 않고 magic, version 뒤에 값만 순서대로 기록한다.
+ * <pre>
+ * 'S' version(4) username email federationIdentifier personname idpToken nameId idpEntityId sessionIndex authorityCount authority*
+ * string : varint(UTF-8 길이 + 1, null은 0) + UTF-8 bytes
+ * version 1 : nameId, idpEntityId, sessionIndex 없음
+ * version 2 : idpEntityId, sessionIndex 없음
+ * version 3 : sessionIndex 없음(IdP logout 요청은 NameID로만 찾음)
+ * </pre>
+ */
+final class SamlSessionCodec {
+
+    private static final byte MAGIC = 'S';
+    static final byte VERSION = 4;
+
+    private static final AtomicLong sessionCount = new AtomicLong();
+    private static final AtomicLong sessionBytes = new AtomicLong();
+    private static final AtomicLong maxSessionBytes = new AtomicLong();
+
+    private SamlSessionCodec() {
+    }
+
+    static byte[] encode(SamlPrincipal principal) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeString(out, principal.getUsername());
+        writeString(out, principal.getEmail());
+        writeString(out, principal.getFederationIdentifier());
+        writeString(out, principal.getPersonname());
+        writeString(out, principal.getIdpToken());
+        writeString(out, principal.getNameId());
+        writeString(out, principal.getIdpEntityId());
+        writeString(out, principal.getSessionIndex());
+        List<GrantedAuthority> authorities = principal.getAuthorities();
+        writeVarInt(out, authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            writeString(out, authority.getAuthority());
+        }
+        return out.toByteArray();
+    }
+
+    static SamlPrincipal decode(byte[] bytes) throws IOException {
+        Reader in = new Reader(bytes);
+        if (in.readByte() != MAGIC) {
+            throw new InvalidObjectException("Not a SAML session");
+        }
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new InvalidObjectException("Unsupported SAML session version : " + version);
+        }
+        String username = in.readString();
+        String email = in.readString();
+        String federationIdentifier = in.readString();
+        String personname = in.readString();
+        String idpToken = in.readString();
+        String nameId = version >= 2 ? in.readString() : null;
+        String idpEntityId = version >= 3 ? in.readString() : null;
+        String sessionIndex = version >= 4 ? in.readString() : null;
+        int authorityCount = in.readVarInt();
+        List<String> authorities = new ArrayList<>(authorityCount);
+        for (int i = 0; i < authorityCount; i++) {
+            authorities.add(in.readString());
+        }
+        // 같은 권한 조합은 공유 instance 사용
+        return new SamlPrincipal(username, email, federationIdentifier, personname, idpToken, sessionIndex, nameId, idpEntityId,
+                SamlAuthorities.of(authorities));
+    }
+
+    /**
+     * 로그인 시 저장소가 encode 한 session 크기 기록(mmap slot_size, cookie 크기 확인용), 다시 encode 하지 않음
+     */
+    static void recordSession(int size) {
+        sessionCount.incrementAndGet();
+        sessionBytes.addAndGet(size);
+        maxSessionBytes.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * session 당 평균 byte 수
+     */
+    static long averageSessionBytes() {
+        long count = sessionCount.get();
+        return count == 0 ? 0 : sessionBytes.get() / count;
+    }
+
+    /**
+     * 가장 큰 session byte 수
+     */
+    static long maxSessionBytes() {
+        return maxSessionBytes.get();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new InvalidObjectException("Truncated SAML session");
+            }
+            return bytes[position++];
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new InvalidObjectException("Malformed varint in SAML session");
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            length -= 1;
+            if (length < 0 || position + length > bytes.length) {
+                throw new InvalidObjectException("Truncated SAML session");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 로그인한 session의 역방향 index(IdP SessionIndex, NameID -> session).
+ * IdP가 보낸 LogoutRequest의 SessionIndex/NameID로 해당 session을 찾아서 만료시킨다.
+ * index key는 (IdP entityID, 값)이므로 다른 IdP의 요청은 NameID/SessionIndex가 같아도 이 IdP에서 로그인한 session을 만료시키지 않는다.
+ * <ul>
+ *     <li>HttpSession : session 만료 시 {@link HttpSessionListener}로 index에서 제거</li>
+ *     <li>{@link SamlSessionStore} : 등록 시 만료 시간을 같이 저장하고 일정 등록 횟수마다 만료된 항목 정리</li>
+ * </ul>
+ */
+final class SamlSessionRegistry implements HttpSessionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSessionRegistry.class);
+
+    private static final int PURGE_INTERVAL = 1024;
+
+    private final ConcurrentMap<String, SessionEntry> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> bySessionIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> byNameId = new ConcurrentHashMap<>();
+
+    private final AtomicLong registrations = new AtomicLong();
+
+    /**
+     * @param sessionKey  HttpSession id 또는 session store id
+     * @param expiresAt   만료 시각(ms), 만료를 listener로 알 수 있으면 Long.MAX_VALUE
+     * @param invalidator session 만료 처리
+     */
+    void register(String sessionKey, SamlPrincipal principal, long expiresAt, Runnable invalidator) {
+        SessionEntry entry = new SessionEntry(principal.getIdpEntityId(), principal.getSessionIndex(), principal.getNameId(),
+                expiresAt, invalidator);
+        SessionEntry previous = sessions.put(sessionKey, entry);
+        if (previous != null) {
+            unlink(sessionKey, previous);
+        }
+        link(bySessionIndex, indexKey(entry.idpEntityId, entry.sessionIndex), sessionKey);
+        link(byNameId, indexKey(entry.idpEntityId, entry.nameId), sessionKey);
+
+        if (registrations.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeExpired();
+        }
+    }
+
+    /**
+     * 사용 중인 session의 만료 시각 연장(idle ttl), 등록되지 않은 session은 무시
+     */
+    void touch(String sessionKey, long expiresAt) {
+        SessionEntry entry = sessions.get(sessionKey);
+        if (entry != null && entry.expiresAt < expiresAt) {
+            entry.expiresAt = expiresAt;
+        }
+    }
+
+    void unregister(String sessionKey) {
+        SessionEntry entry = sessions.remove(sessionKey);
+        if (entry != null) {
+            unlink(sessionKey, entry);
+        }
+    }
+
+    /**
+     * LogoutRequest 대상 session 만료.
+     * SessionIndex가 있으면 해당 session 중 NameID가 같은 session만, 없으면 NameID의 모든 session
+     *
+     * @param idpEntityId LogoutRequest Issuer, 이 IdP에서 로그인한 session만 대상
+     * @return 만료시킨 session 수
+     */
+    int logout(String idpEntityId, String nameId, Collection<String> sessionIndexes) {
+        Set<String> targets = new HashSet<>();
+        if (sessionIndexes.isEmpty()) {
+            if (nameId != null) {
+                targets.addAll(byNameId.getOrDefault(indexKey(idpEntityId, nameId), Set.of()));
+            }
+        } else {
+            for (String sessionIndex : sessionIndexes) {
+                targets.addAll(bySessionIndex.getOrDefault(indexKey(idpEntityId, sessionIndex), Set.of()));
+            }
+        }
+
+        int count = 0;
+        for (String sessionKey : targets) {
+            SessionEntry entry = sessions.get(sessionKey);
+            if (entry == null || (nameId != null && entry.nameId != null && !nameId.equals(entry.nameId))) {
+                continue;
+            }
+            if (sessions.remove(sessionKey, entry)) {
+                unlink(sessionKey, entry);
+                try {
+                    entry.invalidator.run();
+                } catch (IllegalStateException e) {
+                    // 이미 만료된 HttpSession
+                    LOGGER.debug("Session[{}] already invalidated", sessionKey);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 만료 시각이 지난 session 제거
+     */
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        sessions.forEach((sessionKey, entry) -> {
+            if (entry.expiresAt <= now && sessions.remove(sessionKey, entry)) {
+                unlink(sessionKey, entry);
+            }
+        });
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    int indexSize() {
+        return bySessionIndex.size() + byNameId.size();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        unregister(event.getSession().getId());
+    }
+
+    private void unlink(String sessionKey, SessionEntry entry) {
+        unlink(bySessionIndex, indexKey(entry.idpEntityId, entry.sessionIndex), sessionKey);
+        unlink(byNameId, indexKey(entry.idpEntityId, entry.nameId), sessionKey);
+    }
+
+    /**
+     * (IdP, 값) key, entity id에 ':'가 있어도 다른 IdP의 key와 겹치지 않도록 길이를 붙임. 값이 없으면 null
+     */
+    private static String indexKey(String idpEntityId, String value) {
+        if (value == null) {
+            return null;
+        }
+        String idp = idpEntityId == null ? "" : idpEntityId;
+        return idp.length() + ":" + idp + ":" + value;
+    }
+
+    private static void link(ConcurrentMap<String, Set<String>> index, String key, String sessionKey) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, sessionKeys) -> {
+            Set<String> keys = sessionKeys != null ? sessionKeys : ConcurrentHashMap.newKeySet();
+            keys.add(sessionKey);
+            return keys;
+        });
+    }
+
+    private static void unlink(ConcurrentMap<String, Set<String>> index, String key, String sessionKey) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, sessionKeys) -> {
+            sessionKeys.remove(sessionKey);
+            return sessionKeys.isEmpty() ? null : sessionKeys;
+        });
+    }
+
+    private static final class SessionEntry {
+        private final String idpEntityId;
+        private final String sessionIndex;
+        private final String nameId;
+        private volatile long expiresAt;
+        private final Runnable invalidator;
+
+        private SessionEntry(String idpEntityId, String sessionIndex, String nameId, long expiresAt, Runnable invalidator) {
+            this.idpEntityId = idpEntityId;
+            this.sessionIndex = sessionIndex;
+            this.nameId = nameId;
+            this.expiresAt = expiresAt;
+            this.invalidator = invalidator;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package saml.sample.sp;
+
+import java.io.Closeable;
+
+/**
+ * 로그인한 SAML session(principal) 저장소.
+ * node 밖에 session을 두면 sticky session 없이 여러 SP node가 같은 로그인 상태를 사용할 수 있다.
+ * 값은 {@link SamlSessionCodec} binary 형식으로 저장한다.
+ */
+interface SamlSessionStore extends Closeable {
+
+    void save(String sessionId, SamlPrincipal principal);
+
+    /**
+     * @return 없거나 만료된 경우 null
+     */
+    SamlPrincipal load(String sessionId);
+
+    void remove(String sessionId);
+}
@@ -0,0 +1,433 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 로그인 정보({@link SamlPrincipal})를 cookie 값 자체에 담는 암호화 token, 서버에 session을 두지 않는다(sp.session.store: token).
+ * <pre>
+ * base64url( version(1) keyId(1) iv(12) AES-GCM( issuedAt(4, 초) {@link SamlSessionCodec} ) tag(16) )
+ * </pre>
+ * <ul>
+ *     <li>key rotation : 첫 번째 key로 암호화, 나머지 key는 복호화만(이전 key로 발급된 token). keyId는 key의 SHA-256 첫 byte</li>
+ *     <li>header(version, keyId)는 AAD로 같이 인증, 변조하면 복호화 실패</li>
+ *     <li>만료 : issuedAt + ttl</li>
+ *     <li>revocation : IdP logout(SessionIndex/NameID)과 로컬 logout한 token을 ttl 동안 기억, key는 IdP entityID별로 구분.
+ *     {@link SamlSessionBackend}를 설정하면 모든 node가 공유하는 저장소에 기록하고 조회 결과(취소되지 않음 포함)는
+ *     node에 짧게 cache(revocation cache ttl 안에 다른 node의 logout 반영, 이 node의 logout은 바로 반영),
+ *     없으면 node 별 목록(조회는 lock 없이 읽기만 함)이라 다른 node에는 반영되지 않음</li>
+ * </ul>
+ */
+final class SamlSessionToken {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSessionToken.class);
+
+    private static final byte VERSION = 1;
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int HEADER_BYTES = 2;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int MIN_TOKEN_BYTES = HEADER_BYTES + IV_BYTES + Integer.BYTES + TAG_BITS / 8;
+
+    /**
+     * 대부분의 browser cookie 최대 크기
+     */
+    static final int MAX_COOKIE_BYTES = 4096;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final String BACKEND_PREFIX = "saml:revoked:";
+
+    private final SecretKey[] keys;
+    private final byte[] keyIds;
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(SamlSessionToken::newCipher);
+    private final SecureRandom random = new SecureRandom();
+
+    private long ttlMillis = TimeUnit.HOURS.toMillis(1);
+    private int maxRevocations = 10000;
+    private SamlSessionBackend backend;
+    private int revocationCacheSize = 10_000;
+    private long revocationCacheTtlMillis = TimeUnit.SECONDS.toMillis(5);
+    private final RevocationCache revocationCache = new RevocationCache();
+
+    /**
+     * 취소된 SessionIndex/NameID -> 취소 시각, 바꿀 때마다 새 map으로 교체. backend가 있으면 사용하지 않음
+     */
+    private volatile Map<String, Revocation> revocations = Collections.emptyMap();
+
+    /**
+     * @param keys AES key(16, 24, 32 bytes), 첫 번째 key로 암호화. 비어 있으면 기동 시 임의 생성(node 하나인 경우)
+     */
+    SamlSessionToken(List<byte[]> keys) {
+        if (keys.isEmpty()) {
+            byte[] key = new byte[32];
+            random.nextBytes(key);
+            keys = List.of(key);
+        }
+        this.keys = new SecretKey[keys.size()];
+        this.keyIds = new byte[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("Session token key must be 16, 24 or 32 bytes : " + key.length);
+            }
+            this.keys[i] = new SecretKeySpec(key, "AES");
+            this.keyIds[i] = keyId(key);
+        }
+        // 지원하지 않는 환경이면 기동 시 실패
+        ciphers.get();
+    }
+
+    /**
+     * 로그인 정보 token 발급
+     */
+    String issue(SamlPrincipal principal) {
+        byte[] session = SamlSessionCodec.encode(principal);
+        SamlSessionCodec.recordSession(session.length);
+        ByteBuffer token = ByteBuffer.allocate(HEADER_BYTES + IV_BYTES + Integer.BYTES + session.length + TAG_BITS / 8);
+        token.put(VERSION).put(keyIds[0]);
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        token.put(iv);
+
+        ByteBuffer plain = ByteBuffer.allocate(Integer.BYTES + session.length);
+        plain.putInt((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())).put(session).flip();
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keys[0], new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(token.array(), 0, HEADER_BYTES);
+            cipher.doFinal(plain, token);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt session token", e);
+        }
+        return ENCODER.encodeToString(token.array());
+    }
+
+    /**
+     * token의 로그인 정보, 변조/만료/취소됐거나 알 수 없는 key의 token이면 null
+     */
+    SamlPrincipal verify(String value) {
+        byte[] token;
+        try {
+            token = DECODER.decode(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (token.length < MIN_TOKEN_BYTES || token[0] != VERSION) {
+            return null;
+        }
+        byte[] plain = null;
+        for (int i = 0; i < keys.length && plain == null; i++) {
+            if (keyIds[i] == token[1]) {
+                plain = decrypt(keys[i], token);
+            }
+        }
+        if (plain == null) {
+            LOGGER.debug("Rejected session token, unknown key or tampered");
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(plain);
+        long issuedAt = TimeUnit.SECONDS.toMillis(buffer.getInt() & 0xffffffffL);
+        if (issuedAt + ttlMillis < System.currentTimeMillis()) {
+            return null;
+        }
+        SamlPrincipal principal;
+        try {
+            principal = SamlSessionCodec.decode(Arrays.copyOfRange(plain, Integer.BYTES, plain.length));
+        } catch (IOException e) {
+            LOGGER.warn("Rejected session token : {}", e.getMessage());
+            return null;
+        }
+        return isRevoked(principal, issuedAt) ? null : principal;
+    }
+
+    /**
+     * IdP LogoutRequest 대상 token 취소.
+     * SessionIndex가 있으면 해당 SessionIndex(NameID가 같은 경우), 없으면 NameID로 지금까지 발급된 모든 token
+     *
+     * @param idpEntityId 요청을 보낸 IdP, 다른 IdP에서 로그인한 같은 NameID/SessionIndex의 token은 취소하지 않음
+     */
+    void revoke(String idpEntityId, String nameId, Collection<String> sessionIndexes) {
+        long now = System.currentTimeMillis();
+        if (backend != null) {
+            Map<String, Revocation> added = new HashMap<>();
+            if (sessionIndexes.isEmpty()) {
+                if (nameId != null) {
+                    added.put(nameIdKey(idpEntityId, nameId), new Revocation(null, now));
+                }
+            } else {
+                for (String sessionIndex : sessionIndexes) {
+                    added.put(sessionIndexKey(idpEntityId, sessionIndex), new Revocation(nameId, now));
+                }
+            }
+            if (!added.isEmpty()) {
+                Map<String, byte[]> entries = new HashMap<>(added.size() * 2);
+                added.forEach((key, revocation) -> entries.put(BACKEND_PREFIX + key, encode(revocation)));
+                backend.putAll(entries, ttlMillis);
+                // 이 node에는 cache ttl을 기다리지 않고 바로 반영
+                added.forEach(revocationCache::put);
+            }
+            return;
+        }
+        synchronized (this) {
+            Map<String, Revocation> next = new HashMap<>(revocations.size() + sessionIndexes.size() + 1);
+            revocations.forEach((key, revocation) -> {
+                if (revocation.revokedAt + ttlMillis >= now) {
+                    next.put(key, revocation);
+                }
+            });
+            if (sessionIndexes.isEmpty()) {
+                if (nameId != null) {
+                    next.put(nameIdKey(idpEntityId, nameId), new Revocation(null, now));
+                }
+            } else {
+                for (String sessionIndex : sessionIndexes) {
+                    next.put(sessionIndexKey(idpEntityId, sessionIndex), new Revocation(nameId, now));
+                }
+            }
+            if (next.size() > maxRevocations) {
+                // 가장 오래된 항목부터 버림, 버린 token은 만료 전까지 다시 유효
+                List<Map.Entry<String, Revocation>> entries = new ArrayList<>(next.entrySet());
+                entries.sort((a, b) -> Long.compare(a.getValue().revokedAt, b.getValue().revokedAt));
+                for (int i = 0; i < entries.size() - maxRevocations; i++) {
+                    next.remove(entries.get(i).getKey());
+                }
+                LOGGER.warn("Session token revocation list is full[{}], dropped oldest entries", maxRevocations);
+            }
+            revocations = Collections.unmodifiableMap(next);
+        }
+    }
+
+    /**
+     * 로컬 logout, 같은 token을 다시 사용하지 못하게 SessionIndex 취소.
+     * SessionIndex가 없는 로그인이면 NameID로 취소(같은 IdP, NameID로 지금까지 발급된 다른 token도 같이 취소됨)
+     */
+    void revoke(SamlPrincipal principal) {
+        if (principal.getSessionIndex() != null) {
+            revoke(principal.getIdpEntityId(), principal.getNameId(), List.of(principal.getSessionIndex()));
+        } else if (principal.getNameId() != null) {
+            revoke(principal.getIdpEntityId(), principal.getNameId(), List.of());
+        } else {
+            LOGGER.warn("Cannot revoke session token for user[{}], no SessionIndex and NameID", principal.getName());
+        }
+    }
+
+    /**
+     * node 별 취소 목록 크기, backend를 사용하면 0
+     */
+    int revocations() {
+        return revocations.size();
+    }
+
+    private boolean isRevoked(SamlPrincipal principal, long issuedAt) {
+        if (backend == null && revocations.isEmpty()) {
+            return false;
+        }
+        if (principal.getSessionIndex() != null) {
+            Revocation revocation = revocation(sessionIndexKey(principal.getIdpEntityId(), principal.getSessionIndex()));
+            if (revocation != null && (revocation.nameId == null || principal.getNameId() == null
+                    || revocation.nameId.equals(principal.getNameId()))) {
+                return true;
+            }
+        }
+        if (principal.getNameId() != null) {
+            Revocation revocation = revocation(nameIdKey(principal.getIdpEntityId(), principal.getNameId()));
+            // 초 단위로 저장한 issuedAt
+            return revocation != null && issuedAt <= revocation.revokedAt;
+        }
+        return false;
+    }
+
+    private Revocation revocation(String key) {
+        if (backend == null) {
+            return revocations.get(key);
+        }
+        CachedRevocation cached = revocationCache.get(key);
+        if (cached != null) {
+            return cached.revocation;
+        }
+        byte[] value = backend.get(BACKEND_PREFIX + key);
+        Revocation revocation = value == null || value.length < Long.BYTES ? null : decode(value);
+        revocationCache.put(key, revocation);
+        return revocation;
+    }
+
+    /**
+     * revokedAt(8) nameId(UTF-8, 없으면 생략)
+     */
+    private static byte[] encode(Revocation revocation) {
+        byte[] nameId = revocation.nameId == null ? new byte[0] : revocation.nameId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + nameId.length).putLong(revocation.revokedAt).put(nameId).array();
+    }
+
+    private static Revocation decode(byte[] value) {
+        String nameId = value.length == Long.BYTES ? null
+                : new String(value, Long.BYTES, value.length - Long.BYTES, StandardCharsets.UTF_8);
+        return new Revocation(nameId, ByteBuffer.wrap(value).getLong());
+    }
+
+    private byte[] decrypt(SecretKey key, byte[] token) {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, token, HEADER_BYTES, IV_BYTES));
+            cipher.updateAAD(token, 0, HEADER_BYTES);
+            int offset = HEADER_BYTES + IV_BYTES;
+            return cipher.doFinal(token, offset, token.length - offset);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static String sessionIndexKey(String idpEntityId, String sessionIndex) {
+        return "i:" + idpScope(idpEntityId) + sessionIndex;
+    }
+
+    private static String nameIdKey(String idpEntityId, String nameId) {
+        return "n:" + idpScope(idpEntityId) + nameId;
+    }
+
+    /**
+     * entity id에 ':'가 있어도 다른 IdP의 key와 겹치지 않도록 길이를 붙임
+     */
+    private static String idpScope(String idpEntityId) {
+        String idp = idpEntityId == null ? "" : idpEntityId;
+        return idp.length() + ":" + idp + ":";
+    }
+
+    private static byte keyId(byte[] key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key)[0];
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(CIPHER);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize session token " + CIPHER, e);
+        }
+    }
+
+    SamlSessionToken ttl(long ttl, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(ttl);
+        return this;
+    }
+
+    /**
+     * node 별 취소 목록 최대 크기, backend를 사용하면 ttl로만 만료
+     */
+    SamlSessionToken maxRevocations(int maxRevocations) {
+        this.maxRevocations = maxRevocations;
+        return this;
+    }
+
+    /**
+     * 취소 목록을 node 간 공유하는 저장소, null이면 node 별로 보관
+     */
+    SamlSessionToken backend(SamlSessionBackend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    /**
+     * backend에 조회하는 node 별 cache, 0이면 요청마다 조회(최대 2번)
+     */
+    SamlSessionToken revocationCacheSize(int revocationCacheSize) {
+        this.revocationCacheSize = revocationCacheSize;
+        return this;
+    }
+
+    /**
+     * backend 조회 결과 cache 시간, 다른 node의 logout이 반영되기까지 최대 시간
+     */
+    SamlSessionToken revocationCacheTtl(long revocationCacheTtl, TimeUnit unit) {
+        this.revocationCacheTtlMillis = unit.toMillis(revocationCacheTtl);
+        return this;
+    }
+
+    /**
+     * access 순서 LRU, entry 단위 ttl. 취소되지 않음(revocation null)도 cache 해서 요청마다 backend를 조회하지 않음
+     */
+    private final class RevocationCache {
+
+        private final LinkedHashMap<String, CachedRevocation> entries = new LinkedHashMap<String, CachedRevocation>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRevocation> eldest) {
+                return size() > revocationCacheSize;
+            }
+        };
+
+        private synchronized CachedRevocation get(String key) {
+            CachedRevocation cached = entries.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return cached;
+        }
+
+        /**
+         * 취소 표시가 있으면 취소되지 않음으로 덮어쓰지 않음(취소 전에 조회한 값)
+         */
+        private synchronized void put(String key, Revocation revocation) {
+            if (revocationCacheSize <= 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            CachedRevocation cached = entries.get(key);
+            if (revocation == null && cached != null && cached.revocation != null && cached.expiresAt > now) {
+                return;
+            }
+            entries.put(key, new CachedRevocation(revocation, now + revocationCacheTtlMillis));
+        }
+    }
+
+    private static final class CachedRevocation {
+        private final Revocation revocation;
+        private final long expiresAt;
+
+        private CachedRevocation(Revocation revocation, long expiresAt) {
+            this.revocation = revocation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Revocation {
+        private final String nameId;
+        private final long revokedAt;
+
+        private Revocation(String nameId, long revokedAt) {
+            this.nameId = nameId;
+            this.revokedAt = revokedAt;
+        }
+    }
+}
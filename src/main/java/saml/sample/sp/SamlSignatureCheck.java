@@ -0,0 +1,331 @@
+package saml.sample.sp;
+
+import org.opensaml.Configuration;
+import org.opensaml.common.SignableSAMLObject;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.security.SAMLSignatureProfileValidator;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.signature.X509Certificate;
+import org.opensaml.xml.signature.X509Data;
+import org.opensaml.xml.util.XMLConstants;
+import org.opensaml.xml.util.XMLHelper;
+import org.opensaml.xml.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.AuthenticationException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Response, Assertion XML 서명 검증.
+ * 비용이 가장 큰 항목이라 pipeline 마지막에 실행한다.
+ * Response가 서명되지 않았으면 모든 assertion이 각각 서명되어 있어야 하고,
+ * 서명이 여러 개면 ForkJoinPool에서 병렬로 검증하며 하나라도 실패하면 아직 시작하지 않은 검증은 취소한다.
+ * IdP registry({@link SamlIdpResolver})를 설정하면 응답 Issuer로 한번 조회한 IdP의 인증서만 신뢰한다.
+ * 신뢰하는 인증서가 없으면 모든 서명을 거부한다(sp.trust_keyinfo_certificate를 켠 경우만 message KeyInfo 인증서 사용).
+ */
+final class SamlSignatureCheck implements SamlResponseCheck {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSignatureCheck.class);
+
+    private static final SAMLSignatureProfileValidator PROFILE_VALIDATOR = new SAMLSignatureProfileValidator();
+
+    private SamlCredentialCache credentialCache = new SamlCredentialCache();
+    private SamlTrustStore trustStore = new SamlTrustStore();
+    private SamlIdpResolver idpResolver;
+    private ForkJoinPool verificationPool = ForkJoinPool.commonPool();
+    private boolean trustKeyInfoCertificate;
+
+
+    @Override
+    public int cost() {
+        return 1000;
+    }
+
+    @Override
+    public String name() {
+        return "signature";
+    }
+
+    @Override
+    public void check(Response samlResponse) throws AuthenticationException {
+        SamlTrustStore issuerTrustStore = trustStore(SamlUtil.issuer(samlResponse));
+        List<SignableSAMLObject> signed = signedObjects(samlResponse);
+        if (signed.size() == 1) {
+            verify(signed.get(0).getSignature(), issuerTrustStore);
+            return;
+        }
+        verifyAll(signed, issuerTrustStore);
+    }
+
+    /**
+     * XML 서명 검증(Response 외의 message에도 사용)
+     */
+    void verify(Signature signature, SamlTrustStore trustStore) throws AuthenticationException {
+        validateProfile(signature);
+        validate(resolveValidator(signature, trustStore), signature);
+    }
+
+    /**
+     * 등록된 인증서로만 XML 서명 검증(sp.trust_keyinfo_certificate와 관계없이 KeyInfo 인증서를 신뢰하지 않음).
+     * KeyInfo에 인증서가 있으면 등록된 인증서인지 확인하고, 없으면 등록된 인증서를 모두 시도한다.
+     */
+    void verifyTrusted(Signature signature, SamlTrustStore trustStore) throws AuthenticationException {
+        validateProfile(signature);
+        if (trustStore.isEmpty()) {
+            throw new BadCredentialsException("No trusted IdP certificate(sp.idp_certificates) configured");
+        }
+        if (signature.getKeyInfo() != null && !signature.getKeyInfo().getX509Datas().isEmpty()) {
+            try {
+                validate(trustStore.getValidator(extractCertificate(signature)), signature);
+                return;
+            } catch (CertificateException e) {
+                throw new BadCredentialsException(e.getMessage(), e);
+            }
+        }
+        for (SignatureValidator validator : trustStore.validators().values()) {
+            try {
+                validator.validate(signature);
+                return;
+            } catch (ValidationException e) {
+                // 다른 인증서로 서명
+            }
+        }
+        throw new BadCredentialsException("Signature validation fail");
+    }
+
+    /**
+     * issuer가 신뢰하는 인증서, IdP registry가 없으면 sp.idp_certificates 인증서
+     *
+     * @throws BadCredentialsException registry에 등록되지 않은 IdP인 경우
+     */
+    SamlTrustStore trustStore(String issuer) throws AuthenticationException {
+        if (idpResolver == null) {
+            return trustStore;
+        }
+        SamlIdp idp = idpResolver.resolve(issuer);
+        if (idp == null) {
+            throw new BadCredentialsException("Unknown IdP[" + issuer + "]");
+        }
+        return idp.trustStore();
+    }
+
+    /**
+     * Response 서명이 있으면 Response와 서명된 assertion, 없으면 모든 assertion이 서명 대상
+     */
+    private List<SignableSAMLObject> signedObjects(Response samlResponse) {
+        boolean responseSigned = samlResponse.getSignature() != null;
+        List<SignableSAMLObject> signed = new ArrayList<>(samlResponse.getAssertions().size() + 1);
+        if (responseSigned) {
+            signed.add(samlResponse);
+        }
+        for (Assertion assertion : samlResponse.getAssertions()) {
+            if (assertion.getSignature() != null) {
+                signed.add(assertion);
+            } else if (!responseSigned) {
+                throw new BadCredentialsException("Assertion[" + assertion.getID() + "] is not signed");
+            }
+        }
+        if (signed.isEmpty()) {
+            throw new BadCredentialsException("SAML response is not signed");
+        }
+        return signed;
+    }
+
+    /**
+     * 첫 번째 서명은 호출한 thread에서, 나머지는 verificationPool에서 검증.
+     * 하나의 DOM을 여러 thread가 동시에 읽지 않도록 pool에서 검증할 서명은 미리 DOM을 복제해 둔다.
+     */
+    private void verifyAll(List<SignableSAMLObject> signed, SamlTrustStore trustStore) {
+        List<Verification> verifications = new ArrayList<>(signed.size());
+        for (int i = 0; i < signed.size(); i++) {
+            Signature signature = signed.get(i).getSignature();
+            validateProfile(signature);
+            SignatureValidator validator = resolveValidator(signature, trustStore);
+            verifications.add(new Verification(validator, i == 0 ? signature : detach(signed.get(i))));
+        }
+
+        CompletableFuture<Void> failure = new CompletableFuture<>();
+        List<CompletableFuture<Void>> forked = new ArrayList<>(verifications.size() - 1);
+        for (Verification verification : verifications.subList(1, verifications.size())) {
+            forked.add(CompletableFuture.runAsync(() -> verification.run(failure), verificationPool));
+        }
+        verifications.get(0).run(failure);
+
+        try {
+            // 실패한 검증은 자기 future보다 failure를 먼저 완료하고, anyOf는 이미 완료된 것 중 앞의 것을 사용하므로 failure가 앞
+            CompletableFuture.anyOf(failure, CompletableFuture.allOf(forked.toArray(new CompletableFuture<?>[0]))).join();
+        } catch (CompletionException e) {
+            for (CompletableFuture<Void> future : forked) {
+                future.cancel(false);
+            }
+            if (e.getCause() instanceof AuthenticationException) {
+                throw (AuthenticationException) e.getCause();
+            }
+            throw new AuthenticationServiceException("Signature validation error", e.getCause());
+        }
+    }
+
+    /**
+     * 서명된 element를 새 Document로 복제하고 복제본의 Signature를 unmarshalling.
+     * 상위 element에 선언된 namespace도 복사해서 canonicalization 결과가 원본과 같게 한다.
+     */
+    private static Signature detach(SignableSAMLObject object) {
+        Element element = object.getDOM();
+        Document document = element.getOwnerDocument().getImplementation().createDocument(null, null, null);
+        Element copy = (Element) document.importNode(element, true);
+        document.appendChild(copy);
+        for (Node parent = element.getParentNode(); parent instanceof Element; parent = parent.getParentNode()) {
+            NamedNodeMap attributes = parent.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_NS.equals(attr.getNamespaceURI())
+                        && !copy.hasAttributeNS(XMLConstants.XMLNS_NS, attr.getLocalName())) {
+                    copy.setAttributeNS(XMLConstants.XMLNS_NS, attr.getName(), attr.getValue());
+                }
+            }
+        }
+        copy.setIdAttributeNS(null, "ID", true);
+
+        List<Element> signatureElements = XMLHelper.getChildElementsByTagNameNS(copy, XMLConstants.XMLSIG_NS, "Signature");
+        if (signatureElements.isEmpty()) {
+            throw new BadCredentialsException("Signature of [" + object.getSignatureReferenceID() + "] is not a direct child");
+        }
+        Element signatureElement = signatureElements.get(0);
+        try {
+            Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(signatureElement);
+            return (Signature) unmarshaller.unmarshall(signatureElement);
+        } catch (UnmarshallingException e) {
+            throw new BadCredentialsException("Signature unmarshalling fail", e);
+        }
+    }
+
+    /**
+     * Reference가 서명한 element 자신(ID)을 가리키는지, 허용된 transform만 사용했는지 확인(signature wrapping 방지)
+     */
+    private static void validateProfile(Signature signature) {
+        try {
+            PROFILE_VALIDATOR.validate(signature);
+        } catch (ValidationException e) {
+            LOGGER.error("Signature profile validation fail.", e);
+            throw new BadCredentialsException("Signature profile validation fail", e);
+        }
+    }
+
+    private static void validate(SignatureValidator validator, Signature signature) {
+        try {
+            validator.validate(signature);
+            LOGGER.debug("Signature validation success");
+        } catch (ValidationException e) {
+            LOGGER.error("Signature validation fail.", e);
+            throw new BadCredentialsException("Signature validation fail", e);
+        }
+    }
+
+    /**
+     * 등록된 IdP 인증서만 신뢰, 등록된 인증서가 없으면 거부.
+     * sp.trust_keyinfo_certificate(테스트용)를 켠 경우에만 message KeyInfo의 인증서를 그대로 사용한다.
+     * registry의 IdP는 서명 인증서가 없으면 등록되지 않으므로 항상 등록된 인증서만 신뢰한다.
+     */
+    private SignatureValidator resolveValidator(Signature signature, SamlTrustStore trustStore) {
+        try {
+            String base64Cert = extractCertificate(signature);
+            if (!trustStore.isEmpty()) {
+                return trustStore.getValidator(base64Cert);
+            }
+            if (!trustKeyInfoCertificate) {
+                throw new BadCredentialsException("No trusted IdP certificate(sp.idp_certificates) configured");
+            }
+            return credentialCache.getValidator(base64Cert);
+        } catch (CertificateException e) {
+            LOGGER.error("Invalid certification(public key)", e);
+            throw new BadCredentialsException("Invalid certification(public key)", e);
+        }
+    }
+
+    private String extractCertificate(Signature signature) throws CertificateException {
+        if (signature.getKeyInfo() == null || signature.getKeyInfo().getX509Datas().isEmpty()) {
+            throw new CertificateException("No X509Data in signature KeyInfo");
+        }
+        X509Data x509Data = signature.getKeyInfo().getX509Datas().get(0);
+        if (x509Data.getX509Certificates().isEmpty()) {
+            throw new CertificateException("No X509Certificate in signature KeyInfo");
+        }
+        X509Certificate cert = x509Data.getX509Certificates().get(0);
+        return cert.getValue();
+    }
+
+    SamlSignatureCheck trustStore(SamlTrustStore trustStore) {
+        this.trustStore = trustStore;
+        return this;
+    }
+
+    SamlSignatureCheck idpResolver(SamlIdpResolver idpResolver) {
+        this.idpResolver = idpResolver;
+        return this;
+    }
+
+    /**
+     * 신뢰하는 인증서가 없을 때 message KeyInfo 인증서를 신뢰(테스트용, 누구나 서명한 message가 통과함)
+     */
+    SamlSignatureCheck trustKeyInfoCertificate(boolean trustKeyInfoCertificate) {
+        this.trustKeyInfoCertificate = trustKeyInfoCertificate;
+        return this;
+    }
+
+    SamlSignatureCheck credentialCache(SamlCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+        return this;
+    }
+
+    SamlSignatureCheck verificationPool(ForkJoinPool verificationPool) {
+        this.verificationPool = verificationPool;
+        return this;
+    }
+
+    void shutdown() {
+        if (verificationPool != ForkJoinPool.commonPool()) {
+            verificationPool.shutdownNow();
+        }
+    }
+
+    /**
+     * 서명 하나의 검증, 다른 검증이 이미 실패했으면 실행하지 않는다.
+     */
+    private static final class Verification {
+        private final SignatureValidator validator;
+        private final Signature signature;
+
+        private Verification(SignatureValidator validator, Signature signature) {
+            this.validator = validator;
+            this.signature = signature;
+        }
+
+        private void run(CompletableFuture<Void> failure) {
+            if (failure.isDone()) {
+                return;
+            }
+            try {
+                validate(validator, signature);
+            } catch (RuntimeException e) {
+                failure.completeExceptionally(e);
+            }
+        }
+    }
+}
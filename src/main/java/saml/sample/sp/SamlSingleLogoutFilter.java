@@ -0,0 +1,377 @@
+package saml.sample.sp;
+
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.SAMLVersion;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.saml2.binding.decoding.HTTPPostDecoder;
+import org.opensaml.saml2.binding.decoding.HTTPRedirectDeflateDecoder;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.LogoutRequest;
+import org.opensaml.saml2.core.LogoutResponse;
+import org.opensaml.saml2.core.NameIDType;
+import org.opensaml.saml2.core.SessionIndex;
+import org.opensaml.saml2.core.Status;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdP가 보낸 LogoutRequest(HTTP Redirect, HTTP POST binding) 처리 filter.
+ * 요청을 검증한 후 {@link SamlSessionRegistry}에서 SessionIndex/NameID에 해당하는 session을 만료시키고(token이면 {@link SamlSessionToken} 취소)
+ * IdP single logout service로 LogoutResponse를 redirect 한다.
+ * IdP registry({@link SamlIdpResolver})를 설정하면 Issuer IdP의 인증서로 서명을 검증하고 해당 IdP의 SLO endpoint로 응답한다.
+ * 서명은 등록된 IdP 인증서로만 검증하고(KeyInfo 인증서 신뢰 안 함), Destination이 이 SP의 logout url인지 확인한다.
+ * {@link SamlSessionRegistry}는 node별이므로 remote session store는 backend index로 다른 node에서 로그인한 session도 삭제한다.
+ */
+public final class SamlSingleLogoutFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlSingleLogoutFilter.class);
+
+    private static final String SAML_REQUEST = "SAMLRequest";
+
+    private final RequestMatcher requestMatcher;
+    private final String entityId;
+    private final String logoutServiceLocation;
+    private final String filterProcessesUrl;
+
+    /**
+     * 이 SP의 logout url 전체(sp.slo_url), 미설정 시 요청 host + filterProcessesUrl
+     */
+    private String logoutUrl;
+    private String idpEntityId;
+    private int clockSkewSeconds = 60;
+    private int validMinutes = 30;
+    private boolean requireSignature = true;
+
+    /**
+     * Destination은 validate에서 sp.slo_url 기준으로 확인하므로 decoder의 요청 url 비교는 사용하지 않음
+     */
+    private HTTPRedirectDeflateDecoder redirectDecoder = new RedirectDecoder(new BasicParserPool());
+    private HTTPPostDecoder postDecoder = new SamlPostDecoder(new BasicParserPool()).checkEndpointUri(false);
+
+    private SamlSignatureCheck signatureCheck = new SamlSignatureCheck();
+    private SamlTrustStore trustStore = new SamlTrustStore();
+    private SamlIdpResolver idpResolver;
+    private SamlMessageIdStore requestIdStore = new TimeBucketedMessageIdStore("logoutRequest", 30, TimeUnit.MINUTES, 12, 100_000, false);
+    private SamlSessionRegistry sessionRegistry = new SamlSessionRegistry();
+
+    private SamlSessionToken sessionToken;
+    private RemoteSessionStore remoteSessionStore;
+    private SamlDiagnostics diagnostics = new SamlDiagnostics();
+
+    private SamlRedirectEncoder redirectEncoder = new SamlRedirectEncoder();
+
+    SamlSingleLogoutFilter(String filterProcessesUrl, String entityId, String logoutServiceLocation) {
+        this.requestMatcher = new AntPathRequestMatcher(filterProcessesUrl);
+        this.filterProcessesUrl = filterProcessesUrl;
+        this.entityId = entityId;
+        this.logoutServiceLocation = logoutServiceLocation;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !requestMatcher.matches(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (request.getParameter(SAML_REQUEST) == null) {
+            // LogoutRequest가 아닌 요청은 이전과 같이 main으로 이동
+            response.sendRedirect(request.getContextPath() + "/main");
+            return;
+        }
+
+        BasicSAMLMessageContext<SAMLObject, SAMLObject, SAMLObject> context;
+        LogoutRequest logoutRequest;
+        SamlIdp idp;
+        try {
+            context = decode(request);
+            if (!(context.getInboundSAMLMessage() instanceof LogoutRequest)) {
+                throw new MessageDecodingException("Not a LogoutRequest");
+            }
+            logoutRequest = (LogoutRequest) context.getInboundSAMLMessage();
+            idp = validate(logoutRequest, request);
+        } catch (MessageDecodingException | SecurityException | ValidationException e) {
+            LOGGER.warn("Rejected IdP LogoutRequest : {}", e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid LogoutRequest");
+            return;
+        }
+
+        String nameId = logoutRequest.getNameID() == null ? null : logoutRequest.getNameID().getValue();
+        List<String> sessionIndexes = new ArrayList<>(logoutRequest.getSessionIndexes().size());
+        for (SessionIndex sessionIndex : logoutRequest.getSessionIndexes()) {
+            sessionIndexes.add(sessionIndex.getSessionIndex());
+        }
+        diagnostics.capture(SamlDiagnostics.IDP, logoutRequest.getID(), nameId, logoutRequest);
+
+        // 요청을 보낸 IdP에서 로그인한 session만 대상
+        String issuer = issuer(logoutRequest);
+        int count = sessionRegistry.logout(issuer, nameId, sessionIndexes);
+        if (remoteSessionStore != null) {
+            // 다른 node에서 로그인한 session, 이 node의 session은 registry에서 이미 삭제되어 다시 세지 않음
+            count += remoteSessionStore.logout(issuer, nameId, sessionIndexes);
+        }
+        if (sessionToken != null) {
+            // token은 서버에 session이 없으므로 취소 목록에 등록
+            sessionToken.revoke(issuer, nameId, sessionIndexes);
+        }
+        LOGGER.info("IdP logout nameId[{}] sessionIndex[{}] sessions[{}]", nameId, sessionIndexes, count);
+
+        String location = idp != null && idp.sloLocation() != null ? idp.sloLocation() : logoutServiceLocation;
+        sendLogoutResponse(request, response, logoutRequest, context.getRelayState(), nameId, location);
+    }
+
+    private BasicSAMLMessageContext<SAMLObject, SAMLObject, SAMLObject> decode(HttpServletRequest request)
+            throws MessageDecodingException, SecurityException {
+        BasicSAMLMessageContext<SAMLObject, SAMLObject, SAMLObject> context = new BasicSAMLMessageContext<>();
+        context.setInboundMessageTransport(new HttpServletRequestAdapter(request));
+        if ("POST".equalsIgnoreCase(request.getMethod())) {
+            postDecoder.decode(context);
+        } else {
+            redirectDecoder.decode(context);
+        }
+        return context;
+    }
+
+    /**
+     * Issuer, Destination, 시간, 서명 확인 후 replay 확인(서명 검증 전에는 id를 저장하지 않음)
+     *
+     * @return IdP registry를 사용하지 않으면 null
+     */
+    private SamlIdp validate(LogoutRequest logoutRequest, HttpServletRequest request) throws ValidationException {
+        String issuer = issuer(logoutRequest);
+        if (StringUtils.hasText(idpEntityId) && !idpEntityId.equals(issuer)) {
+            throw new ValidationException("Unexpected issuer[" + issuer + "]");
+        }
+        SamlIdp idp = null;
+        SamlTrustStore issuerTrustStore = trustStore;
+        if (idpResolver != null) {
+            idp = idpResolver.resolve(issuer);
+            if (idp == null) {
+                throw new ValidationException("Unknown IdP[" + issuer + "]");
+            }
+            issuerTrustStore = idp.trustStore();
+        }
+
+        // 다른 SP로 보낸 LogoutRequest 전달 방지, 서명한 message는 Destination 필수(SAML bindings 3.4.5.2, 3.5.5.2)
+        String destination = logoutRequest.getDestination();
+        if (destination == null) {
+            if (logoutRequest.getSignature() != null || SamlRedirectSignature.isSigned(request.getQueryString())) {
+                throw new ValidationException("Signed LogoutRequest has no Destination");
+            }
+        } else {
+            String expected = SamlUtil.serviceUrl(logoutUrl, request, filterProcessesUrl);
+            if (!expected.equals(SamlUtil.normalizeUrl(destination))) {
+                throw new ValidationException("Destination[" + destination + "] is not [" + expected + "]");
+            }
+        }
+
+        DateTime now = new DateTime();
+        DateTime issueInstant = logoutRequest.getIssueInstant();
+        if (issueInstant == null
+                || issueInstant.isAfter(now.plusSeconds(clockSkewSeconds))
+                || issueInstant.isBefore(now.minusMinutes(validMinutes).minusSeconds(clockSkewSeconds))) {
+            throw new ValidationException("IssueInstant[" + issueInstant + "] is out of range");
+        }
+        if (logoutRequest.getNotOnOrAfter() != null && !now.isBefore(logoutRequest.getNotOnOrAfter().plusSeconds(clockSkewSeconds))) {
+            throw new ValidationException("LogoutRequest expired at " + logoutRequest.getNotOnOrAfter());
+        }
+
+        if (issuerTrustStore.isEmpty() && (requireSignature || logoutRequest.getSignature() != null)) {
+            throw new ValidationException("No trusted IdP certificate(sp.idp_certificates) configured");
+        }
+        if (logoutRequest.getSignature() != null) {
+            try {
+                signatureCheck.verifyTrusted(logoutRequest.getSignature(), issuerTrustStore);
+            } catch (AuthenticationException e) {
+                throw new ValidationException(e.getMessage(), e);
+            }
+        } else if (!"POST".equalsIgnoreCase(request.getMethod()) && SamlRedirectSignature.isSigned(request.getQueryString())) {
+            try {
+                SamlRedirectSignature.verify(request.getQueryString(), SAML_REQUEST, issuerTrustStore.publicKeys());
+            } catch (GeneralSecurityException e) {
+                throw new ValidationException(e.getMessage(), e);
+            }
+        } else if (requireSignature) {
+            throw new ValidationException("LogoutRequest is not signed");
+        }
+
+        if (!requestIdStore.add(logoutRequest.getID())) {
+            throw new ValidationException("Replayed LogoutRequest[" + logoutRequest.getID() + "]");
+        }
+        return idp;
+    }
+
+    private static String issuer(LogoutRequest logoutRequest) {
+        return logoutRequest.getIssuer() == null ? null : logoutRequest.getIssuer().getValue();
+    }
+
+    private void sendLogoutResponse(HttpServletRequest request, HttpServletResponse response, LogoutRequest logoutRequest,
+                                    String relayState, String nameId, String location) throws IOException {
+        if (!StringUtils.hasText(location)) {
+            LOGGER.warn("No IdP single logout service location(sp.single_logout_service_location), LogoutResponse is not sent");
+            response.sendRedirect(request.getContextPath() + "/main");
+            return;
+        }
+
+        LogoutResponse logoutResponse = buildLogoutResponse(logoutRequest.getID(), location);
+        String url;
+        try {
+            // SP 서명 key가 있으면 SigAlg, Signature 추가
+            url = redirectEncoder.redirectUrl(SamlRedirectEncoder.redirectBaseUrl(location), SamlRedirectEncoder.SAML_RESPONSE,
+                    SamlRedirectEncoder.marshall(logoutResponse), relayState);
+        } catch (MarshallingException e) {
+            LOGGER.error("Failed to encode LogoutResponse", e);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        SamlRedirectEncoder.sendRedirect(response, url);
+        diagnostics.capture(SamlDiagnostics.SP, logoutRequest.getID(), nameId, logoutResponse);
+    }
+
+    private LogoutResponse buildLogoutResponse(String inResponseTo, String location) {
+        LogoutResponse logoutResponse = buildSAMLObject(LogoutResponse.class, LogoutResponse.DEFAULT_ELEMENT_NAME);
+        logoutResponse.setVersion(SAMLVersion.VERSION_20);
+        logoutResponse.setID(UUID.randomUUID().toString());
+        logoutResponse.setInResponseTo(inResponseTo);
+        logoutResponse.setIssueInstant(new DateTime());
+        logoutResponse.setDestination(location);
+
+        Issuer issuer = buildSAMLObject(Issuer.class, Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(entityId);
+        issuer.setFormat(NameIDType.ENTITY);
+        logoutResponse.setIssuer(issuer);
+
+        StatusCode statusCode = buildSAMLObject(StatusCode.class, StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS_URI);
+        Status status = buildSAMLObject(Status.class, Status.DEFAULT_ELEMENT_NAME);
+        status.setStatusCode(statusCode);
+        logoutResponse.setStatus(status);
+        return logoutResponse;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T buildSAMLObject(final Class<T> objectClass, QName qName) {
+        return (T) Configuration.getBuilderFactory().getBuilder(qName).buildObject(qName);
+    }
+
+    SamlSingleLogoutFilter idpEntityId(String idpEntityId) {
+        this.idpEntityId = idpEntityId;
+        return this;
+    }
+
+    SamlSingleLogoutFilter logoutUrl(String logoutUrl) {
+        this.logoutUrl = logoutUrl;
+        return this;
+    }
+
+    SamlSingleLogoutFilter clockSkewSeconds(int clockSkewSeconds) {
+        this.clockSkewSeconds = clockSkewSeconds;
+        return this;
+    }
+
+    SamlSingleLogoutFilter validMinutes(int validMinutes) {
+        this.validMinutes = validMinutes;
+        return this;
+    }
+
+    SamlSingleLogoutFilter requireSignature(boolean requireSignature) {
+        this.requireSignature = requireSignature;
+        return this;
+    }
+
+    SamlSingleLogoutFilter parserPool(ParserPool parserPool) {
+        this.redirectDecoder = new RedirectDecoder(parserPool);
+        this.postDecoder = new SamlPostDecoder(parserPool).checkEndpointUri(false);
+        return this;
+    }
+
+    SamlSingleLogoutFilter signatureCheck(SamlSignatureCheck signatureCheck) {
+        this.signatureCheck = signatureCheck;
+        return this;
+    }
+
+    SamlSingleLogoutFilter trustStore(SamlTrustStore trustStore) {
+        this.trustStore = trustStore;
+        return this;
+    }
+
+    SamlSingleLogoutFilter idpResolver(SamlIdpResolver idpResolver) {
+        this.idpResolver = idpResolver;
+        return this;
+    }
+
+    SamlSingleLogoutFilter requestIdStore(SamlMessageIdStore requestIdStore) {
+        this.requestIdStore = requestIdStore;
+        return this;
+    }
+
+    SamlSingleLogoutFilter sessionRegistry(SamlSessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        return this;
+    }
+
+    SamlSingleLogoutFilter sessionToken(SamlSessionToken sessionToken) {
+        this.sessionToken = sessionToken;
+        return this;
+    }
+
+    /**
+     * sp.session.store가 remote인 경우, 다른 node에서 로그인한 session 삭제
+     */
+    SamlSingleLogoutFilter remoteSessionStore(RemoteSessionStore remoteSessionStore) {
+        this.remoteSessionStore = remoteSessionStore;
+        return this;
+    }
+
+    SamlSingleLogoutFilter redirectEncoder(SamlRedirectEncoder redirectEncoder) {
+        this.redirectEncoder = redirectEncoder;
+        return this;
+    }
+
+    SamlSingleLogoutFilter diagnostics(SamlDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    private static final class RedirectDecoder extends HTTPRedirectDeflateDecoder {
+
+        private RedirectDecoder(ParserPool parserPool) {
+            super(parserPool);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        protected void checkEndpointURI(SAMLMessageContext messageContext) {
+            // validate에서 확인
+        }
+    }
+}
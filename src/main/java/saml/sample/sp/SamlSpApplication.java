@@ -1,7 +1,5 @@
 package saml.sample.sp;
 
-import org.opensaml.DefaultBootstrap;
-import org.opensaml.xml.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -10,6 +8,11 @@ import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
@@ -20,15 +23,19 @@ import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpSession;
 
 @SpringBootApplication
 public class SamlSpApplication {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(SamlSpApplication.class);
 
+    private static final int STARTUP_STEPS = 4096;
+
     public static void main(String[] args) {
-        SpringApplication.run(SamlSpApplication.class, args);
+        SpringApplication application = new SpringApplication(SamlSpApplication.class);
+        // 기동 단계별 시간, /actuator/startup
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS));
+        application.run(args);
     }
 
     @Configuration
@@ -40,35 +47,86 @@ public class SamlSpApplication {
         }
     }
 
+    /**
+     * OpenSAML bootstrap을 bean 정의 처리 시점에 별도 thread에서 시작, context 기동과 동시에 진행.
+     * web server가 요청을 받기 전 단계(lifecycle start)에서 완료를 기다린다.
+     */
     @Component
-    public static class SamlBootstrap implements BeanFactoryPostProcessor {
+    public static class SamlBootstrap implements BeanFactoryPostProcessor, SmartLifecycle {
 
         private static final Logger LOGGER = LoggerFactory.getLogger(SamlBootstrap.class);
 
+        private volatile boolean running;
+
         @Override
         public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+            OpenSamlBootstrap.start();
+        }
 
+        @Override
+        public void start() {
             try {
-                LOGGER.info("Initialize open saml...");
-                DefaultBootstrap.bootstrap();
-            } catch (ConfigurationException e) {
+                OpenSamlBootstrap.await();
+            } catch (IllegalStateException e) {
                 throw new FatalBeanException("Error invoking OpenSAML bootstrap", e);
             }
+            LOGGER.info(OpenSamlBootstrap.report());
+            running = true;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * web server 시작(Integer.MAX_VALUE - 1)보다 먼저
+         */
+        @Override
+        public int getPhase() {
+            return Integer.MAX_VALUE - 2;
+        }
+    }
+
+    /**
+     * AppCDS 학습 실행(./gradlew cdsArchive)용, 기동이 끝나면 종료
+     */
+    @Component
+    @ConditionalOnProperty("sp.startup.exit_on_ready")
+    public static class ExitOnReady implements ApplicationListener<ApplicationReadyEvent> {
+
+        @Override
+        public void onApplicationEvent(ApplicationReadyEvent event) {
+            LOGGER.info("Exit on ready");
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
         }
     }
 
     @Controller
     public static class SamlController {
 
+        private final SamlDiagnostics diagnostics;
+
+        public SamlController(SamlDiagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+        }
+
         @GetMapping({"/", "/main"})
         public String main(HttpServletRequest request, Model model, Authentication authentication) {
 
-            HttpSession session = request.getSession();
-
             if(authentication != null && authentication.getDetails() != null) {
+                // 진단용 capture buffer에서 조회(capture가 꺼져 있으면 빈 값)
+                SamlDiagnostics.Capture idpCapture = diagnostics.latest(SamlDiagnostics.IDP, authentication.getName());
+                SamlDiagnostics.Capture spCapture = idpCapture == null
+                        ? null : diagnostics.byCorrelationId(SamlDiagnostics.SP, idpCapture.correlationId());
                 model.addAttribute("samlUser", authentication.getDetails());
-                model.addAttribute("spSamlString", session.getAttribute("spSamlString"));
-                model.addAttribute("idpSamlString", session.getAttribute("idpSamlString"));
+                model.addAttribute("spSamlString", spCapture == null ? "" : spCapture.xml());
+                model.addAttribute("idpSamlString", idpCapture == null ? "" : idpCapture.xml());
             } else {
                 model.addAttribute("samlUser", "");
                 model.addAttribute("spSamlString", "");
@@ -89,7 +147,7 @@ public class SamlSpApplication {
             return "index";
         }
 
-        @GetMapping({"/proxy", "/out"})
+        @GetMapping("/proxy")
         public String proxy() {
             return "redirect:/main";
         }
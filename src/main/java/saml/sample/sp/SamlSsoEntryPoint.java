@@ -2,18 +2,13 @@ package saml.sample.sp;
 
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
-import org.opensaml.common.SAMLObject;
 import org.opensaml.common.SAMLVersion;
-import org.opensaml.common.binding.BasicSAMLMessageContext;
 import org.opensaml.common.xml.SAMLConstants;
-import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
 import org.opensaml.saml2.core.AuthnRequest;
 import org.opensaml.saml2.core.Issuer;
 import org.opensaml.saml2.core.NameIDType;
 import org.opensaml.saml2.metadata.Endpoint;
 import org.opensaml.saml2.metadata.SingleSignOnService;
-import org.opensaml.ws.message.encoder.MessageEncodingException;
-import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
 import org.opensaml.xml.XMLObjectBuilderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +16,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.security.web.FilterInvocation;
+import org.springframework.util.StringUtils;
 import org.springframework.web.filter.GenericFilterBean;
 
 import javax.servlet.FilterChain;
@@ -36,23 +32,46 @@ import java.util.UUID;
 /**
  * A SAML SSO entry point.
  * This class creates SAML requests and redirects requests to IdP.
+ * IdP registry를 설정하면 idp parameter(없으면 sp.idp.default_entity_id)의 IdP로 보내고, 설정하지 않으면 sp.single_sign_on_service_location 사용
  */
 public class SamlSsoEntryPoint extends GenericFilterBean implements AuthenticationEntryPoint {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SamlSsoEntryPoint.class);
 
+    private static final String IDP_PARAMETER = "idp";
+
     @Value("${sp.entity_id}")
     private String entityId;
 
     @Value("${sp.acs}")
     private String acs;
 
+    @Value("${sp.acs_url:}")
+    private String acsUrl;
+
     @Value("${sp.single_sign_on_service_location}")
     private String ssoSignOnLocation;
 
     @Value("${sp.login_url}")
     private String loginUrl;
 
+    @Value("${sp.idp.default_entity_id:}")
+    private String defaultIdpEntityId;
+
+    private SamlIdpResolver idpResolver;
+
+    private SamlMessageIdStore requestIdStore;
+
+    private SamlAuthnRequestTemplate authnRequestTemplate;
+
+    private SamlRedirectEncoder redirectEncoder = new SamlRedirectEncoder();
+
+    private SamlDiagnostics diagnostics = new SamlDiagnostics();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    private SamlRelayState relayStates;
+
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         FilterInvocation fi = new FilterInvocation(request, response, chain);
@@ -71,33 +90,87 @@ public class SamlSsoEntryPoint extends GenericFilterBean implements Authenticati
     }
 
     @Override
-    public void commence(HttpServletRequest request, HttpServletResponse response, AuthenticationException authException) throws ServletException {
-        // saml context 생성
-        try {
-            BasicSAMLMessageContext<SAMLObject, AuthnRequest, SAMLObject> context = new BasicSAMLMessageContext<>();
-            HttpServletResponseAdapter transport = new HttpServletResponseAdapter(response, false);
-            context.setOutboundMessageTransport(transport);
-            context.setPeerEntityEndpoint(getIDPEndpoint());
-
-            Issuer issuer = buildIssuer(entityId);
-            String defaultUrl = request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort();
-            AuthnRequest authnRequest = buildAuthnRequest(defaultUrl + acs, SAMLConstants.SAML2_REDIRECT_BINDING_URI, issuer);
-
-            // sp saml string
-            String samlString = SamlUtil.samlObjectToString(authnRequest);
-            LOGGER.debug("Created AuthnRequest[{}]", samlString);
-            // store in a session
-            SamlUtil.setInSession("spSamlString", samlString);
-
-            context.setOutboundSAMLMessage(authnRequest);
-
-            // redirect
-            HTTPRedirectDeflateEncoder encoder = new HTTPRedirectDeflateEncoder();
-            encoder.encode(context);
-        } catch (MessageEncodingException e) {
-            LOGGER.error("Error initializing SAML Request", e);
-            throw new ServletException(e);
+    public void commence(HttpServletRequest request, HttpServletResponse response, AuthenticationException authException)
+            throws IOException, ServletException {
+        SamlAuthnRequestTemplate template = authnRequestTemplate;
+        String idpEntityId = idpResolver == null ? null : idpEntityId(request);
+        if (idpEntityId != null) {
+            SamlIdp idp = idpResolver.resolve(idpEntityId);
+            if (idp == null || idp.authnRequestTemplate() == null) {
+                LOGGER.warn("Unknown IdP[{}] or no HTTP-Redirect SSO location", idpEntityId);
+                metrics.failure(SamlMetrics.Stage.COMMENCE, "unknown_idp");
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown IdP");
+                return;
+            }
+            template = idp.authnRequestTemplate();
+        } else if (idpResolver != null && template == null) {
+            // 여러 IdP 중 고를 수 없음(sp.idp.default_entity_id, idp parameter 없음)
+            LOGGER.warn("No IdP selected, idp parameter and sp.idp.default_entity_id are not set");
+            metrics.failure(SamlMetrics.Stage.COMMENCE, "unknown_idp");
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No IdP selected, use the " + IDP_PARAMETER + " parameter");
+            return;
+        }
+        if (template == null) {
+            metrics.failure(SamlMetrics.Stage.COMMENCE, "not_configured");
+            throw new ServletException("IdP SSO location(sp.single_sign_on_service_location) is not configured");
         }
+        long start = metrics.start();
+        String id = UUID.randomUUID().toString();
+        // 응답 Destination 확인(DestinationCheck)과 같은 값
+        String samlString = template.build(SamlUtil.serviceUrl(acsUrl, request, acs), id, new DateTime());
+        // 응답의 InResponseTo 확인용, 저장하지 못하면 응답을 받아도 로그인할 수 없으므로 IdP로 보내지 않음
+        if (requestIdStore != null && !requestIdStore.add(id)) {
+            LOGGER.error("Failed to store AuthnRequest ID[{}], request id store is full", id);
+            metrics.failure(SamlMetrics.Stage.COMMENCE, "request_id_store_full");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many pending login requests");
+            return;
+        }
+
+        // sp saml string
+        LOGGER.debug("Created AuthnRequest[{}]", samlString);
+        diagnostics.capture(SamlDiagnostics.SP, id, null, samlString);
+
+        // 로그인 후 이동할 url은 session 대신 RelayState로 전달
+        String relayState = relayStates == null ? null : relayStates.issue(target(request));
+
+        // redirect, SP 서명 key가 있으면 SigAlg, Signature 추가
+        SamlRedirectEncoder.sendRedirect(response, redirectEncoder.redirectUrl(template.redirectBaseUrl(),
+                SamlRedirectEncoder.SAML_REQUEST, samlString, relayState));
+        metrics.record(SamlMetrics.Stage.COMMENCE, start);
+    }
+
+    /**
+     * AuthnRequest template 생성, 설정 값 주입 후 한번 실행
+     */
+    @Override
+    protected void initFilterBean() {
+        if (StringUtils.hasText(ssoSignOnLocation)) {
+            authnRequestTemplate = new SamlAuthnRequestTemplate(entityId, ssoSignOnLocation, SAMLConstants.SAML2_REDIRECT_BINDING_URI, true);
+        } else {
+            LOGGER.warn("IdP SSO location(sp.single_sign_on_service_location) is not configured");
+        }
+    }
+
+    /**
+     * 로그인 요청의 idp parameter, 없으면 sp.idp.default_entity_id
+     */
+    private String idpEntityId(HttpServletRequest request) {
+        String idpEntityId = request.getParameter(IDP_PARAMETER);
+        if (StringUtils.hasText(idpEntityId)) {
+            return idpEntityId;
+        }
+        return StringUtils.hasText(defaultIdpEntityId) ? defaultIdpEntityId : null;
+    }
+
+    /**
+     * 인증이 필요했던 GET 요청의 url(path + query), 로그인 url이나 GET이 아닌 요청이면 null(로그인 후 기본 url)
+     */
+    private String target(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) || isLoginUrl(request)) {
+            return null;
+        }
+        String query = request.getQueryString();
+        return query == null ? request.getRequestURI() : request.getRequestURI() + "?" + query;
     }
 
     private boolean isLoginUrl(HttpServletRequest request) {
@@ -110,29 +183,62 @@ public class SamlSsoEntryPoint extends GenericFilterBean implements Authenticati
         return (T) builderFactory.getBuilder(qName).buildObject(qName);
     }
 
-    private AuthnRequest buildAuthnRequest(String acsUrl, String protocolBinding, Issuer issuer) {
+    /**
+     * OpenSAML object로 만드는 AuthnRequest, template 결과와 같은 내용
+     */
+    AuthnRequest buildAuthnRequest(String acsUrl, String protocolBinding, Issuer issuer, String id, DateTime issueInstant) {
         AuthnRequest authnRequest = buildSAMLObject(AuthnRequest.class, AuthnRequest.DEFAULT_ELEMENT_NAME);
         authnRequest.setIsPassive(true);
         authnRequest.setVersion(SAMLVersion.VERSION_20);
         authnRequest.setAssertionConsumerServiceURL(acsUrl);
         authnRequest.setProtocolBinding(protocolBinding);
         authnRequest.setIssuer(issuer);
-        authnRequest.setIssueInstant(new DateTime());
-        authnRequest.setID(UUID.randomUUID().toString());
+        authnRequest.setIssueInstant(issueInstant);
+        authnRequest.setID(id);
         authnRequest.setDestination(ssoSignOnLocation);
         return authnRequest;
     }
 
-    private Issuer buildIssuer(String issuingEntityName) {
+    Issuer buildIssuer(String issuingEntityName) {
         Issuer issuer = buildSAMLObject(Issuer.class, Issuer.DEFAULT_ELEMENT_NAME);
         issuer.setValue(issuingEntityName);
         issuer.setFormat(NameIDType.ENTITY);
         return issuer;
     }
 
-    private Endpoint getIDPEndpoint() {
+    Endpoint getIDPEndpoint() {
         Endpoint samlEndpoint = buildSAMLObject(Endpoint.class, SingleSignOnService.DEFAULT_ELEMENT_NAME);
         samlEndpoint.setLocation(ssoSignOnLocation);
         return samlEndpoint;
     }
+
+    public SamlSsoEntryPoint requestIdStore(SamlMessageIdStore requestIdStore) {
+        this.requestIdStore = requestIdStore;
+        return this;
+    }
+
+    public SamlSsoEntryPoint diagnostics(SamlDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    SamlSsoEntryPoint idpResolver(SamlIdpResolver idpResolver) {
+        this.idpResolver = idpResolver;
+        return this;
+    }
+
+    SamlSsoEntryPoint redirectEncoder(SamlRedirectEncoder redirectEncoder) {
+        this.redirectEncoder = redirectEncoder;
+        return this;
+    }
+
+    SamlSsoEntryPoint metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    SamlSsoEntryPoint relayStates(SamlRelayState relayStates) {
+        this.relayStates = relayStates;
+        return this;
+    }
 }
\ No newline at end of file
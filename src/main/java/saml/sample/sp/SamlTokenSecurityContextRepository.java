@@ -0,0 +1,175 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.util.StringUtils;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * HttpSession, session 저장소 없이 cookie의 {@link SamlSessionToken}에 로그인 정보를 담는 SecurityContextRepository.
+ * 요청마다 token을 복호화해서 인증 정보를 만들고, 로그인할 때 새 token을 발급, logout 하면 cookie 삭제 후 token 취소.
+ */
+final class SamlTokenSecurityContextRepository implements SecurityContextRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlTokenSecurityContextRepository.class);
+
+    private final SamlSessionToken sessionToken;
+
+    private String cookieName = "SP.SESSION";
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    SamlTokenSecurityContextRepository(SamlSessionToken sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * SecurityContextPersistenceFilter(WebSecurityConfigurerAdapter)가 호출하는 method, 5.7에서 deprecated
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+        HttpServletRequest request = requestResponseHolder.getRequest();
+        SamlPrincipal principal = load(request);
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        if (principal != null) {
+            context.setAuthentication(new SamlAuthenticationToken(principal));
+        }
+        // redirect 등으로 응답이 commit 되기 전에 cookie 추가
+        requestResponseHolder.setResponse(new SaveToCookieResponseWrapper(requestResponseHolder.getResponse(), request,
+                principal, token(request) != null));
+        return context;
+    }
+
+    @Override
+    public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        SaveToCookieResponseWrapper wrapper = unwrap(response);
+        if (wrapper == null) {
+            throw new IllegalStateException("Cannot save SecurityContext, loadContext was not called for this response");
+        }
+        // async ACS는 request thread가 먼저 저장(변경 없음)한 후 executor thread에서 다시 저장하므로 항상 저장 시도
+        wrapper.saveContext(context);
+    }
+
+    @Override
+    public boolean containsContext(HttpServletRequest request) {
+        return load(request) != null;
+    }
+
+    SamlTokenSecurityContextRepository cookieName(String cookieName) {
+        this.cookieName = cookieName;
+        return this;
+    }
+
+    SamlTokenSecurityContextRepository metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    private SamlPrincipal load(HttpServletRequest request) {
+        String token = token(request);
+        if (token == null) {
+            return null;
+        }
+        long start = metrics.start();
+        SamlPrincipal principal = sessionToken.verify(token);
+        metrics.record(SamlMetrics.Stage.SESSION_READ, start);
+        return principal;
+    }
+
+    private String token(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (cookieName.equals(cookie.getName()) && StringUtils.hasText(cookie.getValue())) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static SaveToCookieResponseWrapper unwrap(ServletResponse response) {
+        while (response instanceof ServletResponseWrapper) {
+            if (response instanceof SaveToCookieResponseWrapper) {
+                return (SaveToCookieResponseWrapper) response;
+            }
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return null;
+    }
+
+    private Cookie cookie(HttpServletRequest request, String value, int maxAge) {
+        Cookie cookie = new Cookie(cookieName, value);
+        cookie.setPath(StringUtils.hasText(request.getContextPath()) ? request.getContextPath() : "/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    private final class SaveToCookieResponseWrapper extends SamlSaveContextResponseWrapper {
+
+        private final HttpServletRequest request;
+        /**
+         * 마지막으로 cookie에 담은 로그인 정보, 같은 인증 정보로 token을 다시 발급하지 않음
+         */
+        private SamlPrincipal savedPrincipal;
+        /**
+         * 요청에 token cookie가 있었는지(만료/취소된 token 포함), 로그인 정보가 없으면 cookie 삭제
+         */
+        private boolean hasCookie;
+
+        private SaveToCookieResponseWrapper(HttpServletResponse response, HttpServletRequest request,
+                                            SamlPrincipal loadedPrincipal, boolean hasCookie) {
+            super(response);
+            this.request = request;
+            this.savedPrincipal = loadedPrincipal;
+            this.hasCookie = hasCookie;
+        }
+
+        @Override
+        protected synchronized void saveContext(SecurityContext context) {
+            Authentication authentication = context.getAuthentication();
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (authentication instanceof SamlAuthenticationToken) {
+                SamlPrincipal principal = ((SamlAuthenticationToken) authentication).samlPrincipal();
+                if (principal == savedPrincipal) {
+                    return;
+                }
+                long start = metrics.start();
+                String token = sessionToken.issue(principal);
+                metrics.record(SamlMetrics.Stage.SESSION_WRITE, start);
+                if (token.length() + cookieName.length() > SamlSessionToken.MAX_COOKIE_BYTES) {
+                    LOGGER.warn("Session token for user[{}] is {} bytes, browsers may drop it", principal.getName(), token.length());
+                }
+                response.addCookie(cookie(request, token, -1));
+                savedPrincipal = principal;
+                hasCookie = true;
+                LOGGER.debug("Issued session token for user[{}]", principal.getName());
+            } else if (savedPrincipal != null) {
+                // logout, 지운 cookie를 다시 보내도 사용할 수 없게 취소
+                sessionToken.revoke(savedPrincipal);
+                response.addCookie(cookie(request, "", 0));
+                LOGGER.debug("Revoked session token for user[{}]", savedPrincipal.getName());
+                savedPrincipal = null;
+                hasCookie = false;
+            } else if (hasCookie) {
+                // 만료/취소/변조된 token
+                response.addCookie(cookie(request, "", 0));
+                hasCookie = false;
+            }
+        }
+    }
+}
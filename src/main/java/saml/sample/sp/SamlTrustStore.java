@@ -0,0 +1,138 @@
+package saml.sample.sp;
+
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.util.XMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 설정(sp.idp_certificates)으로 등록한 IdP 서명 인증서 저장소.
+ * 기동 시 한번만 인증서를 읽어 validator를 만들어 두고,
+ * 응답 KeyInfo의 인증서는 fingerprint 비교만 해서 등록되지 않은 인증서는 서명 검증 전에 거부한다.
+ */
+final class SamlTrustStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlTrustStore.class);
+
+    private final Map<String, SignatureValidator> validators = new HashMap<>();
+    private final List<PublicKey> publicKeys = new ArrayList<>();
+
+    /**
+     * PEM/DER 인증서 파일 또는 IdP metadata(.xml) 파일 등록
+     */
+    SamlTrustStore load(Resource resource) throws IOException, CertificateException {
+        try (InputStream in = resource.getInputStream()) {
+            if (resource.getFilename() != null && resource.getFilename().endsWith(".xml")) {
+                loadMetadata(in);
+            } else {
+                CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+                for (Certificate certificate : certFactory.generateCertificates(in)) {
+                    addCertificate((X509Certificate) certificate);
+                }
+            }
+        }
+        LOGGER.info("Loaded IdP certificates from [{}]", resource);
+        return this;
+    }
+
+    SamlTrustStore addCertificate(X509Certificate certificate) throws CertificateException {
+        String fingerprint = SamlCredentialCache.fingerprint(certificate.getEncoded());
+        if (validators.put(fingerprint, SamlCredentialCache.createValidator(certificate)) == null) {
+            publicKeys.add(certificate.getPublicKey());
+        }
+        LOGGER.debug("Trusted IdP certificate[{}] subject[{}]", fingerprint, certificate.getSubjectX500Principal());
+        return this;
+    }
+
+    /**
+     * 응답 KeyInfo의 base64 인증서에 해당하는 validator 조회
+     *
+     * @throws CertificateException 등록되지 않은 인증서인 경우
+     */
+    SignatureValidator getValidator(String base64Cert) throws CertificateException {
+        String fingerprint = SamlCredentialCache.fingerprint(SamlCredentialCache.decodeCertificate(base64Cert));
+        SignatureValidator validator = validators.get(fingerprint);
+        if (validator == null) {
+            throw new CertificateException("Untrusted IdP certificate[" + fingerprint + "]");
+        }
+        return validator;
+    }
+
+    boolean isEmpty() {
+        return validators.isEmpty();
+    }
+
+    Map<String, SignatureValidator> validators() {
+        return Collections.unmodifiableMap(validators);
+    }
+
+    /**
+     * KeyInfo가 없는 서명(HTTP Redirect binding query 서명) 검증용 공개키
+     */
+    List<PublicKey> publicKeys() {
+        return Collections.unmodifiableList(publicKeys);
+    }
+
+    private void loadMetadata(InputStream in) throws IOException, CertificateException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(javax.xml.XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            document = factory.newDocumentBuilder().parse(in);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse IdP metadata", e);
+        }
+
+        NodeList certs = document.getElementsByTagNameNS(XMLConstants.XMLSIG_NS, "X509Certificate");
+        for (int i = 0; i < certs.getLength(); i++) {
+            Element cert = (Element) certs.item(i);
+            if (isSigningKey(cert)) {
+                byte[] der = SamlCredentialCache.decodeCertificate(cert.getTextContent().trim());
+                addCertificate(SamlCredentialCache.parseCertificate(der));
+            }
+        }
+    }
+
+    /**
+     * IDPSSODescriptor/KeyDescriptor 아래, use 속성이 없거나 signing인 인증서만 서명 인증서로 사용.
+     * metadata 자체 Signature의 KeyInfo, SPSSODescriptor/AttributeAuthorityDescriptor 인증서는 제외
+     */
+    private boolean isSigningKey(Element cert) {
+        for (Node node = cert.getParentNode(); node instanceof Element; node = node.getParentNode()) {
+            Element element = (Element) node;
+            if (SAMLConstants.SAML20MD_NS.equals(element.getNamespaceURI()) && "KeyDescriptor".equals(element.getLocalName())) {
+                String use = element.getAttribute("use");
+                Node descriptor = element.getParentNode();
+                return (use.isEmpty() || "signing".equals(use))
+                        && descriptor instanceof Element
+                        && SAMLConstants.SAML20MD_NS.equals(descriptor.getNamespaceURI())
+                        && "IDPSSODescriptor".equals(descriptor.getLocalName());
+            }
+        }
+        return false;
+    }
+}
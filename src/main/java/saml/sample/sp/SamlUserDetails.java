@@ -3,7 +3,6 @@ package saml.sample.sp;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
-import org.opensaml.saml2.core.Attribute;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -20,23 +19,29 @@ final class SamlUserDetails implements UserDetails {
     private String email;
     private String federationIdentifier;
     private String personname;
+    /**
+     * IdP response assertion id
+     */
+    private String idpToken;
+    /**
+     * AuthnStatement SessionIndex, IdP LogoutRequest 대상 확인과 SP logout 요청의 SessionIndex로 사용
+     */
+    private String sessionIndex;
+    /**
+     * assertion Subject NameID
+     */
+    private String nameId;
+    /**
+     * 응답 Issuer(IdP entityID), logout 시 IdP SLO endpoint 조회에 사용
+     */
+    private String idpEntityId;
+    /**
+     * attribute mapping(authorities target)으로 받은 권한
+     */
     private List<GrantedAuthority> authorities = new ArrayList<>();
 
-    public SamlUserDetails(List<Attribute> samlAttributes) {
-        for (Attribute attr : samlAttributes) {
-            String attrName  = attr.getName();
-            switch (attrName) {
-                case "idpuserid" :
-                    username = SamlUtil.getStringFromXMLObject(attr.getAttributeValues().get(0));
-                    break;
-                case "idpuseremail":
-                    email = SamlUtil.getStringFromXMLObject(attr.getAttributeValues().get(0));
-                    break;
-                case "idpusernm":
-                    personname = SamlUtil.getStringFromXMLObject(attr.getAttributeValues().get(0));
-                    break;
-            }
-        }
+    void addAuthority(GrantedAuthority authority) {
+        authorities.add(authority);
     }
 
     @Override
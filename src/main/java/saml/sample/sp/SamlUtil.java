@@ -2,16 +2,13 @@ package saml.sample.sp;
 
 import org.opensaml.Configuration;
 import org.opensaml.common.SAMLObject;
-import org.opensaml.saml2.core.NameID;
-import org.opensaml.xml.XMLObject;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
 import org.opensaml.xml.io.Marshaller;
 import org.opensaml.xml.io.MarshallerFactory;
 import org.opensaml.xml.io.MarshallingException;
-import org.opensaml.xml.schema.XSAny;
-import org.opensaml.xml.schema.XSString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
@@ -21,35 +18,18 @@ import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSOutput;
 import org.w3c.dom.ls.LSSerializer;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Locale;
 
 final class SamlUtil {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SamlUtil.class);
 
-    static String getStringFromXMLObject(XMLObject xmlObj) {
-        if (xmlObj instanceof XSString) {
-            return ((XSString) xmlObj).getValue();
-        } else if (xmlObj instanceof XSAny) {
-            XSAny xsAny = (XSAny) xmlObj;
-            String textContent = xsAny.getTextContent();
-            if (StringUtils.hasText(textContent)) {
-                return textContent;
-            }
-            List<XMLObject> unknownXMLObjects = xsAny.getUnknownXMLObjects();
-            if (!CollectionUtils.isEmpty(unknownXMLObjects)) {
-                XMLObject xmlObject = unknownXMLObjects.get(0);
-                if (xmlObject instanceof NameID) {
-                    NameID nameID = (NameID) xmlObject;
-                    return nameID.getValue();
-                }
-            }
-        }
-        return "";
-    }
-
     static String samlObjectToString(SAMLObject object) {
         try {
             Element ele = samlObjectToElement(object);
@@ -88,15 +68,65 @@ final class SamlUtil {
         return writer.toString();
     }
 
-    static void setInSession(String key, Object value) {
-        ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest()
-                .getSession()
-                .setAttribute(key, value);
+    /**
+     * Response Issuer, 없으면 첫 번째 assertion Issuer
+     */
+    static String issuer(Response response) {
+        if (response.getIssuer() != null && StringUtils.hasText(response.getIssuer().getValue())) {
+            return response.getIssuer().getValue();
+        }
+        for (Assertion assertion : response.getAssertions()) {
+            if (assertion.getIssuer() != null && StringUtils.hasText(assertion.getIssuer().getValue())) {
+                return assertion.getIssuer().getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * SP url, configuredUrl(ex. sp.acs_url)이 있으면 그 값, 없으면 요청의 scheme/host/port/context path + path.
+     * AuthnRequest에 넣는 값과 응답 확인에 쓰는 값이 항상 같도록 둘 다 이 method로 만든다.
+     */
+    static String serviceUrl(String configuredUrl, HttpServletRequest request, String path) {
+        if (StringUtils.hasText(configuredUrl)) {
+            return normalizeUrl(configuredUrl);
+        }
+        return normalizeUrl(request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort()
+                + request.getContextPath() + path);
+    }
+
+    /**
+     * 비교용 url, scheme/host 소문자, 기본 port(http 80, https 443) 생략. url 형식이 아니면 그대로 반환
+     */
+    static String normalizeUrl(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return url;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            StringBuilder normalized = new StringBuilder(url.length())
+                    .append(scheme).append("://").append(uri.getHost().toLowerCase(Locale.ROOT));
+            if (port != -1) {
+                normalized.append(':').append(port);
+            }
+            if (uri.getRawPath() != null) {
+                normalized.append(uri.getRawPath());
+            }
+            if (uri.getRawQuery() != null) {
+                normalized.append('?').append(uri.getRawQuery());
+            }
+            return normalized.toString();
+        } catch (URISyntaxException e) {
+            return url;
+        }
     }
 
-    static Object getInSession(String key) {
-        return ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest()
-                .getSession()
-                .getAttribute(key);
+    static HttpServletRequest currentRequest() {
+        return ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package saml.sample.sp;
+
+import org.opensaml.saml2.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.AuthenticationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SAML response 검증 pipeline.
+ * 서명 검증처럼 비싼 항목은 뒤에 두어서 만료, audience 불일치 같은 응답은 RSA 연산 전에 거부한다.
+ */
+final class SamlValidationPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SamlValidationPipeline.class);
+
+    private final List<SamlResponseCheck> checks = new ArrayList<>();
+    private final Map<String, CheckStats> stats = new LinkedHashMap<>();
+    private SamlMetrics metrics = SamlMetrics.disabled();
+
+    SamlValidationPipeline add(SamlResponseCheck check) {
+        checks.add(check);
+        checks.sort(Comparator.comparingInt(SamlResponseCheck::cost));
+        stats.put(check.name(), new CheckStats());
+        return this;
+    }
+
+    void validate(Response samlResponse) throws AuthenticationException {
+        for (SamlResponseCheck check : checks) {
+            CheckStats checkStats = stats.get(check.name());
+            long start = System.nanoTime();
+            try {
+                check.check(samlResponse);
+            } catch (AuthenticationException e) {
+                checkStats.failures.incrementAndGet();
+                metrics.failure(SamlMetrics.Stage.VALIDATE, check.name());
+                LOGGER.warn("SAML response check[{}] failed : {}", check.name(), e.getMessage());
+                throw e;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                checkStats.count.incrementAndGet();
+                checkStats.totalNanos.addAndGet(elapsed);
+                metrics.recordCheck(check.name(), start);
+                LOGGER.trace("SAML response check[{}] took {}ns", check.name(), elapsed);
+            }
+        }
+    }
+
+    SamlValidationPipeline metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    List<SamlResponseCheck> checks() {
+        return Collections.unmodifiableList(checks);
+    }
+
+    /**
+     * 검증 항목별 실행 통계
+     */
+    Map<String, CheckStats> stats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    static final class CheckStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        long count() {
+            return count.get();
+        }
+
+        long failures() {
+            return failures.get();
+        }
+
+        long averageNanos() {
+            long c = count.get();
+            return c == 0 ? 0 : totalNanos.get() / c;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count() + ", failures=" + failures() + ", avgNanos=" + averageNanos();
+        }
+    }
+}
@@ -1,116 +1,107 @@
 package saml.sample.sp;
 
-import org.joda.time.DateTime;
 import org.opensaml.saml2.core.*;
-import org.opensaml.xml.security.credential.BasicCredential;
-import org.opensaml.xml.signature.Signature;
-import org.opensaml.xml.signature.SignatureValidator;
-import org.opensaml.xml.signature.X509Certificate;
-import org.opensaml.xml.signature.X509Data;
-import org.opensaml.xml.validation.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.authentication.CredentialsExpiredException;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.userdetails.UserDetails;
 
-import java.io.ByteArrayInputStream;
-import java.security.PublicKey;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.util.List;
+import java.util.Objects;
 
 final class SimpleSamlAssertionConsumer implements SamlAssertionConsumer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleSamlAssertionConsumer.class);
-    /**
-     * SAML assertion valid time(minute)
-     */
-    private static final int ASSERTION_VALID_TIME = 30;
 
-    public UserDetails consume(Response samlResponse) throws AuthenticationException {
-        validateSignature(samlResponse);
-        checkAuthnInstant(samlResponse);
-        Assertion assertion = samlResponse.getAssertions().get(0);
-
-        // idp saml string
-        String samlString = SamlUtil.samlObjectToString(assertion);
-        LOGGER.debug("Assertion[{}]", samlString);
-        // store in a session
-        SamlUtil.setInSession("idpSamlString", samlString);
-        SamlUtil.setInSession("idpToken", assertion.getID());
-
-        return createUser(assertion);
-    }
+    private SamlValidationPipeline validationPipeline = new SamlValidationPipeline()
+            .add(new SamlResponseChecks.StatusCheck())
+            .add(new SamlSignatureCheck());
 
-    private SamlUserDetails createUser(Assertion assertion) {
-        AttributeStatement attributeStatement = assertion.getAttributeStatements().get(0);
-        List<Attribute> attributes = attributeStatement.getAttributes();
-        return new SamlUserDetails(attributes);
-    }
+    private SamlDiagnostics diagnostics = new SamlDiagnostics();
+
+    private SamlMetrics metrics = SamlMetrics.disabled();
 
-    private void validateSignature(Response samlResponse) throws AuthenticationException {
+    private SamlAttributeMapping attributeMapping = SamlAttributeMapping.compile(SamlAttributeMapping.DEFAULT_RULES);
+
+    public UserDetails consume(Response samlResponse) throws AuthenticationException {
+        long start = metrics.start();
         try {
-            Signature signature = samlResponse.getSignature();
-            PublicKey publicKey = extractPublicKey(signature);
-            SignatureValidator validator = createValidator(publicKey);
-            validator.validate(samlResponse.getSignature());
-            LOGGER.debug("Signature validation success");
-        } catch (CertificateException e) {
-            LOGGER.error("Invalid certification(public key)", e);
-            throw new BadCredentialsException("Invalid certification(public key)", e);
-        } catch (ValidationException e) {
-            LOGGER.error("Signature validation fail.", e);
-            throw new BadCredentialsException("Signature validation fail", e);
+            validationPipeline.validate(samlResponse);
+        } finally {
+            metrics.record(SamlMetrics.Stage.VALIDATE, start);
         }
+        List<Assertion> assertions = samlResponse.getAssertions();
+        String nameId = subjectNameId(assertions);
+        long mappingStart = metrics.start();
+        SamlUserDetails user = attributeMapping.map(assertions);
+        metrics.record(SamlMetrics.Stage.MAPPING, mappingStart);
+
+        // idp saml string, capture가 켜져 있고 sampling 된 경우만 문자열로 변환. assertion이 여러 개면 Response 전체
+        diagnostics.capture(SamlDiagnostics.IDP, samlResponse.getInResponseTo(), user.getUsername(),
+                assertions.size() == 1 ? assertions.get(0) : samlResponse);
+        // session에 별도로 저장하지 않고 인증 정보(principal)에 포함
+        Assertion authnAssertion = authnAssertion(assertions);
+        user.setIdpToken(authnAssertion.getID());
+        user.setSessionIndex(authnAssertion.getAuthnStatements().isEmpty() ? null
+                : authnAssertion.getAuthnStatements().get(0).getSessionIndex());
+        user.setIdpEntityId(SamlUtil.issuer(samlResponse));
+        user.setNameId(nameId);
+
+        return user;
     }
 
-    private PublicKey extractPublicKey(Signature signature) throws CertificateException {
-        X509Data x509Data = signature.getKeyInfo().getX509Datas().get(0);
-        X509Certificate cert = x509Data.getX509Certificates().get(0);
-        String wrappedCert = wrapBase64String(cert.getValue());
-        CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-        Certificate certificate = certFactory.generateCertificate(new ByteArrayInputStream(wrappedCert.getBytes()));
-        return certificate.getPublicKey();
+    /**
+     * 모든 assertion이 같은 사용자인지 확인(Web SSO profile, 모든 assertion의 Subject는 같은 principal).
+     * 여러 assertion의 attribute를 합쳐서 mapping 하므로 NameID(값, Format)가 다르거나 없으면 거부
+     */
+    private String subjectNameId(List<Assertion> assertions) {
+        NameID first = null;
+        for (Assertion assertion : assertions) {
+            NameID nameId = assertion.getSubject() == null ? null : assertion.getSubject().getNameID();
+            if (nameId == null || nameId.getValue() == null) {
+                metrics.failure(SamlMetrics.Stage.CONSUME, "subject");
+                throw new BadCredentialsException("Assertion[" + assertion.getID() + "] has no Subject NameID");
+            }
+            if (first == null) {
+                first = nameId;
+            } else if (!first.getValue().equals(nameId.getValue()) || !Objects.equals(first.getFormat(), nameId.getFormat())) {
+                metrics.failure(SamlMetrics.Stage.CONSUME, "subject");
+                throw new BadCredentialsException("Assertions have different Subject NameIDs");
+            }
+        }
+        return first == null ? null : first.getValue();
     }
 
-    private String wrapBase64String(String base64String) {
-        int lineLength = 64;
-        char[] rawArr = base64String.toCharArray();
-        int wrappedArrLength = rawArr.length + (int)Math.ceil(rawArr.length / 64d) - 1;
-        char[] wrappedArr = new char[wrappedArrLength];
-
-        int destPosition = 0;
-        for (int i = 0; i < rawArr.length; i += lineLength) {
-            if (rawArr.length - i > lineLength) {
-                System.arraycopy(rawArr, i, wrappedArr, destPosition, lineLength);
-                destPosition += lineLength;
-                wrappedArr[destPosition] = '\n';
-                destPosition += 1;
-            } else {
-                System.arraycopy(rawArr, i, wrappedArr, destPosition, rawArr.length - i);
+    /**
+     * AuthnStatement가 있는 assertion, 없으면 첫 번째 assertion
+     */
+    private Assertion authnAssertion(List<Assertion> assertions) {
+        for (Assertion assertion : assertions) {
+            if (!assertion.getAuthnStatements().isEmpty()) {
+                return assertion;
             }
         }
-        return "-----BEGIN CERTIFICATE-----\n" + String.valueOf(wrappedArr) + "\n-----END CERTIFICATE-----";
+        return assertions.get(0);
     }
 
-    private SignatureValidator createValidator(PublicKey publicKey) {
-        BasicCredential credential = new BasicCredential();
-        credential.setPublicKey(publicKey);
-        return new SignatureValidator(credential);
+    public SimpleSamlAssertionConsumer attributeMapping(SamlAttributeMapping attributeMapping) {
+        this.attributeMapping = attributeMapping;
+        return this;
     }
 
-    private void checkAuthnInstant(Response samlResponse) throws AuthenticationException {
-        Assertion assertion = samlResponse.getAssertions().get(0);
-        AuthnStatement authnStatement = assertion.getAuthnStatements().get(0);
-        DateTime authnInstant = authnStatement.getAuthnInstant();
-        LOGGER.debug("AuthnInstant[{}]", authnInstant);
+    public SimpleSamlAssertionConsumer diagnostics(SamlDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
 
-        DateTime validTime = authnInstant.plusMinutes(ASSERTION_VALID_TIME);
-        if (DateTime.now().compareTo(validTime) > 0) {
-            throw new CredentialsExpiredException("AuthnInstant time out : " + authnInstant);
-        }
+    public SimpleSamlAssertionConsumer metrics(SamlMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public SimpleSamlAssertionConsumer validationPipeline(SamlValidationPipeline validationPipeline) {
+        this.validationPipeline = validationPipeline;
+        return this;
     }
-}
\ No newline at end of file
+}
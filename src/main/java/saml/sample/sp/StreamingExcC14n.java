@@ -0,0 +1,241 @@
+package saml.sample.sp;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * StAX event를 받아 Exclusive XML Canonicalization(주석 제외) 결과를 바로 출력, DOM을 만들지 않는다.
+ * metadata aggregate 서명의 digest 계산용이라 문서 전체를 memory에 올리지 않고 한번 읽으면서 처리한다.
+ * <ul>
+ *     <li>namespace 선언은 element, attribute에서 실제로 사용하는 prefix(InclusiveNamespaces PrefixList 포함)만,
+ *     출력한 상위 element와 값이 다른 경우에만 출력</li>
+ *     <li>namespace는 prefix 순, attribute는 namespace URI, local name 순으로 정렬</li>
+ *     <li>빈 element도 시작/끝 tag로 출력, 주석은 출력하지 않음</li>
+ * </ul>
+ */
+final class StreamingExcC14n {
+
+    private final Writer out;
+    private final Set<String> inclusivePrefixes;
+
+    /**
+     * 출력한 element마다 그 시점에 출력된 namespace(prefix -> uri)
+     */
+    private final Deque<Map<String, String>> rendered = new ArrayDeque<>();
+    private final Deque<String> names = new ArrayDeque<>();
+
+    /**
+     * @param inclusivePrefixes InclusiveNamespaces PrefixList, 기본 namespace는 "#default"
+     */
+    StreamingExcC14n(OutputStream out, Set<String> inclusivePrefixes) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.inclusivePrefixes = inclusivePrefixes;
+        this.rendered.push(Collections.emptyMap());
+    }
+
+    /**
+     * @param inScope 현재 element에서 유효한 namespace(prefix -> uri, 기본 namespace는 "")
+     */
+    void startElement(XMLStreamReader reader, Map<String, String> inScope) throws IOException {
+        startElement(element(reader), inScope);
+    }
+
+    void startElement(Element element, Map<String, String> inScope) throws IOException {
+        Map<String, String> parent = rendered.peek();
+        TreeMap<String, String> namespaces = new TreeMap<>();
+        addUtilized(namespaces, parent, element.prefix, element.namespaceUri);
+        for (Attribute attribute : element.attributes) {
+            if (!attribute.prefix.isEmpty() && !XMLConstants.XML_NS_PREFIX.equals(attribute.prefix)) {
+                addUtilized(namespaces, parent, attribute.prefix, attribute.namespaceUri);
+            }
+        }
+        for (String prefix : inclusivePrefixes) {
+            String key = "#default".equals(prefix) ? "" : prefix;
+            String uri = inScope.get(key);
+            if (uri != null && !namespaces.containsKey(key)) {
+                addUtilized(namespaces, parent, key, uri);
+            }
+        }
+
+        String name = qualifiedName(element.prefix, element.localName);
+        out.write('<');
+        out.write(name);
+        for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+            out.write(namespace.getKey().isEmpty() ? " xmlns=\"" : " xmlns:" + namespace.getKey() + "=\"");
+            writeAttributeValue(namespace.getValue());
+            out.write('"');
+        }
+        List<Attribute> attributes = new ArrayList<>(element.attributes);
+        attributes.sort((a, b) -> {
+            int c = a.namespaceUri.compareTo(b.namespaceUri);
+            return c != 0 ? c : a.localName.compareTo(b.localName);
+        });
+        for (Attribute attribute : attributes) {
+            out.write(' ');
+            out.write(qualifiedName(attribute.prefix, attribute.localName));
+            out.write("=\"");
+            writeAttributeValue(attribute.value);
+            out.write('"');
+        }
+        out.write('>');
+
+        if (namespaces.isEmpty()) {
+            rendered.push(parent);
+        } else {
+            Map<String, String> current = new HashMap<>(parent);
+            current.putAll(namespaces);
+            rendered.push(current);
+        }
+        names.push(name);
+    }
+
+    void endElement() throws IOException {
+        out.write("</");
+        out.write(names.pop());
+        out.write('>');
+        rendered.pop();
+    }
+
+    void text(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '\r':
+                    out.write("&#xD;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    void processingInstruction(String target, String data) throws IOException {
+        out.write("<?");
+        out.write(target);
+        if (data != null && !data.isEmpty()) {
+            out.write(' ');
+            out.write(data);
+        }
+        out.write("?>");
+    }
+
+    /**
+     * writer buffer를 stream으로 내보냄
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * 기본 namespace가 비어 있으면 상위에서 출력한 기본 namespace가 있을 때만 xmlns="" 출력
+     */
+    private static void addUtilized(Map<String, String> namespaces, Map<String, String> parent, String prefix, String uri) {
+        if (prefix.isEmpty() && uri.isEmpty()) {
+            String inherited = parent.get("");
+            if (inherited != null && !inherited.isEmpty()) {
+                namespaces.put("", "");
+            }
+        } else if (!uri.equals(parent.get(prefix))) {
+            namespaces.put(prefix, uri);
+        }
+    }
+
+    private void writeAttributeValue(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\t':
+                    out.write("&#x9;");
+                    break;
+                case '\n':
+                    out.write("&#xA;");
+                    break;
+                case '\r':
+                    out.write("&#xD;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    /**
+     * 현재 START_ELEMENT의 이름, attribute 복사본(나중에 출력할 root element 보관용)
+     */
+    static Element element(XMLStreamReader reader) {
+        List<Attribute> attributes = new ArrayList<>(reader.getAttributeCount());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.add(new Attribute(nullToEmpty(reader.getAttributePrefix(i)), reader.getAttributeLocalName(i),
+                    nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeValue(i)));
+        }
+        return new Element(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()), attributes);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    static final class Element {
+        private final String prefix;
+        private final String localName;
+        private final String namespaceUri;
+        private final List<Attribute> attributes;
+
+        private Element(String prefix, String localName, String namespaceUri, List<Attribute> attributes) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.namespaceUri = namespaceUri;
+            this.attributes = attributes;
+        }
+    }
+
+    private static final class Attribute {
+        private final String prefix;
+        private final String localName;
+        private final String namespaceUri;
+        private final String value;
+
+        private Attribute(String prefix, String localName, String namespaceUri, String value) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.namespaceUri = namespaceUri;
+            this.value = value;
+        }
+    }
+}
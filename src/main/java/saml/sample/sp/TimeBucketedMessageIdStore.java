@@ -0,0 +1,192 @@
+package saml.sample.sp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 시간 bucket 단위로 만료되는 in-memory {@link SamlMessageIdStore}.
+ * ttl을 bucket 개수로 나눈 시간 구간마다 bucket 하나를 사용하고, 구간이 지나면 가장 오래된 bucket을 통째로 버린다.
+ * 조회는 bucket 개수(고정)만큼의 hash 조회라 O(1)이고, entry 단위로 만료 시간을 검사하지 않는다.
+ * id는 ttl 이상, ttl + bucket 구간 미만 동안 유지된다.
+ * 최대 개수에 도달하면 만료된 bucket을 먼저 버리고, 그래도 가득 차 있으면
+ * evictWhenFull인 경우(AuthnRequest ID) 가장 오래된 bucket을 만료 전에 버리고, 아니면(Assertion ID) 새 id를 거부한다.
+ */
+final class TimeBucketedMessageIdStore implements SamlMessageIdStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeBucketedMessageIdStore.class);
+
+    private final String name;
+    private final int bucketCount;
+    private final long bucketMillis;
+    private final int maxEntries;
+    private final boolean evictWhenFull;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param evictWhenFull 가득 찼을 때 살아있는 bucket을 버릴지 여부, false면 새 id를 거부(replay 방지 저장소는 false)
+     */
+    TimeBucketedMessageIdStore(String name, long ttl, TimeUnit unit, int bucketCount, int maxEntries, boolean evictWhenFull) {
+        this.name = name;
+        this.bucketCount = bucketCount;
+        this.bucketMillis = Math.max(1, unit.toMillis(ttl) / bucketCount);
+        this.maxEntries = maxEntries;
+        this.evictWhenFull = evictWhenFull;
+        // 현재 구간 bucket + 만료 전 bucket(bucketCount개)
+        this.buckets = new AtomicReferenceArray<>(bucketCount + 1);
+    }
+
+    @Override
+    public boolean add(String id) {
+        long slot = currentSlot();
+        Bucket current = bucket(slot);
+        if (!reserve(slot)) {
+            LOGGER.warn("Message id store[{}] is full({}), rejected id[{}]", name, maxEntries, id);
+            return false;
+        }
+        // 현재 bucket에 먼저 넣고 다른 bucket을 확인,
+        // 구간이 바뀌는 순간 동시에 들어온 같은 id는 양쪽 모두 중복으로 판정된다
+        if (current.ids.putIfAbsent(id, Boolean.TRUE) != null) {
+            size.decrementAndGet();
+            return false;
+        }
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket != current && isLive(bucket, slot) && bucket.ids.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        long slot = currentSlot();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && isLive(bucket, slot) && bucket.ids.containsKey(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(String id) {
+        long slot = currentSlot();
+        boolean removed = false;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.ids.remove(id) != null) {
+                size.decrementAndGet();
+                removed |= isLive(bucket, slot);
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private long currentSlot() {
+        return System.currentTimeMillis() / bucketMillis;
+    }
+
+    private boolean isLive(Bucket bucket, long slot) {
+        return slot - bucket.slot <= bucketCount;
+    }
+
+    /**
+     * slot에 해당하는 bucket 반환, 자리에 만료된 bucket이 있으면 새 bucket으로 교체(통째로 만료)
+     */
+    private Bucket bucket(long slot) {
+        int index = (int) (slot % buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.slot == slot) {
+                return bucket;
+            }
+            Bucket fresh = new Bucket(slot);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                if (bucket != null) {
+                    size.addAndGet(-bucket.ids.size());
+                }
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * 저장할 자리 하나를 확보, 가득 찬 경우 만료된 bucket, (evictWhenFull이면) 가장 오래된 bucket 순서로 버리고 다시 시도
+     */
+    private boolean reserve(long slot) {
+        while (true) {
+            int current = size.get();
+            if (current < maxEntries) {
+                if (size.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            } else if (!purgeExpired(slot) && !(evictWhenFull && evictOldest(slot))) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 시간이 많이 지나 현재 구간 bucket으로 교체되지 않고 남아있는 만료된 bucket을 버린다
+     */
+    private boolean purgeExpired(long slot) {
+        boolean purged = false;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && !isLive(bucket, slot) && buckets.compareAndSet(i, bucket, null)) {
+                size.addAndGet(-bucket.ids.size());
+                purged = true;
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * 현재 구간을 제외하고 가장 오래된 bucket을 만료 전에 버린다
+     *
+     * @return 버릴 bucket이 없으면 false
+     */
+    private boolean evictOldest(long slot) {
+        int oldestIndex = -1;
+        long oldestSlot = Long.MAX_VALUE;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.slot != slot && bucket.slot < oldestSlot) {
+                oldestSlot = bucket.slot;
+                oldestIndex = i;
+            }
+        }
+        if (oldestIndex < 0) {
+            return false;
+        }
+        Bucket oldest = buckets.get(oldestIndex);
+        if (oldest != null && oldest.slot == oldestSlot && buckets.compareAndSet(oldestIndex, oldest, null)) {
+            size.addAndGet(-oldest.ids.size());
+            LOGGER.warn("Message id store[{}] is full({}), evicted {} ids early", name, maxEntries, oldest.ids.size());
+        }
+        // 다른 thread가 먼저 버린 경우도 다시 시도
+        return true;
+    }
+
+    private static final class Bucket {
+        private final long slot;
+        private final Map<String, Boolean> ids = new ConcurrentHashMap<>();
+
+        private Bucket(long slot) {
+            this.slot = slot;
+        }
+    }
+}
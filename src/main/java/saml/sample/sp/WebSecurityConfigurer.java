@@ -1,11 +1,18 @@
 package saml.sample.sp;
 
-import org.opensaml.xml.parse.ParserPool;
-import org.opensaml.xml.parse.StaticBasicParserPool;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
@@ -15,21 +22,243 @@ import org.springframework.security.config.annotation.web.configuration.WebSecur
 import org.springframework.security.web.DefaultSecurityFilterChain;
 import org.springframework.security.web.FilterChainProxy;
 import org.springframework.security.web.SecurityFilterChain;
-import org.springframework.security.web.authentication.SavedRequestAwareAuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationSuccessHandler;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.security.web.savedrequest.NullRequestCache;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.util.StringUtils;
 
 import javax.servlet.SessionCookieConfig;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @EnableWebSecurity
 public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSecurityConfigurer.class);
+
+    private static final String SINGLE_LOGOUT_URL = "/out";
+
     @Value("${sp.acs}")
     private String acs;
 
+    @Value("${sp.acs_url:}")
+    private String acsUrl;
+
+    @Value("${sp.slo_url:}")
+    private String sloUrl;
+
+    @Value("${sp.entity_id}")
+    private String entityId;
+
+    @Value("${sp.single_logout_service_location:}")
+    private String ssoLogoutLocation;
+
+    @Value("${sp.logout.require_signature:true}")
+    private boolean logoutRequireSignature;
+
+    @Value("${sp.idp_entity_id:}")
+    private String idpEntityId;
+
+    @Value("${sp.clock_skew_seconds:60}")
+    private int clockSkewSeconds;
+
+    @Value("${sp.assertion_valid_minutes:30}")
+    private int assertionValidMinutes;
+
+    @Value("${sp.allow_unsolicited_response:true}")
+    private boolean allowUnsolicited;
+
+    @Value("${sp.replay.buckets:12}")
+    private int replayBuckets;
+
+    @Value("${sp.replay.request_max_entries:${sp.replay.max_entries:100000}}")
+    private int replayRequestMaxEntries;
+
+    @Value("${sp.replay.assertion_max_entries:${sp.replay.max_entries:100000}}")
+    private int replayAssertionMaxEntries;
+
+    @Value("${sp.diagnostics.enabled:false}")
+    private boolean diagnosticsEnabled;
+
+    @Value("${sp.diagnostics.sample_rate:0.01}")
+    private double diagnosticsSampleRate;
+
+    @Value("${sp.diagnostics.max_entries:256}")
+    private int diagnosticsMaxEntries;
+
+    @Value("${sp.diagnostics.max_chars:4000000}")
+    private long diagnosticsMaxChars;
+
+    @Value("${sp.idp_certificates:}")
+    private String[] idpCertificates;
+
+    @Value("${sp.trust_keyinfo_certificate:false}")
+    private boolean trustKeyInfoCertificate;
+
+    @Value("${sp.idp.metadata:}")
+    private String[] idpMetadata;
+
+    @Value("${sp.idp.reload_seconds:30}")
+    private long idpReloadSeconds;
+
+    @Value("${sp.idp.aggregate.metadata:}")
+    private String idpAggregateMetadata;
+
+    @Value("${sp.idp.aggregate.index:}")
+    private String idpAggregateIndex;
+
+    @Value("${sp.idp.aggregate.certificates:}")
+    private String[] idpAggregateCertificates;
+
+    @Value("${sp.idp.aggregate.cache_size:1000}")
+    private int idpAggregateCacheSize;
+
+    @Value("${sp.signing.key:}")
+    private String signingKey;
+
+    @Value("${sp.signing.algorithm:}")
+    private String signingAlgorithm;
+
+    @Value("${sp.attribute_mapping:}")
+    private String attributeMapping;
+
+    @Value("${sp.authority.default_roles:ROLE_USER}")
+    private String authorityDefaultRoles;
+
+    @Value("${sp.authority.group_roles:}")
+    private String authorityGroupRoles;
+
+    @Value("${sp.authority.hierarchy:}")
+    private String authorityHierarchy;
+
+    @Value("${sp.authority.idp_roles:}")
+    private String authorityIdpRoles;
+
+    @Value("${sp.authority.pass_unmapped_groups:false}")
+    private boolean authorityPassUnmappedGroups;
+
+    @Value("${sp.acs_max_message_bytes:524288}")
+    private int acsMaxMessageBytes;
+
+    @Value("${sp.acs_max_element_depth:50}")
+    private int acsMaxElementDepth;
+
+    @Value("${sp.acs_async.enabled:false}")
+    private boolean acsAsyncEnabled;
+
+    @Value("${sp.acs_async.threads:0}")
+    private int acsAsyncThreads;
+
+    @Value("${sp.acs_async.queue_size:100}")
+    private int acsAsyncQueueSize;
+
+    @Value("${sp.acs_async.virtual_threads:true}")
+    private boolean acsAsyncVirtualThreads;
+
+    @Value("${sp.acs_async.max_queue_wait_millis:10000}")
+    private long acsAsyncMaxQueueWait;
+
+    @Value("${sp.acs_async.timeout_millis:30000}")
+    private long acsAsyncTimeout;
+
+    @Value("${sp.acs_async.retry_after_seconds:2}")
+    private int acsAsyncRetryAfter;
+
+    @Value("${sp.signature.parallelism:0}")
+    private int signatureParallelism;
+
+    @Value("${sp.metrics.enabled:false}")
+    private boolean metricsEnabled;
+
+    @Value("${sp.metrics.histogram:true}")
+    private boolean metricsHistogram;
+
+    @Value("${sp.parser_pool.max_pool_size:50}")
+    private int parserPoolMaxSize;
+
+    @Value("${sp.parser_pool.secure_processing:true}")
+    private boolean parserPoolSecureProcessing;
+
+    @Value("${sp.parser_pool.builder_features:}")
+    private String parserPoolBuilderFeatures;
+
+    @Value("${sp.credential_cache.max_size:16}")
+    private int credentialCacheMaxSize;
+
+    @Value("${sp.credential_cache.ttl_seconds:3600}")
+    private long credentialCacheTtl;
+
+    @Value("${sp.session.store:http}")
+    private String sessionStoreType;
+
+    @Value("${sp.session.cookie_name:SP.SAML}")
+    private String sessionCookieName;
+
+    @Value("${sp.session.ttl_seconds:3600}")
+    private long sessionTtl;
+
+    @Value("${sp.session.mmap.path:${java.io.tmpdir}/saml-sp-sessions.dat}")
+    private String sessionFilePath;
+
+    @Value("${sp.session.mmap.slots:65536}")
+    private int sessionFileSlots;
+
+    @Value("${sp.session.mmap.slot_size:512}")
+    private int sessionFileSlotSize;
+
+    @Value("${sp.session.remote.batch_size:100}")
+    private int sessionBatchSize;
+
+    @Value("${sp.session.remote.flush_millis:50}")
+    private long sessionFlushMillis;
+
+    @Value("${sp.session.remote.near_cache_size:10000}")
+    private int sessionNearCacheSize;
+
+    @Value("${sp.session.remote.near_cache_ttl_seconds:5}")
+    private long sessionNearCacheTtl;
+
+    @Value("${sp.session.token.keys:}")
+    private String sessionTokenKeys;
+
+    @Value("${sp.session.token.cookie_name:SP.SESSION}")
+    private String sessionTokenCookieName;
+
+    @Value("${sp.session.token.max_revocations:10000}")
+    private int sessionTokenMaxRevocations;
+
+    @Value("${sp.session.token.revocation_cache_size:10000}")
+    private int sessionTokenRevocationCacheSize;
+
+    @Value("${sp.session.token.revocation_cache_ttl_seconds:5}")
+    private long sessionTokenRevocationCacheTtl;
+
+    @Value("${sp.relay_state.key:}")
+    private String relayStateKey;
+
+    @Value("${sp.relay_state.ttl_seconds:1800}")
+    private long relayStateTtl;
+
+    @Value("${sp.relay_state.cache_size:10000}")
+    private int relayStateCacheSize;
+
+    @Autowired(required = false)
+    private SamlSessionBackend sessionBackend;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
     @Bean
     @Override
     public AuthenticationManager authenticationManagerBean() throws Exception {
@@ -41,13 +270,21 @@ public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
         // login config
         http.formLogin().disable()
                 .authorizeRequests()
-                .antMatchers("/", "/main", "/out", "/error", acs + "/**").permitAll()
+                .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll()
+                .antMatchers("/", "/main", SINGLE_LOGOUT_URL, "/error", acs + "/**").permitAll()
                 .anyRequest().authenticated()
                 .and()
             .httpBasic()
                 .authenticationEntryPoint(samlSsoEntryPoint())
                 .and()
             .addFilterAfter(samlFilterChain(), BasicAuthenticationFilter.class)
+            .securityContext()
+                .securityContextRepository(securityContextRepository())
+                .and()
+            // 로그인 전 요청은 session에 저장하지 않음, 로그인 후 url은 RelayState로 전달
+            .requestCache()
+                .requestCache(new NullRequestCache())
+                .and()
             .csrf().disable();
 
         // logout config
@@ -58,7 +295,7 @@ public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
     }
 
     @Override
-    public void configure(AuthenticationManagerBuilder authBuilder) {
+    public void configure(AuthenticationManagerBuilder authBuilder) throws Exception {
         authBuilder.authenticationProvider(authenticationProvider());
     }
 
@@ -66,7 +303,8 @@ public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
     public ServletContextInitializer servletContextInitializer() {
         return servletContext -> {
             SessionCookieConfig sessionCookieConfig = servletContext.getSessionCookieConfig();
-            sessionCookieConfig.setName("SP.SESSION");
+            // token 사용 시 SP.SESSION은 로그인 token cookie, HttpSession은 만들지 않지만 이름이 겹치지 않게 변경
+            sessionCookieConfig.setName("token".equals(sessionStoreType) ? "SP.HTTPSESSION" : "SP.SESSION");
             sessionCookieConfig.setHttpOnly(true);
         };
     }
@@ -75,43 +313,306 @@ public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
     public FilterChainProxy samlFilterChain() throws Exception {
         List<SecurityFilterChain> chains = new ArrayList<>();
         chains.add(new DefaultSecurityFilterChain(new AntPathRequestMatcher(acs + "/**"), samlFilter()));
+        chains.add(new DefaultSecurityFilterChain(new AntPathRequestMatcher(SINGLE_LOGOUT_URL), singleLogoutFilter()));
         return new FilterChainProxy(chains);
     }
 
     @Bean
-    public SavedRequestAwareAuthenticationSuccessHandler successRedirectHandler() {
-        SavedRequestAwareAuthenticationSuccessHandler successRedirectHandler = new SavedRequestAwareAuthenticationSuccessHandler();
+    public SimpleUrlAuthenticationSuccessHandler successRedirectHandler() {
+        // session store를 사용하는 경우는 SamlSecurityContextRepository에서 registry에 등록
+        SimpleUrlAuthenticationSuccessHandler successRedirectHandler = new SamlLoginSuccessHandler()
+                .sessionRegistry("http".equals(sessionStoreType) ? sessionRegistry() : null)
+                .relayStates(relayStates());
         successRedirectHandler.setDefaultTargetUrl("/main");
         return successRedirectHandler;
     }
 
+    /**
+     * IdP가 보낸 LogoutRequest 처리(/out)
+     */
+    @Bean
+    public SamlSingleLogoutFilter singleLogoutFilter() throws IOException, CertificateException {
+        return new SamlSingleLogoutFilter(SINGLE_LOGOUT_URL, entityId, ssoLogoutLocation)
+                .logoutUrl(sloUrl)
+                .idpEntityId(idpEntityId)
+                .clockSkewSeconds(clockSkewSeconds)
+                .validMinutes(assertionValidMinutes)
+                .requireSignature(logoutRequireSignature)
+                .parserPool(parserPool())
+                .signatureCheck(signatureCheck())
+                .trustStore(trustStore())
+                .idpResolver(idpResolver())
+                .requestIdStore(logoutRequestIdStore())
+                .sessionRegistry(sessionRegistry())
+                .sessionToken("token".equals(sessionStoreType) ? sessionToken() : null)
+                .remoteSessionStore("remote".equals(sessionStoreType) ? (RemoteSessionStore) sessionStore() : null)
+                .redirectEncoder(redirectEncoder())
+                .diagnostics(diagnostics());
+    }
+
+    /**
+     * IdP SessionIndex/NameID -> 로그인 session index, HttpSession 만료 시 listener로 정리
+     */
+    @Bean
+    public SamlSessionRegistry sessionRegistry() {
+        return new SamlSessionRegistry();
+    }
+
     @Bean
     public SamlAssertionConsumeFilter samlFilter() throws Exception {
         SamlAssertionConsumeFilter samlFilter = new SamlAssertionConsumeFilter(acs);
-        samlFilter.samlContextProvider(samlContextProvider());
+        samlFilter.samlContextProvider(samlContextProvider())
+                .messageIngester(messageIngester())
+                .acsExecutor(acsAsyncEnabled ? acsExecutor() : null)
+                .maxQueueWait(acsAsyncMaxQueueWait, TimeUnit.MILLISECONDS)
+                .timeout(acsAsyncTimeout, TimeUnit.MILLISECONDS)
+                .retryAfterSeconds(acsAsyncRetryAfter)
+                .metrics(samlMetrics());
         samlFilter.setAuthenticationManager(authenticationManagerBean());
+        // async 처리 시 executor thread에서 로그인 정보를 저장
+        samlFilter.setSecurityContextRepository(securityContextRepository());
         samlFilter.setAuthenticationSuccessHandler(successRedirectHandler());
         return samlFilter;
     }
 
+    /**
+     * async ACS(sp.acs_async.enabled) 검증 executor
+     */
+    @Lazy
+    @Bean(destroyMethod = "shutdown")
+    public SamlAcsExecutor acsExecutor() {
+        return new SamlAcsExecutor(acsAsyncThreads, acsAsyncQueueSize, acsAsyncVirtualThreads)
+                .metrics(samlMetrics());
+    }
+
+    @Bean
+    public SamlMessageIngester messageIngester() {
+        return new SamlMessageIngester()
+                .maxMessageBytes(acsMaxMessageBytes)
+                .maxElementDepth(acsMaxElementDepth);
+    }
+
     @Bean
     public SamlContextProvider samlContextProvider() {
         return new SamlContextProvider();
     }
 
     @Bean
-    public SamlSsoEntryPoint samlSsoEntryPoint() {
-        return new SamlSsoEntryPoint();
+    public SamlSsoEntryPoint samlSsoEntryPoint() throws IOException {
+        return new SamlSsoEntryPoint()
+                .requestIdStore(authnRequestIdStore())
+                .idpResolver(idpResolver())
+                .redirectEncoder(redirectEncoder())
+                .diagnostics(diagnostics())
+                .metrics(samlMetrics())
+                .relayStates(relayStates());
+    }
+
+    /**
+     * 로그인 후 이동할 url을 담는 RelayState, 서명 key(sp.relay_state.key, base64 32 bytes 이상)가 없으면 기동 시 임의 생성.
+     * node가 여러 개이면 같은 key를 설정해야 다른 node의 ACS에서도 확인 가능
+     */
+    @Bean
+    public SamlRelayState relayStates() {
+        return new SamlRelayState(StringUtils.hasText(relayStateKey) ? Base64.getDecoder().decode(relayStateKey.trim()) : null)
+                .ttl(relayStateTtl, TimeUnit.SECONDS)
+                .cacheSize(relayStateCacheSize);
+    }
+
+    /**
+     * HTTP Redirect binding url 생성(AuthnRequest, LogoutRequest, LogoutResponse), thread별 Deflater/buffer 재사용.
+     * sp.signing.key가 있으면 SigAlg, Signature 추가(서명 key는 기동 시 한번 읽음)
+     */
+    @Bean
+    public SamlRedirectEncoder redirectEncoder() throws IOException {
+        SamlRedirectEncoder encoder = new SamlRedirectEncoder();
+        if (StringUtils.hasText(signingKey)) {
+            encoder.signing(SamlRedirectEncoder.privateKey(new DefaultResourceLoader().getResource(signingKey.trim())),
+                    StringUtils.hasText(signingAlgorithm) ? signingAlgorithm.trim() : SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+            LOGGER.info("Sign redirect messages with [{}]", encoder.sigAlg());
+        }
+        return encoder;
+    }
+
+    /**
+     * 발급한 AuthnRequest ID 저장소
+     */
+    @Bean
+    public SamlMessageIdStore authnRequestIdStore() {
+        return messageIdStore("authnRequest", assertionValidMinutes, TimeUnit.MINUTES, replayRequestMaxEntries, true);
+    }
+
+    /**
+     * 사용한 Assertion ID 저장소, assertion 유효시간 + clock skew 동안 유지
+     */
+    @Bean
+    public SamlMessageIdStore assertionIdStore() {
+        long ttl = TimeUnit.MINUTES.toSeconds(assertionValidMinutes) + clockSkewSeconds;
+        return messageIdStore("assertion", ttl, TimeUnit.SECONDS, replayAssertionMaxEntries, false);
+    }
+
+    /**
+     * 처리한 IdP LogoutRequest ID 저장소
+     */
+    @Bean
+    public SamlMessageIdStore logoutRequestIdStore() {
+        long ttl = TimeUnit.MINUTES.toSeconds(assertionValidMinutes) + clockSkewSeconds;
+        return messageIdStore("logoutRequest", ttl, TimeUnit.SECONDS, replayAssertionMaxEntries, false);
+    }
+
+    /**
+     * SamlSessionBackend bean이 있으면 node 간 공유(다른 node가 보낸 AuthnRequest, 다른 node에서 사용한 Assertion 확인),
+     * 없으면 process 내부 저장소, 가득 차면 evictWhenFull(AuthnRequest ID)은 오래된 id를 버리고 아니면 새 id 거부
+     */
+    private SamlMessageIdStore messageIdStore(String name, long ttl, TimeUnit unit, int maxEntries, boolean evictWhenFull) {
+        if (sessionBackend != null) {
+            return new RemoteMessageIdStore(sessionBackend, name, ttl, unit);
+        }
+        return new TimeBucketedMessageIdStore(name, ttl, unit, replayBuckets, maxEntries, evictWhenFull);
+    }
+
+    @Bean
+    public AuthenticationProvider authenticationProvider() throws IOException, CertificateException {
+        return new SamlAuthenticationProvider()
+                .assertionConsumer(assertionConsumer())
+                .parserPool(parserPool())
+                .authorityMapper(authorityMapper())
+                .metrics(samlMetrics());
+    }
+
+    /**
+     * IdP group(attribute mapping의 authorities) -> role, role hierarchy는 기동 시 펼쳐서 로그인마다 table 조회만 함
+     * 여러 IdP(registry)를 사용하면 sp.authority.idp_roles에 IdP별로 허용한 role만 줌
+     */
+    @Bean
+    public SamlAuthorityMapper authorityMapper() {
+        SamlAuthorityMapper mapper = SamlAuthorityMapper.compile(authorityDefaultRoles, authorityGroupRoles,
+                authorityHierarchy, idpResolver() == null ? null : authorityIdpRoles, authorityPassUnmappedGroups);
+        LOGGER.info("Authority mapping groups[{}] IdP allow-lists[{}] pass unmapped groups[{}]", mapper.groupCount(),
+                mapper.idpCount(), authorityPassUnmappedGroups);
+        return mapper;
+    }
+
+    @Bean
+    public SimpleSamlAssertionConsumer assertionConsumer() throws IOException, CertificateException {
+        return new SimpleSamlAssertionConsumer()
+                .attributeMapping(SamlAttributeMapping.compile(StringUtils.hasText(attributeMapping)
+                        ? attributeMapping : SamlAttributeMapping.DEFAULT_RULES))
+                .validationPipeline(validationPipeline())
+                .diagnostics(diagnostics())
+                .metrics(samlMetrics());
+    }
+
+    /**
+     * SAML response 검증 항목, cost가 낮은 순서로 실행(서명 검증은 마지막)
+     */
+    @Bean
+    public SamlValidationPipeline validationPipeline() throws IOException, CertificateException {
+        return new SamlValidationPipeline()
+                .add(new SamlResponseChecks.StatusCheck())
+                .add(new SamlResponseChecks.IssuerCheck(idpEntityId, idpResolver()))
+                .add(new SamlResponseChecks.DestinationCheck(acsUrl, acs))
+                .add(new SamlResponseChecks.AudienceCheck(entityId))
+                .add(new SamlResponseChecks.ConditionsTimeCheck(clockSkewSeconds))
+                .add(new SamlResponseChecks.AuthnInstantCheck(assertionValidMinutes, clockSkewSeconds))
+                .add(SamlReplayCheck.lookup(authnRequestIdStore(), assertionIdStore(), allowUnsolicited))
+                .add(SamlReplayCheck.commit(authnRequestIdStore(), assertionIdStore(), allowUnsolicited))
+                .add(signatureCheck())
+                .metrics(samlMetrics());
+    }
+
+    /**
+     * assertion이 여러 개인 응답의 서명은 ForkJoinPool에서 병렬 검증, parallelism이 0이면 common pool 사용
+     */
+    @Bean(destroyMethod = "shutdown")
+    public SamlSignatureCheck signatureCheck() throws IOException, CertificateException {
+        return new SamlSignatureCheck()
+                .credentialCache(credentialCache())
+                .trustKeyInfoCertificate(trustKeyInfoCertificate)
+                .trustStore(trustStore())
+                .idpResolver(idpResolver())
+                .verificationPool(signatureParallelism > 0 ? new ForkJoinPool(signatureParallelism) : ForkJoinPool.commonPool());
     }
 
+    /**
+     * sp.idp_certificates에 등록한 IdP 서명 인증서(PEM/DER 또는 metadata xml)를 기동 시 한번 로딩
+     */
     @Bean
-    public AuthenticationProvider authenticationProvider() {
-        return new SamlAuthenticationProvider().assertionConsumer(assertionConsumer());
+    public SamlTrustStore trustStore() throws IOException, CertificateException {
+        SamlTrustStore trustStore = new SamlTrustStore();
+        ResourceLoader resourceLoader = new DefaultResourceLoader();
+        for (String location : idpCertificates) {
+            if (StringUtils.hasText(location)) {
+                trustStore.load(resourceLoader.getResource(location.trim()));
+            }
+        }
+        if (trustStore.isEmpty() && idpResolver() == null) {
+            if (trustKeyInfoCertificate) {
+                LOGGER.warn("No IdP certificate configured(sp.idp_certificates), sp.trust_keyinfo_certificate trusts any signer");
+            } else {
+                LOGGER.error("No IdP certificate configured(sp.idp_certificates, sp.idp.metadata), every signed message is rejected");
+            }
+        }
+        return trustStore;
+    }
+
+    /**
+     * sp.idp.metadata의 IdP metadata로 만든 entityID별 IdP registry, 파일이 바뀌면 sp.idp.reload_seconds 주기로 다시 로딩
+     */
+    @Lazy
+    @Bean(initMethod = "load", destroyMethod = "close")
+    public SamlIdpRegistry idpRegistry() {
+        List<String> locations = new ArrayList<>();
+        for (String location : idpMetadata) {
+            if (StringUtils.hasText(location)) {
+                locations.add(location.trim());
+            }
+        }
+        // metadata unmarshalling에 OpenSAML 설정이 필요, 별도 thread의 bootstrap 완료 대기
+        OpenSamlBootstrap.await();
+        return new SamlIdpRegistry(entityId, parserPool(), locations)
+                .aggregate(StringUtils.hasText(idpAggregateMetadata) ? idpAggregate() : null)
+                .reloadInterval(idpReloadSeconds);
+    }
+
+    /**
+     * federation metadata aggregate(sp.idp.aggregate.metadata), entityID index 파일을 만들어 필요한 IdP만 unmarshalling
+     */
+    private SamlMetadataAggregate idpAggregate() {
+        Path metadata = Paths.get(idpAggregateMetadata.trim());
+        Path index = StringUtils.hasText(idpAggregateIndex) ? Paths.get(idpAggregateIndex.trim())
+                : metadata.resolveSibling(metadata.getFileName() + ".idx");
+        List<String> certificates = new ArrayList<>();
+        for (String location : idpAggregateCertificates) {
+            if (StringUtils.hasText(location)) {
+                certificates.add(location.trim());
+            }
+        }
+        return new SamlMetadataAggregate(entityId, parserPool(), metadata, index)
+                .signingCertificates(certificates)
+                .cacheSize(idpAggregateCacheSize);
+    }
+
+    /**
+     * sp.idp.metadata, sp.idp.aggregate.metadata가 없으면 null(sp.idp_certificates, sp.single_sign_on_service_location 단일 IdP 설정 사용)
+     */
+    private SamlIdpResolver idpResolver() {
+        if (StringUtils.hasText(idpAggregateMetadata)) {
+            return idpRegistry();
+        }
+        for (String location : idpMetadata) {
+            if (StringUtils.hasText(location)) {
+                return idpRegistry();
+            }
+        }
+        return null;
     }
 
     @Bean
-    public SimpleSamlAssertionConsumer assertionConsumer() {
-        return new SimpleSamlAssertionConsumer();
+    public SamlCredentialCache credentialCache() {
+        return new SamlCredentialCache()
+                .maxSize(credentialCacheMaxSize)
+                .ttl(credentialCacheTtl, TimeUnit.SECONDS);
     }
 
     /**
@@ -119,12 +620,130 @@ public class WebSecurityConfigurer extends WebSecurityConfigurerAdapter {
      * 이유 : @Value가 bean factory annotaion이기 때문, bean 생성될 때 field 주입 해줌.
      */
     @Bean
-    public SamlLogoutHandler samlLogoutHandler() {
-        return new SamlLogoutHandler();
+    public SamlLogoutHandler samlLogoutHandler() throws IOException {
+        return new SamlLogoutHandler()
+                .idpResolver(idpResolver())
+                .redirectEncoder(redirectEncoder())
+                .diagnostics(diagnostics())
+                .metrics(samlMetrics());
+    }
+
+    /**
+     * 단계별 시간, 실패 수(sp.metrics.enabled), actuator /actuator/prometheus로 노출
+     * 꺼져 있거나 MeterRegistry가 없으면 측정하지 않는 instance
+     */
+    @Bean
+    public SamlMetrics samlMetrics() {
+        if (!metricsEnabled || meterRegistry == null) {
+            return SamlMetrics.disabled();
+        }
+        SamlMetrics metrics = new SamlMetrics(meterRegistry, metricsHistogram)
+                .gauge("saml.parser.pool.in.use", parserPool(), SamlParserPool::inUse)
+                .gauge("saml.session.registry.size", sessionRegistry(), SamlSessionRegistry::size)
+                .gauge("saml.authorities.interned", SamlAuthorities.class, c -> SamlAuthorities.interned())
+                .gauge("saml.session.bytes.average", SamlSessionCodec.class, c -> SamlSessionCodec.averageSessionBytes())
+                .gauge("saml.session.bytes.max", SamlSessionCodec.class, c -> SamlSessionCodec.maxSessionBytes());
+        if (idpResolver() != null) {
+            metrics.gauge("saml.idp.registry.size", idpRegistry(), SamlIdpRegistry::size);
+        }
+        if ("token".equals(sessionStoreType)) {
+            metrics.gauge("saml.session.token.revocations", sessionToken(), SamlSessionToken::revocations);
+        }
+        return metrics;
+    }
+
+    /**
+     * SAML message 진단용 capture(화면의 SP AuthnRequest, IDP Response)
+     */
+    @Bean
+    public SamlDiagnostics diagnostics() {
+        return new SamlDiagnostics()
+                .enabled(diagnosticsEnabled)
+                .sampleRate(diagnosticsSampleRate)
+                .maxEntries(diagnosticsMaxEntries)
+                .maxChars(diagnosticsMaxChars);
+    }
+
+    /**
+     * 로그인 정보 저장 위치(sp.session.store)
+     * http : HttpSession(node 별 저장, sticky session 필요)
+     * mmap, remote : {@link SamlSessionStore}
+     * token : 서버 저장 없이 cookie의 암호화 token({@link SamlSessionToken})
+     */
+    @Bean
+    public SecurityContextRepository securityContextRepository() throws IOException {
+        if ("http".equals(sessionStoreType)) {
+            return new HttpSessionSecurityContextRepository();
+        }
+        if ("token".equals(sessionStoreType)) {
+            return new SamlTokenSecurityContextRepository(sessionToken())
+                    .cookieName(sessionTokenCookieName)
+                    .metrics(samlMetrics());
+        }
+        return new SamlSecurityContextRepository(sessionStore())
+                .cookieName(sessionCookieName)
+                .sessionRegistry(sessionRegistry(), sessionTtl, TimeUnit.SECONDS)
+                .metrics(samlMetrics());
+    }
+
+    /**
+     * mmap : 로컬 memory mapped file(재기동 후에도 유지)
+     * remote : 공유 저장소, SamlSessionBackend bean이 없으면 process 내부 InMemorySessionBackend 사용
+     */
+    @Lazy
+    @Bean(destroyMethod = "close")
+    public SamlSessionStore sessionStore() throws IOException {
+        switch (sessionStoreType) {
+            case "mmap":
+                return new MappedFileSessionStore(Paths.get(sessionFilePath), sessionFileSlots, sessionFileSlotSize,
+                        sessionTtl, TimeUnit.SECONDS);
+            case "remote":
+                if (sessionBackend == null) {
+                    LOGGER.warn("No SamlSessionBackend bean, sessions are stored in this process only");
+                }
+                return new RemoteSessionStore(sessionBackend != null ? sessionBackend : new InMemorySessionBackend())
+                        .ttl(sessionTtl, TimeUnit.SECONDS)
+                        .batchSize(sessionBatchSize)
+                        .flushInterval(sessionFlushMillis, TimeUnit.MILLISECONDS)
+                        .nearCacheSize(sessionNearCacheSize)
+                        .nearCacheTtl(sessionNearCacheTtl, TimeUnit.SECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown sp.session.store : " + sessionStoreType);
+        }
+    }
+
+    /**
+     * sp.session.store가 token인 경우 로그인 token 암호화 key(sp.session.token.keys, base64 AES key 콤마 구분).
+     * 첫 번째 key로 발급, 나머지는 이전 key로 발급된 token 확인용. 새 key를 앞에 추가하고 ttl이 지나면 이전 key 제거
+     */
+    @Lazy
+    @Bean
+    public SamlSessionToken sessionToken() {
+        List<byte[]> keys = new ArrayList<>();
+        for (String key : StringUtils.commaDelimitedListToStringArray(sessionTokenKeys)) {
+            if (StringUtils.hasText(key)) {
+                keys.add(Base64.getDecoder().decode(key.trim()));
+            }
+        }
+        if (keys.isEmpty()) {
+            LOGGER.warn("No sp.session.token.keys, session tokens are valid on this node until restart only");
+        }
+        if (sessionBackend == null) {
+            LOGGER.warn("No SamlSessionBackend bean, revoked session tokens stay valid on other nodes until they expire");
+        }
+        return new SamlSessionToken(keys)
+                .ttl(sessionTtl, TimeUnit.SECONDS)
+                .maxRevocations(sessionTokenMaxRevocations)
+                .backend(sessionBackend)
+                .revocationCacheSize(sessionTokenRevocationCacheSize)
+                .revocationCacheTtl(sessionTokenRevocationCacheTtl, TimeUnit.SECONDS);
     }
 
     @Bean(initMethod = "initialize")
-    public ParserPool parserPool() {
-        return new StaticBasicParserPool();
+    public SamlParserPool parserPool() {
+        return new SamlParserPool()
+                .maxPoolSize(parserPoolMaxSize)
+                .secureProcessing(parserPoolSecureProcessing)
+                .builderFeatures(parserPoolBuilderFeatures);
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package saml.sample.sp;
+
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link SamlAuthnRequestTemplate}이 만든 redirect url이 OpenSAML object + {@link HTTPRedirectDeflateEncoder} 결과와 같은지 확인.
+ * XML escape가 필요한 entity id, ACS url 포함
+ */
+class SamlAuthnRequestTemplateTest {
+
+    @BeforeAll
+    static void bootstrap() {
+        OpenSamlBootstrap.start();
+        OpenSamlBootstrap.await();
+    }
+
+    static Stream<Arguments> requests() {
+        return Stream.of(
+                Arguments.of("saml-sample", "http://localhost:9107/sso", "http://localhost:9106/acs"),
+                Arguments.of("saml-sample", "https://idp.example.com:8443/sso/saml2?tenant=a&lang=ko",
+                        "https://sp.example.com/acs"),
+                Arguments.of("urn:sp:a&b<c>\"d\"", "https://idp.example.com/sso?x=\"1\"&y=<2>",
+                        "https://sp.example.com/acs?from=a&to=<b>&q=\"c\""));
+    }
+
+    @ParameterizedTest
+    @MethodSource("requests")
+    void redirectUrlEqualsEncoder(String entityId, String destination, String acsUrl) throws Exception {
+        SamlSsoEntryPoint entryPoint = new SamlSsoEntryPoint();
+        ReflectionTestUtils.setField(entryPoint, "entityId", entityId);
+        ReflectionTestUtils.setField(entryPoint, "ssoSignOnLocation", destination);
+        SamlAuthnRequestTemplate template = new SamlAuthnRequestTemplate(entityId, destination,
+                SAMLConstants.SAML2_REDIRECT_BINDING_URI, true);
+
+        String id = "_" + UUID.randomUUID();
+        DateTime issueInstant = new DateTime();
+        String xml = template.build(acsUrl, id, issueInstant);
+        String expected = encoderRedirect(entryPoint, entityId, acsUrl, id, issueInstant);
+        String actual = new SamlRedirectEncoder().redirectUrl(template.redirectBaseUrl(),
+                SamlRedirectEncoder.SAML_REQUEST, xml, null);
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(inflate(samlRequest(expected))).isEqualTo(xml);
+    }
+
+    @Test
+    void escapesEntityIdAndAcsUrl() {
+        SamlAuthnRequestTemplate template = new SamlAuthnRequestTemplate("urn:sp:a&b<c>\"d\"",
+                "https://idp.example.com/sso", SAMLConstants.SAML2_REDIRECT_BINDING_URI, true);
+
+        String xml = template.build("https://sp.example.com/acs?from=a&to=<b>&q=\"c\"", "_1", new DateTime());
+
+        assertThat(xml)
+                .contains(" AssertionConsumerServiceURL=\"https://sp.example.com/acs?from=a&amp;to=&lt;b&gt;&amp;q=&quot;c&quot;\"")
+                .contains(">urn:sp:a&amp;b&lt;c&gt;\"d\"</saml2:Issuer>");
+    }
+
+    private static String encoderRedirect(SamlSsoEntryPoint entryPoint, String entityId, String acsUrl, String id,
+                                          DateTime issueInstant) throws MessageEncodingException {
+        AuthnRequest authnRequest = entryPoint.buildAuthnRequest(acsUrl, SAMLConstants.SAML2_REDIRECT_BINDING_URI,
+                entryPoint.buildIssuer(entityId), id, issueInstant);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        BasicSAMLMessageContext<SAMLObject, AuthnRequest, SAMLObject> context = new BasicSAMLMessageContext<>();
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, false));
+        context.setPeerEntityEndpoint(entryPoint.getIDPEndpoint());
+        context.setOutboundSAMLMessage(authnRequest);
+        new HTTPRedirectDeflateEncoder().encode(context);
+        return response.getRedirectedUrl();
+    }
+
+    private static String samlRequest(String redirectUrl) {
+        String value = UriComponentsBuilder.fromUriString(redirectUrl).build()
+                .getQueryParams().getFirst(SamlRedirectEncoder.SAML_REQUEST);
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String inflate(String base64) throws Exception {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(Base64.getDecoder().decode(base64));
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!inflater.finished() && !inflater.needsInput()) {
+            xml.write(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+        return xml.toString(StandardCharsets.UTF_8);
+    }
+}
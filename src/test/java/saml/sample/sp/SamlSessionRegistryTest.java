@@ -0,0 +1,125 @@
+package saml.sample.sp;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Subject;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * IdP LogoutRequest의 SessionIndex(AuthnStatement@SessionIndex, assertion ID와 다름)/NameID로 session을 찾는지,
+ * 다른 IdP의 요청은 같은 값이어도 session을 만료시키지 않는지 확인
+ */
+class SamlSessionRegistryTest {
+
+    private static final String IDP_A = "https://idp-a.example.com/idp";
+    private static final String IDP_B = "https://idp-b.example.com/idp";
+
+    @BeforeAll
+    static void bootstrap() {
+        OpenSamlBootstrap.start();
+        OpenSamlBootstrap.await();
+    }
+
+    @Test
+    void logoutBySessionIndexOfAuthnStatement() {
+        SamlPrincipal principal = login(IDP_A, "_assertion-1", "_idp-session-1", "user1");
+        assertThat(principal.getSessionIndex()).isEqualTo("_idp-session-1");
+
+        SamlSessionRegistry registry = new SamlSessionRegistry();
+        AtomicInteger invalidated = new AtomicInteger();
+        registry.register("session-1", principal, Long.MAX_VALUE, invalidated::incrementAndGet);
+
+        // assertion ID는 SessionIndex가 아님
+        assertThat(registry.logout(IDP_A, "user1", List.of("_assertion-1"))).isZero();
+        assertThat(registry.logout(IDP_A, "user1", List.of("_idp-session-1"))).isEqualTo(1);
+        assertThat(invalidated).hasValue(1);
+        assertThat(registry.size()).isZero();
+        assertThat(registry.indexSize()).isZero();
+    }
+
+    @Test
+    void logoutByNameIdWithoutSessionIndex() {
+        SamlSessionRegistry registry = new SamlSessionRegistry();
+        AtomicInteger invalidated = new AtomicInteger();
+        registry.register("session-1", login(IDP_A, "_a1", "_s1", "user1"), Long.MAX_VALUE, invalidated::incrementAndGet);
+        registry.register("session-2", login(IDP_A, "_a2", "_s2", "user1"), Long.MAX_VALUE, invalidated::incrementAndGet);
+        registry.register("session-3", login(IDP_A, "_a3", "_s3", "user2"), Long.MAX_VALUE, invalidated::incrementAndGet);
+
+        assertThat(registry.logout(IDP_A, "user1", List.of())).isEqualTo(2);
+        assertThat(invalidated).hasValue(2);
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    void otherIdpCannotLogoutSameSessionIndexOrNameId() {
+        SamlSessionRegistry registry = new SamlSessionRegistry();
+        AtomicInteger invalidated = new AtomicInteger();
+        registry.register("session-a", login(IDP_A, "_a1", "_shared", "user1"), Long.MAX_VALUE, invalidated::incrementAndGet);
+
+        assertThat(registry.logout(IDP_B, "user1", List.of("_shared"))).isZero();
+        assertThat(registry.logout(IDP_B, "user1", List.of())).isZero();
+        assertThat(invalidated).hasValue(0);
+
+        assertThat(registry.logout(IDP_A, "user1", List.of("_shared"))).isEqualTo(1);
+    }
+
+    @Test
+    void sessionIndexWithOtherNameIdIsKept() {
+        SamlSessionRegistry registry = new SamlSessionRegistry();
+        registry.register("session-1", login(IDP_A, "_a1", "_s1", "user1"), Long.MAX_VALUE, () -> { });
+
+        assertThat(registry.logout(IDP_A, "user2", List.of("_s1"))).isZero();
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    void sessionIndexSurvivesSessionCodec() throws Exception {
+        SamlPrincipal principal = login(IDP_A, "_a1", "_s1", "user1");
+        SamlPrincipal decoded = SamlSessionCodec.decode(SamlSessionCodec.encode(principal));
+        assertThat(decoded).isEqualTo(principal);
+        assertThat(decoded.getSessionIndex()).isEqualTo("_s1");
+    }
+
+    /**
+     * AuthnStatement에 SessionIndex가 있는 응답을 consumer로 처리해서 만든 principal
+     */
+    private static SamlPrincipal login(String idp, String assertionId, String sessionIndex, String nameIdValue) {
+        Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(idp);
+        response.setIssuer(issuer);
+
+        Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID(assertionId);
+        Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        NameID nameId = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setValue(nameIdValue);
+        subject.setNameID(nameId);
+        assertion.setSubject(subject);
+        AuthnStatement authnStatement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setSessionIndex(sessionIndex);
+        assertion.getAuthnStatements().add(authnStatement);
+        response.getAssertions().add(assertion);
+
+        SamlUserDetails userDetails = (SamlUserDetails) new SimpleSamlAssertionConsumer()
+                .validationPipeline(new SamlValidationPipeline())
+                .consume(response);
+        return SamlPrincipal.of(userDetails, List.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T build(QName qName) {
+        return (T) Configuration.getBuilderFactory().getBuilder(qName).buildObject(qName);
+    }
+}
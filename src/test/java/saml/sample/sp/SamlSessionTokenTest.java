@@ -0,0 +1,165 @@
+package saml.sample.sp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * token 발급/확인(변조, key rotation, 만료), IdP logout/로컬 logout 취소(IdP별 구분),
+ * {@link SamlSessionBackend}로 공유한 취소 목록과 node 별 조회 cache 확인
+ */
+class SamlSessionTokenTest {
+
+    private static final String IDP_A = "https://idp-a.example.com/idp";
+    private static final String IDP_B = "https://idp-b.example.com/idp";
+
+    private static final byte[] KEY = key(1);
+    private static final byte[] OLD_KEY = key(2);
+
+    @Test
+    void issuedTokenIsVerified() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        SamlPrincipal principal = principal(IDP_A, "_s1", "user1");
+
+        SamlPrincipal verified = sessionToken.verify(sessionToken.issue(principal));
+        assertThat(verified).isEqualTo(principal);
+        assertThat(verified.getSessionIndex()).isEqualTo("_s1");
+        assertThat(verified.getIdpEntityId()).isEqualTo(IDP_A);
+    }
+
+    @Test
+    void tamperedOrUnknownKeyTokenIsRejected() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        String token = sessionToken.issue(principal(IDP_A, "_s1", "user1"));
+
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        bytes[bytes.length - 20] ^= 1;
+        assertThat(sessionToken.verify(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes))).isNull();
+        assertThat(sessionToken.verify("not a token")).isNull();
+        assertThat(new SamlSessionToken(List.of(OLD_KEY)).verify(token)).isNull();
+    }
+
+    @Test
+    void tokenOfPreviousKeyIsVerifiedAfterRotation() {
+        SamlPrincipal principal = principal(IDP_A, "_s1", "user1");
+        String token = new SamlSessionToken(List.of(OLD_KEY)).issue(principal);
+
+        assertThat(new SamlSessionToken(List.of(KEY, OLD_KEY)).verify(token)).isEqualTo(principal);
+    }
+
+    @Test
+    void expiredTokenIsRejected() throws InterruptedException {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY)).ttl(1, TimeUnit.MILLISECONDS);
+        String token = sessionToken.issue(principal(IDP_A, "_s1", "user1"));
+
+        // issuedAt은 초 단위
+        Thread.sleep(1100);
+        assertThat(sessionToken.verify(token)).isNull();
+    }
+
+    @Test
+    void revokeBySessionIndex() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        String revoked = sessionToken.issue(principal(IDP_A, "_s1", "user1"));
+        String other = sessionToken.issue(principal(IDP_A, "_s2", "user1"));
+
+        // 다른 NameID의 SessionIndex 요청은 무시
+        sessionToken.revoke(IDP_A, "user2", List.of("_s1"));
+        assertThat(sessionToken.verify(revoked)).isNotNull();
+
+        sessionToken.revoke(IDP_A, "user1", List.of("_s1"));
+        assertThat(sessionToken.verify(revoked)).isNull();
+        assertThat(sessionToken.verify(other)).isNotNull();
+    }
+
+    @Test
+    void revokeByNameIdRevokesTokensIssuedBefore() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        String first = sessionToken.issue(principal(IDP_A, "_s1", "user1"));
+        String second = sessionToken.issue(principal(IDP_A, null, "user1"));
+        String otherUser = sessionToken.issue(principal(IDP_A, "_s3", "user2"));
+
+        sessionToken.revoke(IDP_A, "user1", List.of());
+        assertThat(sessionToken.verify(first)).isNull();
+        assertThat(sessionToken.verify(second)).isNull();
+        assertThat(sessionToken.verify(otherUser)).isNotNull();
+    }
+
+    @Test
+    void localLogoutRevokesToken() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        SamlPrincipal principal = principal(IDP_A, "_s1", "user1");
+        String token = sessionToken.issue(principal);
+
+        sessionToken.revoke(principal);
+        assertThat(sessionToken.verify(token)).isNull();
+    }
+
+    @Test
+    void otherIdpCannotRevokeSameSessionIndexOrNameId() {
+        SamlSessionToken sessionToken = new SamlSessionToken(List.of(KEY));
+        String token = sessionToken.issue(principal(IDP_A, "_shared", "user1"));
+
+        sessionToken.revoke(IDP_B, "user1", List.of("_shared"));
+        sessionToken.revoke(IDP_B, "user1", List.of());
+        assertThat(sessionToken.verify(token)).isNotNull();
+
+        sessionToken.revoke(IDP_A, "user1", List.of("_shared"));
+        assertThat(sessionToken.verify(token)).isNull();
+    }
+
+    @Test
+    void revocationIsSharedThroughBackend() {
+        InMemorySessionBackend backend = new InMemorySessionBackend();
+        SamlSessionToken node1 = new SamlSessionToken(List.of(KEY)).backend(backend).revocationCacheSize(0);
+        SamlSessionToken node2 = new SamlSessionToken(List.of(KEY)).backend(backend).revocationCacheSize(0);
+        String token = node1.issue(principal(IDP_A, "_s1", "user1"));
+        String otherIdp = node1.issue(principal(IDP_B, "_s1", "user1"));
+
+        node1.revoke(IDP_A, "user1", List.of("_s1"));
+        assertThat(node2.verify(token)).isNull();
+        assertThat(node2.verify(otherIdp)).isNotNull();
+        assertThat(node1.revocations()).isZero();
+    }
+
+    @Test
+    void revocationCacheAvoidsBackendLookups() throws InterruptedException {
+        InMemorySessionBackend backend = new InMemorySessionBackend();
+        SamlSessionToken node1 = new SamlSessionToken(List.of(KEY)).backend(backend)
+                .revocationCacheTtl(200, TimeUnit.MILLISECONDS);
+        SamlSessionToken node2 = new SamlSessionToken(List.of(KEY)).backend(backend)
+                .revocationCacheTtl(200, TimeUnit.MILLISECONDS);
+        String token = node1.issue(principal(IDP_A, "_s1", "user1"));
+
+        assertThat(node2.verify(token)).isNotNull();
+        long getCalls = backend.getCalls();
+        assertThat(node2.verify(token)).isNotNull();
+        assertThat(backend.getCalls()).isEqualTo(getCalls);
+
+        // logout 한 node는 바로 반영, 다른 node는 cache ttl 후 반영
+        assertThat(node1.verify(token)).isNotNull();
+        node1.revoke(IDP_A, "user1", List.of("_s1"));
+        assertThat(node1.verify(token)).isNull();
+        assertThat(node2.verify(token)).isNotNull();
+
+        Thread.sleep(250);
+        assertThat(node2.verify(token)).isNull();
+    }
+
+    private static SamlPrincipal principal(String idp, String sessionIndex, String nameId) {
+        return new SamlPrincipal(nameId, nameId + "@example.com", nameId, nameId, null, sessionIndex, nameId, idp,
+                SamlAuthorities.of(List.of("ROLE_USER")));
+    }
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        return key;
+    }
+}
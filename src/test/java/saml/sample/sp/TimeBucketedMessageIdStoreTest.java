@@ -0,0 +1,181 @@
+package saml.sample.sp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 중복 판정, bucket 만료(rollover), 최대 개수(Assertion ID 저장소는 거부, AuthnRequest ID 저장소는 오래된 bucket 제거),
+ * 동시 저장 시 같은 id는 한 번만 저장되고 최대 개수를 넘지 않는지 확인
+ */
+class TimeBucketedMessageIdStoreTest {
+
+    private static final long BUCKET_MILLIS = 100;
+    private static final int BUCKETS = 3;
+
+    @Test
+    void duplicateIdIsRejected() {
+        TimeBucketedMessageIdStore store = store(10, false);
+
+        assertThat(store.add("_a")).isTrue();
+        assertThat(store.add("_a")).isFalse();
+        assertThat(store.contains("_a")).isTrue();
+
+        assertThat(store.remove("_a")).isTrue();
+        assertThat(store.contains("_a")).isFalse();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void idIsKeptForTtlAndExpiresAfterRollover() throws InterruptedException {
+        TimeBucketedMessageIdStore store = store(10, false);
+        assertThat(store.add("_a")).isTrue();
+
+        // 다음 구간에서도 중복
+        sleepBuckets(1);
+        assertThat(store.add("_a")).isFalse();
+        assertThat(store.contains("_a")).isTrue();
+
+        // ttl + bucket 구간이 지나면 만료
+        sleepBuckets(BUCKETS + 1);
+        assertThat(store.contains("_a")).isFalse();
+        assertThat(store.add("_a")).isTrue();
+    }
+
+    @Test
+    void assertionStoreRejectsWhenFull() throws InterruptedException {
+        TimeBucketedMessageIdStore store = store(2, false);
+        assertThat(store.add("_a")).isTrue();
+        sleepBuckets(1);
+        assertThat(store.add("_b")).isTrue();
+
+        // 살아있는 bucket은 버리지 않고 새 id를 거부, 이미 사용한 id는 계속 중복
+        assertThat(store.add("_c")).isFalse();
+        assertThat(store.contains("_a")).isTrue();
+        assertThat(store.add("_a")).isFalse();
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void assertionStoreAcceptsAgainAfterBucketsExpire() throws InterruptedException {
+        TimeBucketedMessageIdStore store = store(2, false);
+        assertThat(store.add("_a")).isTrue();
+        assertThat(store.add("_b")).isTrue();
+        assertThat(store.add("_c")).isFalse();
+
+        sleepBuckets(BUCKETS + 2);
+        assertThat(store.add("_c")).isTrue();
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void requestStoreEvictsOldestBucketWhenFull() throws InterruptedException {
+        TimeBucketedMessageIdStore store = store(2, true);
+        assertThat(store.add("_a")).isTrue();
+        sleepBuckets(1);
+        assertThat(store.add("_b")).isTrue();
+
+        assertThat(store.add("_c")).isTrue();
+        assertThat(store.contains("_a")).isFalse();
+        assertThat(store.contains("_b")).isTrue();
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void requestStoreRejectsWhenCurrentBucketIsFull() {
+        TimeBucketedMessageIdStore store = store(2, true);
+        assertThat(store.add("_a")).isTrue();
+        assertThat(store.add("_b")).isTrue();
+
+        assertThat(store.add("_c")).isFalse();
+        assertThat(store.contains("_a")).isTrue();
+    }
+
+    @Test
+    void concurrentAddOfSameIdSucceedsOnce() throws Exception {
+        TimeBucketedMessageIdStore store = new TimeBucketedMessageIdStore("test", 1, TimeUnit.MINUTES, 12, 100_000, false);
+        int threads = 8;
+        int ids = 1000;
+        AtomicInteger added = new AtomicInteger();
+        runConcurrently(threads, () -> {
+            for (int i = 0; i < ids; i++) {
+                if (store.add("_id" + i)) {
+                    added.incrementAndGet();
+                }
+            }
+        });
+
+        assertThat(added).hasValue(ids);
+        assertThat(store.size()).isEqualTo(ids);
+    }
+
+    @Test
+    void concurrentAddDoesNotExceedMaxEntries() throws Exception {
+        int maxEntries = 500;
+        TimeBucketedMessageIdStore store = new TimeBucketedMessageIdStore("test", 1, TimeUnit.MINUTES, 12, maxEntries, false);
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger thread = new AtomicInteger();
+        runConcurrently(8, () -> {
+            int id = thread.getAndIncrement();
+            for (int i = 0; i < 200; i++) {
+                if (store.add("_t" + id + "_" + i)) {
+                    added.incrementAndGet();
+                }
+            }
+        });
+
+        assertThat(added).hasValue(maxEntries);
+        assertThat(store.size()).isEqualTo(maxEntries);
+    }
+
+    private static TimeBucketedMessageIdStore store(int maxEntries, boolean evictWhenFull) {
+        TimeBucketedMessageIdStore store = new TimeBucketedMessageIdStore("test", BUCKET_MILLIS * BUCKETS, TimeUnit.MILLISECONDS,
+                BUCKETS, maxEntries, evictWhenFull);
+        // 구간 시작 직후에 시작해서 test 중 예상하지 않은 구간 변경을 피함
+        long now = System.currentTimeMillis();
+        sleep(BUCKET_MILLIS - now % BUCKET_MILLIS + 5);
+        return store;
+    }
+
+    private static void sleepBuckets(int count) throws InterruptedException {
+        Thread.sleep(BUCKET_MILLIS * count);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void runConcurrently(int threads, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}